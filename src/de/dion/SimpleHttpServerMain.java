@@ -41,11 +41,41 @@ public class SimpleHttpServerMain {
     private static void doConfigStuff() {
     	Config programConfig = new Config("Program Settings", new ConfigEntry[] {
     			new ConfigEntry("Port", 80, false, "HTTP Port for the Website"),
+    			new ConfigEntry("Server-Engine", "jdk", true, "HTTP Engine: \"jdk\" = built-in com.sun.net.httpserver, \"nio\" = non-blocking NIO Engine\nnio holds many Keep-Alive Connections with only a few Threads"),
+    			new ConfigEntry("Executor-Mode", "auto", true, "How Requests are executed: \"auto\", \"virtual\" or \"platform\"\nvirtual = one Virtual Thread per Request (Java 21+), platform = fixed Threadpool with one Thread per CPU Core\nauto uses Virtual Threads if the JVM supports them"),
     			new ConfigEntry("Download-Buffersize", 2048, false, "Buffersize for transfering Data in KiB\nLass einfach die Finger davon"),
+    			new ConfigEntry("Threads-Pages", 8, false, "Threads for Folder Pages, Previews and the JSON API\nEvery Kind of Request has its own Threads, so big Downloads never slow down the Pages"),
+    			new ConfigEntry("Threads-Thumbnails", 8, false, "Threads that deliver Thumbnails (generating them is set with Thumbnail-Threads)"),
+    			new ConfigEntry("Threads-Downloads", 32, false, "Threads for single File Downloads and Video/Audio Streams = how many run at the same Time"),
+    			new ConfigEntry("Threads-Zip", 4, false, "How many \"Download all\" ZIPs are sent at the same Time"),
+    			new ConfigEntry("Threads-Uploads", 4, false, "How many Uploads are received at the same Time"),
+    			new ConfigEntry("Queue-Size", 200, false, "How many Requests of each Kind may wait for a free Thread\nWhen full, the Server answers \"503 busy, try again\" at once"),
+    			new ConfigEntry("Queue-Timeout", 10, false, "After how many Seconds a waiting Request is answered with \"503 busy, try again\""),
+    			new ConfigEntry("Client-Limit", 8, false, "How many Requests of each Kind one Client IP may have running or waiting at the same Time"),
+    			new ConfigEntry("Adaptive-Limits", true, false, "Run fewer Requests at the same Time when the Disk or Network gets slow (the Threads-* Values are the Maximum)\nThe rest waits or gets \"503 busy, try again\" instead of everything getting slow"),
+    			new ConfigEntry("Idle-Timeout", 15, false, "After how many Seconds a Keep-Alive Connection without a new Request is closed"),
+    			new ConfigEntry("Header-Timeout", 10, false, "How many Seconds a Client may take to send a Request Header (protects against Slowloris)"),
+    			new ConfigEntry("Write-Timeout", 30, false, "After how many Seconds without any Progress a Download to a stalled Client is aborted\n0 = never"),
+    			new ConfigEntry("Min-Throughput", 4, false, "Clients that receive slower than this many KiB/s over a longer Time are disconnected\n0 = never"),
+    			new ConfigEntry("Max-Connections-Per-IP", 32, false, "How many Connections one Client IP may open at the same Time (only Server-Engine \"nio\")\n0 = unlimited"),
+    			new ConfigEntry("Bandwidth-Total", 0, false, "Upload Limit of the Server for all Clients together in KiB/s, 0 = unlimited\nWhen the Limit is reached, Video Previews come first, then Thumbnails, Downloads and ZIPs last"),
+    			new ConfigEntry("Bandwidth-Per-Client", 0, false, "Limit per Client IP in KiB/s, 0 = unlimited\nBoth Limits can be changed while running with a POST to http://localhost/.bandwidth"),
+    			new ConfigEntry("Zip-Mode", "deflate", true, "How \"Download all\" ZIPs are built: \"deflate\" = compressed Stream, \"store\" = uncompressed\nstore sends the Size in advance and aborted Downloads can be resumed. Best for Media Folders"),
+    			new ConfigEntry("Zip-Threads", 0, false, "How many Threads compress \"Download all\" ZIPs in parallel\n0 = one Thread per CPU Core"),
+    			new ConfigEntry("Zip-Cache-Size", 0, false, "Size in MiB for finished deflate ZIPs kept in \".zipcache\", repeated Downloads are served directly from there\n0 = no Cache. Changed Folders are zipped again automatically"),
+    			new ConfigEntry("Zip-Cache-Prebuild", 0, false, "How many of the most requested Folders are zipped in advance while the Server is idle\n0 = off, needs Zip-Cache-Size"),
+    			new ConfigEntry("Zip-CPU-Budget", "medium", true, "How much CPU the deflate ZIP may use: \"off\", \"low\", \"medium\" or \"high\"\nAlready compressed Files (Videos, Pictures, Archives) are always stored without compression"),
+    			new ConfigEntry("Listing-Cache-Size", 16, false, "Memory in MiB for cached Directory Listings, big Folders (e.g. on Network Shares) are only read again after a Change\n0 = no Cache"),
+    			new ConfigEntry("Listing-Cache-Refresh", 60, false, "After how many Seconds a cached Listing is read again even without a reported Change\nNeeded for Network Shares which do not report Changes"),
+    			new ConfigEntry("Mime-Sniffing", true, false, "Detect the Type of Files without a known Extension from their first Bytes\n(the Result is cached per File)"),
+    			new ConfigEntry("Listing-Virtual-From", 2000, false, "From how many Entries a Folder Page loads its Rows in Pages while scrolling (search and sort on the Server)\nThe Rows come from the JSON API (?format=json / ?format=ndjson). 0 = always send the complete Page"),
     			new ConfigEntry("Filter-FileNames", false, false, "Should special characters be extracted from Filenames for Streaming?"),
     			new ConfigEntry("Preview-Media", true, false, "Should the Users be able to Play Videos and Stuff like that instead of only downloading?"),
     			new ConfigEntry("Show-VideoThumbnails", false, false, "Should Thumbnails be created for Videos on the listing Page?\nffmpeg required!"),
     			new ConfigEntry("Thumbnail-Scale", 640, false, "Default Resolution for the Thumbnails. Example: 640 = 640x360p\nHigher Resolutions take longer to generate."),
+    			new ConfigEntry("Thumbnail-Threads", 2, false, "How many Thumbnails are generated at the same Time in the Background\n0 = half of the CPU Cores"),
+    			new ConfigEntry("Thumbnail-Retry", 600, false, "After how many Seconds a Video whose Thumbnail failed is tried again"),
+    			new ConfigEntry("Thumbnail-Cache-Size", 512, false, "Disk space in MiB for generated Thumbnails (.thumbs)\nThe least recently used ones are removed when it is full"),
     			new ConfigEntry("Share-Folders", "", true, "Path to External folders to be shared on the Website. Subfolders are also shared!\nSeparete with ;"),
     			new ConfigEntry("Allow-Uploads", true, false, "Adds the Function to Upload files to the Server\nIf you Upload the same Filename again, it gets overwritten"),
     			new ConfigEntry("Upload-Dir", "Uploads", true, "If you Set this to \"DL\" the user can upload Files and sees them at the Downloads Page")
@@ -0,0 +1,489 @@
+package de.dion.httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Verteilt die Bandbreite fuer Dateien, ZIPs und Thumbnails.
+ *
+ * Jede Antwort ist ein {@link Flow} und holt sich vor jedem Block mit {@link Flow#acquire(long)} die Erlaubnis.
+ * Es gibt einen globalen Token-Bucket ({@link #getTotalRate()}) und einen je Client-IP ({@link #getClientRate()}).
+ * Wer als naechstes senden darf, entscheidet Weighted Fair Queuing (selbstgetaktet, SCFQ): jeder Block bekommt
+ * eine virtuelle Endzeit von Groesse / Gewicht, der wartende Block mit der kleinsten Endzeit ist dran.
+ * Das Gewicht kommt aus der {@link TrafficClass} und wird unter den Flows eines Clients in derselben Klasse
+ * geteilt. 8 parallele Range-Requests eines Clients bekommen zusammen also nicht mehr als ein einzelner
+ * Download eines anderen, und eine Vorschau laeuft vor einem ZIP.
+ *
+ * Ohne Limit (beide Raten 0) wird nur gezaehlt, die Reihenfolge bestimmt dann das Netz.
+ * Die Raten lassen sich zur Laufzeit aendern ({@link #setRates(long, long)}, Endpunkt /.bandwidth).
+ *
+ * Ausserdem werden zu langsame Clients getrennt ({@link #configureSlowClients(int, long)}), damit sie keinen
+ * Thread auf Dauer in transferTo oder write festhalten: haengt ein Block laenger als Write-Timeout plus die Zeit,
+ * die er bei der Mindestrate braucht, unterbricht ein Waechter den Thread. Und liegt die Rate ueber
+ * {@link #THROUGHPUT_WINDOW_SECONDS} Sekunden reiner Sendezeit unter der Mindestrate, bricht der Flow selbst ab.
+ * Wartezeiten auf Bandbreite oder auf das ZIP zaehlen dabei nicht mit.
+ */
+public final class BandwidthScheduler {
+
+	/** Gewichtung der Antworten, hoeher = mehr Anteil, wenn die Bandbreite knapp ist */
+	public enum TrafficClass {
+		/** ?raw=1 Streams der Vorschau (Video, Audio, Bilder) */
+		PREVIEW(8),
+		THUMBNAIL(4),
+		/** einzelne Datei als Download */
+		DOWNLOAD(2),
+		ZIP(1);
+
+		final int weight;
+
+		TrafficClass(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	/** So viel reine Sendezeit wird fuer die Mindestrate zusammengefasst */
+	public static final int THROUGHPUT_WINDOW_SECONDS = 10;
+
+	// Blockgroesse ohne Limit, fuer die Messung und die Frist je Block
+	private static final long UNLIMITED_CHUNK = 256 * 1024;
+	private static final long MIN_CHUNK = 16 * 1024;
+	private static final long MAX_CHUNK = 256 * 1024;
+	// so viele Millisekunden darf ein Bucket ansparen
+	private static final long BURST_MILLIS = 200;
+	private static final long CLIENT_IDLE_NANOS = 60_000_000_000L;
+	private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+	// kleinere Antworten sagen ueber die Zeit pro MiB nichts aus
+	private static final long MIN_SAMPLE_BYTES = 256 * 1024;
+
+	private static final Object LOCK = new Object();
+
+	// Bytes pro Sekunde, 0 = unbegrenzt
+	private static volatile long totalRate;
+	private static volatile long clientRate;
+
+	// alles Folgende nur unter LOCK
+	private static final Map<String, Client> clients = new HashMap<>();
+	private static final List<Flow> waiting = new ArrayList<>();
+	private static final Bucket global = new Bucket();
+	private static final Set<Flow> flows = new HashSet<>();
+	private static double virtualTime;
+
+	// langsame Clients: 0 = aus
+	private static volatile long writeTimeoutNanos;
+	private static volatile long minThroughput;
+	private static ScheduledExecutorService watchdog;
+
+	private BandwidthScheduler() {}
+
+	private static final class Bucket {
+		double tokens;
+		long refilled = System.nanoTime();
+
+		void refill(long rate, long now) {
+			if (rate <= 0) {
+				return;
+			}
+			tokens = Math.min(capacity(rate), tokens + (now - refilled) * (rate / 1e9));
+			refilled = now;
+		}
+
+		// Nanosekunden, bis n Tokens da sind
+		long nanosUntil(long n, long rate) {
+			return rate <= 0 || tokens >= n ? 0 : (long) ((n - tokens) / rate * 1e9);
+		}
+	}
+
+	private static final class Client {
+		final String address;
+		final Bucket bucket = new Bucket();
+		final EnumMap<TrafficClass, Integer> flows = new EnumMap<>(TrafficClass.class);
+		long bytes;
+		long lastActive = System.nanoTime();
+		// gemessene Rate: Bytes im laufenden Fenster, Rate des letzten Fensters
+		long windowStart = System.nanoTime();
+		long windowBytes;
+		long rate;
+
+		Client(String address) {
+			this.address = address;
+		}
+
+		int flowCount() {
+			int n = 0;
+			for (int c : flows.values()) {
+				n += c;
+			}
+			return n;
+		}
+
+		void account(long n, long now) {
+			bytes += n;
+			windowBytes += n;
+			lastActive = now;
+			long elapsed = now - windowStart;
+			if (elapsed >= RATE_WINDOW_NANOS) {
+				rate = (long) (windowBytes * 1e9 / elapsed);
+				windowBytes = 0;
+				windowStart = now;
+			}
+		}
+
+		long currentRate(long now) {
+			// seit mehr als einem Fenster nichts gesendet -> steht
+			return now - windowStart > 2 * RATE_WINDOW_NANOS ? 0 : rate;
+		}
+	}
+
+	/** Eine laufende Antwort. Mit try-with-resources benutzen. */
+	public static final class Flow implements Closeable {
+		private final Client client;
+		private final TrafficClass trafficClass;
+		private double finish;
+		private double tag;
+		private long want;
+		private boolean closed;
+		// fuer die Latenz pro MiB (WorkloadExecutors): Bytes und die Zeit, die das Schreiben selbst gedauert hat
+		private long sentBytes;
+		private long sendNanos;
+		// laufender Block, nur unter LOCK gesetzt und geloescht, damit der Waechter nach dem Block nicht mehr unterbricht
+		private Thread sender;
+		private long sendStart;
+		private long sendLength;
+		private volatile boolean evicted;
+		// Fenster fuer die Mindestrate
+		private long windowBytes;
+		private long windowNanos;
+
+		private Flow(Client client, TrafficClass trafficClass) {
+			this.client = client;
+			this.trafficClass = trafficClass;
+		}
+
+		/**
+		 * Wartet, bis ein Block gesendet werden darf.
+		 * @param remaining so viele Bytes sind noch zu senden
+		 * @return so viele Bytes darf der Aufrufer jetzt senden (mindestens 1, hoechstens remaining)
+		 */
+		public long acquire(long remaining) throws IOException {
+			if (evicted) {
+				throw new IOException("slow client disconnected");
+			}
+			long total = totalRate;
+			long perClient = clientRate;
+			if (total <= 0 && perClient <= 0) {
+				long n = Math.min(remaining, UNLIMITED_CHUNK);
+				synchronized (LOCK) {
+					client.account(n, System.nanoTime());
+				}
+				return n;
+			}
+			long n = Math.min(remaining, chunkSize(total, perClient));
+			synchronized (LOCK) {
+				want = n;
+				tag = Math.max(finish, virtualTime) + n / effectiveWeight();
+				finish = tag;
+				waiting.add(this);
+				try {
+					while (true) {
+						long now = System.nanoTime();
+						total = totalRate;
+						perClient = clientRate;
+						global.refill(total, now);
+						Flow next = pick(perClient, now);
+						if (next == this && global.tokens >= Math.min(n, capacity(total)) || total <= 0 && perClient <= 0) {
+							break;
+						}
+						long waitNanos;
+						if (next == this) {
+							waitNanos = global.nanosUntil(n, total);
+						} else if (next == null) {
+							// alle Wartenden haengen an ihrem Client-Limit
+							waitNanos = client.bucket.nanosUntil(n, perClient);
+						} else {
+							waitNanos = 10_000_000L;
+						}
+						waitNanos = Math.max(1_000_000L, Math.min(waitNanos, 50_000_000L));
+						LOCK.wait(waitNanos / 1_000_000L);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for bandwidth");
+				} finally {
+					waiting.remove(this);
+				}
+				if (total > 0) {
+					global.tokens -= n;
+				}
+				if (perClient > 0) {
+					client.bucket.tokens -= n;
+				}
+				virtualTime = Math.max(virtualTime, tag);
+				client.account(n, System.nanoTime());
+				LOCK.notifyAll();
+			}
+			return n;
+		}
+
+		/** Vor dem Senden eines freigegebenen Blocks, ab hier laeuft die Frist des Waechters. */
+		public void beginSend(long length) {
+			synchronized (LOCK) {
+				sendLength = length;
+				sender = Thread.currentThread();
+				sendStart = System.nanoTime();
+			}
+		}
+
+		/**
+		 * Nach dem Senden von bytes (ohne das Warten in acquire).
+		 * @throws IOException wenn der Client ueber das letzte Fenster zu langsam war
+		 */
+		public void endSend(long bytes) throws IOException {
+			long nanos;
+			synchronized (LOCK) {
+				nanos = System.nanoTime() - sendStart;
+				stopSend();
+			}
+			if (evicted) {
+				throw new IOException("slow client disconnected");
+			}
+			sentBytes += bytes;
+			sendNanos += nanos;
+			windowBytes += bytes;
+			windowNanos += nanos;
+			if (windowNanos < TimeUnit.SECONDS.toNanos(THROUGHPUT_WINDOW_SECONDS)) {
+				return;
+			}
+			long rate = (long) (windowBytes * 1e9 / windowNanos);
+			windowBytes = 0;
+			windowNanos = 0;
+			long min = minThroughput;
+			if (min > 0 && rate < min) {
+				evicted = true;
+				System.out.println("Zu langsamer Client getrennt: " + client.address + " (" + rate + " B/s)");
+				throw new IOException("slow client disconnected");
+			}
+		}
+
+		// unter LOCK: ab hier unterbricht der Waechter nicht mehr, ein schon gesetztes Interrupt-Flag wird geloescht
+		private void stopSend() {
+			sendStart = 0;
+			sender = null;
+			if (evicted) {
+				Thread.interrupted();
+			}
+		}
+
+		// das Gewicht der Klasse, geteilt durch die Flows desselben Clients in dieser Klasse
+		private double effectiveWeight() {
+			Integer same = client.flows.get(trafficClass);
+			return (double) trafficClass.weight / Math.max(1, same == null ? 1 : same);
+		}
+
+		@Override
+		public void close() {
+			if (sentBytes >= MIN_SAMPLE_BYTES) {
+				WorkloadExecutors.reportLatency((long) (sendNanos / ((double) sentBytes / (1024 * 1024))));
+			}
+			synchronized (LOCK) {
+				// Block mit Exception abgebrochen, endSend kam nicht mehr
+				if (sender == Thread.currentThread()) {
+					stopSend();
+				}
+				if (closed) {
+					return;
+				}
+				closed = true;
+				flows.remove(this);
+				Integer n = client.flows.get(trafficClass);
+				if (n == null || n <= 1) {
+					client.flows.remove(trafficClass);
+				} else {
+					client.flows.put(trafficClass, n - 1);
+				}
+				client.lastActive = System.nanoTime();
+				LOCK.notifyAll();
+			}
+		}
+	}
+
+	/** Meldet eine Antwort an, die Client-IP kommt aus dem Exchange. */
+	public static Flow open(HttpExchange exchange, TrafficClass trafficClass) {
+		String address = address(exchange.getRemoteAddress());
+		synchronized (LOCK) {
+			long now = System.nanoTime();
+			Client client = clients.get(address);
+			if (client == null) {
+				cleanup(now);
+				client = new Client(address);
+				client.bucket.tokens = capacity(clientRate);
+				clients.put(address, client);
+			}
+			client.flows.merge(trafficClass, 1, Integer::sum);
+			client.lastActive = now;
+			Flow flow = new Flow(client, trafficClass);
+			flows.add(flow);
+			return flow;
+		}
+	}
+
+	/**
+	 * Aendert die Limits sofort, auch fuer laufende Downloads.
+	 * @param total     Bytes/s fuer alle zusammen, 0 = unbegrenzt
+	 * @param perClient Bytes/s je Client-IP, 0 = unbegrenzt
+	 */
+	public static void setRates(long total, long perClient) {
+		synchronized (LOCK) {
+			totalRate = Math.max(0, total);
+			clientRate = Math.max(0, perClient);
+			long now = System.nanoTime();
+			global.refilled = now;
+			global.tokens = Math.min(global.tokens, capacity(totalRate));
+			for (Client c : clients.values()) {
+				c.bucket.refilled = now;
+				c.bucket.tokens = Math.min(c.bucket.tokens, capacity(clientRate));
+			}
+			LOCK.notifyAll();
+		}
+	}
+
+	/**
+	 * Trennt Clients, die zu langsam abnehmen. Einmal beim Start aufrufen.
+	 * @param writeTimeoutSeconds so lange darf ein Block ueber seine Frist hinaus haengen, 0 = aus
+	 * @param minBytesPerSecond   Mindestrate ueber die reine Sendezeit, 0 = aus
+	 */
+	public static synchronized void configureSlowClients(int writeTimeoutSeconds, long minBytesPerSecond) {
+		writeTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, writeTimeoutSeconds));
+		minThroughput = Math.max(0, minBytesPerSecond);
+		if (writeTimeoutNanos > 0 && watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "slow-client-watchdog");
+				t.setDaemon(true);
+				return t;
+			});
+			watchdog.scheduleWithFixedDelay(BandwidthScheduler::checkStuck, 1, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	// Bloecke, die weit ueber ihre Frist haengen: Thread unterbrechen, das schliesst den Socket bzw. bricht das Warten ab
+	private static void checkStuck() {
+		long timeout = writeTimeoutNanos;
+		if (timeout <= 0) {
+			return;
+		}
+		long min = Math.max(minThroughput, 1024);
+		long now = System.nanoTime();
+		synchronized (LOCK) {
+			for (Flow f : flows) {
+				long start = f.sendStart;
+				Thread t = f.sender;
+				if (start == 0 || t == null || f.evicted) {
+					continue;
+				}
+				long allowed = timeout + (long) (f.sendLength * 1e9 / min);
+				if (now - start > allowed) {
+					f.evicted = true;
+					System.out.println("Haengender Client getrennt: " + f.client.address + " (kein Fortschritt seit "
+							+ TimeUnit.NANOSECONDS.toSeconds(now - start) + " s)");
+					t.interrupt();
+				}
+			}
+		}
+	}
+
+	public static long getTotalRate() {
+		return totalRate;
+	}
+
+	public static long getClientRate() {
+		return clientRate;
+	}
+
+	/** Momentaufnahme eines Clients fuer /.bandwidth. */
+	public static final class ClientStats {
+		public final String address;
+		/** gemessen ueber die letzte Sekunde, Bytes/s */
+		public final long rate;
+		public final long bytes;
+		public final Map<TrafficClass, Integer> flows;
+
+		ClientStats(String address, long rate, long bytes, Map<TrafficClass, Integer> flows) {
+			this.address = address;
+			this.rate = rate;
+			this.bytes = bytes;
+			this.flows = flows;
+		}
+	}
+
+	public static List<ClientStats> stats() {
+		List<ClientStats> result = new ArrayList<>();
+		synchronized (LOCK) {
+			long now = System.nanoTime();
+			for (Client c : clients.values()) {
+				result.add(new ClientStats(c.address, c.currentRate(now), c.bytes, new EnumMap<>(c.flows)));
+			}
+		}
+		result.sort((a, b) -> Long.compare(b.rate, a.rate));
+		return result;
+	}
+
+	// ------------------------------------------------------------------
+
+	// kleinste Endzeit unter den Wartenden, deren Client-Bucket genug hat (sonst wuerde einer alle blockieren)
+	private static Flow pick(long perClient, long now) {
+		Flow best = null;
+		for (Flow f : waiting) {
+			if (perClient > 0) {
+				f.client.bucket.refill(perClient, now);
+				if (f.client.bucket.tokens < Math.min(f.want, capacity(perClient))) {
+					continue;
+				}
+			}
+			if (best == null || f.tag < best.tag) {
+				best = f;
+			}
+		}
+		return best;
+	}
+
+	private static long chunkSize(long total, long perClient) {
+		long rate = total <= 0 ? perClient : perClient <= 0 ? total : Math.min(total, perClient);
+		// etwa 20 Bloecke pro Sekunde, damit auch kleine Limits gleichmaessig laufen
+		return Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, rate / 20));
+	}
+
+	private static long capacity(long rate) {
+		return rate <= 0 ? 0 : Math.max(2 * MIN_CHUNK, rate * BURST_MILLIS / 1000);
+	}
+
+	private static void cleanup(long now) {
+		Iterator<Client> it = clients.values().iterator();
+		while (it.hasNext()) {
+			Client c = it.next();
+			if (c.flowCount() == 0 && now - c.lastActive > CLIENT_IDLE_NANOS) {
+				it.remove();
+			}
+		}
+	}
+
+	private static String address(InetSocketAddress remote) {
+		if (remote == null) {
+			return "?";
+		}
+		return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+	}
+}
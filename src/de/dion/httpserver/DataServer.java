@@ -1,99 +1,130 @@
 package de.dion.httpserver;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.SocketException;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
-import java.util.Arrays;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sun.net.httpserver.HttpExchange;
 
+import de.dion.httpserver.BandwidthScheduler.Flow;
+import de.dion.httpserver.BandwidthScheduler.TrafficClass;
 import de.dion.httpserver.handlers.FileHandler;
+import de.dion.httpserver.nio.ZeroCopyExchange;
+import de.dion.httpserver.zip.ParallelZipWriter;
+import de.dion.httpserver.zip.SharedZip;
+import de.dion.httpserver.zip.StoredZipArchive;
+import de.dion.httpserver.zip.ZipCache;
 
 public class DataServer {
 	
+	/**
+	 * Höchstens so viele Bereiche pro Range-Header. Mehr braucht kein Player oder Download-Manager,
+	 * mit tausenden Mini-Bereichen ließe sich aber eine riesige multipart-Antwort erzwingen.
+	 */
+	static final int MAX_RANGES = 50;
+
 	private final boolean filterFileNames;
+	private final boolean storedZip;
+	private final AtomicBoolean zeroCopyReported = new AtomicBoolean();
+	private final AtomicBoolean copyReported = new AtomicBoolean();
 	
-    public DataServer(boolean filterFileNames) {
+    /**
+     * @param storedZip true: "Download all" als unkomprimiertes ZIP mit fester Länge (Fortsetzen möglich),
+     *                  false: parallel komprimiertes ZIP als Stream
+     */
+    public DataServer(boolean filterFileNames, boolean storedZip) {
 		this.filterFileNames = filterFileNames;
+		this.storedZip = storedZip;
+		if (!storedZip) {
+			ZipCache.setProducer(this::zipProducer);
+		}
 	}
 
 	public void serveFileWithRange(HttpExchange exchange, File file, String mimeType, boolean inline) throws IOException {
-        long fileLength = file.length();
-        String range = exchange.getRequestHeaders().getFirst("Range");
-        long start = 0;
-        long end = fileLength - 1;
-        boolean isPartial = false;
+		// Vorschau-Streams (Video-Seek) bekommen bei knapper Bandbreite Vorrang vor Downloads
+		TrafficClass trafficClass = inline && MimeTypes.isPreviewable(mimeType) ? TrafficClass.PREVIEW : TrafficClass.DOWNLOAD;
+		serveFile(exchange, file, mimeType, inline, getCleanFileName(exchange, file), trafficClass);
+	}
 
-        if (range != null && range.startsWith("bytes=")) {
-            String[] parts = range.substring("bytes=".length()).split("-", 2);
-            try {
-                if (parts.length > 0 && !parts[0].isEmpty()) start = Long.parseLong(parts[0].trim());
-                if (parts.length > 1 && !parts[1].isEmpty()) end = Long.parseLong(parts[1].trim());
-                if (start < 0) start = 0;
-                if (end > fileLength - 1) end = fileLength - 1;
-                if (start > end) {
-                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + fileLength);
-                    exchange.sendResponseHeaders(416, -1);
-                    return;
-                }
-                isPartial = true;
-            } catch (NumberFormatException e) {
-                start = 0;
-                end = fileLength - 1;
-                isPartial = false;
-            }
+	/** Wie serveFileWithRange, aber mit eigenem Dateinamen für den Download. */
+	private void serveFile(HttpExchange exchange, File file, String mimeType, boolean inline, String downloadName, TrafficClass trafficClass) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long fileLength = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = HttpValidators.fileETag(attrs);
+        boolean isHead = exchange.getRequestMethod().equalsIgnoreCase("HEAD");
+
+        // Validatoren gehören auch an 304/416 Antworten
+        HttpValidators.setValidators(exchange, etag, lastModified);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        // der Typ kommt von MimeTypes, der Browser soll nicht selbst raten
+        exchange.getResponseHeaders().set("X-Content-Type-Options", "nosniff");
+
+        if (HttpValidators.isNotModified(exchange, etag, lastModified)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
         }
 
-        long contentLength = end - start + 1;
-        
-        if (inline) {
-            exchange.getResponseHeaders().set("Content-Disposition", "inline; filename=\"" + getCleanFileName(exchange, file) + "\"");
-        } else {
-            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + getCleanFileName(exchange, file) + "\"");
+        // If-Range: passt der Validator nicht mehr (Datei geändert), komplette Datei statt Teilbereich senden
+        String range = HttpValidators.isRangeAllowed(exchange, etag, lastModified) ? exchange.getRequestHeaders().getFirst("Range") : null;
+        List<long[]> ranges = range != null ? parseRanges(range, fileLength) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            // kein einziger Bereich erfüllbar
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + fileLength);
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
         }
-        exchange.getResponseHeaders().set("Content-Type", mimeType);
-        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
 
-        if (isPartial) {
-            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + fileLength);
-            exchange.sendResponseHeaders(206, contentLength);
+        // nur was auch die Vorschau anzeigt, geht inline raus, alles andere als Download
+        if (inline && MimeTypes.isPreviewable(mimeType)) {
+            exchange.getResponseHeaders().set("Content-Disposition", "inline; filename=\"" + downloadName + "\"");
         } else {
-            exchange.sendResponseHeaders(200, contentLength);
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + downloadName + "\"");
         }
 
-        // Verwende FileChannel.transferTo für effizienteren Transfer in Chunks.
+        if (ranges != null && ranges.size() > 1) {
+            serveMultipleRanges(exchange, file, mimeType, fileLength, ranges, isHead, trafficClass);
+            return;
+        }
 
-        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-             WritableByteChannel outChannel = Channels.newChannel(exchange.getResponseBody())) {
+        long start = 0;
+        long end = fileLength - 1;
+        int code = 200;
+        if (ranges != null) {
+            start = ranges.get(0)[0];
+            end = ranges.get(0)[1];
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + fileLength);
+            code = 206;
+        }
+        long contentLength = end - start + 1;
+        exchange.getResponseHeaders().set("Content-Type", mimeType);
 
-            long position = start;
-            long remaining = contentLength;
-            while (remaining > 0) {
-                long chunk = Math.min(remaining, FileHandler.BUFFER_SIZE);
-                long transferred = fileChannel.transferTo(position, chunk, outChannel);
-                
-                if (transferred <= 0) {
-                    // safety: vermeide infinite-loop, beende wenn nichts mehr transferiert wird
-                    break;
-                }
-                position += transferred;
-                remaining -= transferred;
-            }
-            
+        if (isHead) {
+            // HEAD: nur Header, Datei wird gar nicht erst geöffnet
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(contentLength));
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+            return;
+        }
+        // Länge 0 würde beim HttpServer "chunked" bedeuten
+        exchange.sendResponseHeaders(code, contentLength == 0 ? -1 : contentLength);
 
-            // flush: beim Channels-API ist flush nicht direkt möglich; OutputStream wird beim close geschlossen.
-            // Zumindest sicherstellen, dass wir die ResponseBody-Stream schließen (done durch try-with-resources).
+        try (Flow flow = BandwidthScheduler.open(exchange, trafficClass);
+                FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            sendFileRegion(exchange, flow, fileChannel, start, contentLength);
         } catch (SocketException se) {
             // Häufige, erwartbare Client-Abbruch-Meldungen (seek/stop/close). Nur kurz loggen.
             System.out.println(se.getMessage());
@@ -106,6 +137,171 @@ public class DataServer {
             } catch (IOException ignored) {}
         }
     }
+
+    /**
+     * Sendet mehrere Bereiche als multipart/byteranges (RFC 7233, Anhang A).
+     * Die Länge steht vorher fest, die Datenblöcke gehen wie bei einem einzelnen Bereich über sendFileRegion (Zero-Copy).
+     */
+    private void serveMultipleRanges(HttpExchange exchange, File file, String mimeType, long fileLength, List<long[]> ranges, boolean isHead, TrafficClass trafficClass) throws IOException {
+        String boundary = "BYTERANGES_" + Long.toHexString(System.nanoTime());
+        byte[][] partHeads = new byte[ranges.size()][];
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        long contentLength = tail.length;
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            partHeads[i] = ("\r\n--" + boundary
+                    + "\r\nContent-Type: " + mimeType
+                    + "\r\nContent-Range: bytes " + r[0] + "-" + r[1] + "/" + fileLength
+                    + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            contentLength += partHeads[i].length + (r[1] - r[0] + 1);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        if (isHead) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(contentLength));
+            exchange.sendResponseHeaders(206, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(206, contentLength);
+
+        try (Flow flow = BandwidthScheduler.open(exchange, trafficClass);
+                FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] r = ranges.get(i);
+                out.write(partHeads[i]);
+                sendFileRegion(exchange, flow, fileChannel, r[0], r[1] - r[0] + 1);
+            }
+            out.write(tail);
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+        } finally {
+            try {
+                exchange.getResponseBody().close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Liest einen Range-Header nach RFC 7233 ("bytes=0-99,200-,-500").
+     * Überlappende oder direkt aneinander liegende Bereiche werden zusammengefasst.
+     * Mehr als {@link #MAX_RANGES} Angaben werden wie ein ungültiger Header behandelt (RFC 7233 erlaubt das Ignorieren),
+     * der Client bekommt dann die ganze Datei mit 200.
+     * @return sortierte Bereiche {start, end} (inklusiv), eine leere Liste wenn keiner erfüllbar ist,
+     *         oder null wenn der Header ungültig ist und ignoriert werden muss
+     */
+    static List<long[]> parseRanges(String header, long fileLength) {
+        String h = header.trim();
+        if (!h.regionMatches(true, 0, "bytes=", 0, 6) || h.substring(6).trim().isEmpty()) {
+            return null;
+        }
+        String[] specs = h.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                if (spec.isEmpty()) continue;
+                int dash = spec.indexOf('-');
+                if (dash < 0) return null;
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // Suffix-Range: die letzten N Bytes
+                    if (last.isEmpty()) return null;
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) return null;
+                    if (suffix == 0 || fileLength == 0) continue;
+                    start = Math.max(0, fileLength - suffix);
+                    end = fileLength - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) return null;
+                    if (start >= fileLength) continue; // nicht erfüllbar
+                    end = Math.min(end, fileLength - 1);
+                }
+                ranges.add(new long[] {start, end});
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        // sortieren und zusammenfassen
+        ranges.sort((x, y) -> Long.compare(x[0], y[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] r : ranges) {
+            long[] prev = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (prev != null && r[0] <= prev[1] + 1) {
+                prev[1] = Math.max(prev[1], r[1]);
+            } else {
+                merged.add(r);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Sendet einen Bereich der Datei als Response-Body.
+     * Auf der NIO Engine geht das per transferTo direkt in den Socket (sendfile, keine Kopie im User-Space),
+     * beim JDK-Server wird über einen Puffer mit Download-Buffersize in den Response-Stream kopiert.
+     * Jeder Block wird vorher beim BandwidthScheduler angefragt (Limit, faire Verteilung, Messung).
+     */
+    private void sendFileRegion(HttpExchange exchange, Flow flow, FileChannel fileChannel, long position, long length) throws IOException {
+        if (exchange instanceof ZeroCopyExchange && ((ZeroCopyExchange) exchange).isZeroCopyAvailable()) {
+            reportTransferPath(true);
+            ZeroCopyExchange zeroCopy = (ZeroCopyExchange) exchange;
+            long remaining = length;
+            while (remaining > 0) {
+                long n = flow.acquire(remaining);
+                flow.beginSend(n);
+                zeroCopy.transferFile(fileChannel, position, n);
+                flow.endSend(n);
+                position += n;
+                remaining -= n;
+            }
+            return;
+        }
+
+        reportTransferPath(false);
+        // FileChannel.transferTo in einen gewrappten OutputStream kopiert intern nur in 8 KiB Blöcken,
+        // deshalb selbst mit einem großen Puffer lesen und schreiben.
+        OutputStream out = exchange.getResponseBody();
+        byte[] buffer = new byte[(int) Math.min(FileHandler.BUFFER_SIZE, Math.max(length, 1))];
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        long remaining = length;
+        while (remaining > 0) {
+            bb.clear();
+            bb.limit((int) Math.min(buffer.length, flow.acquire(remaining)));
+            int read = fileChannel.read(bb, position);
+            if (read <= 0) {
+                // safety: vermeide infinite-loop, beende wenn nichts mehr gelesen wird
+                break;
+            }
+            // erst nach dem Lesen anmelden: nur das Schreiben zum Client zählt für den Watchdog
+            flow.beginSend(read);
+            out.write(buffer, 0, read);
+            flow.endSend(read);
+            position += read;
+            remaining -= read;
+        }
+    }
+
+    private void reportTransferPath(boolean zeroCopy) {
+        AtomicBoolean reported = zeroCopy ? zeroCopyReported : copyReported;
+        if (reported.compareAndSet(false, true)) {
+            if (zeroCopy) {
+                System.out.println("Downloads laufen per Zero-Copy (FileChannel.transferTo -> Socket, sendfile)");
+            } else {
+                System.out.println("Downloads laufen per Kopie über den Response-Stream (Puffer: " + (FileHandler.BUFFER_SIZE / 1024) + " KiB)");
+            }
+        }
+    }
 	
 	private String getCleanFileName(HttpExchange exchange, File file) {
 		String fileName = file.getName();
@@ -119,90 +315,201 @@ public class DataServer {
 	}
 	
 	public void serveDirectoryAsZip(HttpExchange exchange, File dir, String zipFileName) throws IOException {
+		if (storedZip) {
+			serveDirectoryAsStoredZip(exchange, dir, zipFileName);
+			return;
+		}
         // Header vorbereiten
         exchange.getResponseHeaders().set("Content-Type", "application/zip");
         exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + zipFileName + "\"");
 
-        // Chunked transfer (Länge unbekannt) -> send 200 with 0
-        exchange.sendResponseHeaders(200, 0);
+        // schon einmal gebaut und seitdem nichts geändert -> fertige Datei mit Länge, Range und Zero-Copy
+        long[] size = new long[1];
+        String key = SharedZip.fingerprint(dir, size);
+        File cached = ZipCache.lookup(key);
+        if (cached != null) {
+            // bis zum Ende gesperrt, sonst könnte der Cache die Datei währenddessen löschen
+            try {
+                serveFile(exchange, cached, "application/zip", false, zipFileName, TrafficClass.ZIP);
+            } finally {
+                ZipCache.release(cached);
+            }
+            return;
+        }
+        if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            // HEAD: nur Header, kein Producer starten (die Länge steht erst nach dem Komprimieren fest)
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
 
-        OutputStream rawOut = exchange.getResponseBody();
-        BufferedOutputStream bos = new BufferedOutputStream(rawOut);
-        ZipOutputStream zos = new ZipOutputStream(bos);
+        // Gleiche Ordner (gleicher Inhalt) werden nur einmal gelesen und komprimiert, alle Clients lesen mit
+        SharedZip.Reader shared = SharedZip.attach(key, size[0], zipProducer(dir));
 
-        try {
-            // rekursiv alle Dateien hinzufügen
-            addDirectoryToZip(zos, dir, "");
-            // versuchen, ZIP sauber zu beenden
-            try {
-                zos.finish();
-            } catch (IOException e) {
-                // finish() kann ebenfalls fehlschlagen, z.B. wenn Client schon geschlossen hat
-                if (isClientAbort(e)) {
-                    System.out.println("Client hat die Verbindung beendet während ZIP fertiggestellt wurde.");
-                    return;
-                } else {
-                    throw e;
+        try (Flow flow = BandwidthScheduler.open(exchange, TrafficClass.ZIP)) {
+            long length = shared.completeLength();
+            // schon fertig -> Länge bekannt, sonst chunked (send 200 with 0)
+            exchange.sendResponseHeaders(200, length > 0 ? length : 0);
+
+            if (shared.getFile() != null) {
+                // aus der Spill-Datei, per Zero-Copy
+                try (FileChannel spill = FileChannel.open(shared.getFile().toPath(), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (true) {
+                        long available = shared.awaitData(position);
+                        if (available == position) {
+                            break;
+                        }
+                        sendFileRegion(exchange, flow, spill, position, available - position);
+                        position = available;
+                    }
+                }
+            } else {
+                // aus dem Ringpuffer im Speicher
+                OutputStream out = exchange.getResponseBody();
+                byte[] buffer = new byte[(int) FileHandler.BUFFER_SIZE];
+                long position = 0;
+                while (true) {
+                    long available = shared.awaitData(position);
+                    if (available == position) {
+                        break;
+                    }
+                    while (position < available) {
+                        int n = shared.read(position, buffer, 0, (int) Math.min(buffer.length, flow.acquire(available - position)));
+                        flow.beginSend(n);
+                        out.write(buffer, 0, n);
+                        flow.endSend(n);
+                        position += n;
+                    }
                 }
             }
         } catch (IOException e) {
             // Unterscheide zwischen Client-Abbruch und echten Fehlern
-            if (isClientAbort(e)) {
+            if (isClientAbort(e) || e instanceof SocketException) {
                 // sehr häufiger Fall: Nutzer hat Download abgebrochen -> keine lauten Stacktraces
                 System.out.println("Client aborted ZIP download (connection closed).");
             } else {
                 // Echte Fehler beim Lesen/Schreiben: ausführlicher loggen
-                System.err.println("Fehler beim Erstellen des ZIP-Streams: " + e.toString());
-                e.printStackTrace();
+                System.err.println("Fehler beim Senden des ZIP-Streams: " + e.toString());
             }
         } finally {
+            shared.release();
             // Schließe Streams möglichst leise
-            try { zos.close(); } catch (IOException ignored) {}
             try { exchange.close(); } catch (Exception ignored) {}
         }
     }
 
     /**
-     * Fügt rekursiv Dateien in den ZipOutputStream ein.
-     * Wenn während des Schreibens eine IOException auftritt, wird sie weitergeworfen.
+     * Ob das deflate-ZIP des Ordners schon fertig im Cache liegt oder gerade für andere Clients gebaut wird.
+     * Dann wird nur gestreamt, ein Platz im ZIP-Pool ist nicht nötig. Ohne Fingerprint, also ohne den Ordner
+     * zu durchlaufen: hat er sich seit dem Cachen geändert, baut genau ein Request das neue ZIP außerhalb
+     * des ZIP-Limits (lookup wirft den alten Eintrag sofort raus, alle weiteren teilen sich das neue ZIP).
+     */
+    public boolean isZipReady(File dir) {
+        if (storedZip) {
+            return false;
+        }
+        try {
+            String path = dir.getCanonicalPath();
+            return ZipCache.contains(path) || SharedZip.isJoinable(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Erzeugt das ZIP eines Ordners, Kompression läuft parallel auf allen Kernen (siehe ParallelZipWriter). */
+    private SharedZip.Producer zipProducer(File dir) {
+        return out -> {
+            try (ParallelZipWriter zos = new ParallelZipWriter(out)) {
+                addDirectoryToZip(zos, dir, "");
+                zos.finish();
+            }
+        };
+    }
+
+    /**
+     * Sendet den Ordner als unkomprimiertes ZIP. Die Länge steht vorher fest (Fortschrittsanzeige im Browser),
+     * und über Range/If-Range kann ein abgebrochener Download fortgesetzt werden.
      */
-    private void addDirectoryToZip(ZipOutputStream zos, File dir, String parentPrefix) throws IOException {
-        File[] children = dir.listFiles();
-        if (children == null) return;
+    private void serveDirectoryAsStoredZip(HttpExchange exchange, File dir, String zipFileName) throws IOException {
+        StoredZipArchive archive = StoredZipArchive.of(dir);
+        long length = archive.length();
+        boolean isHead = exchange.getRequestMethod().equalsIgnoreCase("HEAD");
+
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + zipFileName + "\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        HttpValidators.setValidators(exchange, archive.etag(), archive.lastModified());
 
-        Arrays.sort(children);
-        byte[] buffer = new byte[(int) FileHandler.BUFFER_SIZE];
+        String range = HttpValidators.isRangeAllowed(exchange, archive.etag(), archive.lastModified()) ? exchange.getRequestHeaders().getFirst("Range") : null;
+        List<long[]> ranges = range != null ? parseRanges(range, length) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
+        }
 
-        for (File child : children) {
-            if (child.isHidden()) continue; // optional
-            String entryName = parentPrefix.isEmpty() ? child.getName() : parentPrefix + "/" + child.getName();
-            if (child.isDirectory()) {
-                // add directory entry (optional)
-                ZipEntry dirEntry = new ZipEntry(entryName + "/");
-                dirEntry.setTime(child.lastModified());
-                try {
-                    zos.putNextEntry(dirEntry);
-                    zos.closeEntry();
-                } catch (IOException e) {
-                    // weiterwerfen, damit outer handler reagieren kann (z.B. Client closed)
-                    throw e;
+        long start = 0;
+        long end = length - 1;
+        int code = 200;
+        // mehrere Bereiche werden bei ZIPs nicht gebraucht (Download-Manager holen einzelne Stücke) -> komplett senden
+        if (ranges != null && ranges.size() == 1) {
+            start = ranges.get(0)[0];
+            end = ranges.get(0)[1];
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            code = 206;
+        }
+        long contentLength = end - start + 1;
+
+        if (isHead) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(contentLength));
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(code, contentLength);
+
+        OutputStream out = exchange.getResponseBody();
+        try (Flow flow = BandwidthScheduler.open(exchange, TrafficClass.ZIP)) {
+            archive.send(start, end, new StoredZipArchive.Sink() {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
                 }
-                addDirectoryToZip(zos, child, entryName);
-            } else if (child.isFile()) {
-                ZipEntry fileEntry = new ZipEntry(entryName);
-                fileEntry.setTime(child.lastModified());
-                zos.putNextEntry(fileEntry);
-                try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(child))) {
-                    int len;
-                    while ((len = bis.read(buffer)) != -1) {
-                        zos.write(buffer, 0, len); // kann IOException werfen -> nach oben
+
+                @Override
+                public void writeFile(File file, long position, long len) throws IOException {
+                    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        sendFileRegion(exchange, flow, fileChannel, position, len);
                     }
-                } catch (IOException e) {
-                    // wichtig: beim Abbruch nicht weiter versuchen, sondern die Exception hochreichen
-                    try { zos.closeEntry(); } catch (Exception ignored) {}
-                    throw e;
                 }
-                zos.closeEntry();
+            });
+        } catch (IOException e) {
+            if (isClientAbort(e) || e instanceof SocketException) {
+                System.out.println("Client aborted ZIP download (connection closed).");
+            } else {
+                System.err.println("Fehler beim Senden des ZIP: " + e.toString());
+            }
+        } finally {
+            try { exchange.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Fügt rekursiv Dateien in den ParallelZipWriter ein.
+     * Wenn während des Schreibens eine IOException auftritt, wird sie weitergeworfen.
+     */
+    private void addDirectoryToZip(ParallelZipWriter zos, File dir, String parentPrefix) throws IOException {
+        for (DirectoryScanner.Entry child : DirectoryScanner.scan(dir)) {
+            String entryName = parentPrefix.isEmpty() ? child.name : parentPrefix + "/" + child.name;
+            if (child.directory) {
+                // add directory entry (optional)
+                zos.putDirectory(entryName, child.lastModified);
+                addDirectoryToZip(zos, child.file, entryName);
+            } else {
+                // kann IOException werfen (z.B. Client closed) -> nach oben
+                zos.putFile(entryName, child.file, child.lastModified, child.size);
             }
         }
     }
@@ -213,6 +520,7 @@ public class DataServer {
         while (t != null) {
             String cn = t.getClass().getName();
             if ("sun.net.httpserver.StreamClosedException".equals(cn) ||
+                "de.dion.httpserver.nio.ClientAbortException".equals(cn) ||
                 "org.apache.catalina.connector.ClientAbortException".equals(cn) ||
                 "org.eclipse.jetty.io.EofException".equals(cn)) {
                 return true;
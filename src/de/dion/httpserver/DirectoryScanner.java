@@ -0,0 +1,107 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Liest ein Verzeichnis in einem Durchgang ein: Name, Typ, Groesse und Datum kommen aus einem einzigen
+ * readAttributes je Eintrag statt aus isHidden/isDirectory/isFile/length/lastModified einzeln.
+ * Auf SMB- und NFS-Freigaben ist jeder dieser Aufrufe ein eigener Roundtrip zum Server.
+ *
+ * Unter Windows liefert der DirectoryStream die Attribute schon beim Auflisten mit (FindNextFile),
+ * readAttributes kostet dort gar keinen weiteren Zugriff. Versteckt ist eine Datei dann, wenn das
+ * DOS-Attribut gesetzt ist, sonst wenn der Name mit einem Punkt beginnt (wie bei {@link File#isHidden()}).
+ *
+ * Wird vom Listing, vom ZIP-Download und damit auch fuer die Thumbnails benutzt.
+ */
+public final class DirectoryScanner {
+
+	private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+	// gleiche Reihenfolge wie Arrays.sort(File[]) vorher
+	private static final Comparator<Entry> ORDER = WINDOWS
+			? (a, b) -> a.name.compareToIgnoreCase(b.name)
+			: (a, b) -> a.name.compareTo(b.name);
+
+	/** Ein Eintrag eines Verzeichnisses, Symlinks sind bereits aufgeloest. */
+	public static final class Entry {
+		public final File file;
+		public final String name;
+		public final boolean directory;
+		/** 0 bei Ordnern */
+		public final long size;
+		public final long lastModified;
+
+		Entry(File file, String name, boolean directory, long size, long lastModified) {
+			this.file = file;
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private DirectoryScanner() {}
+
+	/**
+	 * Alle nicht versteckten Dateien und Ordner in dir, sortiert nach Namen.
+	 * Eintraege, die waehrenddessen verschwinden oder nicht lesbar sind (z.B. kaputte Symlinks), fehlen einfach.
+	 * @return leeres Array, wenn dir kein lesbares Verzeichnis ist
+	 */
+	public static Entry[] scan(File dir) {
+		List<Entry> entries = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (Path p : stream) {
+				Entry e = read(dir, p);
+				if (e != null) {
+					entries.add(e);
+				}
+			}
+		} catch (IOException | DirectoryIteratorException e) {
+			// wie listFiles(): nicht lesbar -> leer, bei einem Fehler mittendrin bleibt das bis dahin Gelesene
+		}
+		Entry[] result = entries.toArray(new Entry[0]);
+		Arrays.sort(result, ORDER);
+		return result;
+	}
+
+	private static Entry read(File dir, Path p) {
+		String name = p.getFileName().toString();
+		if (!WINDOWS && name.startsWith(".")) {
+			// versteckt, ohne Zugriff auf das Dateisystem
+			return null;
+		}
+		BasicFileAttributes attrs;
+		try {
+			if (WINDOWS) {
+				DosFileAttributes dos = Files.readAttributes(p, DosFileAttributes.class);
+				if (dos.isHidden()) {
+					return null;
+				}
+				attrs = dos;
+			} else {
+				attrs = Files.readAttributes(p, BasicFileAttributes.class);
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		if (attrs.isDirectory()) {
+			return new Entry(new File(dir, name), name, true, 0, attrs.lastModifiedTime().toMillis());
+		}
+		if (attrs.isRegularFile()) {
+			return new Entry(new File(dir, name), name, false, attrs.size(), attrs.lastModifiedTime().toMillis());
+		}
+		// Geraete, Pipes usw. wie vorher mit isFile() ausblenden
+		return null;
+	}
+}
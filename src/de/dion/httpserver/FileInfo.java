@@ -0,0 +1,52 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Metadaten eines Eintrags im Verzeichnis, einmal beim Einlesen ermittelt.
+ * Das Listing arbeitet nur damit, damit nicht fuer jede Zeile erneut das Dateisystem gefragt wird
+ * (teuer auf Netzlaufwerken).
+ */
+public final class FileInfo {
+
+	public final File file;
+	public final String name;
+	public final boolean directory;
+	public final long size;
+	public final long lastModified;
+	/** null bei Ordnern */
+	public final String mimeType;
+	// URL-kodierter Name, erst bei Bedarf (Listing und API teilen sich den Eintrag aus dem ListingCache)
+	private String encodedName;
+
+	public FileInfo(File file, boolean directory, long size, long lastModified, String mimeType) {
+		this.file = file;
+		this.name = file.getName();
+		this.directory = directory;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.mimeType = mimeType;
+	}
+
+	/** Der Name als URL-Pfadsegment (Leerzeichen als %20). */
+	public String encodedName() {
+		String e = encodedName;
+		if (e == null) {
+			try {
+				e = URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+			} catch (UnsupportedEncodingException ex) {
+				throw new IllegalStateException(ex);
+			}
+			encodedName = e;
+		}
+		return e;
+	}
+
+	/** Grobe Schaetzung des Speicherbedarfs in Bytes (fuer die Grenze des ListingCache). */
+	long estimatedSize() {
+		// Objekt, File-Objekt mit Pfad, Name (auch kodiert), MIME-String
+		return 96 + 2L * (file.getPath().length() + 2 * name.length()) + (mimeType == null ? 0 : 48 + 2L * mimeType.length());
+	}
+}
@@ -0,0 +1,120 @@
+package de.dion.httpserver;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.zip.CRC32;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * ETag / Last-Modified Erzeugung und Auswertung der bedingten Request-Header
+ * (If-None-Match, If-Modified-Since, If-Range) nach RFC 7232 / 7233.
+ */
+public final class HttpValidators {
+
+	private HttpValidators() {}
+
+	/**
+	 * Starkes ETag fuer eine Datei aus Groesse, Aenderungszeit und (wenn vorhanden) Inode.
+	 * Wird die Datei ersetzt oder veraendert, aendert sich das ETag.
+	 */
+	public static String fileETag(BasicFileAttributes attrs) {
+		StringBuilder sb = new StringBuilder("\"");
+		sb.append(Long.toHexString(attrs.size()));
+		sb.append('-').append(Long.toHexString(attrs.lastModifiedTime().toMillis()));
+		Object fileKey = attrs.fileKey();
+		if (fileKey != null) {
+			// unter Linux/macOS "(dev=..,ino=..)", unter Windows null
+			sb.append('-').append(Integer.toHexString(fileKey.hashCode()));
+		}
+		return sb.append('"').toString();
+	}
+
+	/** Schwaches ETag fuer generierte Inhalte (z.B. Directory Listings) anhand der Bytes. */
+	public static String contentETag(byte[] content) {
+		return contentETag(content, 0, content.length);
+	}
+
+	public static String contentETag(byte[] content, int off, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(content, off, len);
+		return "W/\"" + Integer.toHexString(len) + "-" + Long.toHexString(crc.getValue()) + "\"";
+	}
+
+	public static String formatDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+	}
+
+	/** @return Zeit in Millisekunden oder -1 wenn das Datum nicht gelesen werden kann */
+	public static long parseDate(String value) {
+		if (value == null) return -1;
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Prueft If-None-Match bzw. If-Modified-Since.
+	 * @param lastModified Aenderungszeit in ms oder -1 wenn unbekannt
+	 * @return true wenn der Client eine aktuelle Version hat und 304 gesendet werden kann
+	 */
+	public static boolean isNotModified(HttpExchange exchange, String etag, long lastModified) {
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (ifNoneMatch != null) {
+			// If-None-Match hat Vorrang, If-Modified-Since wird dann ignoriert
+			return etag != null && matchesAny(ifNoneMatch, etag, false);
+		}
+		if (lastModified < 0) return false;
+		long since = parseDate(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+		return since >= 0 && lastModified / 1000 <= since / 1000;
+	}
+
+	/**
+	 * Prueft If-Range. Ohne If-Range darf der Range-Header immer benutzt werden.
+	 * Mit If-Range nur, wenn das ETag (stark) bzw. das Datum exakt passt,
+	 * sonst muss die komplette Datei gesendet werden.
+	 */
+	public static boolean isRangeAllowed(HttpExchange exchange, String etag, long lastModified) {
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		if (ifRange == null) return true;
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag != null && !ifRange.startsWith("W/") && !etag.startsWith("W/") && ifRange.equals(etag);
+		}
+		long date = parseDate(ifRange);
+		return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+	}
+
+	/** Setzt ETag und Last-Modified (falls bekannt) auf der Response. */
+	public static void setValidators(HttpExchange exchange, String etag, long lastModified) {
+		if (etag != null) {
+			exchange.getResponseHeaders().set("ETag", etag);
+		}
+		if (lastModified >= 0) {
+			exchange.getResponseHeaders().set("Last-Modified", formatDate(lastModified));
+		}
+	}
+
+	private static boolean matchesAny(String header, String etag, boolean strong) {
+		if (header.trim().equals("*")) return true;
+		String own = strong ? etag : opaque(etag);
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (strong ? candidate.equals(own) : opaque(candidate).equals(own)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// schwacher Vergleich: "W/" ignorieren
+	private static String opaque(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+}
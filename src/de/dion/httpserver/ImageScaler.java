@@ -0,0 +1,112 @@
+package de.dion.httpserver;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Verkleinert Bilder mit ImageIO, ohne das Original in voller Aufloesung zu dekodieren.
+ *
+ * Der Decoder liest per Subsampling nur jede n-te Zeile und Spalte, das Zwischenbild ist damit hoechstens
+ * doppelt so gross wie das Ziel. Ein 12 MP Foto braucht fuer ein Thumbnail also nur wenige 100 KiB statt
+ * knapp 50 MiB Speicher. Der Rest wird danach weich skaliert.
+ */
+final class ImageScaler {
+
+	private static final float JPEG_QUALITY = 0.85f;
+
+	private ImageScaler() {}
+
+	/**
+	 * @param cover true: das Ergebnis deckt width x height ganz ab (fuer object-fit:cover),
+	 *              false: es passt in width x height hinein
+	 * @param png   als PNG (mit Transparenz) statt als JPEG speichern
+	 * @return false wenn ImageIO das Format nicht lesen kann
+	 */
+	static boolean scale(File src, File out, int width, int height, boolean cover, boolean png) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(src)) {
+			if (in == null) {
+				return false;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return false;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int w = reader.getWidth(0);
+				int h = reader.getHeight(0);
+				double ratio = cover ? Math.max((double) width / w, (double) height / h)
+						: Math.min((double) width / w, (double) height / h);
+				ratio = Math.min(1, ratio);
+				int targetW = Math.max(1, (int) Math.round(w * ratio));
+				int targetH = Math.max(1, (int) Math.round(h * ratio));
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				int step = Math.max(1, Math.min(w / targetW, h / targetH));
+				param.setSourceSubsampling(step, step, 0, 0);
+				BufferedImage image = reader.read(0, param);
+				return write(resize(image, targetW, targetH, png), out, png);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static BufferedImage resize(BufferedImage image, int w, int h, boolean alpha) {
+		int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		if (image.getWidth() == w && image.getHeight() == h && image.getType() == type) {
+			return image;
+		}
+		BufferedImage scaled = new BufferedImage(w, h, type);
+		Graphics2D g = scaled.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			if (!alpha) {
+				// transparente Stellen nicht schwarz werden lassen
+				g.setColor(Color.WHITE);
+				g.fillRect(0, 0, w, h);
+			}
+			g.drawImage(image, 0, 0, w, h, null);
+		} finally {
+			g.dispose();
+		}
+		return scaled;
+	}
+
+	private static boolean write(BufferedImage image, File out, boolean png) throws IOException {
+		if (png) {
+			return ImageIO.write(image, "png", out);
+		}
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			return false;
+		}
+		ImageWriter writer = writers.next();
+		try (ImageOutputStream os = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(os);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return true;
+	}
+}
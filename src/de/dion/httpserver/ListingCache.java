@@ -0,0 +1,341 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache fuer Verzeichnis-Listings im Speicher: die eingelesenen Metadaten und die fertige HTML-Seite.
+ *
+ * Jedes zwischengespeicherte Verzeichnis wird beim Speichern des Listings beim WatchService angemeldet
+ * und wieder abgemeldet, sobald kein Listing mehr davon im Cache liegt. Sobald sich darin etwas
+ * aendert (Datei neu, geloescht, geaendert), fliegt das Listing raus. Manche Dateisysteme (z.B.
+ * Netzlaufwerke) melden keine Aenderungen, deshalb gilt jedes Listing ausserdem nur fuer eine
+ * begrenzte Zeit und wird danach neu eingelesen.
+ * Der Speicher ist begrenzt, bei Bedarf wird das am laengsten nicht benutzte Listing entfernt.
+ */
+public final class ListingCache {
+
+	// so oft werden abgelaufene Listings entfernt
+	private static final long SWEEP_SECONDS = 10;
+	// so oft werden Treffer/Fehlschlaege ausgegeben (nur wenn sich etwas getan hat)
+	private static final long STATS_MILLIS = 10 * 60 * 1000;
+	// so lange vor dem Einlesen darf das Verzeichnis zuletzt geaendert worden sein, damit es gespeichert wird
+	private static final long MTIME_SLACK_MILLIS = 2000;
+
+	/** Ein eingelesenes Verzeichnis samt fertiger Seite. */
+	public static final class Listing {
+		private final Path dir;
+		private final List<FileInfo> entries;
+		private final byte[] html;
+		private final String etag;
+		private final long created;
+		private final long size;
+		// je Sortierung und Richtung einmal sortiert (fuer die JSON-API), Index siehe sorted()
+		private final FileInfo[][] sortedViews = new FileInfo[ListingQuery.Sort.values().length * 2][];
+
+		/**
+		 * @param html    die fertige Seite oder null, wenn bisher nur die JSON-API das Verzeichnis gelesen hat
+		 * @param created Zeitpunkt, an dem das Einlesen begonnen hat (siehe {@link ListingCache#startTime()})
+		 */
+		public Listing(File dir, List<FileInfo> entries, byte[] html, long created) {
+			this.dir = dir.toPath();
+			this.entries = entries;
+			this.html = html;
+			this.etag = html == null ? null : HttpValidators.contentETag(html);
+			this.created = created;
+			long s = 128 + (html == null ? 0 : html.length);
+			for (FileInfo fi : entries) {
+				s += fi.estimatedSize();
+			}
+			// Platz fuer die sortierten Ansichten, eine Referenz pro Eintrag und Ansicht
+			s += 4L * sortedViews.length * entries.size();
+			this.size = s;
+		}
+
+		public List<FileInfo> getEntries() {
+			return entries;
+		}
+
+		public byte[] getHtml() {
+			return html;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		/** Die Eintraege sortiert fuer {@link ListingQuery#run(FileInfo[])}, wird nur einmal je Sortierung berechnet. */
+		public synchronized FileInfo[] sorted(ListingQuery.Sort sort, boolean descending) {
+			int i = sort.ordinal() * 2 + (descending ? 1 : 0);
+			if (sortedViews[i] == null) {
+				sortedViews[i] = ListingQuery.sort(entries, sort, descending);
+			}
+			return sortedViews[i];
+		}
+	}
+
+	private static final class Watch {
+		final WatchKey key;
+		// letzte gemeldete Aenderung, damit ein Listing, das waehrenddessen eingelesen wurde, nicht gespeichert wird
+		long lastChange;
+
+		Watch(WatchKey key) {
+			this.key = key;
+		}
+	}
+
+	private static final LinkedHashMap<String, Listing> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private static final Map<Path, Watch> watches = new HashMap<>();
+	private static long maxBytes;
+	private static long totalBytes;
+	private static long refreshMillis;
+	private static WatchService watcher;
+
+	private static long hits;
+	private static long misses;
+	private static long invalidations;
+	private static long evictions;
+
+	private ListingCache() {}
+
+	/**
+	 * @param maxMiB         maximaler Speicher fuer alle Listings in MiB, 0 = aus
+	 * @param refreshSeconds so lange gilt ein Listing hoechstens, auch ohne gemeldete Aenderung
+	 */
+	public static synchronized void configure(long maxMiB, int refreshSeconds) {
+		maxBytes = Math.max(0, maxMiB) * 1024 * 1024;
+		refreshMillis = Math.max(1, refreshSeconds) * 1000L;
+		if (maxBytes <= 0 || watcher != null) {
+			return;
+		}
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			System.out.println("Listing Cache: WatchService nicht verfuegbar, Listings werden nur alle " + refreshSeconds + " s neu eingelesen");
+		}
+		Thread t = new Thread(ListingCache::watchLoop, "listing-watch");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public static synchronized boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/** Startzeitpunkt fuer ein neues Einlesen, vor dem Lesen des Verzeichnisses holen. */
+	public static long startTime() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @param context unterscheidet Handler mit unterschiedlicher Darstellung (z.B. der Kontext-Pfad)
+	 * @return das gespeicherte Listing oder null
+	 */
+	public static synchronized Listing get(String context, File dir) {
+		if (maxBytes <= 0) {
+			return null;
+		}
+		String key = key(context, dir);
+		Listing l = entries.get(key);
+		if (l != null && System.currentTimeMillis() - l.created < refreshMillis) {
+			hits++;
+			return l;
+		}
+		if (l != null) {
+			remove(key, l);
+		}
+		misses++;
+		return null;
+	}
+
+	/** Speichert ein frisch eingelesenes Listing, ausser das Verzeichnis hat sich inzwischen geaendert. */
+	public static synchronized void put(String context, Listing listing) {
+		if (maxBytes <= 0 || listing.size > maxBytes / 4) {
+			return;
+		}
+		Watch w = watches.get(listing.dir);
+		if (w != null && w.lastChange >= listing.created) {
+			return;
+		}
+		if (w == null) {
+			// erst jetzt anmelden, damit Verzeichnisse ohne gespeichertes Listing keinen Watch belegen;
+			// was sich vor dem Anmelden geaendert hat, verraet nur noch die Aenderungszeit des Verzeichnisses
+			if (changedSince(listing.dir, listing.created)) {
+				return;
+			}
+			watch(listing.dir);
+		}
+		String key = key(context, listing.dir.toFile());
+		Listing old = entries.put(key, listing);
+		if (old != null) {
+			totalBytes -= old.size;
+		}
+		totalBytes += listing.size;
+
+		// am laengsten nicht benutzte zuerst
+		Set<Path> evicted = new HashSet<>();
+		Iterator<Listing> it = entries.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Listing l = it.next();
+			it.remove();
+			totalBytes -= l.size;
+			evictions++;
+			evicted.add(l.dir);
+		}
+		for (Path dir : evicted) {
+			unwatchIfUnused(dir);
+		}
+	}
+
+	/** Wirft alle Listings dieses Verzeichnisses weg. */
+	public static synchronized void invalidate(Path dir) {
+		Watch w = watches.get(dir);
+		if (w != null) {
+			w.lastChange = System.currentTimeMillis();
+		}
+		Iterator<Listing> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Listing l = it.next();
+			if (l.dir.equals(dir)) {
+				it.remove();
+				totalBytes -= l.size;
+				invalidations++;
+			}
+		}
+		unwatchIfUnused(dir);
+	}
+
+	/** Treffer, Fehlschlaege und Belegung als Text fuer die Konsole. */
+	public static synchronized String stats() {
+		long total = hits + misses;
+		return "Listing Cache: " + hits + " Treffer, " + misses + " Fehlschlaege"
+				+ (total > 0 ? " (" + (hits * 100 / total) + "% Treffer)" : "")
+				+ ", " + entries.size() + " Listings, " + (totalBytes / 1024) + "/" + (maxBytes / 1024) + " KiB, "
+				+ invalidations + " durch Aenderungen ungueltig, " + evictions + " verdraengt";
+	}
+
+	private static String key(String context, File dir) {
+		return context + '\0' + dir.getPath();
+	}
+
+	private static void remove(String key, Listing l) {
+		entries.remove(key);
+		totalBytes -= l.size;
+	}
+
+	private static Watch watch(Path dir) {
+		Watch w = watches.get(dir);
+		if (w != null || watcher == null) {
+			return w;
+		}
+		try {
+			w = new Watch(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+			watches.put(dir, w);
+		} catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+			// dann greift nur das zeitliche Neu-Einlesen
+		}
+		return w;
+	}
+
+	private static boolean changedSince(Path dir, long created) {
+		try {
+			// grobe Zeitstempel (z.B. FAT mit 2 s) sicher abdecken
+			return Files.getLastModifiedTime(dir).toMillis() >= created - MTIME_SLACK_MILLIS;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	private static void unwatchIfUnused(Path dir) {
+		for (Listing l : entries.values()) {
+			if (l.dir.equals(dir)) {
+				return;
+			}
+		}
+		Watch w = watches.remove(dir);
+		if (w != null) {
+			w.key.cancel();
+		}
+	}
+
+	private static void watchLoop() {
+		long lastStats = System.currentTimeMillis();
+		String lastStatsText = null;
+		while (true) {
+			try {
+				WatchKey key = watcher != null ? watcher.poll(SWEEP_SECONDS, TimeUnit.SECONDS) : null;
+				if (key == null && watcher == null) {
+					Thread.sleep(SWEEP_SECONDS * 1000);
+				}
+				if (key != null) {
+					// alle Ereignisse (auch OVERFLOW) fuehren zum Neu-Einlesen des Verzeichnisses
+					key.pollEvents();
+					Path dir = (Path) key.watchable();
+					invalidate(dir);
+					if (!key.reset()) {
+						// Verzeichnis geloescht oder nicht mehr erreichbar
+						synchronized (ListingCache.class) {
+							Watch w = watches.get(dir);
+							if (w != null && w.key == key) {
+								watches.remove(dir);
+							}
+						}
+						key.cancel();
+					}
+				}
+				sweep();
+
+				if (System.currentTimeMillis() - lastStats >= STATS_MILLIS) {
+					lastStats = System.currentTimeMillis();
+					String text = stats();
+					if (!text.equals(lastStatsText)) {
+						System.out.println(text);
+						lastStatsText = text;
+					}
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			} catch (Exception e) {
+				System.out.println("Listing Cache Fehler: " + e);
+			}
+		}
+	}
+
+	// abgelaufene Listings entfernen, damit sie keinen Speicher und keine Watches belegen
+	private static synchronized void sweep() {
+		long now = System.currentTimeMillis();
+		Set<Path> expired = new HashSet<>();
+		Iterator<Listing> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Listing l = it.next();
+			if (now - l.created >= refreshMillis) {
+				it.remove();
+				totalBytes -= l.size;
+				expired.add(l.dir);
+			}
+		}
+		for (Path dir : expired) {
+			unwatchIfUnused(dir);
+		}
+	}
+}
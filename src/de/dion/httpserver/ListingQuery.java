@@ -0,0 +1,185 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sortieren, Filtern und seitenweises Abfragen eines eingelesenen Verzeichnisses (fuer die JSON-API).
+ *
+ * Parameter: {@code sort=name|size|date}, {@code order=asc|desc}, {@code q=} (Teil des Namens, ohne
+ * Gross-/Kleinschreibung), {@code limit=} und {@code cursor=}. Ordner stehen immer vor den Dateien.
+ *
+ * Der Cursor enthaelt den Sortierschluessel des letzten gelieferten Eintrags, nicht dessen Position.
+ * Kommen zwischen zwei Abfragen Dateien dazu oder fallen weg, geht es trotzdem ohne Luecken oder
+ * doppelte Eintraege an der richtigen Stelle weiter.
+ */
+public final class ListingQuery {
+
+	public static final int DEFAULT_LIMIT = 500;
+	public static final int MAX_LIMIT = 10000;
+
+	public enum Sort {
+		NAME, SIZE, DATE
+	}
+
+	/** Eine Seite des Ergebnisses. */
+	public static final class Page {
+		public final List<FileInfo> items;
+		/** Cursor fuer die naechste Seite oder null, wenn das die letzte war. */
+		public final String next;
+		/** Anzahl aller Eintraege im Verzeichnis (ohne Filter). */
+		public final int total;
+
+		Page(List<FileInfo> items, String next, int total) {
+			this.items = items;
+			this.next = next;
+			this.total = total;
+		}
+	}
+
+	public final Sort sort;
+	public final boolean descending;
+	/** kleingeschrieben oder null */
+	public final String filter;
+	public final int limit;
+	private final FileInfo after;
+
+	private ListingQuery(Sort sort, boolean descending, String filter, int limit, FileInfo after) {
+		this.sort = sort;
+		this.descending = descending;
+		this.filter = filter;
+		this.limit = limit;
+		this.after = after;
+	}
+
+	/**
+	 * @param params bereits dekodierte Query-Parameter
+	 * @throws IllegalArgumentException bei ungueltigen Werten (-> 400)
+	 */
+	public static ListingQuery parse(Map<String, String> params) {
+		Sort sort = Sort.NAME;
+		String s = params.get("sort");
+		if (s != null && !s.isEmpty()) {
+			try {
+				sort = Sort.valueOf(s.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("sort must be name, size or date");
+			}
+		}
+
+		String order = params.get("order");
+		boolean descending = false;
+		if (order != null && !order.isEmpty()) {
+			if (order.equalsIgnoreCase("desc")) {
+				descending = true;
+			} else if (!order.equalsIgnoreCase("asc")) {
+				throw new IllegalArgumentException("order must be asc or desc");
+			}
+		}
+
+		String filter = params.get("q");
+		filter = filter == null || filter.trim().isEmpty() ? null : filter.trim().toLowerCase(Locale.ROOT);
+
+		int limit = DEFAULT_LIMIT;
+		String l = params.get("limit");
+		if (l != null && !l.isEmpty()) {
+			try {
+				limit = Integer.parseInt(l.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("limit must be a number");
+			}
+			if (limit < 1) {
+				throw new IllegalArgumentException("limit must be at least 1");
+			}
+			limit = Math.min(limit, MAX_LIMIT);
+		}
+
+		String cursor = params.get("cursor");
+		FileInfo after = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
+		return new ListingQuery(sort, descending, filter, limit, after);
+	}
+
+	/** Sortiert eine Kopie der Eintraege (Ordner zuerst). */
+	public static FileInfo[] sort(List<FileInfo> entries, Sort sort, boolean descending) {
+		FileInfo[] sorted = entries.toArray(new FileInfo[0]);
+		Arrays.sort(sorted, comparator(sort, descending));
+		return sorted;
+	}
+
+	/**
+	 * @param sorted Eintraege, sortiert mit {@link #sort(List, Sort, boolean)} nach sort/descending dieser Abfrage
+	 */
+	public Page run(FileInfo[] sorted) {
+		Comparator<FileInfo> cmp = comparator(sort, descending);
+		int i = 0;
+		if (after != null) {
+			int pos = Arrays.binarySearch(sorted, after, cmp);
+			i = pos >= 0 ? pos + 1 : -pos - 1;
+		}
+
+		List<FileInfo> items = new ArrayList<>(Math.min(limit, sorted.length - i));
+		for (; i < sorted.length && items.size() < limit; i++) {
+			if (matches(sorted[i])) {
+				items.add(sorted[i]);
+			}
+		}
+		// Gibt es nach dieser Seite noch einen Treffer?
+		boolean more = false;
+		for (; i < sorted.length && !more; i++) {
+			more = matches(sorted[i]);
+		}
+		String next = more ? encodeCursor(items.get(items.size() - 1)) : null;
+		return new Page(items, next, sorted.length);
+	}
+
+	private boolean matches(FileInfo f) {
+		return filter == null || f.name.toLowerCase(Locale.ROOT).contains(filter);
+	}
+
+	private static Comparator<FileInfo> comparator(Sort sort, boolean descending) {
+		Comparator<FileInfo> c;
+		switch (sort) {
+		case SIZE:
+			c = Comparator.comparingLong((FileInfo f) -> f.size);
+			break;
+		case DATE:
+			c = Comparator.comparingLong((FileInfo f) -> f.lastModified);
+			break;
+		default:
+			c = (a, b) -> 0;
+			break;
+		}
+		// der Name macht die Reihenfolge eindeutig, sonst koennte der Cursor Eintraege ueberspringen
+		c = c.thenComparing((FileInfo f) -> f.name, String.CASE_INSENSITIVE_ORDER).thenComparing((FileInfo f) -> f.name);
+		if (descending) {
+			c = c.reversed();
+		}
+		return Comparator.comparing((FileInfo f) -> !f.directory).thenComparing(c);
+	}
+
+	// "d" oder "f", Groesse, Datum und Name des letzten Eintrags, Base64 damit es in die URL passt
+	private static String encodeCursor(FileInfo f) {
+		String s = (f.directory ? "d" : "f") + "/" + f.size + "/" + f.lastModified + "/" + f.name;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static FileInfo decodeCursor(String cursor) {
+		try {
+			String s = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+			String[] parts = s.split("/", 4);
+			if (parts.length != 4 || !(parts[0].equals("d") || parts[0].equals("f"))) {
+				throw new IllegalArgumentException();
+			}
+			return new FileInfo(new File(parts[3]), parts[0].equals("d"), Long.parseLong(parts[1]), Long.parseLong(parts[2]), null);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("invalid cursor");
+		}
+	}
+}
@@ -0,0 +1,365 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bestimmt den Content-Type einer Datei, ohne {@code Files.probeContentType}.
+ *
+ * Zuerst zaehlt die Endung (feste Tabelle, kein Zugriff auf die Platte). Nur bei unbekannter oder fehlender
+ * Endung werden die ersten Bytes gelesen und mit bekannten Signaturen verglichen, Text ohne Signatur wird
+ * text/plain. Das Ergebnis wird je Pfad, Groesse und Datum gemerkt, damit ein Listing nicht bei jedem
+ * Aufruf dieselben Dateien oeffnet.
+ *
+ * {@link #isPreviewable(String)} entscheidet fuer Listing, Vorschauseite und Auslieferung gleich,
+ * ob eine Datei im Browser angezeigt wird.
+ */
+public final class MimeTypes {
+
+	public static final String DEFAULT = "application/octet-stream";
+
+	/** Unbekannte Endungen anhand der ersten Bytes erkennen */
+	public static boolean SNIFFING = true;
+
+	private static final int SNIFF_BYTES = 512;
+	private static final int MAX_CACHE = 10000;
+
+	private static final Map<String, String> BY_EXTENSION = new HashMap<>(512);
+
+	private static final class Sniffed {
+		final long size;
+		final long lastModified;
+		final String mimeType;
+
+		Sniffed(long size, long lastModified, String mimeType) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.mimeType = mimeType;
+		}
+	}
+
+	// Pfad -> Ergebnis der Erkennung, nur fuer Dateien ohne bekannte Endung
+	private static final Map<String, Sniffed> cache = new LinkedHashMap<String, Sniffed>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Sniffed> eldest) {
+			return size() > MAX_CACHE;
+		}
+	};
+
+	static {
+		// Video
+		add("video/mp4", "mp4", "m4v", "mp4v", "mpg4");
+		add("video/webm", "webm");
+		add("video/x-matroska", "mkv", "mk3d");
+		add("video/quicktime", "mov", "qt");
+		add("video/x-msvideo", "avi");
+		add("video/x-ms-wmv", "wmv");
+		add("video/x-flv", "flv");
+		add("video/mpeg", "mpg", "mpeg", "mpe", "m1v", "m2v");
+		add("video/mp2t", "ts", "m2ts", "mts");
+		add("video/3gpp", "3gp");
+		add("video/3gpp2", "3g2");
+		add("video/ogg", "ogv");
+		// Audio
+		add("audio/mpeg", "mp3", "mp2", "mpga");
+		add("audio/mp4", "m4a", "m4b", "m4p");
+		add("audio/aac", "aac");
+		add("audio/ogg", "ogg", "oga", "spx");
+		add("audio/opus", "opus");
+		add("audio/flac", "flac");
+		add("audio/wav", "wav");
+		add("audio/x-aiff", "aif", "aiff", "aifc");
+		add("audio/x-ms-wma", "wma");
+		add("audio/midi", "mid", "midi", "kar");
+		add("audio/x-matroska", "mka");
+		add("audio/webm", "weba");
+		// Bilder
+		add("image/jpeg", "jpg", "jpeg", "jpe", "jfif");
+		add("image/png", "png");
+		add("image/gif", "gif");
+		add("image/webp", "webp");
+		add("image/avif", "avif");
+		add("image/heic", "heic");
+		add("image/heif", "heif");
+		add("image/bmp", "bmp", "dib");
+		add("image/tiff", "tif", "tiff");
+		add("image/svg+xml", "svg", "svgz");
+		add("image/x-icon", "ico", "cur");
+		add("image/jxl", "jxl");
+		add("image/vnd.adobe.photoshop", "psd");
+		add("image/x-canon-cr2", "cr2");
+		add("image/x-nikon-nef", "nef");
+		add("image/x-sony-arw", "arw");
+		add("image/x-adobe-dng", "dng");
+		// Text und Quelltext
+		add("text/plain", "txt", "text", "log", "conf", "cfg", "ini", "properties", "env", "nfo", "diz", "lst", "list", "gitignore", "gitattributes");
+		add("text/markdown", "md", "markdown");
+		add("text/html", "html", "htm", "xhtml");
+		add("text/css", "css");
+		add("text/csv", "csv");
+		add("text/tab-separated-values", "tsv");
+		add("text/xml", "xml", "xsd", "xsl", "xslt", "pom", "plist");
+		add("text/yaml", "yaml", "yml");
+		add("text/x-toml", "toml");
+		add("text/vtt", "vtt");
+		add("text/x-subrip", "srt");
+		add("text/x-ssa", "ass", "ssa");
+		add("text/rtf", "rtf");
+		add("text/x-java", "java");
+		add("text/x-kotlin", "kt", "kts");
+		add("text/x-scala", "scala");
+		add("text/x-groovy", "groovy", "gradle");
+		add("text/x-c", "c", "h");
+		add("text/x-c++", "cpp", "cc", "cxx", "hpp", "hh", "hxx");
+		add("text/x-csharp", "cs");
+		add("text/x-go", "go");
+		add("text/x-rust", "rs");
+		add("text/x-python", "py", "pyw");
+		add("text/x-ruby", "rb");
+		add("text/x-php", "php");
+		add("text/x-perl", "pl", "pm");
+		add("text/x-lua", "lua");
+		add("text/x-sql", "sql");
+		add("text/x-shellscript", "sh", "bash", "zsh", "ksh");
+		add("text/x-bat", "bat", "cmd", "ps1");
+		// .ts ist meist MPEG-TS (Video), nur .tsx sicher TypeScript
+		add("text/x-typescript", "tsx");
+		add("text/x-tex", "tex", "sty", "bib");
+		add("text/calendar", "ics");
+		add("text/vcard", "vcf");
+		add("text/javascript", "js", "mjs", "cjs", "jsx");
+		add("application/json", "json", "map", "geojson", "webmanifest", "jsonl", "ndjson");
+		// Dokumente
+		add("application/pdf", "pdf");
+		add("application/epub+zip", "epub");
+		add("application/msword", "doc", "dot");
+		add("application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx");
+		add("application/vnd.ms-excel", "xls", "xlt");
+		add("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+		add("application/vnd.ms-powerpoint", "ppt", "pps");
+		add("application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx");
+		add("application/vnd.oasis.opendocument.text", "odt");
+		add("application/vnd.oasis.opendocument.spreadsheet", "ods");
+		add("application/vnd.oasis.opendocument.presentation", "odp");
+		add("application/x-mobipocket-ebook", "mobi");
+		add("application/vnd.comicbook+zip", "cbz");
+		add("application/vnd.comicbook-rar", "cbr");
+		// Archive
+		add("application/zip", "zip");
+		add("application/x-7z-compressed", "7z");
+		add("application/vnd.rar", "rar");
+		add("application/x-tar", "tar");
+		add("application/gzip", "gz", "tgz");
+		add("application/x-bzip2", "bz2", "tbz2");
+		add("application/x-xz", "xz", "txz");
+		add("application/zstd", "zst");
+		add("application/x-lzh-compressed", "lzh", "lha");
+		add("application/vnd.android.package-archive", "apk");
+		add("application/java-archive", "jar", "war", "ear");
+		add("application/x-iso9660-image", "iso");
+		add("application/x-apple-diskimage", "dmg");
+		// Programme und Sonstiges
+		add("application/vnd.microsoft.portable-executable", "exe", "dll", "sys");
+		add("application/x-msi", "msi");
+		add("application/x-debian-package", "deb");
+		add("application/x-rpm", "rpm");
+		add("application/x-sh", "run");
+		add("application/java-vm", "class");
+		add("application/wasm", "wasm");
+		add("application/x-bittorrent", "torrent");
+		add("application/x-sqlite3", "sqlite", "sqlite3", "db");
+		add("font/ttf", "ttf");
+		add("font/otf", "otf");
+		add("font/woff", "woff");
+		add("font/woff2", "woff2");
+		add("model/gltf-binary", "glb");
+		add("model/stl", "stl");
+		add("model/obj", "obj");
+	}
+
+	private MimeTypes() {}
+
+	private static void add(String mimeType, String... extensions) {
+		for (String e : extensions) {
+			BY_EXTENSION.put(e, mimeType);
+		}
+	}
+
+	/** Nur anhand der Endung, null wenn sie unbekannt ist. */
+	public static String byName(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot < 0 || dot == name.length() - 1) {
+			return null;
+		}
+		return BY_EXTENSION.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	/** Wie {@link #resolve(File, long, long)}, Groesse und Datum werden nur bei Bedarf gelesen. */
+	public static String resolve(File file) {
+		String mimeType = byName(file.getName());
+		if (mimeType != null) {
+			return mimeType;
+		}
+		return SNIFFING ? sniffCached(file, file.length(), file.lastModified()) : DEFAULT;
+	}
+
+	/**
+	 * Content-Type einer Datei, nie null.
+	 * @param size         wie vom {@link DirectoryScanner} gelesen, mit Pfad und Datum Schluessel fuer den Cache
+	 * @param lastModified wie vom {@link DirectoryScanner} gelesen
+	 */
+	public static String resolve(File file, long size, long lastModified) {
+		String mimeType = byName(file.getName());
+		if (mimeType != null) {
+			return mimeType;
+		}
+		return SNIFFING ? sniffCached(file, size, lastModified) : DEFAULT;
+	}
+
+	/** Darf der Browser das anzeigen (Vorschau, inline ausliefern)? */
+	public static boolean isPreviewable(String mimeType) {
+		return mimeType.startsWith("video/")
+				|| mimeType.startsWith("audio/")
+				|| mimeType.startsWith("image/")
+				|| mimeType.equals("application/pdf")
+				|| isText(mimeType);
+	}
+
+	/** Text, der in der Vorschau als Text angezeigt wird (auch JSON). */
+	public static boolean isText(String mimeType) {
+		return mimeType.startsWith("text/") || mimeType.equals("application/json");
+	}
+
+	// ------------------------------------------------------------------
+
+	private static String sniffCached(File file, long size, long lastModified) {
+		String key = file.getPath();
+		synchronized (cache) {
+			Sniffed s = cache.get(key);
+			if (s != null && s.size == size && s.lastModified == lastModified) {
+				return s.mimeType;
+			}
+		}
+		String mimeType = sniff(file, size);
+		synchronized (cache) {
+			cache.put(key, new Sniffed(size, lastModified, mimeType));
+		}
+		return mimeType;
+	}
+
+	private static String sniff(File file, long size) {
+		if (size <= 0) {
+			return size == 0 ? "text/plain" : DEFAULT;
+		}
+		byte[] b = new byte[(int) Math.min(SNIFF_BYTES, size)];
+		int n = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			while (n < b.length) {
+				int r = in.read(b, n, b.length - n);
+				if (r < 0) {
+					break;
+				}
+				n += r;
+			}
+		} catch (IOException e) {
+			return DEFAULT;
+		}
+		String magic = byMagic(b, n);
+		if (magic != null) {
+			return magic;
+		}
+		return looksLikeText(b, n) ? "text/plain" : DEFAULT;
+	}
+
+	private static String byMagic(byte[] b, int n) {
+		if (starts(b, n, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+		if (starts(b, n, 0, 0x89, 'P', 'N', 'G')) return "image/png";
+		if (starts(b, n, 0, 'G', 'I', 'F', '8')) return "image/gif";
+		if (starts(b, n, 0, '%', 'P', 'D', 'F')) return "application/pdf";
+		if (starts(b, n, 0, 'R', 'I', 'F', 'F')) {
+			if (starts(b, n, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+			if (starts(b, n, 8, 'W', 'A', 'V', 'E')) return "audio/wav";
+			if (starts(b, n, 8, 'A', 'V', 'I', ' ')) return "video/x-msvideo";
+		}
+		if (starts(b, n, 4, 'f', 't', 'y', 'p')) {
+			String brand = n >= 12 ? new String(b, 8, 4, StandardCharsets.ISO_8859_1) : "";
+			if (brand.startsWith("M4A") || brand.startsWith("M4B")) return "audio/mp4";
+			if (brand.startsWith("qt")) return "video/quicktime";
+			if (brand.startsWith("heic") || brand.startsWith("heix")) return "image/heic";
+			if (brand.startsWith("avif")) return "image/avif";
+			return "video/mp4";
+		}
+		if (starts(b, n, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+			// Matroska, WebM steht als DocType im Header
+			return new String(b, 0, n, StandardCharsets.ISO_8859_1).contains("webm") ? "video/webm" : "video/x-matroska";
+		}
+		if (starts(b, n, 0, 'I', 'D', '3') || n >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xE0) == 0xE0) return "audio/mpeg";
+		if (starts(b, n, 0, 'O', 'g', 'g', 'S')) return "audio/ogg";
+		if (starts(b, n, 0, 'f', 'L', 'a', 'C')) return "audio/flac";
+		if (starts(b, n, 0, 'P', 'K', 0x03, 0x04)) return "application/zip";
+		if (starts(b, n, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) return "application/x-7z-compressed";
+		if (starts(b, n, 0, 'R', 'a', 'r', '!')) return "application/vnd.rar";
+		if (starts(b, n, 0, 0x1F, 0x8B)) return "application/gzip";
+		if (starts(b, n, 0, 'B', 'Z', 'h')) return "application/x-bzip2";
+		if (starts(b, n, 0, 0xFD, '7', 'z', 'X', 'Z')) return "application/x-xz";
+		if (starts(b, n, 0, 'M', 'Z')) return "application/vnd.microsoft.portable-executable";
+		if (starts(b, n, 0, 0x7F, 'E', 'L', 'F')) return "application/x-executable";
+		if (starts(b, n, 0, 'S', 'Q', 'L', 'i', 't', 'e')) return "application/x-sqlite3";
+		if (starts(b, n, 0, 'B', 'M') && n >= 14 && b[6] == 0 && b[7] == 0 && b[8] == 0 && b[9] == 0) return "image/bmp";
+		String head = new String(b, 0, Math.min(n, 64), StandardCharsets.ISO_8859_1).trim().toLowerCase(Locale.ROOT);
+		if (head.startsWith("<?xml")) return head.contains("<svg") ? "image/svg+xml" : "text/xml";
+		if (head.startsWith("<!doctype html") || head.startsWith("<html")) return "text/html";
+		if (head.startsWith("#!")) return "text/x-shellscript";
+		return null;
+	}
+
+	private static boolean starts(byte[] b, int n, int offset, int... sig) {
+		if (n < offset + sig.length) {
+			return false;
+		}
+		for (int i = 0; i < sig.length; i++) {
+			if ((b[offset + i] & 0xFF) != sig[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// keine Steuerzeichen ausser Tab/Zeilenumbruch/Seitenvorschub und gueltiges UTF-8 (am Ende darf ein Zeichen abgeschnitten sein)
+	private static boolean looksLikeText(byte[] b, int n) {
+		int i = 0;
+		while (i < n) {
+			int c = b[i] & 0xFF;
+			if (c < 0x80) {
+				if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B) {
+					return false;
+				}
+				i++;
+				continue;
+			}
+			int len = c < 0xC2 ? 0 : c < 0xE0 ? 2 : c < 0xF0 ? 3 : c < 0xF5 ? 4 : 0;
+			if (len == 0) {
+				return false;
+			}
+			for (int k = 1; k < len; k++) {
+				if (i + k >= n) {
+					return true;
+				}
+				if ((b[i + k] & 0xC0) != 0x80) {
+					return false;
+				}
+			}
+			i += len;
+		}
+		return true;
+	}
+}
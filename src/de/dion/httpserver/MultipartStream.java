@@ -0,0 +1,227 @@
+package de.dion.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming-Parser fuer multipart/form-data Request-Bodies.
+ *
+ * Der Body wird ueber einen Ringpuffer fester Groesse gelesen, die Boundary wird mit
+ * Boyer-Moore-Horspool gesucht. Die Daten eines Parts werden direkt in den uebergebenen
+ * OutputStream geschrieben, dadurch bleibt der Speicherverbrauch pro Upload konstant,
+ * egal wie gross die Datei ist.
+ *
+ * Ablauf:
+ * <pre>
+ * MultipartStream ms = new MultipartStream(in, boundary);
+ * boolean next = ms.skipPreamble();
+ * while (next) {
+ *     String headers = ms.readHeaders();
+ *     ms.readBodyData(out); // out == null -> Daten verwerfen
+ *     next = ms.readBoundary();
+ * }
+ * </pre>
+ */
+public class MultipartStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final InputStream in;
+    /** "\r\n--" + boundary */
+    private final byte[] delimiter;
+    /** Horspool Shift-Tabelle fuer delimiter */
+    private final int[] shift = new int[256];
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean eof;
+
+    public MultipartStream(InputStream in, String boundary) {
+        this(in, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MultipartStream(InputStream in, String boundary, int bufferSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(bufferSize, delimiter.length * 2 + MAX_HEADER_SIZE)];
+
+        int last = delimiter.length - 1;
+        for (int i = 0; i < shift.length; i++) {
+            shift[i] = delimiter.length;
+        }
+        for (int i = 0; i < last; i++) {
+            shift[delimiter[i] & 0xff] = last - i;
+        }
+
+        // Die erste Boundary steht am Anfang des Bodys ohne fuehrendes CRLF.
+        // Wir setzen es virtuell davor, damit jede Boundary gleich gesucht werden kann.
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        tail = 2;
+    }
+
+    /**
+     * Ueberspringt alles bis zur ersten Boundary.
+     * @return true wenn danach ein Part folgt, false wenn der Body leer ist ("--boundary--")
+     */
+    public boolean skipPreamble() throws IOException {
+        readBodyData(null);
+        return readBoundary();
+    }
+
+    /**
+     * Liest den Header-Block eines Parts (bis einschliesslich der Leerzeile).
+     */
+    public String readHeaders() throws IOException {
+        while (tail - head < 2) {
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream in header");
+            }
+        }
+        if (buffer[head] == '\r' && buffer[head + 1] == '\n') {
+            // Part ohne Header
+            head += 2;
+            return "";
+        }
+        while (true) {
+            int pos = indexOf(HEADER_END, head, tail);
+            if (pos != -1) {
+                String headers = new String(buffer, head, pos - head, StandardCharsets.UTF_8);
+                head = pos + HEADER_END.length;
+                return headers;
+            }
+            if (tail - head > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart header too large");
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream in header");
+            }
+        }
+    }
+
+    /**
+     * Schreibt die Daten des aktuellen Parts bis zur naechsten Boundary in out.
+     * @param out Ziel, oder null um die Daten zu verwerfen
+     * @return Anzahl der Bytes des Parts
+     */
+    public long readBodyData(OutputStream out) throws IOException {
+        long total = 0;
+        while (true) {
+            int pos = search(head, tail);
+            if (pos != -1) {
+                total += emit(out, pos - head);
+                head = pos + delimiter.length;
+                return total;
+            }
+            // Die letzten (delimiter.length - 1) Bytes koennten der Anfang der Boundary sein
+            int safe = (tail - head) - (delimiter.length - 1);
+            if (safe > 0) {
+                total += emit(out, safe);
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream");
+            }
+        }
+    }
+
+    /**
+     * Liest die Zeichen direkt nach einer Boundary.
+     * @return true wenn ein weiterer Part folgt, false beim abschliessenden "--"
+     */
+    public boolean readBoundary() throws IOException {
+        while (tail - head < 2) {
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream after boundary");
+            }
+        }
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            head += 2;
+            return false;
+        }
+        // optionales Transport-Padding (Leerzeichen/Tabs) bis CRLF
+        while (true) {
+            while (head < tail && (buffer[head] == ' ' || buffer[head] == '\t')) {
+                head++;
+            }
+            if (tail - head >= 2) {
+                break;
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart stream after boundary");
+            }
+        }
+        if (buffer[head] == '\r' && buffer[head + 1] == '\n') {
+            head += 2;
+            return true;
+        }
+        if (buffer[head] == '\n') {
+            head += 1;
+            return true;
+        }
+        throw new IOException("Malformed multipart boundary line");
+    }
+
+    private int emit(OutputStream out, int len) throws IOException {
+        if (out != null && len > 0) {
+            out.write(buffer, head, len);
+        }
+        head += len;
+        return len;
+    }
+
+    /**
+     * Schiebt die unverarbeiteten Bytes an den Pufferanfang und liest nach.
+     * @return false wenn der Stream zu Ende ist und nichts gelesen wurde
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (head > 0) {
+            int remaining = tail - head;
+            System.arraycopy(buffer, head, buffer, 0, remaining);
+            head = 0;
+            tail = remaining;
+        }
+        int n = in.read(buffer, tail, buffer.length - tail);
+        if (n == -1) {
+            eof = true;
+            return false;
+        }
+        tail += n;
+        return true;
+    }
+
+    /** Boyer-Moore-Horspool Suche nach delimiter in buffer[from, to). */
+    private int search(int from, int to) {
+        int last = delimiter.length - 1;
+        int i = from;
+        while (i <= to - delimiter.length) {
+            int j = last;
+            while (buffer[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shift[buffer[i + last] & 0xff];
+        }
+        return -1;
+    }
+
+    // einfache Suche fuer kurze Muster (Header-Ende)
+    private int indexOf(byte[] pattern, int from, int to) {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loest URL-Pfade zu Dateien unterhalb eines Basisordners auf.
+ *
+ * ".." und "." werden rein textuell aufgeloest, ein Pfad, der dabei ueber die Basis hinaus will, wird
+ * abgelehnt, ohne die Platte anzufassen. Erst danach werden Symlinks aufgeloest (toRealPath), damit ein Link
+ * nach draussen ebenfalls abgelehnt wird. Das Ergebnis wird fuer {@link #TTL_SECONDS} gemerkt, ein Listing
+ * und die Dateien darin kosten dann keinen realpath pro Anfrage mehr.
+ *
+ * Der Vergleich mit der Basis laeuft ueber {@link Path#startsWith(Path)}, also je Pfadelement:
+ * "/srv/dl2" liegt nicht in "/srv/dl".
+ */
+public final class PathResolver {
+
+	/** So lange gilt eine Aufloesung (geaenderte Symlinks wirken spaetestens danach) */
+	public static final int TTL_SECONDS = 5;
+
+	private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+	private static final int MAX_CACHE = 10000;
+	private static final boolean WINDOWS = File.separatorChar == '\\';
+
+	private static final class Resolved {
+		// null: Symlink zeigt aus der Basis heraus
+		final Path path;
+		final long expires;
+
+		Resolved(Path path, long expires) {
+			this.path = path;
+			this.expires = expires;
+		}
+	}
+
+	private final Path base;
+	// normalisierter relativer Pfad ("sub/a.mp4") -> realer Pfad
+	private final Map<String, Resolved> cache = new LinkedHashMap<String, Resolved>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Resolved> eldest) {
+			return size() > MAX_CACHE;
+		}
+	};
+
+	/**
+	 * @throws IOException wenn baseDir nicht existiert
+	 */
+	public PathResolver(File baseDir) throws IOException {
+		this.base = baseDir.toPath().toRealPath();
+	}
+
+	/** Der reale Basisordner. */
+	public Path getBase() {
+		return base;
+	}
+
+	/**
+	 * @param relative bereits dekodierter Pfad relativ zur Basis, z.B. "/sub/a.mp4" oder ""
+	 * @return realer Pfad innerhalb der Basis (muss nicht existieren) oder null bei Traversal,
+	 *         ungueltigen Zeichen oder einem Symlink aus der Basis heraus
+	 */
+	public Path resolve(String relative) {
+		String key = normalize(relative);
+		return key == null ? null : real(key);
+	}
+
+	/** Pfad relativ zur Basis mit "/" getrennt ("/sub/dir", "" fuer die Basis), ohne Zugriff auf die Platte. */
+	public String relativePath(Path real) {
+		if (real.equals(base)) {
+			return "";
+		}
+		String rel = base.relativize(real).toString();
+		if (WINDOWS) {
+			rel = rel.replace('\\', '/');
+		}
+		return "/" + rel;
+	}
+
+	// "/a/./b/../c" -> "a/c", null wenn es ueber die Basis hinaus geht
+	static String normalize(String relative) {
+		List<String> segments = new ArrayList<>();
+		int start = 0;
+		int len = relative.length();
+		for (int i = 0; i <= len; i++) {
+			char c = i < len ? relative.charAt(i) : '/';
+			if (c == '\0' || WINDOWS && c == ':') {
+				// Nullbyte bzw. Laufwerk/Alternate Data Stream unter Windows
+				return null;
+			}
+			if (c != '/' && !(WINDOWS && c == '\\')) {
+				continue;
+			}
+			String s = relative.substring(start, i);
+			start = i + 1;
+			if (s.isEmpty() || s.equals(".")) {
+				continue;
+			}
+			if (s.equals("..")) {
+				if (segments.isEmpty()) {
+					return null;
+				}
+				segments.remove(segments.size() - 1);
+				continue;
+			}
+			segments.add(s);
+		}
+		return String.join("/", segments);
+	}
+
+	private Path real(String key) {
+		if (key.isEmpty()) {
+			return base;
+		}
+		long now = System.nanoTime();
+		synchronized (cache) {
+			Resolved r = cache.get(key);
+			if (r != null && r.expires - now > 0) {
+				return r.path;
+			}
+		}
+		Path real;
+		try {
+			real = base.resolve(key).toRealPath();
+		} catch (NoSuchFileException e) {
+			// existiert (noch) nicht: Ordner darueber aufloesen, Name anhaengen, nicht merken
+			int slash = key.lastIndexOf('/');
+			Path parent = real(slash < 0 ? "" : key.substring(0, slash));
+			return parent == null ? null : parent.resolve(key.substring(slash + 1));
+		} catch (IOException | InvalidPathException e) {
+			return null;
+		}
+		if (!real.startsWith(base)) {
+			real = null;
+		}
+		synchronized (cache) {
+			cache.put(key, new Resolved(real, now + TTL_NANOS));
+		}
+		return real;
+	}
+}
@@ -0,0 +1,144 @@
+package de.dion.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CSS und JavaScript der Seiten als statische Dateien (liegen im Paket unter "assets/").
+ *
+ * Beim ersten Zugriff wird jede Datei einmal geladen, ein Hash ueber den Inhalt gebildet und
+ * mit gzip vorkomprimiert. Die URL enthaelt den Hash (z.B. "/.assets/listing.3f2a9c1be0.css"),
+ * dadurch kann der Browser die Datei unbegrenzt cachen (immutable) und bekommt nach einem
+ * Update automatisch die neue Version. Die Inhalte liegen in direkten ByteBuffern und gehen
+ * bei der NIO Engine ohne Kopie raus.
+ */
+public final class StaticAssets {
+
+	/** Kontext-Pfad, unter dem die Dateien ausgeliefert werden. */
+	public static final String PREFIX = "/.assets";
+
+	public static final class Asset {
+		public final String fileName;
+		public final String contentType;
+		public final String etag;
+		private final ByteBuffer identity;
+		private final ByteBuffer gzip;
+
+		Asset(String fileName, String contentType, String etag, ByteBuffer identity, ByteBuffer gzip) {
+			this.fileName = fileName;
+			this.contentType = contentType;
+			this.etag = etag;
+			this.identity = identity;
+			this.gzip = gzip;
+		}
+
+		/** Unkomprimierter Inhalt (eigene Kopie der Position, der Puffer selbst bleibt unveraendert). */
+		public ByteBuffer identity() {
+			return identity.duplicate();
+		}
+
+		/** gzip-Variante oder null, wenn sich Komprimieren nicht lohnt. */
+		public ByteBuffer gzip() {
+			return gzip == null ? null : gzip.duplicate();
+		}
+	}
+
+	// Name ("listing.css") -> Asset und Dateiname mit Hash ("listing.3f2a9c1be0.css") -> Asset
+	private static final Map<String, Asset> byName = new HashMap<>();
+	private static final Map<String, Asset> byFileName = new HashMap<>();
+
+	private StaticAssets() {}
+
+	/** URL mit Hash fuer die Datei, laedt sie beim ersten Aufruf. */
+	public static synchronized String url(String name) {
+		Asset a = byName.get(name);
+		if (a == null) {
+			a = load(name);
+			byName.put(name, a);
+			byFileName.put(a.fileName, a);
+		}
+		return PREFIX + "/" + a.fileName;
+	}
+
+	/** @param fileName Dateiname mit Hash, so wie er in der URL steht */
+	public static synchronized Asset lookup(String fileName) {
+		return byFileName.get(fileName);
+	}
+
+	private static Asset load(String name) {
+		byte[] data;
+		try (InputStream in = StaticAssets.class.getResourceAsStream("assets/" + name)) {
+			if (in == null) {
+				throw new IllegalStateException("Asset \"" + name + "\" fehlt im Paket de/dion/httpserver/assets");
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				bos.write(buf, 0, n);
+			}
+			data = bos.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Asset \"" + name + "\" konnte nicht geladen werden", e);
+		}
+
+		String hash = hash(data);
+		int dot = name.lastIndexOf('.');
+		String fileName = name.substring(0, dot) + "." + hash + name.substring(dot);
+		byte[] gz = gzip(data);
+		return new Asset(fileName, contentType(name), "\"" + hash + "\"", direct(data), gz.length < data.length ? direct(gz) : null);
+	}
+
+	private static String contentType(String name) {
+		if (name.endsWith(".css")) {
+			return "text/css; charset=utf-8";
+		}
+		if (name.endsWith(".js")) {
+			return "text/javascript; charset=utf-8";
+		}
+		return "application/octet-stream";
+	}
+
+	private static ByteBuffer direct(byte[] data) {
+		ByteBuffer b = ByteBuffer.allocateDirect(data.length);
+		b.put(data).flip();
+		return b.asReadOnlyBuffer();
+	}
+
+	private static byte[] gzip(byte[] data) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
+		try (GZIPOutputStream gz = new GZIPOutputStream(bos) {
+			{
+				// nur einmal beim Start, also die beste Kompression
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gz.write(data);
+		} catch (IOException e) {
+			return data;
+		}
+		return bos.toByteArray();
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+			for (int i = 0; i < 5; i++) {
+				sb.append(String.format("%02x", d[i]));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(Arrays.hashCode(data));
+		}
+	}
+}
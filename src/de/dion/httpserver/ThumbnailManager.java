@@ -3,44 +3,395 @@ package de.dion.httpserver;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Erzeugt Thumbnails im Hintergrund: Video-Thumbnails mit ffmpeg und verkleinerte Bilder
+ * (kleines Thumbnail frs Listing, bildschirmgroe Variante fr die Lightbox) mit ImageIO.
+ *
+ * Das Listing fragt nur nach dem Zustand und wartet nie: fehlt ein Thumbnail, wird es mit
+ * niedriger Prioritt eingereiht und die Seite zeigt einen Platzhalter. Fragt der Browser das Thumbnail
+ * an (weil die Zeile sichtbar ist), rckt es in der Warteschlange nach vorne.
+ * Mehrere Anfragen fr dasselbe Thumbnail teilen sich eine Erzeugung. Schlgt sie fehl, wird die Datei
+ * fr {@link #RETRY_SECONDS} nicht erneut versucht.
+ * Videos und Bilder haben getrennte Warteschlangen: ffmpeg luft mit {@link #THREADS} Prozessen,
+ * Bilder werden auf allen CPU-Kernen parallel verkleinert.
+ * Fertige Thumbnails liegen im {@link ThumbnailStore}. Der Name enthlt Gre und nderungsdatum der
+ * Quelle, wird eine Datei ersetzt, bekommt sie ein neues Thumbnail.
+ */
 public class ThumbnailManager {
-	
+
+	/** Anzahl gleichzeitiger ffmpeg-Prozesse, 0 = halb so viele wie CPU-Kerne */
+	public static int THREADS = 2;
+	/** So lange (Sekunden) wird ein fehlgeschlagenes Thumbnail nicht erneut versucht */
+	public static int RETRY_SECONDS = 600;
+	/** Platz (MiB) fr Thumbnails auf der Platte, danach werden die ltesten verworfen */
+	public static int CACHE_MIB = 512;
+
+	/** Vom Listing fr alle Videos/Bilder im Ordner */
+	public static final int PRIORITY_PREFETCH = 0;
+	/** Vom Browser fr eine sichtbare Zeile */
+	public static final int PRIORITY_VISIBLE = 10;
+
+	/** Bilder bis zu dieser Gre zeigt das Listing direkt, verkleinern lohnt sich nicht */
+	public static final long SMALL_IMAGE_BYTES = 128 * 1024;
+
+	// Thumbnail im Listing (86x56, doppelt fr hochauflsende Displays), deckt die Flche ganz ab
+	private static final int THUMB_WIDTH = 192;
+	private static final int THUMB_HEIGHT = 128;
+	// Lightbox: passt in einen Full-HD Bildschirm
+	private static final int LIGHTBOX_WIDTH = 1920;
+	private static final int LIGHTBOX_HEIGHT = 1080;
+
+	private static final int MAX_QUEUE = 1000;
+	// so viele Thumbnail-Namen werden ihrer Quelldatei zugeordnet (fr /.thumbs)
+	private static final int MAX_KNOWN = 20000;
+	private static final int MAX_FAILED = 10000;
+
+	public enum State {
+		/** liegt im Store */
+		READY,
+		/** eingereiht oder in Arbeit */
+		PENDING,
+		/** Erzeugung ist fehlgeschlagen (oder das Thumbnail ist unbekannt) */
+		FAILED
+	}
+
+	public enum Variant {
+		/** Standbild eines Videos (ffmpeg) */
+		VIDEO(""),
+		/** kleines Bild frs Listing */
+		IMAGE_THUMB("-t"),
+		/** bildschirmgroes Bild fr die Lightbox */
+		IMAGE_LIGHTBOX("-l");
+
+		final String suffix;
+
+		Variant(String suffix) {
+			this.suffix = suffix;
+		}
+	}
+
+	private static ThumbnailManager instance;
+
 	private final File thumbDir;
+	private final ThumbnailStore store;
 	private final int thumbnailScale;
-	
-	public ThumbnailManager(int thumbnailScale) {
+
+	private final Lane videoLane = new Lane("thumbnail");
+	private final Lane imageLane = new Lane("image-thumbnail");
+	// eingereiht oder in Arbeit, je Thumbnail-Name hchstens ein Job
+	private final ConcurrentHashMap<String, Job> inflight = new ConcurrentHashMap<>();
+	// Thumbnail-Name -> bis wann nicht erneut versucht wird
+	private final ConcurrentHashMap<String, Long> failedUntil = new ConcurrentHashMap<>();
+	// Thumbnail-Name -> Quelle, damit eine Anfrage auf /.thumbs ein fehlendes Thumbnail anstoen kann
+	private final Map<String, Source> known = new LinkedHashMap<String, Source>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+			return size() > MAX_KNOWN;
+		}
+	};
+	private final AtomicLong sequence = new AtomicLong();
+
+	private static final class Source {
+		final FileInfo file;
+		final Variant variant;
+
+		Source(FileInfo file, Variant variant) {
+			this.file = file;
+			this.variant = variant;
+		}
+	}
+
+	private final class Lane {
+		final String name;
+		final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+		// nur unter synchronized(queue)
+		boolean started;
+
+		Lane(String name) {
+			this.name = name;
+		}
+	}
+
+	private final class Job implements Comparable<Job> {
+		final String name;
+		final Source source;
+		final String key;
+		final long order = sequence.incrementAndGet();
+		// nur unter synchronized(queue) ndern, whrend der Job nicht in der Queue liegt
+		int priority;
+		final CompletableFuture<State> result = new CompletableFuture<>();
+
+		Job(String name, Source source, String key, int priority) {
+			this.name = name;
+			this.source = source;
+			this.key = key;
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(Job o) {
+			// hhere Prioritt zuerst, sonst in der Reihenfolge des Listings
+			if (priority != o.priority) {
+				return priority > o.priority ? -1 : 1;
+			}
+			return Long.compare(order, o.order);
+		}
+	}
+
+	public ThumbnailManager(int thumbnailScale) throws IOException {
 		this.thumbnailScale = thumbnailScale;
 		this.thumbDir = new File(".thumbs");
+		this.store = new ThumbnailStore(thumbDir, CACHE_MIB * 1024L * 1024L);
+		// Reste abgebrochener Erzeugungen
+		File[] parts = thumbDir.listFiles((dir, name) -> name.contains(".part."));
+		if (parts != null) {
+			for (File f : parts) {
+				f.delete();
+			}
+		}
 	}
 
-    /**
-     * Versucht, ein Thumbnail fr ein Video zu erzeugen (ffmpeg wird dafr verwendet). Die Thumbs werden
-     * im Ordner ".thumbs" als <sha1>.jpg gespeichert.
-     * Wenn ffmpeg nicht verfgbar ist oder die Generierung fehlschlgt, wird null zurckgegeben und
-     * das Listing zeigt stattdessen das Icon an.
-     */
-    public File getOrCreateVideoThumbnail(File video) throws IOException {
-        try {
-            String name = sha1Hex(video.getCanonicalPath()) + ".jpg";
-            File out = new File(thumbDir, name);
-            
-            if (out.exists() && out.length() > 0) {
-            	return out;
-            }
-            out.getParentFile().mkdirs();
-            
-            boolean ok = generateThumbnailWithFfmpeg(video, out);
-            if (ok) {
-            	return out;
-            }
-        } catch (Exception e) {
-            System.err.println("Thumbnail generation failed: " + e.getMessage());
-        }
-        return null;
-    }
+	/** Gemeinsame Instanz fr alle Handler, wird beim ersten Aufruf erstellt. */
+	public static synchronized ThumbnailManager getInstance(int thumbnailScale) throws IOException {
+		if (instance == null) {
+			instance = new ThumbnailManager(thumbnailScale);
+		}
+		return instance;
+	}
+
+	/**
+	 * Dateiname des Thumbnails unter /.thumbs. Merkt sich die Quelle, damit eine sptere Anfrage
+	 * auf /.thumbs das Thumbnail erzeugen kann (z.B. die Lightbox-Variante erst beim ffnen).
+	 */
+	public String thumbnailName(FileInfo source, Variant variant) throws IOException {
+		String name = sha1Hex(key(source, variant)) + variant.suffix + (isPng(source.file, variant) ? ".png" : ".jpg");
+		synchronized (known) {
+			if (!known.containsKey(name)) {
+				known.put(name, new Source(source, variant));
+			}
+		}
+		return name;
+	}
+
+	// Pfad, Gre, Datum und Variante samt Auflsung: ndert sich etwas davon, ist es ein anderes Thumbnail.
+	// Alles kommt aus dem DirectoryScanner, der Pfad ist schon kanonisch (Verzeichnis + Name), also kein Zugriff auf die Platte.
+	private String key(FileInfo source, Variant variant) {
+		String scale;
+		switch (variant) {
+		case VIDEO:
+			scale = thumbnailScale + "w";
+			break;
+		case IMAGE_THUMB:
+			scale = THUMB_WIDTH + "x" + THUMB_HEIGHT;
+			break;
+		default:
+			scale = LIGHTBOX_WIDTH + "x" + LIGHTBOX_HEIGHT;
+			break;
+		}
+		return variant.name().toLowerCase(Locale.ROOT) + "/" + scale + "/" + source.size + "/" + source.lastModified
+				+ "/" + source.file.getAbsolutePath();
+	}
+
+	/**
+	 * Zustand des Thumbnails, kehrt sofort zurck. Fehlt es, wird es im Hintergrund erzeugt.
+	 * Ist die Warteschlange voll, wird ein Prefetch nicht eingereiht, es bleibt dann bei PENDING
+	 * und die Anfrage des Browsers reiht es spter mit hherer Prioritt ein.
+	 */
+	public State request(FileInfo source, Variant variant, int priority) throws IOException {
+		String name = thumbnailName(source, variant);
+		if (store.contains(name)) {
+			return State.READY;
+		}
+		if (isFailed(name)) {
+			return State.FAILED;
+		}
+		submit(name, new Source(source, variant), key(source, variant), priority);
+		return State.PENDING;
+	}
+
+	/**
+	 * Fr Anfragen auf /.thumbs: stt ein fehlendes Thumbnail mit hoher Prioritt an
+	 * und wartet hchstens maxWaitMillis darauf.
+	 * @return PENDING wenn es noch nicht fertig ist, FAILED auch bei unbekanntem Namen
+	 */
+	public State awaitThumbnail(String name, long maxWaitMillis) throws IOException, InterruptedException {
+		if (store.contains(name)) {
+			return State.READY;
+		}
+		Source source;
+		synchronized (known) {
+			source = known.get(name);
+		}
+		if (source == null) {
+			return State.FAILED;
+		}
+		State state = request(source.file, source.variant, PRIORITY_VISIBLE);
+		Job job = inflight.get(name);
+		if (state != State.PENDING || job == null) {
+			// eventuell gerade eben fertig geworden
+			return store.contains(name) ? State.READY : state;
+		}
+		try {
+			return job.result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return State.PENDING;
+		} catch (ExecutionException e) {
+			return State.FAILED;
+		}
+	}
+
+	/** Inhalt des Thumbnails direkt aus dem gemappten Pack, null wenn es (noch) nicht existiert. */
+	public ByteBuffer thumbnailData(String name) throws IOException {
+		return store.get(name);
+	}
+
+	// Bilder, die transparent sein knnen, bleiben PNG, alles andere wird JPEG
+	private static boolean isPng(File source, Variant variant) {
+		if (variant == Variant.VIDEO) {
+			return false;
+		}
+		String n = source.getName().toLowerCase(Locale.ROOT);
+		return n.endsWith(".png") || n.endsWith(".gif");
+	}
+
+	private boolean isFailed(String name) {
+		Long until = failedUntil.get(name);
+		if (until == null) {
+			return false;
+		}
+		if (until > System.currentTimeMillis()) {
+			return true;
+		}
+		failedUntil.remove(name, until);
+		return false;
+	}
+
+	private void submit(String name, Source source, String key, int priority) {
+		Lane lane = source.variant == Variant.VIDEO ? videoLane : imageLane;
+		synchronized (lane.queue) {
+			Job job = inflight.get(name);
+			if (job != null) {
+				// schon eingereiht: nur nach vorne holen (luft er schon, ist remove false)
+				if (priority > job.priority && lane.queue.remove(job)) {
+					job.priority = priority;
+					lane.queue.add(job);
+				}
+				return;
+			}
+			if (lane.queue.size() >= MAX_QUEUE) {
+				Job lowest = null;
+				for (Job j : lane.queue) {
+					if (lowest == null || j.compareTo(lowest) > 0) {
+						lowest = j;
+					}
+				}
+				if (lowest == null || lowest.priority >= priority) {
+					return;
+				}
+				// den unwichtigsten Prefetch verwerfen, er wird beim nchsten Listing erneut eingereiht
+				lane.queue.remove(lowest);
+				inflight.remove(lowest.name, lowest);
+				lowest.result.complete(State.PENDING);
+			}
+			job = new Job(name, source, key, priority);
+			inflight.put(name, job);
+			lane.queue.add(job);
+			if (!lane.started) {
+				lane.started = true;
+				int threads = lane == videoLane
+						? (THREADS > 0 ? THREADS : Math.max(1, Runtime.getRuntime().availableProcessors() / 2))
+						: Runtime.getRuntime().availableProcessors();
+				for (int i = 0; i < threads; i++) {
+					Thread t = new Thread(() -> workLoop(lane), lane.name + "-" + (i + 1));
+					t.setDaemon(true);
+					t.start();
+				}
+			}
+		}
+	}
+
+	private void workLoop(Lane lane) {
+		while (true) {
+			Job job;
+			try {
+				job = lane.queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			State state = State.FAILED;
+			try {
+				if (generate(job)) {
+					state = State.READY;
+				}
+			} catch (Exception | OutOfMemoryError e) {
+				System.err.println("Thumbnail generation failed: " + e.getMessage());
+			}
+			if (state == State.FAILED) {
+				markFailed(job.name);
+			}
+			inflight.remove(job.name, job);
+			job.result.complete(state);
+		}
+	}
+
+	// ffmpeg und ImageIO schreiben in eine Datei, erst das fertige Bild kommt in den Store
+	private boolean generate(Job job) throws IOException, InterruptedException {
+		Source source = job.source;
+		String name = job.name;
+		int dot = name.lastIndexOf('.');
+		File part = new File(thumbDir, name.substring(0, dot) + ".part" + name.substring(dot));
+		boolean ok = false;
+		try {
+			switch (source.variant) {
+			case VIDEO:
+				ok = generateThumbnailWithFfmpeg(source.file.file, part);
+				break;
+			case IMAGE_THUMB:
+				ok = ImageScaler.scale(source.file.file, part, THUMB_WIDTH, THUMB_HEIGHT, true, name.endsWith(".png"));
+				break;
+			case IMAGE_LIGHTBOX:
+				ok = ImageScaler.scale(source.file.file, part, LIGHTBOX_WIDTH, LIGHTBOX_HEIGHT, false, name.endsWith(".png"));
+				break;
+			}
+			ok = ok && part.length() > 0;
+			if (ok) {
+				store.put(name, job.key, Files.readAllBytes(part.toPath()));
+			}
+			return ok;
+		} finally {
+			part.delete();
+		}
+	}
+
+	private void markFailed(String name) {
+		long now = System.currentTimeMillis();
+		failedUntil.put(name, now + RETRY_SECONDS * 1000L);
+		if (failedUntil.size() > MAX_FAILED) {
+			Iterator<Long> it = failedUntil.values().iterator();
+			while (it.hasNext()) {
+				if (it.next() <= now) {
+					it.remove();
+				}
+			}
+		}
+	}
 
     private String sha1Hex(String s) {
         try {
@@ -56,7 +407,7 @@ public class ThumbnailManager {
 
     private boolean generateThumbnailWithFfmpeg(File video, File thumb) throws IOException, InterruptedException {
     	System.out.println("generiere Thumbnail fr \"" + video.getName() + "\"");
-    	
+
         // Command: ffmpeg -y -ss 00:00:10 -i <video> -frames:v 1 -q:v 4 -vf scale=640:-1 <thumb>
     	ProcessBuilder pb = new ProcessBuilder(
                 "ffmpeg",
@@ -71,17 +422,23 @@ public class ThumbnailManager {
         pb.redirectErrorStream(true);
         Process p = pb.start();
 
-        // read output to avoid blocking
-        try (InputStream is = p.getInputStream()) {
-            byte[] buf = new byte[1024];
-            while (is.read(buf) != -1) {
-                // discard, but ensures stream buffer doesn't fill
-            }
-        } catch (IOException ignore) {}
+        // Ausgabe in eigenem Thread verwerfen (sonst blockiert ffmpeg bei vollem Puffer),
+        // damit waitFor wirklich abbricht, wenn ffmpeg haengt und den Video-Worker nicht dauerhaft belegt
+        Thread drain = new Thread(() -> {
+            try (InputStream is = p.getInputStream()) {
+                byte[] buf = new byte[1024];
+                while (is.read(buf) != -1) {
+                    // discard
+                }
+            } catch (IOException ignore) {}
+        }, "ffmpeg-output");
+        drain.setDaemon(true);
+        drain.start();
 
         boolean finished = p.waitFor(8, TimeUnit.SECONDS);
         if (!finished) {
-            p.destroy();
+            System.out.println("ffmpeg antwortet nicht, abgebrochen: \"" + video.getName() + "\"");
+            p.destroyForcibly();
             return false;
         }
         int exit = p.exitValue();
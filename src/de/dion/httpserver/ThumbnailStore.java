@@ -0,0 +1,500 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Speichert Thumbnails in wenigen grossen Pack-Dateien ({@code .thumbs/pack-N.dat}) statt als einzelne Dateien.
+ *
+ * Jeder Eintrag besteht aus Kopf, Schluessel und Bilddaten und wird nur angehaengt, nie ueberschrieben.
+ * Der Schluessel enthaelt Pfad, Groesse, Aenderungsdatum und Variante der Quelle, ein geaendertes Video
+ * bekommt also automatisch ein neues Thumbnail. Der Index liegt im Speicher und wird beim Start aus den
+ * Kopfzeilen der Packs aufgebaut, dabei werden abgeschnittene oder kaputte Enden entfernt.
+ *
+ * Ausgeliefert wird direkt aus dem gemappten Pack, ohne Datei oeffnen oder kopieren. Die Pruefsumme eines
+ * Eintrags aus einem frueheren Lauf wird beim ersten Abruf kontrolliert: ohne fsync kann nach einem Absturz
+ * auch mitten im Pack eine Seite fehlen, nicht nur am Ende.
+ * Ueberschreiten die Packs {@code quota}, fliegen die am laengsten nicht abgerufenen Eintraege raus und
+ * Packs mit wenig lebenden Daten werden umkopiert und geloescht. Laesst sich ein Pack nicht loeschen
+ * (Windows, Mapping lebt noch), steht es in {@code removed.txt} und wird beim Start und beim naechsten
+ * Aufraeumen erneut geloescht, aber nie wieder eingelesen.
+ */
+final class ThumbnailStore {
+
+	// "THB1"
+	private static final int MAGIC = 0x54484231;
+	// magic, Schluessellaenge, Datenlaenge, CRC32 der Daten
+	private static final int HEADER = 4 + 2 + 4 + 4;
+	private static final int MAX_KEY = 4096;
+	private static final int MAX_DATA = 64 * 1024 * 1024;
+	// nach dem Aufraeumen so viel der Quota belegen, damit nicht bei jedem neuen Thumbnail aufgeraeumt wird
+	private static final double LOW_WATER = 0.75;
+	// Packs mit weniger lebenden Daten werden umkopiert
+	private static final double MIN_LIVE_RATIO = 0.5;
+	// Packs, die schon entfernt sind, aber noch nicht geloescht werden konnten
+	private static final String REMOVED_FILE = "removed.txt";
+
+	private static final class Pack {
+		final int id;
+		final File file;
+		final FileChannel channel;
+		long size;
+		long live;
+		// wird neu gemappt, wenn ein Eintrag hinter dem Ende des bisherigen Mappings liegt
+		MappedByteBuffer map;
+
+		Pack(int id, File file, FileChannel channel, long size) {
+			this.id = id;
+			this.file = file;
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		final Pack pack;
+		// Beginn der Bilddaten im Pack, davor stehen Kopf und Schluessel
+		final long offset;
+		final int length;
+		final int headerLength;
+		final int crc;
+		long lastAccess;
+		// Pruefsumme kontrolliert (oder in diesem Lauf geschrieben)
+		boolean verified;
+
+		Entry(String key, Pack pack, long offset, int length, int headerLength, int crc) {
+			this.key = key;
+			this.pack = pack;
+			this.offset = offset;
+			this.length = length;
+			this.headerLength = headerLength;
+			this.crc = crc;
+		}
+
+		long stored() {
+			return headerLength + (long) length;
+		}
+	}
+
+	private final File dir;
+	private final long quota;
+	private final long maxPackSize;
+
+	// alles nur unter synchronized(this)
+	private final Map<String, Entry> index = new HashMap<>();
+	private final TreeMap<Integer, Pack> packs = new TreeMap<>();
+	private Pack current;
+	private int nextId = 1;
+	// Dateinamen entfernter Packs, die noch auf der Platte liegen
+	private final TreeSet<String> removed = new TreeSet<>();
+	private long totalSize;
+	private long clock;
+	private boolean compacting;
+
+	/**
+	 * @param quota hoechstens so viele Bytes belegen die Packs auf der Platte
+	 */
+	ThumbnailStore(File dir, long quota) throws IOException {
+		this.dir = dir;
+		this.quota = Math.max(1024 * 1024, quota);
+		// mehrere Packs, damit das Aufraeumen nicht immer alles umkopieren muss
+		this.maxPackSize = Math.max(1024 * 1024, Math.min(64L * 1024 * 1024, this.quota / 8));
+		dir.mkdirs();
+		load();
+	}
+
+	/** Bilddaten als (schreibgeschuetzter) Ausschnitt des gemappten Packs oder null. */
+	synchronized ByteBuffer get(String name) throws IOException {
+		Entry e = index.get(name);
+		if (e == null) {
+			return null;
+		}
+		e.lastAccess = ++clock;
+		Pack p = e.pack;
+		if (p.map == null || p.map.capacity() < e.offset + e.length) {
+			p.map = p.channel.map(FileChannel.MapMode.READ_ONLY, 0, p.size);
+		}
+		ByteBuffer b = p.map.duplicate();
+		b.position((int) e.offset);
+		b.limit((int) (e.offset + e.length));
+		ByteBuffer data = b.slice();
+		if (!e.verified) {
+			CRC32 crc = new CRC32();
+			crc.update(data.duplicate());
+			if ((int) crc.getValue() != e.crc) {
+				System.err.println("Thumbnail " + name + " in " + p.file.getName() + " ist kaputt, wird neu erzeugt");
+				index.remove(name);
+				p.live -= e.stored();
+				return null;
+			}
+			e.verified = true;
+		}
+		return data;
+	}
+
+	synchronized boolean contains(String name) {
+		return index.containsKey(name);
+	}
+
+	/**
+	 * Haengt ein Thumbnail an das aktuelle Pack an.
+	 * @param key Schluessel der Quelle (Pfad, Groesse, Datum, Variante), steht mit im Pack
+	 */
+	void put(String name, String key, byte[] data) throws IOException {
+		synchronized (this) {
+			append(name, key, ByteBuffer.wrap(data), data.length);
+		}
+		if (needsCompaction()) {
+			compact();
+		}
+	}
+
+	// ------------------------------------------------------------------
+
+	private void append(String name, String key, ByteBuffer data, int length) throws IOException {
+		// der Name steht mit im Pack, damit der Index beim Start wieder aufgebaut werden kann
+		byte[] k = (name + " " + key).getBytes(StandardCharsets.UTF_8);
+		if (k.length > MAX_KEY || length > MAX_DATA) {
+			throw new IOException("thumbnail too large");
+		}
+		if (current == null || current.size + HEADER + k.length + length > maxPackSize && current.size > 0) {
+			// nie die Nummer eines entfernten Packs, das vielleicht noch auf der Platte liegt
+			int id = nextId++;
+			current = open(id, new File(dir, "pack-" + id + ".dat"));
+			packs.put(id, current);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data.duplicate());
+		ByteBuffer head = ByteBuffer.allocate(HEADER + k.length);
+		head.putInt(MAGIC).putShort((short) k.length).putInt(length).putInt((int) crc.getValue()).put(k);
+		head.flip();
+
+		long pos = current.size;
+		long p = pos;
+		ByteBuffer[] parts = { head, data.duplicate() };
+		for (ByteBuffer b : parts) {
+			while (b.hasRemaining()) {
+				p += current.channel.write(b, p);
+			}
+		}
+		current.size = p;
+		totalSize += p - pos;
+
+		Entry e = new Entry(key, current, pos + HEADER + k.length, length, HEADER + k.length, (int) crc.getValue());
+		e.lastAccess = ++clock;
+		e.verified = true;
+		index(name, e);
+	}
+
+	private void index(String name, Entry e) {
+		Entry old = index.put(name, e);
+		if (old != null) {
+			old.pack.live -= old.stored();
+		}
+		e.pack.live += e.stored();
+	}
+
+	private synchronized boolean needsCompaction() {
+		return !compacting && totalSize > quota;
+	}
+
+	/**
+	 * Wirft die am laengsten nicht abgerufenen Eintraege aus dem Index, bis die lebenden Daten
+	 * unter {@link #LOW_WATER} der Quota liegen, und kopiert dann duenn besetzte Packs um.
+	 * Leser werden nur fuer einzelne Eintraege blockiert, nicht fuer das ganze Aufraeumen.
+	 */
+	private void compact() throws IOException {
+		List<Pack> victims = new ArrayList<>();
+		synchronized (this) {
+			if (compacting) {
+				return;
+			}
+			compacting = true;
+			retryRemoved();
+			long live = 0;
+			for (Pack p : packs.values()) {
+				live += p.live;
+			}
+			long target = (long) (quota * LOW_WATER);
+			if (live > target) {
+				List<Map.Entry<String, Entry>> lru = new ArrayList<>(index.entrySet());
+				lru.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+				// das gerade erst erzeugte Thumbnail nie, auch wenn es allein schon groesser als das Ziel ist
+				for (Map.Entry<String, Entry> me : lru.subList(0, lru.size() - 1)) {
+					if (live <= target) {
+						break;
+					}
+					Entry e = me.getValue();
+					index.remove(me.getKey());
+					e.pack.live -= e.stored();
+					live -= e.stored();
+				}
+			}
+			// zuerst die duennsten Packs, so lange bis auch der Platz auf der Platte unter das Ziel faellt
+			List<Pack> candidates = new ArrayList<>(packs.values());
+			candidates.remove(current);
+			candidates.sort((a, b) -> Double.compare((double) a.live / a.size, (double) b.live / b.size));
+			long projected = totalSize;
+			for (Pack p : candidates) {
+				if (projected <= target && p.live >= p.size * MIN_LIVE_RATIO) {
+					break;
+				}
+				victims.add(p);
+				projected -= p.size - p.live;
+			}
+		}
+
+		int moved = 0;
+		try {
+			for (Pack p : victims) {
+				List<String> names = new ArrayList<>();
+				synchronized (this) {
+					for (Map.Entry<String, Entry> me : index.entrySet()) {
+						if (me.getValue().pack == p) {
+							names.add(me.getKey());
+						}
+					}
+				}
+				for (String name : names) {
+					synchronized (this) {
+						Entry e = index.get(name);
+						if (e == null || e.pack != p) {
+							continue;
+						}
+						ByteBuffer data = ByteBuffer.allocate(e.length);
+						long pos = e.offset;
+						while (data.hasRemaining()) {
+							int n = p.channel.read(data, pos);
+							if (n < 0) {
+								throw new IOException("unexpected end of " + p.file);
+							}
+							pos += n;
+						}
+						data.flip();
+						if (!e.verified) {
+							CRC32 crc = new CRC32();
+							crc.update(data.duplicate());
+							if ((int) crc.getValue() != e.crc) {
+								// kaputt, nicht mitnehmen
+								index.remove(name);
+								p.live -= e.stored();
+								continue;
+							}
+						}
+						append(name, e.key, data, e.length);
+						moved++;
+					}
+				}
+				synchronized (this) {
+					packs.remove(p.id);
+					totalSize -= p.size;
+					p.map = null;
+					p.channel.close();
+					// unter Windows geht das nicht, solange noch ein Mapping lebt. Dann merken, damit es beim
+					// naechsten Start nicht wieder eingelesen wird (seine Eintraege wuerden zurueckkommen)
+					if (!p.file.delete()) {
+						removed.add(p.file.getName());
+						saveRemoved();
+						p.file.deleteOnExit();
+					}
+				}
+			}
+		} finally {
+			synchronized (this) {
+				compacting = false;
+			}
+		}
+		if (!victims.isEmpty()) {
+			System.out.println("Thumbnails aufgeraeumt: " + victims.size() + " Packs, " + moved + " Eintraege umkopiert");
+		}
+	}
+
+	// unter synchronized(this)
+	private void retryRemoved() {
+		boolean changed = false;
+		for (Iterator<String> it = removed.iterator(); it.hasNext();) {
+			File f = new File(dir, it.next());
+			if (!f.exists() || f.delete()) {
+				it.remove();
+				changed = true;
+			}
+		}
+		if (changed) {
+			saveRemoved();
+		}
+	}
+
+	private void saveRemoved() {
+		File f = new File(dir, REMOVED_FILE);
+		try {
+			if (removed.isEmpty()) {
+				Files.deleteIfExists(f.toPath());
+			} else {
+				Files.write(f.toPath(), removed, StandardCharsets.UTF_8);
+			}
+		} catch (IOException e) {
+			System.err.println("Thumbnail " + REMOVED_FILE + " konnte nicht geschrieben werden: " + e.getMessage());
+		}
+	}
+
+	private static Pack open(int id, File file) throws IOException {
+		@SuppressWarnings("resource")
+		FileChannel ch = new RandomAccessFile(file, "rw").getChannel();
+		return new Pack(id, file, ch, ch.size());
+	}
+
+	/**
+	 * Baut den Index aus den Packs auf. Ein Eintrag mit kaputtem Kopf oder ueber das Dateiende hinaus
+	 * (Absturz beim Schreiben) beendet das Pack, der Rest wird abgeschnitten. Beim letzten Eintrag jedes
+	 * Packs wird die Pruefsumme sofort kontrolliert, damit ein abgebrochenes Ende abgeschnitten wird, bevor
+	 * dahinter angehaengt wird. Alle anderen werden beim ersten Abruf geprueft, so muss der Start nicht
+	 * alle Packs komplett lesen.
+	 */
+	private synchronized void load() throws IOException {
+		int legacy = 0;
+		File removedFile = new File(dir, REMOVED_FILE);
+		if (removedFile.isFile()) {
+			for (String line : Files.readAllLines(removedFile.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					removed.add(line.trim());
+				}
+			}
+			retryRemoved();
+		}
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("cannot read " + dir);
+		}
+		Arrays.sort(files);
+		TreeMap<Integer, File> found = new TreeMap<>();
+		for (File f : files) {
+			String n = f.getName();
+			if (n.startsWith("pack-") && n.endsWith(".dat")) {
+				try {
+					int id = Integer.parseInt(n.substring(5, n.length() - 4));
+					nextId = Math.max(nextId, id + 1);
+					if (!removed.contains(n)) {
+						found.put(id, f);
+					}
+				} catch (NumberFormatException e) {
+					// fremde Datei, liegen lassen
+				}
+			} else if (f.isFile() && (n.endsWith(".jpg") || n.endsWith(".png")) && !n.contains(".part.")) {
+				// Einzeldateien aus frueheren Versionen
+				if (f.delete()) {
+					legacy++;
+				}
+			}
+		}
+
+		for (Map.Entry<Integer, File> me : found.entrySet()) {
+			Pack p = open(me.getKey(), me.getValue());
+			long valid = scan(p);
+			if (valid < p.size) {
+				System.err.println("Thumbnail-Pack " + p.file.getName() + " ist ab Byte " + valid + " kaputt, wird gekuerzt");
+				p.channel.truncate(valid);
+				p.size = valid;
+			}
+			packs.put(p.id, p);
+			totalSize += p.size;
+		}
+		if (!packs.isEmpty()) {
+			current = packs.lastEntry().getValue();
+		}
+		if (legacy > 0) {
+			System.out.println(legacy + " alte Thumbnail-Dateien entfernt");
+		}
+		System.out.println("Thumbnails: " + index.size() + " Eintraege in " + packs.size() + " Packs ("
+				+ (totalSize / (1024 * 1024)) + " von " + (quota / (1024 * 1024)) + " MiB)");
+	}
+
+	// liest die Kopfzeilen, gibt das Ende des letzten gueltigen Eintrags zurueck
+	private long scan(Pack p) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(HEADER);
+		long pos = 0;
+		Entry last = null;
+		String lastName = null;
+		int lastCrc = 0;
+		while (pos + HEADER <= p.size) {
+			head.clear();
+			if (readFully(p.channel, head, pos) < HEADER) {
+				break;
+			}
+			head.flip();
+			int magic = head.getInt();
+			int keyLen = head.getShort() & 0xffff;
+			int length = head.getInt();
+			int crc = head.getInt();
+			if (magic != MAGIC || keyLen == 0 || keyLen > MAX_KEY || length <= 0 || length > MAX_DATA
+					|| pos + HEADER + keyLen + length > p.size) {
+				break;
+			}
+			ByteBuffer k = ByteBuffer.allocate(keyLen);
+			if (readFully(p.channel, k, pos + HEADER) < keyLen) {
+				break;
+			}
+			String key = new String(k.array(), StandardCharsets.UTF_8);
+			int sep = key.indexOf(' ');
+			if (sep <= 0) {
+				break;
+			}
+			Entry e = new Entry(key.substring(sep + 1), p, pos + HEADER + keyLen, length, HEADER + keyLen, crc);
+			// Reihenfolge der Packs als grobe Naeherung fuer "zuletzt benutzt"
+			e.lastAccess = ++clock;
+			last = e;
+			lastName = key.substring(0, sep);
+			lastCrc = crc;
+			index(lastName, e);
+			pos = e.offset + length;
+		}
+		if (last != null) {
+			if (checkCrc(last, lastCrc)) {
+				last.verified = true;
+			} else {
+				index.remove(lastName);
+				last.pack.live -= last.stored();
+				pos = last.offset - last.headerLength;
+			}
+		}
+		return pos;
+	}
+
+	private static boolean checkCrc(Entry e, int expected) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(e.length);
+		if (readFully(e.pack.channel, data, e.offset) < e.length) {
+			return false;
+		}
+		data.flip();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return (int) crc.getValue() == expected;
+	}
+
+	private static int readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+		int total = 0;
+		while (b.hasRemaining()) {
+			int n = ch.read(b, pos + total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+}
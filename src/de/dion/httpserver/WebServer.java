@@ -2,29 +2,58 @@ package de.dion.httpserver;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
 import de.dion.SimpleHttpServerMain;
+import de.dion.httpserver.WorkloadExecutors.Workload;
+import de.dion.httpserver.handlers.AssetHandler;
+import de.dion.httpserver.handlers.BandwidthHandler;
 import de.dion.httpserver.handlers.FileHandler;
 import de.dion.httpserver.handlers.MainPage;
 import de.dion.httpserver.handlers.OpenConfig;
+import de.dion.httpserver.handlers.ThumbnailHandler;
 import de.dion.httpserver.handlers.UploadHandler;
+import de.dion.httpserver.handlers.WorkloadHandler;
+import de.dion.httpserver.nio.NioHttpServer;
+import de.dion.httpserver.zip.ParallelZipWriter;
+import de.dion.httpserver.zip.SharedZip;
+import de.dion.httpserver.zip.ZipCache;
 
 public class WebServer {
 
 	public static final String version = "2.0";
+	// Threads, die beim JDK-Server gleichzeitig Request-Kpfe lesen drfen
+	private static final int MAX_HEADER_THREADS = 512;
 	private int port;
 	private boolean previewMedia;
 	private String[] shareFolders = new String[0];
 	private boolean showVideoThumbnails;
 	private boolean allowUploads;
 	private String uploadDir;
+	private String executorMode;
+	private String serverEngine;
+	private int idleTimeout;
+	private int headerTimeout;
+	private int writeTimeout;
+	private int maxConnectionsPerIp;
 	private HttpServer server;
 	
 	public WebServer() {
@@ -34,11 +63,41 @@ public class WebServer {
 	private void init() {
 		port = SimpleHttpServerMain.config.getIntValue("Port");
 		FileHandler.BUFFER_SIZE = SimpleHttpServerMain.config.getIntValue("Download-Buffersize");
+		BandwidthScheduler.setRates(SimpleHttpServerMain.config.getIntValue("Bandwidth-Total") * 1024L,
+				SimpleHttpServerMain.config.getIntValue("Bandwidth-Per-Client") * 1024L);
 		FileHandler.BUFFER_SIZE *= 1024; //umrechnung KiB in Bytes
+		ParallelZipWriter.THREADS = SimpleHttpServerMain.config.getIntValue("Zip-Threads");
+		ParallelZipWriter.CPU_BUDGET = SimpleHttpServerMain.config.getValue("Zip-CPU-Budget");
+		SharedZip.cleanup();
+		ZipCache.setMaxSize(SimpleHttpServerMain.config.getIntValue("Zip-Cache-Size"));
+		ZipCache.startPrebuild(SimpleHttpServerMain.config.getIntValue("Zip-Cache-Prebuild"));
+		ListingCache.configure(SimpleHttpServerMain.config.getIntValue("Listing-Cache-Size"),
+				SimpleHttpServerMain.config.getIntValue("Listing-Cache-Refresh"));
+		FileHandler.VIRTUAL_LISTING_FROM = SimpleHttpServerMain.config.getIntValue("Listing-Virtual-From");
+		MimeTypes.SNIFFING = SimpleHttpServerMain.config.getBooleanValue("Mime-Sniffing");
+		ThumbnailManager.THREADS = SimpleHttpServerMain.config.getIntValue("Thumbnail-Threads");
+		ThumbnailManager.RETRY_SECONDS = SimpleHttpServerMain.config.getIntValue("Thumbnail-Retry");
+		ThumbnailManager.CACHE_MIB = SimpleHttpServerMain.config.getIntValue("Thumbnail-Cache-Size");
 		previewMedia = SimpleHttpServerMain.config.getBooleanValue("Preview-Media");
 		showVideoThumbnails = SimpleHttpServerMain.config.getBooleanValue("Show-VideoThumbnails");
 		allowUploads = SimpleHttpServerMain.config.getBooleanValue("Allow-Uploads");
 		uploadDir = SimpleHttpServerMain.config.getValue("Upload-Dir");
+		executorMode = SimpleHttpServerMain.config.getValue("Executor-Mode").trim().toLowerCase();
+		serverEngine = SimpleHttpServerMain.config.getValue("Server-Engine").trim().toLowerCase();
+		WorkloadExecutors.THREADS.put(Workload.PAGE, SimpleHttpServerMain.config.getIntValue("Threads-Pages"));
+		WorkloadExecutors.THREADS.put(Workload.THUMBNAIL, SimpleHttpServerMain.config.getIntValue("Threads-Thumbnails"));
+		WorkloadExecutors.THREADS.put(Workload.STREAM, SimpleHttpServerMain.config.getIntValue("Threads-Downloads"));
+		WorkloadExecutors.THREADS.put(Workload.ZIP, SimpleHttpServerMain.config.getIntValue("Threads-Zip"));
+		WorkloadExecutors.THREADS.put(Workload.UPLOAD, SimpleHttpServerMain.config.getIntValue("Threads-Uploads"));
+		WorkloadExecutors.QUEUE_SIZE = SimpleHttpServerMain.config.getIntValue("Queue-Size");
+		WorkloadExecutors.QUEUE_TIMEOUT_SECONDS = SimpleHttpServerMain.config.getIntValue("Queue-Timeout");
+		WorkloadExecutors.CLIENT_LIMIT = SimpleHttpServerMain.config.getIntValue("Client-Limit");
+		WorkloadExecutors.ADAPTIVE = SimpleHttpServerMain.config.getBooleanValue("Adaptive-Limits");
+		idleTimeout = SimpleHttpServerMain.config.getIntValue("Idle-Timeout");
+		headerTimeout = SimpleHttpServerMain.config.getIntValue("Header-Timeout");
+		writeTimeout = SimpleHttpServerMain.config.getIntValue("Write-Timeout");
+		maxConnectionsPerIp = SimpleHttpServerMain.config.getIntValue("Max-Connections-Per-IP");
+		BandwidthScheduler.configureSlowClients(writeTimeout, SimpleHttpServerMain.config.getIntValue("Min-Throughput") * 1024L);
 		
 		String folders = SimpleHttpServerMain.config.getValue("Share-Folders").trim();
 		if(folders.endsWith(";")) {
@@ -62,16 +121,20 @@ public class WebServer {
     	
     	try {
     		
-    		server = HttpServer.create(new InetSocketAddress(port), 0);
-    		//So viele Threads fr Multuthreading wie Cpu Threads erzeugen
-    		server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+    		server = createServer(new InetSocketAddress(port));
+    		// der Executor des Servers verteilt nur noch auf die Pools der WorkloadExecutors
+    		server.setExecutor(createExecutor());
+    		WorkloadExecutors.start();
     		
     		//Alle Sub-Pages erstellen
     		addFileHandlers();
-    		server.createContext("/open-config", new OpenConfig());
-    		server.createContext("/", new MainPage(port, previewMedia, showVideoThumbnails, shareFolders, allowUploads, uploadDir));
+    		createContext("/open-config", new OpenConfig(), Workload.PAGE);
+    		createContext("/.bandwidth", new BandwidthHandler(), Workload.PAGE);
+    		createContext("/.workload", new WorkloadHandler(), Workload.PAGE);
+    		createContext(StaticAssets.PREFIX, new AssetHandler(), Workload.PAGE);
+    		createContext("/", new MainPage(port, previewMedia, showVideoThumbnails, shareFolders, allowUploads, uploadDir), Workload.PAGE);
     		if(allowUploads) {
-    			server.createContext("/upload", new UploadHandler(uploadDir));
+    			createContext("/upload", new UploadHandler(uploadDir), Workload.UPLOAD);
     		}
     		
     		try {
@@ -96,14 +159,14 @@ public class WebServer {
 	private void addFileHandlers() throws IOException {
 		int thumbnailScale = SimpleHttpServerMain.config.getIntValue("Thumbnail-Scale");
 		
-		server.createContext("/dl", new FileHandler("dl", previewMedia, showVideoThumbnails, thumbnailScale));
+		createFileContext("/dl", new FileHandler("dl", previewMedia, showVideoThumbnails, thumbnailScale));
 		
 		for(String path: shareFolders) {
 			System.out.println("Externer Ordner \"" + path + "\" wird geshared");
 			File checkPath = new File(path);
 			
 			if(checkPath.exists() && checkPath.isDirectory()) {
-				server.createContext("/" + path, new FileHandler(path, previewMedia, showVideoThumbnails, thumbnailScale));
+				createFileContext("/" + path, new FileHandler(path, previewMedia, showVideoThumbnails, thumbnailScale));
 			} else if(checkPath.exists()) {
 				System.err.println("\"" + path + "\" ist kein Verzeichnis!");
 			} else {
@@ -111,9 +174,137 @@ public class WebServer {
 			}
 		}
 		
-		if(showVideoThumbnails) {
-			new File(".thumbs").mkdirs();
-			server.createContext("/.thumbs", new FileHandler(".thumbs", false, false, 0));
+		if(previewMedia) {
+			// Video-Thumbnails und verkleinerte Bilder
+			createContext("/.thumbs", new ThumbnailHandler(ThumbnailManager.getInstance(thumbnailScale)), Workload.THUMBNAIL);
+		}
+	}
+	
+	private void createContext(String path, HttpHandler handler, Workload workload) {
+		server.createContext(path, handler).getFilters().add(WorkloadExecutors.filter(exchange -> workload));
+	}
+	
+	// Listing, Datei oder ZIP entscheidet sich erst am Request
+	private void createFileContext(String path, FileHandler handler) {
+		server.createContext(path, handler).getFilters().add(WorkloadExecutors.filter(handler::classify));
+	}
+	
+	private HttpServer createServer(InetSocketAddress address) throws IOException {
+		if(serverEngine.equals("nio")) {
+			System.out.println("Server-Engine: nio");
+			NioHttpServer nio = NioHttpServer.create(address, 0);
+			nio.setTimeouts(millis(idleTimeout), millis(headerTimeout), millis(writeTimeout));
+			nio.setMaxConnectionsPerIp(maxConnectionsPerIp);
+			return nio;
+		}
+		if(!serverEngine.equals("jdk")) {
+			System.err.println("Unbekannte Server-Engine \"" + serverEngine + "\", verwende \"jdk\"");
+		}
+		System.out.println("Server-Engine: jdk");
+		// der JDK-Server liest die Properties beim ersten create(), Werte in Sekunden.
+		// maxReqTime begrenzt das Einlesen des Requests (Slowloris), ein Limit je IP gibt es dort nicht
+		if(idleTimeout > 0) {
+			System.setProperty("sun.net.httpserver.idleInterval", Integer.toString(idleTimeout));
+		}
+		if(headerTimeout > 0) {
+			System.setProperty("sun.net.httpserver.maxReqTime", Integer.toString(headerTimeout));
+		}
+		return HttpServer.create(address, 0);
+	}
+	
+	/**
+	 * Sind alle Threads des JDK-Servers belegt (z.B. viele Slowloris-Clients), wird die neue Verbindung mit 503
+	 * geschlossen. Ohne das schliesst Java 8 die Verbindung nie, die Exception landet nur im Log des Dispatchers.
+	 * Neuere JDKs schliessen sie selbst, dort kommt man per Reflection nicht an den Socket.
+	 */
+	private static final class RejectConnection implements RejectedExecutionHandler {
+		private static final byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 5\r\n"
+				+ "Connection: close\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		private final int maxThreads;
+		private long rejected;
+
+		RejectConnection(int maxThreads) {
+			this.maxThreads = maxThreads;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			// ServerImpl.Exchange haelt den SocketChannel im Feld "chan"
+			try {
+				Field field = task.getClass().getDeclaredField("chan");
+				field.setAccessible(true);
+				SocketChannel channel = (SocketChannel) field.get(task);
+				try {
+					channel.configureBlocking(false);
+					channel.write(ByteBuffer.wrap(BUSY));
+				} catch (IOException ignored) {
+				}
+				channel.close();
+			} catch (ReflectiveOperationException | RuntimeException | IOException ignored) {
+			}
+			synchronized (this) {
+				if (rejected++ % 1000 == 0) {
+					System.out.println("Alle " + maxThreads + " Threads belegt, neue Verbindungen werden abgewiesen (bisher " + rejected + ")");
+				}
+			}
+			throw new RejectedExecutionException("all " + maxThreads + " threads busy");
+		}
+	}
+	
+	/**
+	 * Executor fuer den JDK-Server: waechst bis maxThreads, danach wird jede neue Verbindung abgewiesen (siehe RejectConnection).
+	 * Package-private fuer den Test mit langsamen Clients.
+	 */
+	static ThreadPoolExecutor createHeaderPool(int maxThreads) {
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), maxThreads);
+		return new ThreadPoolExecutor(threads, maxThreads, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), new RejectConnection(maxThreads));
+	}
+	
+	// 0 = kein Timeout
+	private static long millis(int seconds) {
+		return seconds > 0 ? seconds * 1000L : Long.MAX_VALUE / 4;
+	}
+	
+	/**
+	 * Erstellt den Executor fr die Requests.
+	 * Auf Java 21+ bekommt jeder Request einen eigenen Virtual Thread, damit lange Downloads
+	 * und ZIP-Streams nicht alle Threads blockieren. Auf lteren JVMs (Java 8) wird der feste
+	 * Threadpool mit einem Thread pro CPU Kern verwendet.
+	 */
+	private ExecutorService createExecutor() {
+		if(!executorMode.equals("platform")) {
+			ExecutorService virtualExecutor = createVirtualThreadExecutor();
+			if(virtualExecutor != null) {
+				System.out.println("Executor-Mode: virtual (ein Virtual Thread pro Request)");
+				WorkloadExecutors.VIRTUAL = true;
+				return virtualExecutor;
+			}
+			if(executorMode.equals("virtual")) {
+				System.err.println("Virtual Threads werden von dieser Java Version (" + System.getProperty("java.version") + ") nicht untersttzt!");
+			}
+		}
+		
+		//So viele Threads fr Multuthreading wie Cpu Threads erzeugen
+		int threads = Runtime.getRuntime().availableProcessors();
+		if(!serverEngine.equals("nio")) {
+			// der JDK-Server liest den Request-Kopf schon in diesem Executor, ein langsamer Client hlt den Thread
+			// bis zum Header-Timeout fest. Deshalb wachsen, statt alle anderen warten zu lassen.
+			// Die eigentliche Arbeit luft ohnehin in den WorkloadExecutors
+			System.out.println("Executor-Mode: platform (Threadpool mit " + threads + " bis " + MAX_HEADER_THREADS + " Threads)");
+			return createHeaderPool(MAX_HEADER_THREADS);
+		}
+		System.out.println("Executor-Mode: platform (Threadpool mit " + threads + " Threads)");
+		return Executors.newFixedThreadPool(threads);
+	}
+	
+	// per Reflection, damit das Projekt weiterhin mit Java 8 kompiliert und luft
+	private ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java < 21 oder Preview nicht aktiviert
+			return null;
 		}
 	}
 	
@@ -0,0 +1,591 @@
+package de.dion.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Eigene Thread-Pools je Art von Request, damit lange Transfers die Seiten nicht ausbremsen,
+ * und eine Zulassungskontrolle davor, damit der Server bei Ueberlast schnell "503" sagt statt fuer alle langsam zu werden.
+ *
+ * Der Executor des Servers fuehrt nur noch den {@link #filter(Function) Filter} aus: der ordnet den Request
+ * einem {@link Workload} zu und laesst ihn dort laufen, wenn
+ * <ul>
+ * <li>weniger Requests laufen als das aktuelle Limit des Pools (hoechstens so viele wie Threads) und</li>
+ * <li>der Client in diesem Pool weniger als {@link #CLIENT_LIMIT} Requests laufen oder wartend hat.</li>
+ * </ul>
+ * Sonst wartet der Request in einer begrenzten Warteschlange ({@link #QUEUE_SIZE}, {@link #QUEUE_TIMEOUT_SECONDS}).
+ * Ist die voll oder zu alt, kommt 503 mit Retry-After zurueck.
+ * ZIPs halten dabei keine Verbindung: der Browser bekommt eine kleine Seite mit seiner Position, die sich
+ * selbst neu laedt, und behaelt seinen Platz, solange er wiederkommt.
+ *
+ * Das Limit passt sich an (AIMD): jede Antwort liefert eine Latenz, bei Seiten und Thumbnails die Zeit im
+ * Handler, bei Downloads, ZIPs und Uploads die Zeit pro MiB beim Schreiben bzw. Lesen. Liegt sie deutlich ueber
+ * dem besten Wert der letzten Minute, sinkt das Limit um 10 %, sonst steigt es langsam um eins je Limit Antworten.
+ * Eine volle Platte oder Leitung fuehrt so zu weniger gleichzeitigen Requests statt zu Timeouts fuer alle.
+ *
+ * Die Antwort wird im Pool-Thread fertig geschrieben und geschlossen, beide Engines erlauben das.
+ */
+public final class WorkloadExecutors {
+
+	public enum Workload {
+		/** Listings, Vorschau-Seiten, JSON-API, Startseite, Assets */
+		PAGE("pages", 8, false),
+		THUMBNAIL("thumbnails", 8, false),
+		/** einzelne Dateien (Downloads und Vorschau-Streams) */
+		STREAM("downloads", 32, true),
+		ZIP("zip", 4, true),
+		UPLOAD("uploads", 4, true);
+
+		public final String label;
+		final int defaultThreads;
+		// Latenz pro MiB statt pro Request, mehr Toleranz: eine geteilte Leitung ist kein Fehler
+		final boolean bulk;
+
+		Workload(String label, int defaultThreads, boolean bulk) {
+			this.label = label;
+			this.defaultThreads = defaultThreads;
+			this.bulk = bulk;
+		}
+	}
+
+	/** Threads je Pool = hoechstes Limit, 0 = Standard. Wird in WebServer.init gesetzt */
+	public static final Map<Workload, Integer> THREADS = new EnumMap<>(Workload.class);
+	/** So viele Requests darf jeder Pool zusaetzlich warten lassen */
+	public static int QUEUE_SIZE = 200;
+	/** Laenger wartende Requests bekommen 503 */
+	public static int QUEUE_TIMEOUT_SECONDS = 10;
+	/** Laufende und wartende Requests je Client-IP und Pool */
+	public static int CLIENT_LIMIT = 8;
+	/** false: das Limit bleibt bei der Anzahl Threads */
+	public static boolean ADAPTIVE = true;
+	/** Virtual Threads statt Plattform-Threads (Executor-Mode) */
+	public static boolean VIRTUAL = false;
+
+	private static final double DECREASE = 0.9;
+	private static final double TOLERANCE = 2.0;
+	private static final double BULK_TOLERANCE = 4.0;
+	// darunter ist eine Latenz nie ein Zeichen von Ueberlast
+	private static final long SIGNIFICANT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(60);
+	private static final long COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+	private static final long TICKET_NANOS = TimeUnit.SECONDS.toNanos(30);
+	private static final int MAX_RETRY_AFTER = 30;
+	private static final long MIB = 1024 * 1024;
+
+	private static final Map<Workload, Pool> pools = new EnumMap<>(Workload.class);
+	private static final ThreadLocal<Sample> SAMPLE = new ThreadLocal<>();
+	private static ScheduledExecutorService sweeper;
+
+	private WorkloadExecutors() {}
+
+	// Latenz des laufenden Requests, von Handlern ergaenzt (siehe reportLatency, excludeWait)
+	private static final class Sample {
+		long reported = -1;
+		long excluded;
+	}
+
+	private static final class Waiting {
+		final HttpExchange exchange;
+		final Filter.Chain chain;
+		final String client;
+		final long queued = System.nanoTime();
+
+		Waiting(HttpExchange exchange, Filter.Chain chain, String client) {
+			this.exchange = exchange;
+			this.chain = chain;
+			this.client = client;
+		}
+	}
+
+	private enum Decision { RUN, QUEUED, FULL, CLIENT_LIMIT, TICKET }
+
+	private static final class Pool {
+		final Workload workload;
+		final ThreadPoolExecutor executor;
+		final int maxLimit;
+		final int minLimit;
+
+		// alles Folgende nur unter synchronized (this)
+		double limit;
+		int inFlight;
+		final ArrayDeque<Waiting> waiting = new ArrayDeque<>();
+		// nur ZIP: Client + URL -> zuletzt gesehen
+		final LinkedHashMap<String, Long> tickets = new LinkedHashMap<>();
+		final Map<String, Integer> clients = new HashMap<>();
+		long completed;
+		long rejected;
+		long rejectedClient;
+		long shed;
+		double avgDurationNanos;
+		double avgWaitNanos;
+		long maxWaitNanos;
+		// bester Wert im laufenden und im vorigen Fenster
+		long windowMin = Long.MAX_VALUE;
+		long previousMin = Long.MAX_VALUE;
+		long windowStart = System.nanoTime();
+		long lastDecrease;
+		long lastSample;
+
+		Pool(Workload workload, int threads, ThreadFactory factory) {
+			this.workload = workload;
+			this.maxLimit = threads;
+			this.minLimit = Math.max(1, workload.bulk ? threads / 4 : threads / 8);
+			this.limit = threads;
+			// es wird nur gestartet, was zugelassen ist, die Queue puffert nur den Moment bis ein Thread frei ist
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads), factory);
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+
+		Decision admit(HttpExchange exchange, Filter.Chain chain, String client, long now) {
+			int own = clients.getOrDefault(client, 0);
+			if (workload == Workload.ZIP) {
+				return admitTicket(exchange, client, own, now);
+			}
+			if (own >= CLIENT_LIMIT) {
+				rejectedClient++;
+				return Decision.CLIENT_LIMIT;
+			}
+			if (inFlight < (int) limit && waiting.isEmpty()) {
+				start(client);
+				return Decision.RUN;
+			}
+			if (waiting.size() >= QUEUE_SIZE) {
+				rejected++;
+				return Decision.FULL;
+			}
+			waiting.add(new Waiting(exchange, chain, client));
+			clients.merge(client, 1, Integer::sum);
+			return Decision.QUEUED;
+		}
+
+		// ZIPs: Platz in der Reihe statt gehaltener Verbindung, Position steht auf der Warteseite
+		Decision admitTicket(HttpExchange exchange, String client, int own, long now) {
+			expireTickets(now);
+			String key = client + " " + exchange.getRequestURI();
+			boolean known = tickets.containsKey(key);
+			if (!known && own >= CLIENT_LIMIT) {
+				rejectedClient++;
+				return Decision.CLIENT_LIMIT;
+			}
+			if (!known && tickets.isEmpty() && inFlight < (int) limit) {
+				start(client);
+				return Decision.RUN;
+			}
+			if (!known && tickets.size() >= QUEUE_SIZE) {
+				rejected++;
+				return Decision.FULL;
+			}
+			tickets.put(key, now);
+			if (position(key) <= (int) limit - inFlight) {
+				tickets.remove(key);
+				start(client);
+				return Decision.RUN;
+			}
+			return Decision.TICKET;
+		}
+
+		int position(String key) {
+			int pos = 1;
+			for (String k : tickets.keySet()) {
+				if (k.equals(key)) {
+					return pos;
+				}
+				pos++;
+			}
+			return -1;
+		}
+
+		void expireTickets(long now) {
+			tickets.values().removeIf(seen -> now - seen > TICKET_NANOS);
+		}
+
+		void start(String client) {
+			inFlight++;
+			clients.merge(client, 1, Integer::sum);
+		}
+
+		void release(String client) {
+			Integer n = clients.get(client);
+			if (n == null || n <= 1) {
+				clients.remove(client);
+			} else {
+				clients.put(client, n - 1);
+			}
+		}
+
+		/** Naechste Wartende, die jetzt laufen duerfen; zu alte landen in shedOut. */
+		List<Waiting> poll(long now, List<Waiting> shedOut) {
+			List<Waiting> run = new ArrayList<>();
+			long timeout = TimeUnit.SECONDS.toNanos(QUEUE_TIMEOUT_SECONDS);
+			Iterator<Waiting> it = waiting.iterator();
+			while (it.hasNext()) {
+				Waiting w = it.next();
+				if (now - w.queued > timeout) {
+					// der Client hat vermutlich schon aufgegeben, lieber schnell absagen
+					it.remove();
+					release(w.client);
+					shed++;
+					// kein decrease: lange Downloads fuellen die Queue auch ohne langsame Platte
+					shedOut.add(w);
+				} else if (inFlight < (int) limit) {
+					it.remove();
+					inFlight++;
+					waited(now - w.queued);
+					run.add(w);
+				} else {
+					break;
+				}
+			}
+			return run;
+		}
+
+		void waited(long nanos) {
+			avgWaitNanos += (nanos - avgWaitNanos) * 0.05;
+			maxWaitNanos = Math.max(maxWaitNanos, nanos);
+		}
+
+		void finished(String client, long duration, long sample, long now) {
+			inFlight--;
+			release(client);
+			completed++;
+			avgDurationNanos += (duration - avgDurationNanos) * 0.05;
+			if (sample >= 0 && ADAPTIVE) {
+				adapt(sample, now);
+			}
+		}
+
+		// AIMD gegen den besten Wert der letzten ein bis zwei Minuten
+		void adapt(long sample, long now) {
+			lastSample = sample;
+			if (now - windowStart > WINDOW_NANOS) {
+				previousMin = windowMin;
+				windowMin = Long.MAX_VALUE;
+				windowStart = now;
+			}
+			windowMin = Math.min(windowMin, sample);
+			long baseline = Math.min(windowMin, previousMin);
+			double tolerance = workload.bulk ? BULK_TOLERANCE : TOLERANCE;
+			if (sample > SIGNIFICANT_NANOS && sample > baseline * tolerance) {
+				decrease(now);
+			} else if (inFlight + waiting.size() + tickets.size() + 1 >= (int) limit) {
+				// nur wachsen, wenn das Limit auch ausgeschoepft wird
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			}
+		}
+
+		void decrease(long now) {
+			if (!ADAPTIVE || now - lastDecrease < COOLDOWN_NANOS) {
+				return;
+			}
+			lastDecrease = now;
+			limit = Math.max(minLimit, limit * DECREASE);
+		}
+
+		long baseline() {
+			long b = Math.min(windowMin, previousMin);
+			return b == Long.MAX_VALUE ? 0 : b;
+		}
+
+		// grobe Schaetzung: wer vor einem steht, geteilt durch die parallelen Plaetze
+		int retryAfter(int ahead) {
+			double seconds = (ahead + 1) * avgDurationNanos / 1e9 / Math.max(1, (int) limit);
+			return (int) Math.max(1, Math.min(MAX_RETRY_AFTER, Math.ceil(seconds)));
+		}
+	}
+
+	/** Legt die Pools an, einmal beim Start. */
+	public static synchronized void start() {
+		if (!pools.isEmpty()) {
+			return;
+		}
+		ThreadFactory virtual = VIRTUAL ? virtualThreadFactory() : null;
+		StringBuilder log = new StringBuilder("Thread-Pools:");
+		for (Workload w : Workload.values()) {
+			Integer configured = THREADS.get(w);
+			int threads = configured != null && configured > 0 ? configured : w.defaultThreads;
+			ThreadFactory factory = virtual != null ? virtual : platformThreadFactory(w.label);
+			pools.put(w, new Pool(w, threads, factory));
+			log.append(' ').append(w.label).append('=').append(threads);
+		}
+		System.out.println(log.append(virtual != null ? " (Virtual Threads)" : ""));
+
+		// Warteschlangen auch dann weiterschieben, wenn gerade nichts fertig wird (Timeouts, gewachsenes Limit)
+		sweeper = Executors.newSingleThreadScheduledExecutor(platformThreadFactory("workload-sweeper"));
+		sweeper.scheduleWithFixedDelay(() -> {
+			for (Pool p : pools.values()) {
+				drain(p);
+			}
+		}, 500, 500, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Filter fuer einen Context: ordnet jeden Request mit classifier einem Pool zu und fuehrt den Rest
+	 * der Kette (Handler) dort aus, sobald er zugelassen ist.
+	 */
+	public static Filter filter(Function<HttpExchange, Workload> classifier) {
+		return new Filter() {
+			@Override
+			public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+				Workload workload = classifier.apply(exchange);
+				Pool pool = pools.get(workload);
+				if (pool == null) {
+					// nicht gestartet -> wie bisher direkt
+					chain.doFilter(exchange);
+					return;
+				}
+				String client = address(exchange.getRemoteAddress());
+				Decision decision;
+				int ahead;
+				int retryAfter;
+				synchronized (pool) {
+					decision = pool.admit(exchange, chain, client, System.nanoTime());
+					ahead = decision == Decision.TICKET ? pool.position(client + " " + exchange.getRequestURI()) : pool.waiting.size();
+					retryAfter = pool.retryAfter(ahead);
+				}
+				switch (decision) {
+				case RUN:
+					submit(pool, new Waiting(exchange, chain, client));
+					break;
+				case QUEUED:
+					break;
+				case TICKET:
+					sendQueuePage(exchange, ahead, retryAfter);
+					break;
+				default:
+					sendBusy(exchange, retryAfter);
+				}
+			}
+
+			@Override
+			public String description() {
+				return "admission control and isolated thread pools";
+			}
+		};
+	}
+
+	/**
+	 * Liefert statt der Zeit im Handler eine eigene Latenz fuer die Anpassung des Limits,
+	 * z.B. die Zeit pro MiB beim Senden. Nur im Pool-Thread des Requests aufrufen.
+	 */
+	public static void reportLatency(long nanos) {
+		Sample s = SAMPLE.get();
+		if (s != null) {
+			s.reported = nanos;
+		}
+	}
+
+	/** So lange hat der Handler auf etwas gewartet, das nichts mit Last zu tun hat (z.B. ein Thumbnail in Arbeit). */
+	public static void excludeWait(long nanos) {
+		Sample s = SAMPLE.get();
+		if (s != null) {
+			s.excluded += nanos;
+		}
+	}
+
+	private static void submit(Pool pool, Waiting w) {
+		try {
+			pool.executor.execute(() -> run(pool, w));
+		} catch (RejectedExecutionException e) {
+			// sollte nicht passieren, die Queue hat Platz fuer alle Threads
+			finish(pool, w, 0, -1);
+			try {
+				sendBusy(w.exchange, 1);
+			} catch (IOException ignored) {}
+		}
+	}
+
+	private static void run(Pool pool, Waiting w) {
+		Sample sample = new Sample();
+		SAMPLE.set(sample);
+		long start = System.nanoTime();
+		// falls doch ein Interrupt vom vorigen Request uebrig ist
+		Thread.interrupted();
+		try {
+			w.chain.doFilter(w.exchange);
+		} catch (Throwable t) {
+			if (!(t instanceof IOException)) {
+				System.err.println("Fehler im Handler: " + t);
+				t.printStackTrace();
+			}
+			// ohne den Server-Thread schliesst sonst niemand die Verbindung
+			w.exchange.close();
+		} finally {
+			SAMPLE.remove();
+			// ein als langsam getrennter Client (BandwidthScheduler) darf den naechsten Request nicht treffen
+			Thread.interrupted();
+			long duration = System.nanoTime() - start;
+			finish(pool, w, duration, latency(pool.workload, w.exchange, sample, duration));
+		}
+	}
+
+	// -1 = keine brauchbare Messung
+	private static long latency(Workload workload, HttpExchange exchange, Sample sample, long duration) {
+		if (sample.reported >= 0) {
+			return sample.reported;
+		}
+		if (!workload.bulk) {
+			return Math.max(0, duration - sample.excluded);
+		}
+		if (workload == Workload.UPLOAD) {
+			String length = exchange.getRequestHeaders().getFirst("Content-Length");
+			try {
+				long bytes = length != null ? Long.parseLong(length.trim()) : 0;
+				if (bytes >= MIB) {
+					return (long) (duration / ((double) bytes / MIB));
+				}
+			} catch (NumberFormatException ignored) {}
+		}
+		return -1;
+	}
+
+	private static void finish(Pool pool, Waiting w, long duration, long sample) {
+		synchronized (pool) {
+			pool.finished(w.client, duration, sample, System.nanoTime());
+		}
+		drain(pool);
+	}
+
+	private static void drain(Pool pool) {
+		List<Waiting> shed = new ArrayList<>();
+		List<Waiting> run;
+		int retryAfter;
+		synchronized (pool) {
+			long now = System.nanoTime();
+			pool.expireTickets(now);
+			run = pool.poll(now, shed);
+			retryAfter = pool.retryAfter(pool.waiting.size());
+		}
+		for (Waiting w : shed) {
+			try {
+				sendBusy(w.exchange, retryAfter);
+			} catch (IOException ignored) {}
+		}
+		for (Waiting w : run) {
+			submit(pool, w);
+		}
+	}
+
+	private static void sendBusy(HttpExchange exchange, int retryAfter) throws IOException {
+		byte[] body = "503 Service Unavailable: Server ausgelastet, bitte gleich nochmal versuchen".getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfter));
+		exchange.sendResponseHeaders(503, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	// laedt sich selbst neu, bis der ZIP-Download startet; wer nicht wiederkommt, verliert nach 30 s den Platz
+	private static void sendQueuePage(HttpExchange exchange, int position, int retryAfter) throws IOException {
+		int refresh = Math.max(2, Math.min(10, retryAfter));
+		String html = "<!doctype html><html><head><meta charset=\"utf-8\"><meta http-equiv=\"refresh\" content=\"" + refresh + "\">"
+				+ "<title>Queued</title><style>body{font-family:sans-serif;background:#0f172a;color:#e5e7eb;"
+				+ "display:flex;align-items:center;justify-content:center;height:100vh;margin:0}</style></head>"
+				+ "<body><div><h2>Your download is queued</h2><p>Position " + position
+				+ ". It starts automatically, keep this page open.</p></div></body></html>";
+		byte[] body = html.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		exchange.getResponseHeaders().set("Retry-After", Integer.toString(refresh));
+		exchange.sendResponseHeaders(503, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	/** Momentaufnahme eines Pools fuer /.workload. */
+	public static final class PoolStats {
+		public final Workload workload;
+		public final int threads;
+		/** aktuelles (angepasstes) Limit */
+		public final int limit;
+		public final int active;
+		public final int queued;
+		public final long completed;
+		public final long rejected;
+		public final long rejectedClient;
+		/** wegen Queue-Timeout abgewiesen */
+		public final long shed;
+		public final long avgWaitMillis;
+		public final long maxWaitMillis;
+		/** bester und letzter Messwert (bei Downloads, ZIPs und Uploads pro MiB) */
+		public final long baselineMillis;
+		public final long latencyMillis;
+
+		PoolStats(Pool p) {
+			workload = p.workload;
+			threads = p.maxLimit;
+			limit = (int) p.limit;
+			active = p.inFlight;
+			queued = p.waiting.size() + p.tickets.size();
+			completed = p.completed;
+			rejected = p.rejected;
+			rejectedClient = p.rejectedClient;
+			shed = p.shed;
+			avgWaitMillis = TimeUnit.NANOSECONDS.toMillis((long) p.avgWaitNanos);
+			maxWaitMillis = TimeUnit.NANOSECONDS.toMillis(p.maxWaitNanos);
+			baselineMillis = TimeUnit.NANOSECONDS.toMillis(p.baseline());
+			latencyMillis = TimeUnit.NANOSECONDS.toMillis(p.lastSample);
+		}
+	}
+
+	public static List<PoolStats> stats() {
+		List<PoolStats> result = new ArrayList<>();
+		for (Pool p : pools.values()) {
+			synchronized (p) {
+				result.add(new PoolStats(p));
+			}
+		}
+		return result;
+	}
+
+	private static String address(InetSocketAddress remote) {
+		if (remote == null) {
+			return "?";
+		}
+		return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+	}
+
+	private static ThreadFactory platformThreadFactory(String label) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, label + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	// per Reflection, damit das Projekt weiterhin mit Java 8 kompiliert (wie WebServer.createVirtualThreadExecutor)
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+(function(){
+  // lightbox handling for image thumbs
+  // fallback: Original, falls die verkleinerte Variante (noch) nicht geliefert werden kann
+  window.openLB = function(src,fallback){
+    const lb=document.getElementById('lightbox');
+    const img=document.getElementById('lb-img');
+    img.onerror=fallback?function(){ img.onerror=null; img.src=fallback; }:null;
+    img.src=src; lb.style.display='flex';
+  }
+  window.closeLB = function(){document.getElementById('lightbox').style.display='none';document.getElementById('lb-img').src='';}
+  // Thumbnail anklicken: Lightbox-Variante (data-lightbox) bzw. das Bild selbst
+  window.openThumb = function(t){ openLB(t.getAttribute('data-lightbox')||t.src,t.getAttribute('data-full')); }
+  document.addEventListener('DOMContentLoaded',function(){
+    Array.from(document.querySelectorAll('.thumb')).forEach(t=>{t.style.cursor='zoom-in';t.addEventListener('click',function(e){e.preventDefault();openThumb(this);});});
+  });
+})();
@@ -0,0 +1,154 @@
+(function(){
+  // Virtuelles Scrollen fuer grosse Ordner: Zeilen kommen seitenweise aus ?format=ndjson,
+  // im DOM stehen nur die sichtbaren. Suche und Sortierung erledigt der Server.
+  const meta=document.getElementById('vlist');
+  const api=meta.getAttribute('data-api');
+  const total=parseInt(meta.getAttribute('data-total'),10)||0;
+  const search=document.getElementById('searchBox');
+  const tbody=document.querySelector('#fileTable tbody');
+  const top=document.createElement('tr');
+  const bottom=document.createElement('tr');
+  tbody.appendChild(top);
+  tbody.appendChild(bottom);
+
+  const PAGE=500, OVERSCAN=15;
+  let items=[], next=null, done=false, loading=false, gen=0;
+  let sort='name', order='asc', q='';
+  let rowH=64, first=-1, last=-1, frame=0;
+
+  function url(){
+    let u=api+'/?format=ndjson&limit='+PAGE+'&sort='+sort+'&order='+order;
+    if(q) u+='&q='+encodeURIComponent(q);
+    if(next) u+='&cursor='+encodeURIComponent(next);
+    return u;
+  }
+
+  function load(){
+    if(loading||done) return;
+    loading=true;
+    const g=gen;
+    meta.textContent='Lade...';
+    fetch(url()).then(r=>{
+      if(!r.ok) throw new Error(r.status);
+      const c=r.headers.get('X-Next-Cursor');
+      return r.text().then(t=>[c,t]);
+    }).then(([c,t])=>{
+      if(g!==gen) return;
+      t.split('\n').forEach(l=>{ if(l) items.push(JSON.parse(l)); });
+      next=c; done=!c; loading=false;
+      status();
+      first=-1; schedule();
+    }).catch(e=>{
+      if(g!==gen) return;
+      loading=false;
+      meta.textContent='Fehler beim Laden ('+e.message+')';
+    });
+  }
+
+  function status(){
+    meta.textContent=items.length+(done?'':'+')+(q?' Treffer':' von '+total+' Eintraegen');
+  }
+
+  function reset(){
+    gen++; items=[]; next=null; done=false; loading=false;
+    window.scrollTo(0,0);
+    first=-1; render(); load();
+  }
+
+  function esc(s){
+    return String(s).replace(/&/g,'&amp;').replace(/</g,'&lt;').replace(/>/g,'&gt;').replace(/"/g,'&quot;');
+  }
+
+  function icon(m){
+    let i='📂';
+    if(m.indexOf('audio/')===0) i='♫';
+    if(m.indexOf('video/')===0) i='▶';
+    if(m.indexOf('text/')===0) i='📄';
+    if(m.indexOf('application')===0) i='⚙';
+    if(m.indexOf('pdf')!==-1) i='📄';
+    return i;
+  }
+
+  function size(n){
+    const u=['Bytes','KiB','MiB','GiB'];
+    let s=n, i=0;
+    while(s>=1024&&i<3){ s/=1024; i++; }
+    return (i===0?String(n):s.toLocaleString('de-DE',{minimumFractionDigits:1,maximumFractionDigits:1}))+' '+u[i];
+  }
+
+  function row(it){
+    const tr=document.createElement('tr');
+    if(it.type==='dir'){
+      tr.innerHTML='<td><div class="icon">&#128193;</div></td>'
+        +'<td class="name"><a href="'+esc(it.href)+'" style="color:#cfe9ff;text-decoration:none;font-weight:700;">'+esc(it.name)+'/</a></td>'
+        +'<td class="date">&nbsp;</td><td class="size">&nbsp;</td><td class="actions">&nbsp;</td>';
+      return tr;
+    }
+    const h=esc(it.href);
+    // verkleinerte Bilder: Lightbox-Variante, notfalls das Original
+    const lb=it.lightbox?' data-lightbox="'+esc(it.lightbox)+'" data-full="'+h+'?raw=1"':'';
+    const pic=it.thumb?'<img class="thumb" src="'+esc(it.thumb)+'"'+lb+' alt="'+esc(it.name)+'" loading="lazy">'
+      :it.thumbPending?'<div class="icon" data-thumb="'+esc(it.thumbPending)+'"'+lb+' data-alt="'+esc(it.name)+'">'+icon(it.mime)+'</div>'
+      :'<div class="icon">'+icon(it.mime)+'</div>';
+    const name=it.preview?'<a href="'+h+'?preview=1">'+esc(it.name)+'</a>':esc(it.name);
+    tr.innerHTML='<td>'+pic+'</td>'
+      +'<td class="name"><div class="fname"><div class="name">'+name+'</div></div></td>'
+      +'<td class="date">'+esc(new Date(it.modified).toLocaleString())+'</td>'
+      +'<td class="size">'+esc(size(it.size))+'</td>'
+      +'<td class="actions">'+(it.preview?'<a class="btn-view" href="'+h+'?preview=1">View</a>':'')
+      +'<a class="btn-download" href="'+h+'?download=1">Download</a></td>';
+    const img=tr.querySelector('.thumb');
+    if(img){
+      img.style.cursor='zoom-in';
+      img.addEventListener('click',function(e){ if(window.openThumb){ e.preventDefault(); window.openThumb(this); } });
+    }
+    return tr;
+  }
+
+  function render(){
+    frame=0;
+    const offset=-top.getBoundingClientRect().top;
+    const from=Math.max(0,Math.min(items.length,Math.floor(offset/rowH)-OVERSCAN));
+    const to=Math.min(items.length,from+Math.ceil(window.innerHeight/rowH)+2*OVERSCAN);
+    if(from!==first||to!==last){
+      while(top.nextSibling!==bottom) tbody.removeChild(top.nextSibling);
+      const f=document.createDocumentFragment();
+      for(let i=from;i<to;i++) f.appendChild(row(items[i]));
+      tbody.insertBefore(f,bottom);
+      first=from; last=to;
+      if(window.watchThumbs) window.watchThumbs(tbody);
+      // echte Zeilenhoehe nach dem ersten Aufbau uebernehmen
+      if(to>from){
+        const h=(bottom.getBoundingClientRect().top-top.getBoundingClientRect().bottom)/(to-from);
+        if(h>0&&Math.abs(h-rowH)>1){ rowH=h; first=-1; schedule(); }
+      }
+    }
+    top.style.height=(from*rowH)+'px';
+    bottom.style.height=((items.length-to)*rowH)+'px';
+    if(!done&&to>=items.length-OVERSCAN) load();
+  }
+
+  function schedule(){
+    if(!frame) frame=requestAnimationFrame(render);
+  }
+
+  window.addEventListener('scroll',schedule,{passive:true});
+  window.addEventListener('resize',function(){ first=-1; schedule(); });
+
+  let timer=0;
+  search.addEventListener('input',function(){
+    clearTimeout(timer);
+    const v=this.value.trim();
+    timer=setTimeout(function(){ if(v!==q){ q=v; reset(); } },250);
+  });
+  document.querySelectorAll('th[data-col]').forEach(th=>{
+    th.addEventListener('click',()=>{
+      const col=th.getAttribute('data-col');
+      order=(sort===col&&order==='asc')?'desc':'asc';
+      sort=col;
+      reset();
+    });
+  });
+
+  load();
+})();
@@ -0,0 +1,27 @@
+(function(){
+  const search=document.getElementById('searchBox');
+  const tbody=document.querySelector('#fileTable tbody');
+  search.addEventListener('input',function(){
+    const q=this.value.trim().toLowerCase();
+    Array.from(tbody.rows).forEach(r=>{
+      const name=r.getAttribute('data-name')||'';
+      if(!q || name.indexOf(q)!==-1) r.style.display=''; else r.style.display='none';
+    });
+  });
+  // sort by clicking headers (name,size,date)
+  document.querySelectorAll('th[data-col]').forEach(th=>{
+    th.addEventListener('click',()=>{
+      const col=th.getAttribute('data-col');
+      const rows=Array.from(tbody.rows).filter(r=>r.style.display !== 'none');
+      const dir = th._dir = -(th._dir || -1); // toggle
+      rows.sort((a,b)=>{
+        const va = a.getAttribute('data-'+col)||'';
+        const vb = b.getAttribute('data-'+col)||'';
+        if(col==='name') return va.localeCompare(vb)*dir;
+        if(col==='size' || col==='date') return (parseFloat(va)||0) - (parseFloat(vb)||0) > 0 ? dir : -dir;
+        return 0;
+      });
+      rows.forEach(r=>tbody.appendChild(r));
+    });
+  });
+})();
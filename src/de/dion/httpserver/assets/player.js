@@ -0,0 +1,6 @@
+(function(){
+  // Lautstaerke des Players merken
+  const p=document.getElementById('mediaPlayer');
+  p.volume=localStorage.getItem('userVolume')?parseFloat(localStorage.getItem('userVolume')):0.2;
+  p.addEventListener('volumechange',function(){localStorage.setItem('userVolume',this.volume);});
+})();
@@ -0,0 +1,41 @@
+(function(){
+  // Platzhalter (data-thumb) gegen das fertige Thumbnail tauschen. Angefragt werden nur sichtbare
+  // Zeilen, der Server zieht diese in der Warteschlange vor. 202 = noch in Arbeit, spaeter erneut.
+  const MAX_TRIES=60;
+
+  function swap(el,src){
+    const img=document.createElement('img');
+    img.className='thumb';
+    img.alt=el.getAttribute('data-alt')||'';
+    ['data-lightbox','data-full'].forEach(a=>{ if(el.hasAttribute(a)) img.setAttribute(a,el.getAttribute(a)); });
+    img.onload=function(){
+      el.parentNode.replaceChild(img,el);
+      img.style.cursor='zoom-in';
+      img.addEventListener('click',function(e){ if(window.openThumb){ e.preventDefault(); window.openThumb(this); } });
+    };
+    img.src=src;
+  }
+
+  function poll(el,tries){
+    if(!el.isConnected) return;
+    const src=el.getAttribute('data-thumb');
+    fetch(src).then(r=>{
+      if(r.status===200) swap(el,src);
+      else if(r.status===202&&tries<MAX_TRIES) setTimeout(function(){ poll(el,tries+1); },Math.min(1000*(tries+1),5000));
+    }).catch(function(){});
+  }
+
+  const observer=('IntersectionObserver' in window)?new IntersectionObserver(function(entries){
+    entries.forEach(e=>{
+      if(e.isIntersecting){ observer.unobserve(e.target); poll(e.target,0); }
+    });
+  },{rootMargin:'200px'}):null;
+
+  window.watchThumbs=function(root){
+    (root||document).querySelectorAll('[data-thumb]:not([data-watched])').forEach(el=>{
+      el.setAttribute('data-watched','1');
+      if(observer) observer.observe(el); else poll(el,0);
+    });
+  };
+  window.watchThumbs(document);
+})();
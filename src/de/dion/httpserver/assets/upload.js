@@ -0,0 +1,81 @@
+(function(){
+  const form = document.getElementById('uploadForm');
+  const fileInput = document.getElementById('file');
+  const btnUpload = document.getElementById('btnUpload');
+  const btnCancel = document.getElementById('btnCancel');
+  const progressWrap = document.getElementById('progressWrap');
+  const progressBar = document.getElementById('progressBar');
+  const progressText = document.getElementById('progressText');
+  const speedText = document.getElementById('speedText');
+  const resultDiv = document.getElementById('result');
+  let xhr = null;
+  let startTime = 0;
+  form.addEventListener('submit', function(ev){
+    ev.preventDefault();
+    if (!fileInput.files || fileInput.files.length === 0) {
+      resultDiv.innerHTML = '<div style="color:var(--muted)">Keine Datei ausgewählt.</div>';
+      return;
+    }
+    btnUpload.disabled = true;
+    resultDiv.innerHTML = '';
+    progressBar.style.width = '0%';
+    progressText.textContent = '0%';
+    speedText.textContent = '';
+    progressWrap.style.display = 'block';
+    btnCancel.style.display = 'inline-block';
+
+    const fd = new FormData();
+    // append all files under same field name 'file'
+    for (let i=0;i<fileInput.files.length;i++) {
+      fd.append('file', fileInput.files[i]);
+    }
+
+    xhr = new XMLHttpRequest();
+    xhr.open('POST', window.location.pathname, true);
+
+    xhr.upload.onprogress = function(evt) {
+      if (!evt.lengthComputable) return;
+      const percent = Math.round((evt.loaded / evt.total) * 100);
+      progressBar.style.width = percent + '%';
+      progressText.textContent = percent + '% (' + formatBytes(evt.loaded) + ' / ' + formatBytes(evt.total) + ')';
+      const elapsed = (performance.now() - startTime) / 1000; // seconds
+      if (elapsed > 0) {
+        const speed = evt.loaded / elapsed; // bytes/sec
+        speedText.textContent = formatBytes(speed) + '/s';
+      }
+    };
+
+    xhr.onload = function() {
+      btnUpload.disabled = false;
+      btnCancel.style.display = 'none';
+      try {
+        // show raw server HTML response
+        resultDiv.innerHTML = xhr.responseText;
+      } catch (e) {
+        resultDiv.textContent = 'Upload abgeschlossen.';
+      }
+    };
+    xhr.onerror = function() {
+      btnUpload.disabled = false;
+      btnCancel.style.display = 'none';
+      resultDiv.innerHTML = '<div style="color:#ff6b6b">Fehler beim Hochladen.</div>';
+    };
+    xhr.onabort = function() {
+      btnUpload.disabled = false;
+      btnCancel.style.display = 'none';
+      resultDiv.innerHTML = '<div style="color:var(--muted)">Upload abgebrochen.</div>';
+    };
+
+    btnCancel.onclick = function(){ if (xhr) xhr.abort(); };
+    startTime = performance.now();
+    xhr.send(fd);
+  });
+
+  function formatBytes(bytes) {
+    if (bytes === 0) return '0 B';
+    const k = 1024;
+    const sizes = ['B','KB','MB','GB','TB'];
+    const i = Math.floor(Math.log(bytes) / Math.log(k));
+    return (bytes / Math.pow(k, i)).toFixed( (i>0)?2:0 ) + ' ' + sizes[i];
+  }
+})();
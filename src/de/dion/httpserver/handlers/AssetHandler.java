@@ -0,0 +1,111 @@
+package de.dion.httpserver.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.dion.httpserver.HttpValidators;
+import de.dion.httpserver.StaticAssets;
+import de.dion.httpserver.nio.ZeroCopyExchange;
+
+/**
+ * Liefert die CSS/JS Dateien aus {@link StaticAssets} aus.
+ * Die URLs enthalten einen Hash ueber den Inhalt, deshalb darf der Browser sie fuer immer cachen.
+ */
+public class AssetHandler implements HttpHandler {
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		boolean head = "HEAD".equalsIgnoreCase(method);
+		if (!head && !"GET".equalsIgnoreCase(method)) {
+			exchange.sendResponseHeaders(405, -1);
+			exchange.close();
+			return;
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		String fileName = path.substring(path.lastIndexOf('/') + 1);
+		StaticAssets.Asset asset = StaticAssets.lookup(fileName);
+		if (asset == null) {
+			// unbekannt oder alte Version (Hash passt nicht mehr)
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		ByteBuffer body = asset.identity();
+		String etag = asset.etag;
+		ByteBuffer gzip = asset.gzip();
+		if (gzip != null && acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+			body = gzip;
+			// eigene Variante -> eigenes ETag
+			etag = etag.substring(0, etag.length() - 1) + "-gz\"";
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Content-Type", asset.contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+		exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+		HttpValidators.setValidators(exchange, etag, -1);
+
+		if (HttpValidators.isNotModified(exchange, etag, -1)) {
+			exchange.getResponseHeaders().remove("Content-Encoding");
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		if (head) {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.remaining()));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+			return;
+		}
+
+		exchange.sendResponseHeaders(200, body.remaining());
+		try (OutputStream os = exchange.getResponseBody()) {
+			if (exchange instanceof ZeroCopyExchange && ((ZeroCopyExchange) exchange).isZeroCopyAvailable()) {
+				((ZeroCopyExchange) exchange).transferBuffer(body);
+			} else {
+				// JDK HttpServer: nur ueber byte[] moeglich
+				byte[] chunk = new byte[Math.min(8192, body.remaining())];
+				while (body.hasRemaining()) {
+					int n = Math.min(chunk.length, body.remaining());
+					body.get(chunk, 0, n);
+					os.write(chunk, 0, n);
+				}
+			}
+		}
+	}
+
+	/** true wenn gzip erlaubt ist (auch ueber "*"), "gzip;q=0" schliesst es aus. */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String part : acceptEncoding.split(",")) {
+			String[] tokens = part.split(";");
+			String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+			if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("*")) {
+				continue;
+			}
+			for (int i = 1; i < tokens.length; i++) {
+				String param = tokens[i].trim().toLowerCase(Locale.ROOT);
+				if (param.startsWith("q=")) {
+					try {
+						if (Double.parseDouble(param.substring(2).trim()) <= 0) {
+							return false;
+						}
+					} catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,136 @@
+package de.dion.httpserver.handlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.dion.httpserver.BandwidthScheduler;
+
+/**
+ * /.bandwidth, nur von localhost erreichbar (wie /open-config).
+ *
+ * GET liefert die Limits und die gemessene Rate je Client als JSON. Ein POST mit total=..&client=..
+ * (KiB/s, 0 = unbegrenzt, im Body oder in der Query) aendert die Limits sofort, auch fuer laufende Downloads,
+ * z.B. {@code curl -d total=10240 http://localhost/.bandwidth}. Die config.conf bleibt dabei unveraendert.
+ * Nur per POST und nicht von fremden Seiten (Origin), sonst koennte jede im Browser geoeffnete Seite
+ * den Server per {@code <img src=".../.bandwidth?total=1">} drosseln.
+ */
+public class BandwidthHandler implements HttpHandler {
+
+	// Body eines POST, mehr als ein paar Parameter braucht es nicht
+	private static final int MAX_BODY = 1024;
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		if (!OpenConfig.isLocalRequest(exchange) || isCrossOrigin(exchange)) {
+			send(exchange, 403, "text/plain; charset=utf-8", "Forbidden");
+			return;
+		}
+
+		String method = exchange.getRequestMethod();
+		String query = exchange.getRequestURI().getRawQuery();
+		if ("GET".equalsIgnoreCase(method)) {
+			if (query != null && !query.isEmpty()) {
+				exchange.getResponseHeaders().set("Allow", "GET, POST");
+				send(exchange, 405, "text/plain; charset=utf-8", "Limits nur per POST aendern, z.B. curl -d total=10240 http://localhost/.bandwidth");
+				return;
+			}
+		} else if ("POST".equalsIgnoreCase(method)) {
+			String body = readBody(exchange);
+			query = query == null || query.isEmpty() ? body : body.isEmpty() ? query : query + "&" + body;
+		} else {
+			exchange.getResponseHeaders().set("Allow", "GET, POST");
+			send(exchange, 405, "text/plain; charset=utf-8", "Method Not Allowed");
+			return;
+		}
+
+		if (query != null && !query.isEmpty()) {
+			long total = BandwidthScheduler.getTotalRate();
+			long perClient = BandwidthScheduler.getClientRate();
+			try {
+				for (String pair : query.split("&")) {
+					int eq = pair.indexOf('=');
+					String key = eq < 0 ? pair : pair.substring(0, eq);
+					String value = eq < 0 ? "" : pair.substring(eq + 1).trim();
+					if (key.equals("total")) {
+						total = Long.parseLong(value) * 1024L;
+					} else if (key.equals("client")) {
+						perClient = Long.parseLong(value) * 1024L;
+					}
+				}
+			} catch (NumberFormatException e) {
+				send(exchange, 400, "text/plain; charset=utf-8", "total und client in KiB/s angeben, z.B. total=10240&client=2048");
+				return;
+			}
+			BandwidthScheduler.setRates(total, perClient);
+			System.out.println("Bandbreite: gesamt " + describe(total) + ", je Client " + describe(perClient));
+		}
+
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"total\":").append(BandwidthScheduler.getTotalRate() / 1024)
+				.append(",\"client\":").append(BandwidthScheduler.getClientRate() / 1024)
+				.append(",\"clients\":[");
+		boolean first = true;
+		for (BandwidthScheduler.ClientStats c : BandwidthScheduler.stats()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			// Adressen bestehen nur aus Ziffern, Hex, '.' und ':', kein Escaping noetig
+			json.append("\n{\"address\":\"").append(c.address)
+					.append("\",\"rate\":").append(c.rate / 1024)
+					.append(",\"bytes\":").append(c.bytes)
+					.append(",\"flows\":{");
+			boolean firstFlow = true;
+			for (Map.Entry<BandwidthScheduler.TrafficClass, Integer> e : c.flows.entrySet()) {
+				if (!firstFlow) {
+					json.append(',');
+				}
+				firstFlow = false;
+				json.append('"').append(e.getKey().name().toLowerCase()).append("\":").append(e.getValue());
+			}
+			json.append("}}");
+		}
+		json.append("]}\n");
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		send(exchange, 200, "application/json; charset=utf-8", json.toString());
+	}
+
+	// eine fremde Seite im Browser schickt ihre eigene Origin mit, curl und aehnliche gar keine
+	private static boolean isCrossOrigin(HttpExchange exchange) {
+		String origin = exchange.getRequestHeaders().getFirst("Origin");
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		return origin != null && (host == null || !origin.equalsIgnoreCase("http://" + host));
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buf = new byte[256];
+			int n;
+			while ((n = in.read(buf)) > 0 && body.size() < MAX_BODY) {
+				body.write(buf, 0, Math.min(n, MAX_BODY - body.size()));
+			}
+		}
+		return body.toString("ISO-8859-1").trim();
+	}
+
+	private static String describe(long rate) {
+		return rate <= 0 ? "unbegrenzt" : (rate / 1024) + " KiB/s";
+	}
+
+	private static void send(HttpExchange exchange, int code, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+}
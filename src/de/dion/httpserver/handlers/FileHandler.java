@@ -1,19 +1,25 @@
 package de.dion.httpserver.handlers;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -22,17 +28,31 @@ import com.sun.net.httpserver.HttpHandler;
 
 import de.dion.SimpleHttpServerMain;
 import de.dion.httpserver.DataServer;
+import de.dion.httpserver.DirectoryScanner;
+import de.dion.httpserver.FileInfo;
+import de.dion.httpserver.ListingCache;
+import de.dion.httpserver.ListingQuery;
+import de.dion.httpserver.MimeTypes;
+import de.dion.httpserver.PathResolver;
+import de.dion.httpserver.StaticAssets;
 import de.dion.httpserver.ThumbnailManager;
+import de.dion.httpserver.WorkloadExecutors.Workload;
+import de.dion.httpserver.template.HtmlWriter;
+import de.dion.httpserver.template.Template;
 
 public class FileHandler implements HttpHandler {
 	
     private final File baseDir;
+    private final PathResolver resolver;
     private final boolean previewMedia;
     private final boolean showVideoThumbnails;
     private static ThumbnailManager thumpnailManager = null;
-    private static DataServer fileServer = new DataServer(SimpleHttpServerMain.config.getBooleanValue("Filter-FileNames"));
+    private static DataServer fileServer = new DataServer(SimpleHttpServerMain.config.getBooleanValue("Filter-FileNames"),
+    		"store".equalsIgnoreCase(SimpleHttpServerMain.config.getValue("Zip-Mode").trim()));
     DecimalFormat dFormater = new DecimalFormat("###,##0.0");
     public static long BUFFER_SIZE;
+    /** Ab so vielen Einträgen lädt die Seite die Zeilen über die JSON-API nach (virtuelles Scrollen), 0 = nie */
+    public static int VIRTUAL_LISTING_FROM;
 
     /**
      * @param basePath     Pfad zum Verzeichnis, das serviert werden soll (kann absolut sein, z.B. "Z:\admin1\Music")
@@ -44,12 +64,13 @@ public class FileHandler implements HttpHandler {
         if (!bd.exists() || !bd.isDirectory()) {
             throw new IOException("Base path does not exist or is not a directory: " + basePath);
         }
-        this.baseDir = bd.getCanonicalFile();
+        this.resolver = new PathResolver(bd);
+        this.baseDir = resolver.getBase().toFile();
         this.previewMedia = previewMedia;
         this.showVideoThumbnails = showVideoThumbnails;
         
         if(thumpnailManager == null) {
-        	thumpnailManager = new ThumbnailManager(thumbnailScale);
+        	thumpnailManager = ThumbnailManager.getInstance(thumbnailScale);
         	dFormater.setDecimalFormatSymbols(DecimalFormatSymbols.getInstance(Locale.GERMAN));
         }
     }
@@ -68,16 +89,15 @@ public class FileHandler implements HttpHandler {
             return;
         }
 
-        // decodiere den Pfad hinter dem Kontext (segmentweise)
-        String relativeEncoded = rawPath.substring(contextPath.length()); // z.B. "/sub/file.mp4" oder ""
-        String relativeDecoded = URLDecoder.decode(relativeEncoded, "UTF-8");
-        File requested = new File(baseDir, relativeDecoded).getCanonicalFile();
-
-        // Schutz gegen Verzeichnis-Traversal: requested muss innerhalb baseDir liegen
-        if (!requested.getPath().startsWith(baseDir.getPath()) || !requested.getCanonicalPath().startsWith(baseDir.getPath())) {
+        // getPath() ist schon dekodiert, ein zweites Dekodieren würde "+" und "%" in Dateinamen verfälschen
+        String relativeDecoded = rawPath.substring(contextPath.length()); // z.B. "/sub/file.mp4" oder ""
+        // Schutz gegen Verzeichnis-Traversal: ".." über baseDir hinaus oder Symlinks nach draußen -> null
+        Path resolved = resolver.resolve(relativeDecoded);
+        if (resolved == null) {
             send404(exchange);
             return;
         }
+        File requested = resolved.toFile();
         
         Map<String,String> params = parseQuery(query);
         if (params.containsKey("download_all")) {
@@ -93,16 +113,32 @@ public class FileHandler implements HttpHandler {
         }
         
         if (requested.isDirectory()) {
-            String response = generateDirectoryListing(contextPath, requested);
-            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-            byte[] bytes = response.getBytes("UTF-8");
-            exchange.sendResponseHeaders(200, bytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(bytes);
+            if (params.containsKey("format")) {
+                serveListingApi(exchange, contextPath, requested, params);
+                return;
+            }
+            ListingCache.Listing listing = ListingCache.get(contextPath, requested);
+            if (listing != null && listing.getHtml() != null) {
+                HtmlWriter.send(exchange, listing.getHtml(), listing.getEtag());
+                return;
+            }
+            // bisher nur von der JSON-API gelesen: Einträge wiederverwenden, nur die Seite fehlt noch
+            long start = listing != null ? listing.getCreated() : ListingCache.startTime();
+            List<FileInfo> entries = listing != null ? listing.getEntries() : scanDirectory(requested);
+            boolean cache = ListingCache.isEnabled();
+            try (HtmlWriter out = HtmlWriter.open(exchange)) {
+                if (cache) {
+                    out.capture();
+                }
+                writeDirectoryListing(out, contextPath, requested, entries);
+                out.finish();
+                if (cache) {
+                    ListingCache.put(contextPath, new ListingCache.Listing(requested, entries, out.captured(), start));
+                }
             }
             return;
         } else if (requested.isFile()) {
-            String mimeType = getMimeType(requested);
+            String mimeType = MimeTypes.resolve(requested);
             
             boolean isPreviewRequest = previewMedia && params.containsKey("preview");
             boolean isRawRequest = params.containsKey("raw") && "1".equals(params.get("raw"));
@@ -111,12 +147,9 @@ public class FileHandler implements HttpHandler {
             // Preview page requested (only when previewMedia == true)
             if (isPreviewRequest && isPreviewable(mimeType)) {
                 String relUrl = getEncodedRelativePath(contextPath, requested);
-                String previewHtml = makePreviewPage(relUrl, mimeType);
-                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-                byte[] bytes = previewHtml.getBytes("UTF-8");
-                exchange.sendResponseHeaders(200, bytes.length);
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(bytes);
+                try (HtmlWriter out = HtmlWriter.open(exchange)) {
+                    writePreviewPage(out, relUrl, mimeType);
+                    out.finish();
                 }
                 return;
             }
@@ -141,6 +174,27 @@ public class FileHandler implements HttpHandler {
         }
     }
     
+    /**
+     * Ordnet den Request vor handle() einem Thread-Pool zu (siehe WorkloadExecutors).
+     * Kostet höchstens ein stat, die Pfadauflösung liegt danach schon im Cache des PathResolvers.
+     */
+    public Workload classify(HttpExchange exchange) {
+        Map<String,String> params = parseQuery(exchange.getRequestURI().getQuery());
+        String path = exchange.getRequestURI().getPath();
+        String contextPath = exchange.getHttpContext().getPath();
+        if (params.containsKey("download_all")) {
+            // fertig im Cache oder gerade für andere im Bau -> nur streamen, kein Platz im ZIP-Pool
+            Path dir = path.startsWith(contextPath) ? resolver.resolve(path.substring(contextPath.length())) : null;
+            return dir != null && fileServer.isZipReady(dir.toFile()) ? Workload.STREAM : Workload.ZIP;
+        }
+        if (params.containsKey("format") || (previewMedia && params.containsKey("preview") && !params.containsKey("raw"))) {
+            return Workload.PAGE;
+        }
+        Path resolved = path.startsWith(contextPath) ? resolver.resolve(path.substring(contextPath.length())) : null;
+        // 404 und Listings sind schnell, nur echte Dateien gehen in den Download-Pool
+        return resolved != null && Files.isRegularFile(resolved) ? Workload.STREAM : Workload.PAGE;
+    }
+
     private void send404(HttpExchange exchange) throws IOException {
         String response = "404 Not Found";
         exchange.sendResponseHeaders(404, response.length());
@@ -148,339 +202,355 @@ public class FileHandler implements HttpHandler {
             os.write(response.getBytes());
         }
     }
-    
-    private String getMimeType(File requested) throws IOException {
-    	String mimeType = Files.probeContentType(requested.toPath());
-        if (mimeType == null) {
-        	String ending = requested.getName().toLowerCase();
-        	if(ending.contains(".")) {
-        		ending = ending.substring(ending.lastIndexOf(".") + 1);
-        	}
-        	
-        	switch(ending) {
-        	case "webp":
-        		mimeType = "image/webp";
-        		break;
-        	case "yaml":
-        	case "json":
-        	case "conf":
-        	case "xml":
-        	case "java":
-        	case "cpp":
-        		mimeType = "text/" + ending;
-        		break;
-        	default:
-        		mimeType = "application/octet-stream";
-        		break;
-        	}
-        }
-    	return mimeType;
+
+    private void send400(HttpExchange exchange, String message) throws IOException {
+        byte[] response = ("400 Bad Request: " + message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(400, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+    /**
+     * Maschinenlesbares Listing: {@code ?format=json} (ein Objekt mit "items") oder {@code ?format=ndjson}
+     * (ein Eintrag pro Zeile). Sortieren, Filtern und Blättern siehe {@link ListingQuery}, der Cursor für die
+     * nächste Seite steht im Header X-Next-Cursor (bei json zusätzlich in "next").
+     * Die Seite wird direkt in die Antwort geschrieben, ohne sie vorher komplett aufzubauen.
+     */
+    private void serveListingApi(HttpExchange exchange, String contextPath, File dir, Map<String, String> params) throws IOException {
+        String format = params.get("format");
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        if (!ndjson && !"json".equalsIgnoreCase(format)) {
+            send400(exchange, "format must be json or ndjson");
+            return;
+        }
+        ListingQuery query;
+        try {
+            // aus der rohen Query, sonst zerlegt ein "&" im Suchbegriff die Parameter
+            Map<String, String> decoded = new HashMap<>();
+            for (Map.Entry<String, String> e : parseQuery(exchange.getRequestURI().getRawQuery()).entrySet()) {
+                decoded.put(e.getKey(), URLDecoder.decode(e.getValue(), "UTF-8"));
+            }
+            query = ListingQuery.parse(decoded);
+        } catch (IllegalArgumentException e) {
+            send400(exchange, e.getMessage());
+            return;
+        }
+
+        ListingCache.Listing listing = ListingCache.get(contextPath, dir);
+        if (listing == null) {
+            long start = ListingCache.startTime();
+            listing = new ListingCache.Listing(dir, scanDirectory(dir), null, start);
+            ListingCache.put(contextPath, listing);
+        }
+        ListingQuery.Page page = query.run(listing.sorted(query.sort, query.descending));
+
+        exchange.getResponseHeaders().set("Content-Type", ndjson ? "application/x-ndjson; charset=utf-8" : "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("X-Total-Count", Integer.toString(page.total));
+        if (page.next != null) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", page.next);
+        }
+        if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, 0);
+        String dirHref = getEncodedRelativePath(contextPath, dir).replace("\n", "");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16 * 1024)) {
+            if (!ndjson) {
+                w.write("{\"path\":");
+                writeJsonString(w, getRelativePath(dir));
+                w.write(",\"total\":");
+                w.write(Integer.toString(page.total));
+                w.write(",\"next\":");
+                if (page.next != null) {
+                    writeJsonString(w, page.next);
+                } else {
+                    w.write("null");
+                }
+                w.write(",\"items\":[");
+            }
+            boolean first = true;
+            for (FileInfo f : page.items) {
+                if (!ndjson && !first) {
+                    w.write(',');
+                }
+                first = false;
+                writeJsonEntry(w, dirHref, f);
+                if (ndjson) {
+                    w.write('\n');
+                }
+            }
+            if (!ndjson) {
+                w.write("]}");
+            }
+        }
+    }
+
+    private void writeJsonEntry(Writer w, String dirHref, FileInfo f) throws IOException {
+        String href = dirHref + "/" + f.encodedName();
+        w.write("{\"name\":");
+        writeJsonString(w, f.name);
+        w.write(f.directory ? ",\"type\":\"dir\"" : ",\"type\":\"file\"");
+        w.write(",\"size\":");
+        w.write(Long.toString(f.size));
+        w.write(",\"modified\":");
+        w.write(Long.toString(f.lastModified));
+        w.write(",\"href\":");
+        writeJsonString(w, f.directory ? href + "/" : href);
+        if (!f.directory) {
+            w.write(",\"mime\":");
+            writeJsonString(w, f.mimeType);
+            if (previewMedia && isPreviewable(f.mimeType)) {
+                w.write(",\"preview\":true");
+            }
+            // fehlende Video-Thumbnails werden im Hintergrund erzeugt, bis dahin "thumbPending"
+            String thumb = null;
+            String lightbox = null;
+            boolean thumbPending = false;
+            if (previewMedia && f.mimeType.startsWith("image/")) {
+                thumb = href + "?raw=1";
+                ThumbnailManager.State state = requestImageThumbnail(f);
+                if (state != ThumbnailManager.State.FAILED) {
+                    thumb = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.IMAGE_THUMB);
+                    lightbox = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.IMAGE_LIGHTBOX);
+                    thumbPending = state == ThumbnailManager.State.PENDING;
+                }
+            } else if (previewMedia && showVideoThumbnails && f.mimeType.startsWith("video/")) {
+                ThumbnailManager.State state = thumpnailManager.request(f, ThumbnailManager.Variant.VIDEO, ThumbnailManager.PRIORITY_PREFETCH);
+                if (state != ThumbnailManager.State.FAILED) {
+                    thumb = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.VIDEO);
+                    thumbPending = state == ThumbnailManager.State.PENDING;
+                }
+            }
+            if (thumb != null) {
+                w.write(thumbPending ? ",\"thumbPending\":" : ",\"thumb\":");
+                writeJsonString(w, thumb);
+            }
+            if (lightbox != null) {
+                w.write(",\"lightbox\":");
+                writeJsonString(w, lightbox);
+            }
+        }
+        w.write('}');
     }
 
+    private static void writeJsonString(Writer w, String s) throws IOException {
+        w.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                w.write('\\');
+                w.write(c);
+            } else if (c < 0x20) {
+                w.write(String.format("\\u%04x", (int) c));
+            } else {
+                w.write(c);
+            }
+        }
+        w.write('"');
+    }
+    
     private boolean isPreviewable(String mimeType) {
-        return mimeType.startsWith("video/")
-                || mimeType.startsWith("audio/")
-                || mimeType.startsWith("image/")
-                || mimeType.equals("application/pdf")
-                || mimeType.startsWith("text/");
+        return MimeTypes.isPreviewable(mimeType);
     }
 
-    private String makePreviewPage(String relUrl, String mimeType) throws UnsupportedEncodingException {
+    private void writePreviewPage(HtmlWriter out, String relUrl, String mimeType) throws IOException {
         // relUrl ist bereits ein vollständig encodeter Pfad inkl. contextPath, z.B. "/dl/sub/My%20Song.mp3"
         String rawUrl = relUrl + (relUrl.contains("?") ? "&" : "?") + "raw=1";
-        StringBuilder sb = new StringBuilder();
-        sb.append("\n<!doctype html><html><head><meta charset=\"utf-8\"><title>Preview</title>");
-        sb.append("\n<style>body{background:#111827;color:#e6eef8;font-family:Segoe UI, Roboto, Arial;padding:18px;margin:0;}");
-        sb.append("\n.wrap{max-width:1100px;margin:0 auto;}");
-        sb.append("\n.top{display:flex;align-items:center;justify-content:space-between;margin-bottom:12px;}");
-        sb.append("\na.btn{background:#0ea5a4;color:#022c2b;padding:8px 12px;border-radius:6px;text-decoration:none;margin-left:8px;display:inline-block;}");
-        sb.append("\nh2{color:#ff9900;margin:0 0 8px 0;}");
-        sb.append("\nvideo,audio{background:#000;border-radius:6px;display:block;width:100%;max-height:80vh;}");
-        sb.append("\niframe{border-radius:6px;border:1px solid #222;}");
-        sb.append("\n</style>");
-        sb.append("\n</head><body><div class=\"wrap\">");
-        sb.append("\n<div class=\"top\"><div><h2>Preview</h2><div style=\"color:#9ca3af;font-size:0.95rem;margin-top:6px;\">Preview für: ")
-        .append(URLDecoder.decode(escapeHtml(relUrl), "UTF-8"))
-        .append("</div></div>");
-        sb.append("\n<div><a class=\"btn\" href=\"").append(relUrl).append("?download=1\">Download</a>");
-        sb.append("\n</div></div>");
+        out.start(PREVIEW_HEAD).text(URLDecoder.decode(relUrl, "UTF-8")).raw(relUrl).end();
 
         if (mimeType.startsWith("video/")) {
-            sb.append("\n<video controls preload=\"metadata\" id=\"mediaPlayer\">");
-            sb.append("\n<source src=\"").append(rawUrl).append("\" type=\"").append(mimeType).append("\">");
-            sb.append("\nIhr Browser unterstützt das Video-Tag nicht. <a href=\"").append(rawUrl).append("\">Download</a>");
-            sb.append("\n</video>");
-            sb.append("\n<script>const vp=document.getElementById('mediaPlayer');vp.volume=localStorage.getItem('userVolume')?parseFloat(localStorage.getItem('userVolume')):0.2;vp.addEventListener('volumechange',function(){localStorage.setItem('userVolume',this.volume);});</script>");
+            out.start(PREVIEW_VIDEO).raw(rawUrl).raw(mimeType).raw(rawUrl).end();
         } else if (mimeType.startsWith("audio/")) {
-        	sb.append("\n<audio controls preload=\"metadata\" id=\"mediaPlayer\" autoplay>");
-            sb.append("\n<source src=\"").append(rawUrl).append("\" type=\"").append(mimeType).append("\">");
-            sb.append("\nIhr Browser unterstützt das Audio-Tag nicht. <a href=\"").append(rawUrl).append("\">Download</a>");
-            sb.append("\n</audio>");
-            sb.append("\n<script>const ap=document.getElementById('mediaPlayer');ap.volume=localStorage.getItem('userVolume')?parseFloat(localStorage.getItem('userVolume')):0.2;ap.addEventListener('volumechange',function(){localStorage.setItem('userVolume',this.volume);});</script>");
+            out.start(PREVIEW_AUDIO).raw(rawUrl).raw(mimeType).raw(rawUrl).end();
         } else if (mimeType.startsWith("image/")) {
-            sb.append("\n<div style=\"display:flex;justify-content:center;\"><img src=\"").append(rawUrl).append("\" alt=\"image\" style=\"max-width:100%;height:auto;border-radius:8px;\"></div>");
+            out.start(PREVIEW_IMAGE).raw(rawUrl).end();
         } else if (mimeType.equals("application/pdf")) {
-            sb.append("\n<iframe src=\"").append(rawUrl).append("\" style=\"width:100%;height:80vh;border:none;\"></iframe>");
-        } else if (mimeType.startsWith("text/")) {
-            sb.append("\n<iframe src=\"").append(rawUrl).append("\" style=\"width:100%;height:80vh;border:none;background:#fff;color:#000;\"></iframe>");
+            out.start(PREVIEW_PDF).raw(rawUrl).end();
+        } else if (MimeTypes.isText(mimeType)) {
+            out.start(PREVIEW_TEXT).raw(rawUrl).end();
         } else {
-            sb.append("\n<p>Preview nicht verfügbar. <a href=\"").append(rawUrl).append("\">Datei öffnen</a></p>");
+            out.start(PREVIEW_OTHER).raw(rawUrl).end();
         }
 
-        sb.append("\n</div></body></html>");
-        return sb.toString();
+        out.write(PREVIEW_END);
     }
 
+    /**
+     * Liest das Verzeichnis einmal ein (sortiert, ohne versteckte Einträge).
+     * Danach wird für das Listing nicht mehr auf das Dateisystem zugegriffen.
+     */
+    private List<FileInfo> scanDirectory(File dir) throws IOException {
+        DirectoryScanner.Entry[] scanned = DirectoryScanner.scan(dir);
+        List<FileInfo> entries = new ArrayList<>(scanned.length);
+        for (DirectoryScanner.Entry e : scanned) {
+            entries.add(new FileInfo(e.file, e.directory, e.size, e.lastModified, e.directory ? null : MimeTypes.resolve(e.file, e.size, e.lastModified)));
+        }
+        return entries;
+    }
 
-
-    private String generateDirectoryListing(String contextPath, File dir) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\n<!DOCTYPE html>");
-        sb.append("\n<html lang=\"de\">");
-        sb.append("\n<head>");
-        sb.append("\n  <meta charset=\"utf-8\">");
-        sb.append("\n  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.45\">");
-        sb.append("\n  <title>Index of ").append(escapeHtml(getRelativePath(dir))).append("</title>");
-
-        // CSS -- moderne, dunkle Listing-Page mit Buttons, Icons, Thumbs, Lightbox
-        sb.append("\n  <style>");
-        sb.append("\n    :root{--bg:#0b1320;--card:#0f1724;--muted:#9aa4b2;--accent:#ff9900;--link:#00aaff;--ok:#00ff88;}");
-        sb.append("\n    body{background:var(--bg);color:#e6eef8;font-family:Segoe UI,Roboto,Arial,\"Helvetica Neue\",sans-serif;margin:0;padding:20px;}");
-        sb.append("\n    .container{max-width:1100px;margin:0 auto;}");
-        sb.append("\n    header{display:flex;align-items:center;justify-content:space-between;gap:12px;margin-bottom:14px;}");
-        sb.append("\n    header h1{margin:0;font-size:1.4rem;color:var(--accent);}");
-        sb.append("\n    .controls{display:flex;gap:8px;align-items:center;}");
-        sb.append("\n    .search{padding:8px 12px;border-radius:8px;border:1px solid #1f2937;background:#0b1220;color:#e6eef8;min-width:180px;}");
-        sb.append("\n    .breadcrumb{color:var(--muted);font-size:0.95rem;}");
-        sb.append("\n    table{width:100%;border-collapse:collapse;background:var(--card);border-radius:8px;overflow:hidden;}");
-        sb.append("\n    thead{background:#071124;color:var(--muted);}");
-        sb.append("\n    th,td{padding:12px 14px;text-align:left;border-bottom:1px solid rgba(255,255,255,0.03);vertical-align:middle;}");
-        sb.append("\n    th{font-size:0.9rem;cursor:pointer;user-select:none;}");
-        sb.append("\n    tbody tr:hover{background:linear-gradient(90deg, rgba(255,255,255,0.02), transparent);}");
-        sb.append("\n    .fname{display:flex;align-items:center;gap:12px;}");
-        sb.append("\n    .icon{width:36px;height:36px;display:inline-flex;align-items:center;justify-content:center;border-radius:6px;background:#08111b;color:#9fb4c8;}");
-        sb.append("\n    .thumb{width:86px;height:56px;object-fit:cover;border-radius:6px;border:1px solid rgba(255,255,255,0.04);box-shadow:0 2px 6px rgba(0,0,0,0.5);}");
-        sb.append("\n    .name a{color:#ffffff;text-decoration:none;font-weight:600;}");
-        sb.append("\n    .muted{color:var(--muted);font-size:0.95rem;}");
-        sb.append("\n    .actions a{display:inline-block;padding:6px 10px;border-radius:6px;text-decoration:none;font-weight:600;margin-right:6px;}");
-        sb.append("\n    .btn-download{background:linear-gradient(180deg,#07243a,#053049);color:var(--link);}");
-        sb.append("\n    .btn-view{background:linear-gradient(180deg,#0b3a21,#08361b);color:var(--ok);}");
-        sb.append("\n    .size{text-align:right;}");
-        sb.append("\n    .date{width:220px;}");
-        sb.append("\n    @media (max-width:800px){thead{display:none;}table,tbody,td,tr{display:block;width:100%;}td{box-sizing:border-box;padding:10px;}td:before{content:attr(data-label);display:block;font-weight:700;margin-bottom:6px;color:var(--muted);} .size{text-align:left;} .date{width:auto;} }");
-        sb.append("\n    /* Lightbox */");
-        sb.append("\n    .lightbox{display:none;position:fixed;inset:0;background:rgba(0,0,0,0.85);align-items:center;justify-content:center;padding:20px;z-index:9999;}");
-        sb.append("\n    .lightbox img{max-width:calc(100% - 40px);max-height:calc(100% - 40px);border-radius:8px;}");
-        sb.append("\n    .lb-close{position:fixed;top:16px;right:20px;color:#fff;font-size:22px;cursor:pointer;}");
-        sb.append("\n  </style>");
-
-        sb.append("\n</head>");
-        sb.append("\n<body>");
-        sb.append("\n<div class=\"container\">");
-
-        // Header + search + breadcrumb
-        sb.append("\n<header>");
-        sb.append("\n  <div>");
-        sb.append("\n    <h1>Index of ").append(escapeHtml(getRelativePath(dir))).append("</h1>");
-        sb.append("\n    <div class=\"breadcrumb\">Mounted at: ").append(escapeHtml(baseDir.getAbsolutePath())).append("</div>");
-        sb.append("\n  </div>");
-        sb.append("\n  <div class=\"controls\">");
-        sb.append("\n    <input id=\"searchBox\" class=\"search\" placeholder=\"Filter Dateien (Name / Typ)...\">");
-        sb.append("\n  </div>");
-        sb.append("\n</header>");
-
-        // Table header
-        sb.append("\n<table id=\"fileTable\">");
-        sb.append("\n  <thead><tr>");
-        sb.append("\n    <th style=\"width:44px;padding-left:16px;\">&nbsp;</th>");
-        sb.append("\n    <th data-col=\"name\">Name</th>");
-        sb.append("\n    <th class=\"date\" data-col=\"date\">Last modified</th>");
-        sb.append("\n    <th class=\"size\" data-col=\"size\">Size</th>");
-        sb.append("\n    <th>Actions</th>");
-        sb.append("\n  </tr></thead>");
-        sb.append("\n  <tbody>");
+    private void writeDirectoryListing(HtmlWriter out, String contextPath, File dir, List<FileInfo> entries) throws IOException {
+        // Pfad des Verzeichnisses nur einmal auflösen, die Einträge hängen nur ihren Namen an
+        String thisDirRel = getEncodedRelativePath(contextPath, dir);
+        String title = getRelativePath(dir);
+        out.start(LISTING_HEAD).text(title).text(title).text(baseDir.getAbsolutePath()).end();
 
         // Parent directory
-        if (!dir.getCanonicalFile().equals(baseDir.getCanonicalFile())) {
-            File parent = dir.getParentFile();
-            String parentRel = getEncodedRelativePath(contextPath, parent);
-            sb.append("\n    <tr data-name=\"..\" data-size=\"0\" data-date=\"0\">");
-            sb.append("\n      <td><div class=\"icon\">&#x1F4C1;</div></td>");
-            sb.append("\n      <td class=\"name\"><a href=\"").append(parentRel).append("/\" style=\"color:#cfe9ff;text-decoration:none;font-weight:700;\">Parent Directory</a></td>");
-            sb.append("\n      <td class=\"date\">&nbsp;</td>");
-            sb.append("\n      <td class=\"size\">&nbsp;</td>");
-            sb.append("\n      <td class=\"actions\">&nbsp;</td>");
-            sb.append("\n    </tr>");
-        }
-
-        File[] files = dir.listFiles();
-        if (files != null) {
-            Arrays.sort(files);
-            
-            for (File f : files) {
-                if (f.isHidden()) {
-                    continue;
-                }
-                
-                String displayName = f.getName();
-                String relUrl = getEncodedRelativePath(contextPath, f);
-                if (f.isDirectory()) {
-                    sb.append("\n    <tr data-name=\"").append(escapeHtml(displayName.toLowerCase())).append("\" data-size=\"0\" data-date=\"").append(f.lastModified()).append("\">");
-                    sb.append("\n      <td><div class=\"icon\">&#128193;</div></td>");
-                    sb.append("\n      <td class=\"name\"><a href=\"").append(relUrl).append("/\" style=\"color:#cfe9ff;text-decoration:none;font-weight:700;\">" ).append(escapeHtml(displayName)).append("/</a></td>");
-                    sb.append("\n      <td class=\"date\">&nbsp;</td>");
-                    sb.append("\n      <td class=\"size\">&nbsp;</td>");
-                    sb.append("\n      <td class=\"actions\">&nbsp;</td>");
-                    sb.append("\n    </tr>");
-                }
-            }
-            
-            for (File f : files) {
-                if (f.isHidden()) {
-                    continue;
-                }
+        if (!dir.equals(baseDir)) {
+            out.start(PARENT_ROW).raw(getEncodedRelativePath(contextPath, dir.getParentFile())).end();
+        }
 
-                String displayName = f.getName();
-                String relUrl = getEncodedRelativePath(contextPath, f);
-                if (f.isFile()) {
-                    String mimeType = getMimeType(f);
-
-                    sb.append("\n    <tr data-name=\"").append(escapeHtml(displayName.toLowerCase())).append("\" data-size=\"").append(f.length()).append("\" data-date=\"").append(f.lastModified()).append("\">");
-
-                    // icon or thumbnail (for images + videos)
-                    sb.append("\n      <td>");
-                    try {
-                        File thumbFile = null;
-                        if (previewMedia && mimeType.startsWith("video/") && showVideoThumbnails) {
-                            thumbFile = thumpnailManager.getOrCreateVideoThumbnail(f);
-                        }
-
-                        if (previewMedia && mimeType.startsWith("image/")) {
-                            sb.append("\n<img class=\"thumb\" src=\"").append(relUrl).append("?raw=1\" alt=\"").append(escapeHtml(displayName)).append("\">");
-                        } else if (thumbFile != null && thumbFile.exists()) {
-                            String thumbRel = "/.thumbs/" + thumbFile.getName();
-                            sb.append("\n<img class=\"thumb\" src=\"").append(thumbRel).append("?raw=1\" alt=\"").append(escapeHtml(displayName)).append("\">");
-                        } else {
-                        	String icon = "📂"; // generic file icon fallback
-                            if (mimeType.startsWith("audio/")) icon = "\u266B"; // musical note
-                            if (mimeType.startsWith("video/")) icon = "\u25B6"; // play
-                            if (mimeType.startsWith("text/")) icon = "\uD83D\uDCC4";
-                            if (mimeType.startsWith("application")) icon = "\u2699";
-                            if (mimeType.contains("pdf")) icon = "\uD83D\uDCC4";
-                            sb.append("\n<div class=\"icon\">" ).append(icon).append("</div>");
-                        }
-                    } catch (Exception e) {
-                        sb.append("\n<div class=\"icon\">&#128196;</div>");
-                    }
-                    sb.append("\n</td>");
-
-                    // name (with preview link if enabled)
-                    sb.append("\n      <td class=\"name\">");
-                    if (previewMedia && isPreviewable(mimeType)) {
-                        sb.append("\n        <div class=\"fname\"><div class=\"name\"><a href=\"").append(relUrl).append("?preview=1\">" ).append(escapeHtml(displayName)).append("</a></div></div>");
-                    } else {
-                        sb.append("\n        <div class=\"fname\"><div class=\"name\">" ).append(escapeHtml(displayName)).append("</div></div>");
-                    }
-                    sb.append("\n      </td>");
-
-                    sb.append("\n      <td class=\"date\">" ).append(new Date(f.lastModified()).toLocaleString()).append("</td>");
-                    sb.append("\n      <td class=\"size\">" ).append(getFileSize(f)).append("</td>");
-
-                    // actions
-                    sb.append("\n      <td class=\"actions\">");
-                    if (previewMedia && isPreviewable(mimeType)) {
-                        sb.append("\n        <a class=\"btn-view\" href=\"").append(relUrl).append("?preview=1\">View</a>");
-                    }
-                    sb.append("\n        <a class=\"btn-download\" href=\"").append(relUrl).append("?download=1\">Download</a>");
-                    sb.append("\n      </td>");
-
-                    sb.append("\n    </tr>");
-                }
+        if (VIRTUAL_LISTING_FROM > 0 && entries.size() >= VIRTUAL_LISTING_FROM) {
+            writeVirtualListing(out, thisDirRel, entries);
+            return;
+        }
+
+        for (FileInfo f : entries) {
+            if (f.directory) {
+                out.start(DIR_ROW).text(f.name.toLowerCase()).number(f.lastModified).raw(childPath(thisDirRel, f)).text(f.name).end();
             }
         }
 
-        sb.append("\n  </tbody>");
-        sb.append("\n</table>");
-        
-     // --- Download all Button (nur anzeigen, wenn files != null und mindestens eine Datei vorhanden) ---
         boolean hasFiles = false;
-        if (files != null) {
-            for (File f : files) { if (!f.isHidden() && f.isFile()) { hasFiles = true; break; } }
+        for (FileInfo f : entries) {
+            if (f.directory) {
+                continue;
+            }
+            hasFiles = true;
+            String relUrl = childPath(thisDirRel, f);
+            String mimeType = f.mimeType;
+            out.start(FILE_ROW).text(f.name.toLowerCase()).number(f.size).number(f.lastModified).end();
+
+            // icon or thumbnail (for images + videos)
+            // Video-Thumbnails werden nur angestoßen, fehlende zeigen einen Platzhalter, den thumbs.js austauscht
+            ThumbnailManager.State thumbState = null;
+            String thumbUrl = null;
+            boolean thumbFailed = false;
+            try {
+                if (previewMedia && mimeType.startsWith("video/") && showVideoThumbnails) {
+                    thumbState = thumpnailManager.request(f, ThumbnailManager.Variant.VIDEO, ThumbnailManager.PRIORITY_PREFETCH);
+                    thumbUrl = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.VIDEO);
+                }
+            } catch (Exception e) {
+                thumbFailed = true;
+            }
+            if (thumbFailed) {
+                out.start(FILE_ICON).raw("&#128196;").end();
+            } else if (previewMedia && mimeType.startsWith("image/")) {
+                writeImageThumbnail(out, relUrl, f);
+            } else if (thumbState == ThumbnailManager.State.READY) {
+                out.start(FILE_THUMB).raw(thumbUrl).text(f.name).end();
+            } else if (thumbState == ThumbnailManager.State.PENDING) {
+                out.start(FILE_THUMB_PENDING).raw(thumbUrl).text(f.name).raw(fileIcon(mimeType)).end();
+            } else {
+                out.start(FILE_ICON).raw(fileIcon(mimeType)).end();
+            }
+
+            // name (with preview link if enabled)
+            boolean previewable = previewMedia && isPreviewable(mimeType);
+            if (previewable) {
+                out.start(FILE_NAME_LINK).raw(relUrl).text(f.name).end();
+            } else {
+                out.start(FILE_NAME).text(f.name).end();
+            }
+            out.start(FILE_DATE_SIZE).raw(new Date(f.lastModified).toLocaleString()).raw(getFileSize(f.size)).end();
+
+            // actions
+            if (previewable) {
+                out.start(FILE_VIEW).raw(relUrl).end();
+            }
+            out.start(FILE_DOWNLOAD).raw(relUrl).end();
         }
+        out.write(TABLE_END);
+
+        // --- Download all Button (nur anzeigen, wenn mindestens eine Datei vorhanden) ---
         if (hasFiles) {
-            String thisDirRel = getEncodedRelativePath(contextPath, dir);
-            sb.append("\n<div style=\"margin-top:16px;display:flex;justify-content:flex-end;\">");
-            sb.append("\n  <a href=\"").append(thisDirRel).append("?download_all=1\" ");
-            sb.append("style=\"display:inline-block;padding:10px 16px;border-radius:8px;background:linear-gradient(180deg,#133449,#0b2836);color:#fff;font-weight:700;text-decoration:none;\">");
-            sb.append("⬇️ Download all (ZIP)</a>");
-            sb.append("\n</div>");
-        }
-
-
-        // Lightbox container (for images)
-        sb.append("\n<div id=\"lightbox\" class=\"lightbox\" onclick=\"closeLB()\">");
-        sb.append("\n  <span class=\"lb-close\" onclick=\"closeLB()\">✕</span>");
-        sb.append("\n  <img id=\"lb-img\" src=\"\" alt=\"\">");
-        sb.append("\n</div>");
-
-        // JS: search + simple sort + lightbox
-        sb.append("\n<script>");
-        sb.append("\n(function(){");
-        sb.append("\n  const search=document.getElementById('searchBox');");
-        sb.append("\n  const tbody=document.querySelector('#fileTable tbody');");
-        sb.append("\n  search.addEventListener('input',function(){");
-        sb.append("\n    const q=this.value.trim().toLowerCase();");
-        sb.append("\n    Array.from(tbody.rows).forEach(r=>{");
-        sb.append("\n      const name=r.getAttribute('data-name')||'';");
-        sb.append("\n      if(!q || name.indexOf(q)!==-1) r.style.display=''; else r.style.display='none';");
-        sb.append("\n    });");
-        sb.append("\n  });");
-
-        sb.append("\n  // sort by clicking headers (name,size,date)");
-        sb.append("\n  document.querySelectorAll('th[data-col]').forEach(th=>{");
-        sb.append("\n    th.addEventListener('click',()=>{");
-        sb.append("\n      const col=th.getAttribute('data-col');");
-        sb.append("\n      const rows=Array.from(tbody.rows).filter(r=>r.style.display !== 'none');");
-        sb.append("\n      const dir = th._dir = -(th._dir || -1); // toggle");
-        sb.append("\n      rows.sort((a,b)=>{");
-        sb.append("\n        const va = a.getAttribute('data-'+col)||'';");
-        sb.append("\n        const vb = b.getAttribute('data-'+col)||'';");
-        sb.append("\n        if(col==='name') return va.localeCompare(vb)*dir;");
-        sb.append("\n        if(col==='size' || col==='date') return (parseFloat(va)||0) - (parseFloat(vb)||0) > 0 ? dir : -dir;");
-        sb.append("\n        return 0;");
-        sb.append("\n      });");
-        sb.append("\n      rows.forEach(r=>tbody.appendChild(r));");
-        sb.append("\n    });");
-        sb.append("\n  });");
+            out.start(DOWNLOAD_ALL).raw(thisDirRel).end();
+        }
 
+        // Lightbox container (for images), JS: search + simple sort + lightbox
+        out.write(LIGHTBOX_DIV);
+        out.write(LISTING_SCRIPT);
         if (previewMedia) {
-            sb.append("\n  // lightbox handling for image thumbs");
-            sb.append("\n  window.openLB = function(src){");
-            sb.append("\n    const lb=document.getElementById('lightbox');");
-        sb.append("\n    const img=document.getElementById('lb-img');");
-            sb.append("\n    img.src=src; lb.style.display='flex';");
-            sb.append("\n  }");
-            sb.append("\n  window.closeLB = function(){document.getElementById('lightbox').style.display='none';document.getElementById('lb-img').src='';}");
+            out.write(LIGHTBOX_SCRIPT);
+            out.write(THUMBS_SCRIPT);
+        }
+        out.write(LISTING_END);
+    }
 
-            // attach click listeners on thumbs after DOM ready
-            sb.append("\n  document.addEventListener('DOMContentLoaded',function(){");
-            sb.append("\n    Array.from(document.querySelectorAll('.thumb')).forEach(t=>{t.style.cursor='zoom-in';t.addEventListener('click',function(e){e.preventDefault();openLB(this.src);});});");
-            sb.append("\n  });");
+    /**
+     * Große Verzeichnisse: die Seite enthält keine Zeilen, das Script holt sie seitenweise über
+     * {@code ?format=ndjson} und baut nur die gerade sichtbaren auf. Suche und Sortierung laufen dann
+     * auf dem Server.
+     */
+    private void writeVirtualListing(HtmlWriter out, String thisDirRel, List<FileInfo> entries) throws IOException {
+        boolean hasFiles = false;
+        for (FileInfo f : entries) {
+            if (!f.directory) {
+                hasFiles = true;
+                break;
+            }
+        }
+        out.write(TABLE_END);
+        if (hasFiles) {
+            out.start(DOWNLOAD_ALL).raw(thisDirRel).end();
         }
+        out.start(VIRTUAL_LIST).raw(thisDirRel.replace("\n", "")).number(entries.size()).end();
+        out.write(LIGHTBOX_DIV);
+        out.write(VIRTUAL_SCRIPT);
+        if (previewMedia) {
+            out.write(LIGHTBOX_SCRIPT);
+            out.write(THUMBS_SCRIPT);
+        }
+        out.write(LISTING_END);
+    }
 
-        sb.append("\n})();");
-        sb.append("\n</script>");
+    /**
+     * Bilder zeigt das Listing verkleinert aus .thumbs, die Lightbox eine bildschirmgroße Variante
+     * (wird erst beim Öffnen erzeugt). Kleine Bilder und Formate, die ImageIO nicht lesen kann,
+     * werden wie bisher direkt verwendet.
+     */
+    private void writeImageThumbnail(HtmlWriter out, String relUrl, FileInfo f) throws IOException {
+        ThumbnailManager.State state = requestImageThumbnail(f);
+        if (state == ThumbnailManager.State.FAILED) {
+            out.start(FILE_THUMB).raw(relUrl).text(f.name).end();
+            return;
+        }
+        String thumbUrl = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.IMAGE_THUMB);
+        String lightboxUrl = "/.thumbs/" + thumpnailManager.thumbnailName(f, ThumbnailManager.Variant.IMAGE_LIGHTBOX);
+        if (state == ThumbnailManager.State.READY) {
+            out.start(FILE_IMAGE_THUMB).raw(thumbUrl).raw(lightboxUrl).raw(relUrl).text(f.name).end();
+        } else {
+            out.start(FILE_IMAGE_PENDING).raw(thumbUrl).raw(lightboxUrl).raw(relUrl).text(f.name).raw(fileIcon(f.mimeType)).end();
+        }
+    }
 
-        sb.append("\n</div>");
-        sb.append("\n</body>");
-        sb.append("\n</html>");
+    // FAILED heißt hier: Original verwenden
+    private ThumbnailManager.State requestImageThumbnail(FileInfo f) throws IOException {
+        if (f.size <= ThumbnailManager.SMALL_IMAGE_BYTES) {
+            return ThumbnailManager.State.FAILED;
+        }
+        return thumpnailManager.request(f, ThumbnailManager.Variant.IMAGE_THUMB, ThumbnailManager.PRIORITY_PREFETCH);
+    }
 
-        return sb.toString();
+    private String fileIcon(String mimeType) {
+        String icon = "📂"; // generic file icon fallback
+        if (mimeType.startsWith("audio/")) icon = "\u266B"; // musical note
+        if (mimeType.startsWith("video/")) icon = "\u25B6"; // play
+        if (mimeType.startsWith("text/")) icon = "\uD83D\uDCC4";
+        if (mimeType.startsWith("application")) icon = "\u2699";
+        if (mimeType.contains("pdf")) icon = "\uD83D\uDCC4";
+        return icon;
     }
-    
-    private String getFileSize(File file) {
+
+    private String getFileSize(long length) {
         String unit = "Bytes";
-        double size = file.length();
+        double size = length;
         if (size >= 1024) {
             size = size / 1024.0;
             unit = "KiB";
@@ -503,19 +573,13 @@ public class FileHandler implements HttpHandler {
 		return sizeFormated + " " + unit;
     }
 
-    // Gibt Pfad relativ zur baseDir zurück (z.B. "/sub/dir" oder "" wenn baseDir)
-    private String getRelativePath(File f) throws IOException {
-        String base = baseDir.getCanonicalPath();
-        String path = f.getCanonicalPath();
-        if (path.equals(base)) return "";
-        String rel = path.substring(base.length());
-        rel = rel.replace(File.separatorChar, '/');
-        if (!rel.startsWith("/")) rel = "/" + rel;
-        return rel;
+    // Gibt Pfad relativ zur baseDir zurück (z.B. "/sub/dir" oder "" wenn baseDir), f ist schon vom PathResolver aufgelöst
+    private String getRelativePath(File f) {
+        return resolver.relativePath(f.toPath());
     }
 
     // Encodiert jede Segment separat und hängt contextPath (z.B. "/dl") voran
-    private String getEncodedRelativePath(String contextPath, File f) throws UnsupportedEncodingException, IOException {
+    private String getEncodedRelativePath(String contextPath, File f) throws UnsupportedEncodingException {
         String rel = getRelativePath(f); // z.B. "/sub/file name.mp4"
         String[] segs = rel.split("/");
         StringBuilder sb = new StringBuilder();
@@ -528,9 +592,9 @@ public class FileHandler implements HttpHandler {
         return sb.toString();
     }
 
-    private String escapeHtml(String s) {
-        if (s == null) return "";
-        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    // Pfad eines Eintrags aus dem bereits encodeten Pfad des Verzeichnisses (wie getEncodedRelativePath)
+    private String childPath(String encodedDir, FileInfo f) {
+        return encodedDir + "\n/" + f.encodedName();
     }
 
     private Map<String, String> parseQuery(String query) {
@@ -549,4 +613,172 @@ public class FileHandler implements HttpHandler {
         }
         return map;
     }
+
+    // -------------------- Templates (feste Teile werden einmal beim Laden kodiert) --------------------
+
+    private static final Template PREVIEW_HEAD = Template.compile(
+            "\n<!doctype html><html><head><meta charset=\"utf-8\"><title>Preview</title>"
+            + "\n<link rel=\"stylesheet\" href=\"" + StaticAssets.url("preview.css") + "\">"
+            + "\n</head><body><div class=\"wrap\">"
+            + "\n<div class=\"top\"><div><h2>Preview</h2><div style=\"color:#9ca3af;font-size:0.95rem;margin-top:6px;\">Preview für: {{path}}</div></div>"
+            + "\n<div><a class=\"btn\" href=\"{{href}}?download=1\">Download</a>"
+            + "\n</div></div>");
+
+    private static final Template PREVIEW_VIDEO = Template.compile(
+            "\n<video controls preload=\"metadata\" id=\"mediaPlayer\">"
+            + "\n<source src=\"{{src}}\" type=\"{{type}}\">"
+            + "\nIhr Browser unterstützt das Video-Tag nicht. <a href=\"{{src}}\">Download</a>"
+            + "\n</video>"
+            + "\n<script src=\"" + StaticAssets.url("player.js") + "\"></script>");
+
+    private static final Template PREVIEW_AUDIO = Template.compile(
+            "\n<audio controls preload=\"metadata\" id=\"mediaPlayer\" autoplay>"
+            + "\n<source src=\"{{src}}\" type=\"{{type}}\">"
+            + "\nIhr Browser unterstützt das Audio-Tag nicht. <a href=\"{{src}}\">Download</a>"
+            + "\n</audio>"
+            + "\n<script src=\"" + StaticAssets.url("player.js") + "\"></script>");
+
+    private static final Template PREVIEW_IMAGE = Template.compile(
+            "\n<div style=\"display:flex;justify-content:center;\"><img src=\"{{src}}\" alt=\"image\" style=\"max-width:100%;height:auto;border-radius:8px;\"></div>");
+
+    private static final Template PREVIEW_PDF = Template.compile(
+            "\n<iframe src=\"{{src}}\" style=\"width:100%;height:80vh;border:none;\"></iframe>");
+
+    private static final Template PREVIEW_TEXT = Template.compile(
+            "\n<iframe src=\"{{src}}\" style=\"width:100%;height:80vh;border:none;background:#fff;color:#000;\"></iframe>");
+
+    private static final Template PREVIEW_OTHER = Template.compile(
+            "\n<p>Preview nicht verfügbar. <a href=\"{{src}}\">Datei öffnen</a></p>");
+
+    private static final Template PREVIEW_END = Template.compile(
+            "\n</div></body></html>");
+
+    private static final Template LISTING_HEAD = Template.compile(
+            "\n<!DOCTYPE html>"
+            + "\n<html lang=\"de\">"
+            + "\n<head>"
+            + "\n  <meta charset=\"utf-8\">"
+            + "\n  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.45\">"
+            + "\n  <title>Index of {{title}}</title>"
+            + "\n  <link rel=\"stylesheet\" href=\"" + StaticAssets.url("listing.css") + "\">"
+            + "\n</head>"
+            + "\n<body>"
+            + "\n<div class=\"container\">"
+            + "\n<header>"
+            + "\n  <div>"
+            + "\n    <h1>Index of {{title}}</h1>"
+            + "\n    <div class=\"breadcrumb\">Mounted at: {{mount}}</div>"
+            + "\n  </div>"
+            + "\n  <div class=\"controls\">"
+            + "\n    <input id=\"searchBox\" class=\"search\" placeholder=\"Filter Dateien (Name / Typ)...\">"
+            + "\n  </div>"
+            + "\n</header>"
+            + "\n<table id=\"fileTable\">"
+            + "\n  <thead><tr>"
+            + "\n    <th style=\"width:44px;padding-left:16px;\">&nbsp;</th>"
+            + "\n    <th data-col=\"name\">Name</th>"
+            + "\n    <th class=\"date\" data-col=\"date\">Last modified</th>"
+            + "\n    <th class=\"size\" data-col=\"size\">Size</th>"
+            + "\n    <th>Actions</th>"
+            + "\n  </tr></thead>"
+            + "\n  <tbody>");
+
+    private static final Template PARENT_ROW = Template.compile(
+            "\n    <tr data-name=\"..\" data-size=\"0\" data-date=\"0\">"
+            + "\n      <td><div class=\"icon\">&#x1F4C1;</div></td>"
+            + "\n      <td class=\"name\"><a href=\"{{href}}/\" style=\"color:#cfe9ff;text-decoration:none;font-weight:700;\">Parent Directory</a></td>"
+            + "\n      <td class=\"date\">&nbsp;</td>"
+            + "\n      <td class=\"size\">&nbsp;</td>"
+            + "\n      <td class=\"actions\">&nbsp;</td>"
+            + "\n    </tr>");
+
+    private static final Template DIR_ROW = Template.compile(
+            "\n    <tr data-name=\"{{name}}\" data-size=\"0\" data-date=\"{{date}}\">"
+            + "\n      <td><div class=\"icon\">&#128193;</div></td>"
+            + "\n      <td class=\"name\"><a href=\"{{href}}/\" style=\"color:#cfe9ff;text-decoration:none;font-weight:700;\">{{label}}/</a></td>"
+            + "\n      <td class=\"date\">&nbsp;</td>"
+            + "\n      <td class=\"size\">&nbsp;</td>"
+            + "\n      <td class=\"actions\">&nbsp;</td>"
+            + "\n    </tr>");
+
+    private static final Template FILE_ROW = Template.compile(
+            "\n    <tr data-name=\"{{name}}\" data-size=\"{{size}}\" data-date=\"{{date}}\">"
+            + "\n      <td>");
+
+    private static final Template FILE_THUMB = Template.compile(
+            "\n<img class=\"thumb\" src=\"{{src}}?raw=1\" alt=\"{{name}}\" loading=\"lazy\">");
+
+    private static final Template FILE_IMAGE_THUMB = Template.compile(
+            "\n<img class=\"thumb\" src=\"{{src}}\" data-lightbox=\"{{lightbox}}\" data-full=\"{{full}}?raw=1\" alt=\"{{name}}\" loading=\"lazy\">");
+
+    private static final Template FILE_IMAGE_PENDING = Template.compile(
+            "\n<div class=\"icon\" data-thumb=\"{{src}}\" data-lightbox=\"{{lightbox}}\" data-full=\"{{full}}?raw=1\" data-alt=\"{{name}}\">{{icon}}</div>");
+
+    private static final Template FILE_THUMB_PENDING = Template.compile(
+            "\n<div class=\"icon\" data-thumb=\"{{src}}\" data-alt=\"{{name}}\">{{icon}}</div>");
+
+    private static final Template FILE_ICON = Template.compile(
+            "\n<div class=\"icon\">{{icon}}</div>");
+
+    private static final Template FILE_NAME_LINK = Template.compile(
+            "\n</td>"
+            + "\n      <td class=\"name\">"
+            + "\n        <div class=\"fname\"><div class=\"name\"><a href=\"{{href}}?preview=1\">{{name}}</a></div></div>"
+            + "\n      </td>");
+
+    private static final Template FILE_NAME = Template.compile(
+            "\n</td>"
+            + "\n      <td class=\"name\">"
+            + "\n        <div class=\"fname\"><div class=\"name\">{{name}}</div></div>"
+            + "\n      </td>");
+
+    private static final Template FILE_DATE_SIZE = Template.compile(
+            "\n      <td class=\"date\">{{date}}</td>"
+            + "\n      <td class=\"size\">{{size}}</td>"
+            + "\n      <td class=\"actions\">");
+
+    private static final Template FILE_VIEW = Template.compile(
+            "\n        <a class=\"btn-view\" href=\"{{href}}?preview=1\">View</a>");
+
+    private static final Template FILE_DOWNLOAD = Template.compile(
+            "\n        <a class=\"btn-download\" href=\"{{href}}?download=1\">Download</a>"
+            + "\n      </td>"
+            + "\n    </tr>");
+
+    private static final Template TABLE_END = Template.compile(
+            "\n  </tbody>"
+            + "\n</table>");
+
+    private static final Template DOWNLOAD_ALL = Template.compile(
+            "\n<div style=\"margin-top:16px;display:flex;justify-content:flex-end;\">"
+            + "\n  <a href=\"{{href}}?download_all=1\" "
+            + "style=\"display:inline-block;padding:10px 16px;border-radius:8px;background:linear-gradient(180deg,#133449,#0b2836);color:#fff;font-weight:700;text-decoration:none;\">"
+            + "⬇️ Download all (ZIP)</a>"
+            + "\n</div>");
+
+    private static final Template LIGHTBOX_DIV = Template.compile(
+            "\n<div id=\"lightbox\" class=\"lightbox\" onclick=\"closeLB()\">"
+            + "\n  <span class=\"lb-close\" onclick=\"closeLB()\">✕</span>"
+            + "\n  <img id=\"lb-img\" src=\"\" alt=\"\">"
+            + "\n</div>");
+
+    private static final Template LISTING_SCRIPT = Template.compile(
+            "\n<script src=\"" + StaticAssets.url("listing.js") + "\"></script>");
+
+    private static final Template VIRTUAL_LIST = Template.compile(
+            "\n<div id=\"vlist\" data-api=\"{{api}}\" data-total=\"{{total}}\" class=\"muted\" style=\"margin-top:10px;\"></div>");
+
+    private static final Template VIRTUAL_SCRIPT = Template.compile(
+            "\n<script src=\"" + StaticAssets.url("listing-virtual.js") + "\"></script>");
+
+    private static final Template LIGHTBOX_SCRIPT = Template.compile(
+            "\n<script src=\"" + StaticAssets.url("lightbox.js") + "\"></script>");
+
+    private static final Template THUMBS_SCRIPT = Template.compile(
+            "\n<script src=\"" + StaticAssets.url("thumbs.js") + "\"></script>");
+
+    private static final Template LISTING_END = Template.compile(
+            "\n</div>"
+            + "\n</body>"
+            + "\n</html>");
 }
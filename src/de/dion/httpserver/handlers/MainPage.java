@@ -1,15 +1,16 @@
 package de.dion.httpserver.handlers;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
+import de.dion.httpserver.StaticAssets;
 import de.dion.httpserver.WebServer;
+import de.dion.httpserver.template.HtmlWriter;
+import de.dion.httpserver.template.Template;
 
 public class MainPage implements HttpHandler {
 
@@ -33,119 +34,32 @@ public class MainPage implements HttpHandler {
 	public void handle(HttpExchange exchange) throws IOException {
 		System.out.println("Ping von " + exchange.getRemoteAddress().getAddress().toString());
 		
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!DOCTYPE html>\n");
-        sb.append("<html lang=\"de\">\n");
-        sb.append("<head>\n");
-        sb.append("  <meta charset=\"utf-8\">\n");
-        sb.append("  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.7\">\n");
-        sb.append("  <title>Simple HTTP Server</title>\n");
-        
-        sb.append("  <style>\n");
-        sb.append("    :root{--bg:#0b1320;--card:#0f1724;--muted:#9aa4b2;--accent:#ff9900;--link:#00aaff;--ok:#00ff88}\n");
-        sb.append("    body{background:var(--bg);color:#e6eef8;font-family:Segoe UI,Roboto,Arial,Helvetica,sans-serif;margin:0;padding:24px}\n");
-        sb.append("    .wrap{max-width:1100px;margin:0 auto}\n");
-        sb.append("    header{display:flex;align-items:center;justify-content:space-between;gap:12px;margin-bottom:18px}\n");
-        sb.append("    h1{margin:0;font-size:1.5rem;color:var(--accent)}\n");
-        sb.append("    .meta{color:var(--muted);font-size:0.95rem}\n");
-        sb.append("    .grid{display:grid;grid-template-columns:repeat(auto-fit,minmax(220px,1fr));gap:14px;margin-top:18px}\n");
-        sb.append("    .card{background:var(--card);border-radius:10px;padding:14px;box-shadow:0 6px 18px rgba(2,6,23,0.6);display:flex;flex-direction:column;gap:8px}\n");
-        sb.append("    .card h3{margin:0;color:#cfe9ff;font-size:1rem}\n");
-        sb.append("    .card p{margin:0;color:var(--muted);font-size:0.9rem}\n");
-        sb.append("    .actions{margin-top:8px}\n");
-        sb.append("    .btn{display:inline-block;padding:8px 12px;border-radius:8px;text-decoration:none;font-weight:700}\n");
-        sb.append("    .btn-primary{background:linear-gradient(180deg,#07243a,#053049);color:var(--link)}\n");
-        sb.append("    .btn-secondary{background:linear-gradient(180deg,#07220f,#05210b);color:var(--ok);margin-left:8px}\n");
-        sb.append("    footer{margin-top:20px;color:var(--muted);font-size:0.85rem}\n");
-        sb.append("    @media (max-width:600px){header{flex-direction:column;align-items:flex-start} .grid{grid-template-columns:1fr}}\n");
-        sb.append("  </style>\n");
-        
-        sb.append("</head>\n");
-        sb.append("<body>\n");
-        sb.append("  <div class=\"wrap\">\n");
-        sb.append("    <header>\n");
-        sb.append("      <div>\n");
-        sb.append("        <h1>Java Simple-HTTP-Server</h1>\n");
-        sb.append("        <div class=\"meta\">Version " + WebServer.version + "</div>\n");
-        sb.append("      </div>\n");
-        sb.append("      <div class=\"meta\">Mounted at: <strong>" + escapeHtmlForSimplePage(getLocalAddressListing(exchange)) + "</strong></div>\n");
-        sb.append("    </header>\n");
-        
-        // Grid with primary download area and shared folders
-        sb.append("    <section class=\"grid\">\n");
-        
-        // Downloads card (keeps existing link to /dl)
-        sb.append("      <article class=\"card\">\n");
-        sb.append("        <h3>Downloads</h3>\n");
-        sb.append("        <p>Zeigt Inhalte des internen Download-Ordners an.</p>\n            ");
-        sb.append("        <div class=\"actions\">\n");
-        sb.append("          <a class=\"btn btn-primary\" href=\"/dl\">ffnen</a>\n");
-        sb.append("        </div>\n");
-        sb.append("      </article>\n");
-        
-        if(allowUploads) {
-        	// Uploads card (keeps existing link to /upload)
-        	sb.append("      <article class=\"card\">\n");
-        	sb.append("        <h3>Upload</h3>\n");
-        	sb.append("        <p>Lade dateien hoch  Die Dateien Werden im Verzeichnis \"" + uploadDir + "\" gespeichert.</p>\n            ");
-        	sb.append("        <div class=\"actions\">\n");
-        	sb.append("          <a class=\"btn btn-primary\" href=\"/upload\">ffnen</a>\n");
-        	sb.append("        </div>\n");
-        	sb.append("      </article>\n");
-        }
-        
-        // External share folders (preserve exact links/paths as before)
-        for(String path: shareFolders) {
-        	sb.append("      <article class=\"card\">\n");
-        	sb.append("        <h3>").append(escapeHtmlForSimplePage(path)).append("</h3>\n");
-        	sb.append("        <p>Gegebenenfalls externes Verzeichnis  ffne um Dateien anzusehen.</p>\n");
-        	sb.append("        <div class=\"actions\">\n");
-        	sb.append("          <a class=\"btn btn-primary\" href=\"/" + path + "\">ffnen</a>\n");
-        	sb.append("        </div>\n");
-        	sb.append("      </article>\n");
-        }
-        
-        sb.append("    </section>\n");
-        
-        // Footer with dynamic settings info
-        sb.append("    <footer>\n");
-        sb.append("      <div>Server luft auf Port: " + port + "</div>\n");
-        if (previewMedia) {
-        	sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Vorschau (Preview) ist <strong>aktiviert</strong>  Videos und Audio knnen im Browser abgespielt werden.</div>\n");
-        } else {
-        	sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Vorschau (Preview) ist <strong>deaktiviert</strong>  Dateien werden nur zum Herunterladen angeboten.</div>\n");
-        }
-        if (showVideoThumbnails) {
-        	sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Video-Thumbnail-Generierung ist <strong>aktiviert</strong>. Beim ersten Laden kann die Seite verzgert erscheinen, whrend Thumbnails erzeugt werden.</div>\n");
-        } else {
-        	sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Video-Thumbnail-Generierung ist <strong>deaktiviert</strong>.</div>\n");
-        }
-        if (allowUploads) {
-            sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Uploads sind <strong>aktiviert</strong>  Dateien knnen ber <a href=\"/upload\" style=\"color:var(--link)\">/upload</a> hochgeladen werden.</div>\n");
-        } else {
-            sb.append("      <div style=\"margin-top:6px;color:var(--muted)\">Uploads sind <strong>deaktiviert</strong>.</div>\n");
-        }
-        
-        // show Config-ffnen button only if request comes from local machine (loopback)
-        if (OpenConfig.isLocalRequest(exchange)) {
-        	sb.append("      <div style=\"margin-top:8px\"><br /><a class=\"btn btn-secondary\" href=\"/open-config\">Config ffnen</a></div>\n");
-        }
-        
-        sb.append("    </footer>\n");
-
-        sb.append("  </div>\n");
-        sb.append("</body>\n");
-        sb.append("</html>\n");
-        
-		String response = sb.toString();
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-        // send correct byte-length (wichtig fr UTF-8 / Umlaute)
-        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-        exchange.sendResponseHeaders(200, bytes.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-        	os.write(bytes);
-        }
-		
+		try (HtmlWriter out = HtmlWriter.open(exchange)) {
+			out.start(MAIN_HEAD).raw(WebServer.version).text(getLocalAddressListing(exchange)).end();
+
+			if (allowUploads) {
+				// Uploads card (keeps existing link to /upload)
+				out.start(UPLOAD_CARD).text(uploadDir).end();
+			}
+
+			// External share folders (preserve exact links/paths as before)
+			for (String path : shareFolders) {
+				out.start(SHARE_CARD).text(path).raw(path).end();
+			}
+
+			// Footer with dynamic settings info
+			out.start(FOOTER_START).number(port).end();
+			out.write(previewMedia ? PREVIEW_ON : PREVIEW_OFF);
+			out.write(showVideoThumbnails ? THUMBS_ON : THUMBS_OFF);
+			out.write(allowUploads ? UPLOADS_ON : UPLOADS_OFF);
+
+			// show Config-ffnen button only if request comes from local machine (loopback)
+			if (OpenConfig.isLocalRequest(exchange)) {
+				out.write(CONFIG_BUTTON);
+			}
+			out.write(MAIN_END);
+			out.finish();
+		}
 	}
 	
 	private String getLocalAddressListing(HttpExchange exchange) {
@@ -157,9 +71,83 @@ public class MainPage implements HttpHandler {
 		}
 	}
 	
-	private String escapeHtmlForSimplePage(String s) {
-		if (s == null) return "";
-		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
-	}
+	// -------------------- Templates --------------------
+
+	private static final Template MAIN_HEAD = Template.compile(
+			"<!DOCTYPE html>\n"
+			+ "<html lang=\"de\">\n"
+			+ "<head>\n"
+			+ "  <meta charset=\"utf-8\">\n"
+			+ "  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.7\">\n"
+			+ "  <title>Simple HTTP Server</title>\n"
+			+ "  <link rel=\"stylesheet\" href=\"" + StaticAssets.url("main.css") + "\">\n"
+			+ "</head>\n"
+			+ "<body>\n"
+			+ "  <div class=\"wrap\">\n"
+			+ "    <header>\n"
+			+ "      <div>\n"
+			+ "        <h1>Java Simple-HTTP-Server</h1>\n"
+			+ "        <div class=\"meta\">Version {{version}}</div>\n"
+			+ "      </div>\n"
+			+ "      <div class=\"meta\">Mounted at: <strong>{{mount}}</strong></div>\n"
+			+ "    </header>\n"
+			+ "    <section class=\"grid\">\n"
+			+ "      <article class=\"card\">\n"
+			+ "        <h3>Downloads</h3>\n"
+			+ "        <p>Zeigt Inhalte des internen Download-Ordners an.</p>\n            "
+			+ "        <div class=\"actions\">\n"
+			+ "          <a class=\"btn btn-primary\" href=\"/dl\">ffnen</a>\n"
+			+ "        </div>\n"
+			+ "      </article>\n");
+
+	private static final Template UPLOAD_CARD = Template.compile(
+			"      <article class=\"card\">\n"
+			+ "        <h3>Upload</h3>\n"
+			+ "        <p>Lade dateien hoch  Die Dateien Werden im Verzeichnis \"{{dir}}\" gespeichert.</p>\n            "
+			+ "        <div class=\"actions\">\n"
+			+ "          <a class=\"btn btn-primary\" href=\"/upload\">ffnen</a>\n"
+			+ "        </div>\n"
+			+ "      </article>\n");
+
+	private static final Template SHARE_CARD = Template.compile(
+			"      <article class=\"card\">\n"
+			+ "        <h3>{{name}}</h3>\n"
+			+ "        <p>Gegebenenfalls externes Verzeichnis  ffne um Dateien anzusehen.</p>\n"
+			+ "        <div class=\"actions\">\n"
+			+ "          <a class=\"btn btn-primary\" href=\"/{{path}}\">ffnen</a>\n"
+			+ "        </div>\n"
+			+ "      </article>\n");
+
+	private static final Template FOOTER_START = Template.compile(
+			"    </section>\n"
+			+ "    <footer>\n"
+			+ "      <div>Server luft auf Port: {{port}}</div>\n");
+
+	private static final Template PREVIEW_ON = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Vorschau (Preview) ist <strong>aktiviert</strong>  Videos und Audio knnen im Browser abgespielt werden.</div>\n");
+
+	private static final Template PREVIEW_OFF = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Vorschau (Preview) ist <strong>deaktiviert</strong>  Dateien werden nur zum Herunterladen angeboten.</div>\n");
+
+	private static final Template THUMBS_ON = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Video-Thumbnail-Generierung ist <strong>aktiviert</strong>. Fehlende Thumbnails werden im Hintergrund erzeugt und nachgeladen, sobald sie fertig sind.</div>\n");
+
+	private static final Template THUMBS_OFF = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Video-Thumbnail-Generierung ist <strong>deaktiviert</strong>.</div>\n");
+
+	private static final Template UPLOADS_ON = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Uploads sind <strong>aktiviert</strong>  Dateien knnen ber <a href=\"/upload\" style=\"color:var(--link)\">/upload</a> hochgeladen werden.</div>\n");
+
+	private static final Template UPLOADS_OFF = Template.compile(
+			"      <div style=\"margin-top:6px;color:var(--muted)\">Uploads sind <strong>deaktiviert</strong>.</div>\n");
+
+	private static final Template CONFIG_BUTTON = Template.compile(
+			"      <div style=\"margin-top:8px\"><br /><a class=\"btn btn-secondary\" href=\"/open-config\">Config ffnen</a></div>\n");
+
+	private static final Template MAIN_END = Template.compile(
+			"    </footer>\n"
+			+ "  </div>\n"
+			+ "</body>\n"
+			+ "</html>\n");
 
 }
@@ -0,0 +1,125 @@
+package de.dion.httpserver.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.dion.httpserver.BandwidthScheduler;
+import de.dion.httpserver.HttpValidators;
+import de.dion.httpserver.ThumbnailManager;
+import de.dion.httpserver.WorkloadExecutors;
+import de.dion.httpserver.nio.ZeroCopyExchange;
+
+/**
+ * Liefert die Thumbnails unter /.thumbs aus.
+ *
+ * Fehlt ein Thumbnail noch, wird es vorgezogen und kurz darauf gewartet. Ist es dann immer noch
+ * nicht fertig, kommt 202 zurueck und das Script der Seite fragt spaeter erneut. So belegt kein
+ * Request einen Thread, bis das Thumbnail fertig ist.
+ *
+ * Der Name enthaelt Groesse und Datum der Quelle, aendert sich die Datei, aendert sich auch die URL.
+ * Der Browser darf Thumbnails deshalb unbegrenzt cachen.
+ */
+public class ThumbnailHandler implements HttpHandler {
+
+	// so lange wartet ein Request hoechstens auf ein Thumbnail in Arbeit
+	private static final long MAX_WAIT_MILLIS = 2000;
+	private static final Pattern NAME = Pattern.compile("[0-9a-f]{1,40}(-[tl])?\\.(jpg|png)");
+
+	private final ThumbnailManager thumbnails;
+
+	public ThumbnailHandler(ThumbnailManager thumbnails) {
+		this.thumbnails = thumbnails;
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		if (!NAME.matcher(name).matches()) {
+			sendStatus(exchange, 404);
+			return;
+		}
+
+		ThumbnailManager.State state;
+		long waitStart = System.nanoTime();
+		try {
+			state = thumbnails.awaitThumbnail(name, MAX_WAIT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			state = ThumbnailManager.State.PENDING;
+		}
+		// das Erzeugen hat eigene Threads, das Warten darauf zaehlt nicht als Last dieses Pools
+		WorkloadExecutors.excludeWait(System.nanoTime() - waitStart);
+		if (state == ThumbnailManager.State.PENDING) {
+			exchange.getResponseHeaders().set("Cache-Control", "no-store");
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendStatus(exchange, 202);
+			return;
+		}
+		if (state == ThumbnailManager.State.FAILED) {
+			sendStatus(exchange, 404);
+			return;
+		}
+
+		// Ausschnitt des gemappten Packs, null wenn es gerade beim Aufraeumen verworfen wurde oder kaputt war
+		ByteBuffer data = thumbnails.thumbnailData(name);
+		if (data == null) {
+			try {
+				// neu erzeugen lassen, der Browser fragt wie bei PENDING gleich nochmal
+				thumbnails.awaitThumbnail(name, 0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().set("Cache-Control", "no-store");
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendStatus(exchange, 202);
+			return;
+		}
+		String etag = "\"" + name.substring(0, name.indexOf('.')) + "\"";
+		exchange.getResponseHeaders().set("Content-Type", name.endsWith(".png") ? "image/png" : "image/jpeg");
+		exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+		HttpValidators.setValidators(exchange, etag, -1);
+		if (HttpValidators.isNotModified(exchange, etag, -1)) {
+			sendStatus(exchange, 304);
+			return;
+		}
+		if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(data.remaining()));
+			sendStatus(exchange, 200);
+			return;
+		}
+		exchange.sendResponseHeaders(200, data.remaining());
+		try (OutputStream os = exchange.getResponseBody();
+				BandwidthScheduler.Flow flow = BandwidthScheduler.open(exchange, BandwidthScheduler.TrafficClass.THUMBNAIL)) {
+			boolean zeroCopy = exchange instanceof ZeroCopyExchange && ((ZeroCopyExchange) exchange).isZeroCopyAvailable();
+			byte[] chunk = zeroCopy ? null : new byte[Math.min(8192, data.remaining())];
+			while (data.hasRemaining()) {
+				int n = (int) flow.acquire(data.remaining());
+				flow.beginSend(n);
+				if (zeroCopy) {
+					ByteBuffer slice = data.slice();
+					slice.limit(n);
+					((ZeroCopyExchange) exchange).transferBuffer(slice);
+					data.position(data.position() + n);
+				} else {
+					for (int end = data.position() + n; data.position() < end; ) {
+						int len = Math.min(chunk.length, end - data.position());
+						data.get(chunk, 0, len);
+						os.write(chunk, 0, len);
+					}
+				}
+				flow.endSend(n);
+			}
+		}
+	}
+
+	private static void sendStatus(HttpExchange exchange, int code) throws IOException {
+		exchange.sendResponseHeaders(code, -1);
+		exchange.close();
+	}
+}
@@ -1,15 +1,16 @@
 package de.dion.httpserver.handlers;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -18,18 +19,26 @@ import java.util.Map;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
+import de.dion.httpserver.MultipartStream;
+import de.dion.httpserver.PathResolver;
+import de.dion.httpserver.StaticAssets;
+import de.dion.httpserver.template.HtmlWriter;
+import de.dion.httpserver.template.Template;
+
+
 /**
  * UploadHandler
  *
  * - GET liefert ein Upload-Formular (gestylt analog zur MainPage)
  * - POST (multipart/form-data) speichert die Dateien in uploadDir
  *
- * Hinweis: Diese Implementation parst multipart-Formularinhalte in-memory
- * (liest request body komplett). Fr sehr groe Dateien empfehle ich Apache Commons FileUpload (streaming).
+ * Der multipart-Body wird mit dem MultipartStream gestreamt geparst, die Daten gehen
+ * direkt in die Zieldatei. Der Speicherverbrauch bleibt damit unabhngig von der Dateigre.
  */
 public class UploadHandler implements HttpHandler {
 
     private final File uploadDir;
+    private final PathResolver resolver;
 
     /**
      * @param uploadDirPath Verzeichnis, in das die Dateien geschrieben werden sollen (muss existieren)
@@ -44,7 +53,8 @@ public class UploadHandler implements HttpHandler {
         if (!d.exists() || !d.isDirectory()) {
             throw new IOException("Upload directory does not exist or is not a directory: " + uploadDirPath);
         }
-        this.uploadDir = d.getCanonicalFile();
+        this.resolver = new PathResolver(d);
+        this.uploadDir = resolver.getBase().toFile();
     }
 
     @Override
@@ -60,164 +70,10 @@ public class UploadHandler implements HttpHandler {
     }
 
     private void serveForm(HttpExchange exchange) throws IOException {
-        String contextPath = exchange.getHttpContext().getPath(); // z.B. "/upload"
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("<!DOCTYPE html>\n");
-        sb.append("<html lang=\"de\">\n");
-        sb.append("<head>\n");
-        sb.append("  <meta charset=\"utf-8\">\n");
-        sb.append("  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.7\">\n");
-        sb.append("  <title>Upload - Simple HTTP Server</title>\n");
-        sb.append("  <style>\n");
-        sb.append("    :root{--bg:#0b1320;--card:#0f1724;--muted:#9aa4b2;--accent:#ff9900;--link:#00aaff;--ok:#00ff88}\n");
-        sb.append("    body{background:var(--bg);color:#e6eef8;font-family:Segoe UI,Roboto,Arial,Helvetica,sans-serif;margin:0;padding:24px}\n");
-        sb.append("    .wrap{max-width:900px;margin:0 auto}\n");
-        sb.append("    header{display:flex;align-items:center;justify-content:space-between;gap:12px;margin-bottom:18px}\n");
-        sb.append("    h1{margin:0;font-size:1.5rem;color:var(--accent)}\n");
-        sb.append("    .meta{color:var(--muted);font-size:0.95rem}\n");
-        sb.append("    .card{background:var(--card);border-radius:10px;padding:18px;box-shadow:0 6px 18px rgba(2,6,23,0.6);display:flex;flex-direction:column;gap:12px}\n");
-        sb.append("    label{display:block;color:var(--muted);font-size:0.95rem;margin-bottom:8px}\n");
-        sb.append("    input[type=file]{background:transparent;color:var(--muted)}\n");
-        sb.append("    .actions{margin-top:8px}\n");
-        sb.append("    .btn{display:inline-block;padding:8px 12px;border-radius:8px;text-decoration:none;font-weight:700;border:none;cursor:pointer}\n");
-        sb.append("    .btn-primary{background:linear-gradient(180deg,#07243a,#053049);color:var(--link)}\n");
-        sb.append("    .btn-secondary{background:linear-gradient(180deg,#07220f,#05210b);color:var(--ok);margin-left:8px}\n");
-        sb.append("    .note{color:var(--muted);font-size:0.9rem}\n");
-        sb.append("    .progress-wrap{background:#06101a;border-radius:8px;padding:10px;margin-top:10px}\n");
-        sb.append("    .progress{width:100%;height:16px;background:#05121a;border-radius:8px;overflow:hidden;border:1px solid rgba(255,255,255,0.04)}\n");
-        sb.append("    .progress > .bar{height:100%;width:0%;background:linear-gradient(90deg,#ff9900,#00aaff)}\n");
-        sb.append("    .progress-info{display:flex;justify-content:space-between;font-size:0.85rem;color:var(--muted);margin-top:6px}\n");
-        sb.append("    .result{margin-top:12px}\n");
-        sb.append("    @media (max-width:600px){header{flex-direction:column;align-items:flex-start}}\n");
-        sb.append("  </style>\n");
-        sb.append("</head>\n");
-        sb.append("<body>\n");
-        sb.append("  <div class=\"wrap\">\n");
-        sb.append("    <header>\n");
-        sb.append("      <div>\n");
-        sb.append("        <h1>Datei hochladen</h1>\n");
-        sb.append("        <div class=\"meta\">Zielordner: <strong>").append(escapeHtml(uploadDir.getAbsolutePath())).append("</strong></div>\n");
-        sb.append("      </div>\n");
-        sb.append("      <div class=\"meta\">Mounted at: <strong>").append(escapeHtml(getLocalAddressListing())).append("</strong></div>\n");
-        sb.append("    </header>\n");
-
-        sb.append("    <section class=\"card\">\n");
-        sb.append("      <form id=\"uploadForm\" method=\"post\" enctype=\"multipart/form-data\">\n");
-        sb.append("        <label for=\"file\">Datei(en) auswhlen</label>\n");
-        sb.append("        <input id=\"file\" name=\"file\" type=\"file\" multiple>\n");
-        sb.append("        <div class=\"note\">Whle eine oder mehrere Dateien. Dateinamen werden nicht verndert.</div>\n");
-        sb.append("        <div class=\"actions\">\n");
-        sb.append("          <button id=\"btnUpload\" class=\"btn btn-primary\" type=\"submit\">Hochladen</button>\n");
-        sb.append("          <button id=\"btnCancel\" class=\"btn btn-secondary\" type=\"button\" style=\"display:none\">Abbrechen</button>\n");
-        sb.append("          <a class=\"btn\" href=\"/\" style=\"text-decoration:none;background:linear-gradient(180deg,#07220f,#05210b);padding:8px 12px;border-radius:8px;color:var(--ok);margin-left:8px\">Zurck zur Hauptseite</a>\n");
-        sb.append("        </div>\n");
-
-        // progress UI
-        sb.append("        <div class=\"progress-wrap\" id=\"progressWrap\" style=\"display:none\">\n");
-        sb.append("          <div class=\"progress\"><div class=\"bar\" id=\"progressBar\"></div></div>\n");
-        sb.append("          <div class=\"progress-info\"><span id=\"progressText\">0%</span><span id=\"speedText\"></span></div>\n");
-        sb.append("        </div>\n");
-
-        sb.append("      </form>\n");
-        sb.append("      <div class=\"result\" id=\"result\"></div>\n");
-        sb.append("    </section>\n");
-
-        sb.append("    <footer style=\"margin-top:18px;color:var(--muted);font-size:0.9rem\">Server ldt Dateien in: <strong>")
-          .append(escapeHtml(uploadDir.getAbsolutePath())).append("</strong></footer>\n");
-
-        sb.append("  </div>\n");
-        sb.append("  <script>\n");
-        sb.append("    (function(){\n");
-        sb.append("      const form = document.getElementById('uploadForm');\n");
-        sb.append("      const fileInput = document.getElementById('file');\n");
-        sb.append("      const btnUpload = document.getElementById('btnUpload');\n");
-        sb.append("      const btnCancel = document.getElementById('btnCancel');\n");
-        sb.append("      const progressWrap = document.getElementById('progressWrap');\n");
-        sb.append("      const progressBar = document.getElementById('progressBar');\n");
-        sb.append("      const progressText = document.getElementById('progressText');\n");
-        sb.append("      const speedText = document.getElementById('speedText');\n");
-        sb.append("      const resultDiv = document.getElementById('result');\n");
-        sb.append("      let xhr = null;\n");
-        sb.append("      let startTime = 0;\n");
-        sb.append("      form.addEventListener('submit', function(ev){\n");
-        sb.append("        ev.preventDefault();\n");
-        sb.append("        if (!fileInput.files || fileInput.files.length === 0) {\n");
-        sb.append("          resultDiv.innerHTML = '<div style=\"color:var(--muted)\">Keine Datei ausgewhlt.</div>';\n");
-        sb.append("          return;\n");
-        sb.append("        }\n");
-        sb.append("        btnUpload.disabled = true;\n");
-        sb.append("        resultDiv.innerHTML = '';\n");
-        sb.append("        progressBar.style.width = '0%';\n");
-        sb.append("        progressText.textContent = '0%';\n");
-        sb.append("        speedText.textContent = '';\n");
-        sb.append("        progressWrap.style.display = 'block';\n");
-        sb.append("        btnCancel.style.display = 'inline-block';\n");
-        sb.append("\n");
-        sb.append("        const fd = new FormData();\n");
-        sb.append("        // append all files under same field name 'file'\n");
-        sb.append("        for (let i=0;i<fileInput.files.length;i++) {\n");
-        sb.append("          fd.append('file', fileInput.files[i]);\n");
-        sb.append("        }\n");
-        sb.append("\n");
-        sb.append("        xhr = new XMLHttpRequest();\n");
-        sb.append("        xhr.open('POST', window.location.pathname, true);\n");
-        sb.append("\n");
-        sb.append("        xhr.upload.onprogress = function(evt) {\n");
-        sb.append("          if (!evt.lengthComputable) return;\n");
-        sb.append("          const percent = Math.round((evt.loaded / evt.total) * 100);\n");
-        sb.append("          progressBar.style.width = percent + '%';\n");
-        sb.append("          progressText.textContent = percent + '% (' + formatBytes(evt.loaded) + ' / ' + formatBytes(evt.total) + ')';\n");
-        sb.append("          const elapsed = (performance.now() - startTime) / 1000; // seconds\n");
-        sb.append("          if (elapsed > 0) {\n");
-        sb.append("            const speed = evt.loaded / elapsed; // bytes/sec\n");
-        sb.append("            speedText.textContent = formatBytes(speed) + '/s';\n");
-        sb.append("          }\n");
-        sb.append("        };\n");
-        sb.append("\n");
-        sb.append("        xhr.onload = function() {\n");
-        sb.append("          btnUpload.disabled = false;\n");
-        sb.append("          btnCancel.style.display = 'none';\n");
-        sb.append("          try {\n");
-        sb.append("            // show raw server HTML response\n");
-        sb.append("            resultDiv.innerHTML = xhr.responseText;\n");
-        sb.append("          } catch (e) {\n");
-        sb.append("            resultDiv.textContent = 'Upload abgeschlossen.';\n");
-        sb.append("          }\n");
-        sb.append("        };\n");
-        sb.append("        xhr.onerror = function() {\n");
-        sb.append("          btnUpload.disabled = false;\n");
-        sb.append("          btnCancel.style.display = 'none';\n");
-        sb.append("          resultDiv.innerHTML = '<div style=\"color:#ff6b6b\">Fehler beim Hochladen.</div>';\n");
-        sb.append("        };\n");
-        sb.append("        xhr.onabort = function() {\n");
-        sb.append("          btnUpload.disabled = false;\n");
-        sb.append("          btnCancel.style.display = 'none';\n");
-        sb.append("          resultDiv.innerHTML = '<div style=\"color:var(--muted)\">Upload abgebrochen.</div>';\n");
-        sb.append("        };\n");
-        sb.append("\n");
-        sb.append("        btnCancel.onclick = function(){ if (xhr) xhr.abort(); };\n");
-        sb.append("        startTime = performance.now();\n");
-        sb.append("        xhr.send(fd);\n");
-        sb.append("      });\n");
-        sb.append("\n");
-        sb.append("      function formatBytes(bytes) {\n");
-        sb.append("        if (bytes === 0) return '0 B';\n    ");
-        sb.append("        const k = 1024;\n");
-        sb.append("        const sizes = ['B','KB','MB','GB','TB'];\n");
-        sb.append("        const i = Math.floor(Math.log(bytes) / Math.log(k));\n");
-        sb.append("        return (bytes / Math.pow(k, i)).toFixed( (i>0)?2:0 ) + ' ' + sizes[i];\n");
-        sb.append("      }\n");
-        sb.append("    })();\n");
-        sb.append("  </script>\n");
-        sb.append("</body>\n");
-        sb.append("</html>\n");
-
-        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-        exchange.sendResponseHeaders(200, bytes.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(bytes);
+        String dir = uploadDir.getAbsolutePath();
+        try (HtmlWriter out = HtmlWriter.open(exchange)) {
+            out.start(UPLOAD_FORM).text(dir).text(getLocalAddressListing()).text(dir).end();
+            out.finish();
         }
     }
 
@@ -234,114 +90,61 @@ public class UploadHandler implements HttpHandler {
             return;
         }
 
-        // read full body (in-memory). For production / large files -> use streaming parser (Apache Commons FileUpload).
-        byte[] body = readAllBytes(exchange.getRequestBody());
-
-        // Split parts by boundary
-        byte[] boundaryBytes = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
-        List<Integer> partPositions = findAll(body, boundaryBytes);
-
-        if (partPositions.size() < 2) {
-            sendPlainText(exchange, 400, "Bad Request: no multipart parts found");
-            return;
-        }
-
+        // Body wird gestreamt geparst, jeder Part geht direkt in seine Zieldatei
+        MultipartStream multipart = new MultipartStream(exchange.getRequestBody(), boundary);
         List<String> savedFiles = new ArrayList<>();
-        // iterate parts (between boundaries)
-        for (int i = 0; i < partPositions.size() - 1; i++) {
-            int start = partPositions.get(i) + boundaryBytes.length;
-            // skip possible CRLF
-            if (start + 2 <= body.length && body[start] == '\r' && body[start + 1] == '\n') {
-                start += 2;
-            } else if (start + 1 <= body.length && (body[start] == '\n')) {
-                start += 1;
-            }
-            int end = partPositions.get(i + 1); // position of next boundary
-            // content for this part is body[start .. end-1] (may end with \r\n)
-            if (end - start <= 0) continue;
-
-            // find header end (double CRLF)
-            int headerEnd = indexOf(body, new byte[]{'\r', '\n', '\r', '\n'}, start, end);
-            if (headerEnd == -1) {
-                headerEnd = indexOf(body, new byte[]{'\n', '\n'}, start, end);
-                if (headerEnd == -1) {
-                    continue; // ignore malformed part
-                } else {
-                    headerEnd += 2;
-                }
-            } else {
-                headerEnd += 4;
-            }
-
-            // parse headers
-            String headersStr = new String(body, start, headerEnd - start, StandardCharsets.ISO_8859_1);
-            Map<String, String> hdrs = parsePartHeaders(headersStr);
-
-            String disposition = hdrs.getOrDefault("Content-Disposition", "");
-            // extract filename if present
-            String filename = extractFileNameFromContentDisposition(disposition);
-            if (filename == null || filename.isEmpty()) {
-                // no filename -> skip (could be a simple form field)
-                continue;
-            }
 
-            // sanitize filename (strip path components)
-            filename = Paths.get(filename).getFileName().toString();
-
-            // compute data start & end (strip final CRLF before boundary)
-            int dataStart = headerEnd;
-            int dataEnd = end;
-            // trim trailing CRLF before boundary
-            if (dataEnd - 2 >= dataStart && body[dataEnd - 2] == '\r' && body[dataEnd - 1] == '\n') {
-                dataEnd -= 2;
-            } else if (dataEnd - 1 >= dataStart && (body[dataEnd - 1] == '\n')) {
-                dataEnd -= 1;
+        try {
+            boolean nextPart = multipart.skipPreamble();
+            if (!nextPart) {
+                sendPlainText(exchange, 400, "Bad Request: no multipart parts found");
+                return;
             }
 
-            // write bytes to file
-            File outFile = new File(uploadDir, filename).getCanonicalFile();
-            // ensure we don't escape the uploadDir
-            if (!outFile.getPath().startsWith(uploadDir.getPath()) || !outFile.getCanonicalPath().startsWith(uploadDir.getPath())) {
-                // suspicious filename -> skip
-                continue;
-            }
+            while (nextPart) {
+                Map<String, String> hdrs = parsePartHeaders(multipart.readHeaders());
+
+                String disposition = hdrs.getOrDefault("Content-Disposition", "");
+                // extract filename if present
+                String filename = extractFileNameFromContentDisposition(disposition);
+                File outFile = null;
+                if (filename != null && !filename.isEmpty()) {
+                    // sanitize filename (strip path components)
+                    filename = Paths.get(filename).getFileName().toString();
+                    // ensure we don't escape the uploadDir (".." or a symlink pointing outside)
+                    Path resolved = resolver.resolve(filename);
+                    // suspicious filename -> skip
+                    outFile = resolved == null ? null : resolved.toFile();
+                }
 
-            try (FileOutputStream fos = new FileOutputStream(outFile)) {
-                fos.write(body, dataStart, dataEnd - dataStart);
-                fos.flush();
-            } catch (IOException ex) {
-                System.err.println("Could not write uploaded file: " + ex.getMessage());
-                continue;
+                if (outFile == null) {
+                    // no filename -> skip (could be a simple form field)
+                    multipart.readBodyData(null);
+                } else if (receiveFile(multipart, outFile)) {
+                    savedFiles.add(outFile.getName());
+                }
+                nextPart = multipart.readBoundary();
             }
-            savedFiles.add(outFile.getName());
+        } catch (IOException e) {
+            // Client hat abgebrochen oder der Body ist kaputt
+            System.err.println("Upload abgebrochen: " + e.getMessage());
+            sendPlainText(exchange, 400, "Bad Request: malformed or incomplete multipart body");
+            return;
         }
 
-        // Build response HTML
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!doctype html><html><head><meta charset=\"utf-8\"><title>Upload Ergebnis</title>");
-        sb.append("\n<style>:root{--bg:#0b1320;--card:#0f1724;--muted:#9aa4b2;--accent:#ff9900;--link:#00aaff;--ok:#00ff88}");
-        sb.append("\nbody{background:var(--bg);color:#e6eef8;font-family:Segoe UI,Roboto,Arial,Helvetica,sans-serif;margin:0;padding:24px}.wrap{max-width:900px;margin:0 auto}.card{background:var(--card);border-radius:10px;padding:18px;margin-top:18px}</style>");
-        sb.append("\n</head><body><div class=\"wrap\">");
-        sb.append("\n<h1 style=\"color:var(--accent)\">Upload Ergebnis</h1>");
-        sb.append("\n<div class=\"card\">");
-        if (savedFiles.isEmpty()) {
-            sb.append("\n<p class=\"note\">Keine Dateien hochgeladen oder Fehler beim Speichern.</p>");
-        } else {
-            sb.append("\n<p>Folgende Datei(en) wurden erfolgreich gespeichert in <strong>").append(escapeHtml(uploadDir.getAbsolutePath())).append("</strong>:</p>");
-            sb.append("\n<ul>");
-            for (String n : savedFiles) {
-                sb.append("\n<li>").append(escapeHtml(n)).append("</li>");
+        try (HtmlWriter out = HtmlWriter.open(exchange)) {
+            out.write(UPLOAD_RESULT_HEAD);
+            if (savedFiles.isEmpty()) {
+                out.write(UPLOAD_RESULT_NONE);
+            } else {
+                out.start(UPLOAD_RESULT_FILES).text(uploadDir.getAbsolutePath()).end();
+                for (String n : savedFiles) {
+                    out.start(UPLOAD_RESULT_FILE).text(n).end();
+                }
+                out.write(UPLOAD_RESULT_FILES_END);
             }
-            sb.append("\n</ul>");
-        }
-        sb.append("\n<div style=\"margin-top:12px\"><a class=\"btn\" href=\"/upload\" style=\"text-decoration:none;background:linear-gradient(180deg,#07220f,#05210b);padding:8px 12px;border-radius:8px;color:var(--ok)\">Zurck</a></div>");
-        sb.append("\n</div></div></body></html>");
-
-        byte[] out = sb.toString().getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
-        exchange.sendResponseHeaders(200, out.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(out);
+            out.write(UPLOAD_RESULT_TAIL);
+            out.finish();
         }
     }
 
@@ -365,11 +168,6 @@ public class UploadHandler implements HttpHandler {
         }
     }
 
-    private String escapeHtml(String s) {
-        if (s == null) return "";
-        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
-    }
-
     private String getBoundary(String contentType) {
         // Content-Type: multipart/form-data; boundary=----WebKitFormBoundaryabc123
         String[] parts = contentType.split(";");
@@ -386,41 +184,44 @@ public class UploadHandler implements HttpHandler {
         return null;
     }
 
-    private static byte[] readAllBytes(InputStream in) throws IOException {
-        // Java 9+ has InputStream.readAllBytes(); implement fallback for older versions:
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buffer = new byte[8192];
-        int n;
-        while ((n = in.read(buffer)) != -1) {
-            baos.write(buffer, 0, n);
+    // Streamt die Daten eines Parts in eine temporaere Datei und ersetzt danach die Zieldatei.
+    // So bleibt bei einem abgebrochenen Upload keine halbe Datei liegen.
+    // Der Name der temporaeren Datei ist eindeutig, damit sich gleichzeitige Uploads derselben Datei nicht ueberschreiben;
+    // es gewinnt der zuletzt fertige.
+    private boolean receiveFile(MultipartStream multipart, File outFile) throws IOException {
+        File tmpFile = null;
+        FileOutputStream fos;
+        try {
+            tmpFile = File.createTempFile("." + outFile.getName() + ".", ".upload", uploadDir);
+            fos = new FileOutputStream(tmpFile);
+        } catch (IOException ex) {
+            System.err.println("Could not write uploaded file: " + ex.getMessage());
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            multipart.readBodyData(null);
+            return false;
         }
-        return baos.toByteArray();
-    }
 
-    // Finds all occurrences of pattern in data and returns list of starting indices
-    private static List<Integer> findAll(byte[] data, byte[] pattern) {
-        List<Integer> res = new ArrayList<>();
-        int idx = 0;
-        while (idx < data.length) {
-            int pos = indexOf(data, pattern, idx, data.length);
-            if (pos == -1) break;
-            res.add(pos);
-            idx = pos + pattern.length;
+        boolean complete = false;
+        try {
+            multipart.readBodyData(fos);
+            complete = true;
+        } finally {
+            try { fos.close(); } catch (IOException ignored) {}
+            if (!complete) {
+                tmpFile.delete();
+            }
         }
-        return res;
-    }
 
-    // indexOf for byte arrays in range [from, to)
-    private static int indexOf(byte[] data, byte[] pattern, int from, int to) {
-        if (pattern.length == 0) return from;
-        outer:
-        for (int i = from; i <= to - pattern.length; i++) {
-            for (int j = 0; j < pattern.length; j++) {
-                if (data[i + j] != pattern[j]) continue outer;
-            }
-            return i;
+        try {
+            Files.move(tmpFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            System.err.println("Could not write uploaded file: " + ex.getMessage());
+            tmpFile.delete();
+            return false;
         }
-        return -1;
+        return true;
     }
 
     // parse headers block into map (headerName -> headerValue)
@@ -454,4 +255,81 @@ public class UploadHandler implements HttpHandler {
         }
         return null;
     }
+
+    // -------------------- Templates --------------------
+
+    private static final Template UPLOAD_FORM = Template.compile(
+            "<!DOCTYPE html>\n"
+            + "<html lang=\"de\">\n"
+            + "<head>\n"
+            + "  <meta charset=\"utf-8\">\n"
+            + "  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.7\">\n"
+            + "  <title>Upload - Simple HTTP Server</title>\n"
+            + "  <link rel=\"stylesheet\" href=\"" + StaticAssets.url("upload.css") + "\">\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "  <div class=\"wrap\">\n"
+            + "    <header>\n"
+            + "      <div>\n"
+            + "        <h1>Datei hochladen</h1>\n"
+            + "        <div class=\"meta\">Zielordner: <strong>{{dir}}</strong></div>\n"
+            + "      </div>\n"
+            + "      <div class=\"meta\">Mounted at: <strong>{{mount}}</strong></div>\n"
+            + "    </header>\n"
+            + "    <section class=\"card\">\n"
+            + "      <form id=\"uploadForm\" method=\"post\" enctype=\"multipart/form-data\">\n"
+            + "        <label for=\"file\">Datei(en) auswhlen</label>\n"
+            + "        <input id=\"file\" name=\"file\" type=\"file\" multiple>\n"
+            + "        <div class=\"note\">Whle eine oder mehrere Dateien. Dateinamen werden nicht verndert.</div>\n"
+            + "        <div class=\"actions\">\n"
+            + "          <button id=\"btnUpload\" class=\"btn btn-primary\" type=\"submit\">Hochladen</button>\n"
+            + "          <button id=\"btnCancel\" class=\"btn btn-secondary\" type=\"button\" style=\"display:none\">Abbrechen</button>\n"
+            + "          <a class=\"btn btn-back\" href=\"/\">Zurck zur Hauptseite</a>\n"
+            + "        </div>\n"
+            + "        <div class=\"progress-wrap\" id=\"progressWrap\" style=\"display:none\">\n"
+            + "          <div class=\"progress\"><div class=\"bar\" id=\"progressBar\"></div></div>\n"
+            + "          <div class=\"progress-info\"><span id=\"progressText\">0%</span><span id=\"speedText\"></span></div>\n"
+            + "        </div>\n"
+            + "      </form>\n"
+            + "      <div class=\"result\" id=\"result\"></div>\n"
+            + "    </section>\n"
+            + "    <footer style=\"margin-top:18px;color:var(--muted);font-size:0.9rem\">Server ldt Dateien in: <strong>{{dir}}</strong></footer>\n"
+            + "  </div>\n"
+            + "  <script src=\"" + StaticAssets.url("upload.js") + "\"></script>\n"
+            + "</body>\n"
+            + "</html>\n");
+
+    private static final Template UPLOAD_RESULT_HEAD = Template.compile(
+            "<!DOCTYPE html>\n"
+            + "<html lang=\"de\">\n"
+            + "<head>\n"
+            + "  <meta charset=\"utf-8\">\n"
+            + "  <meta name=\"viewport\" content=\"width=device-width,initial-scale=0.7\">\n"
+            + "  <title>Upload Ergebnis</title>\n"
+            + "  <link rel=\"stylesheet\" href=\"" + StaticAssets.url("upload.css") + "\">\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "  <div class=\"wrap\">\n"
+            + "    <header><h1>Upload Ergebnis</h1></header>\n"
+            + "    <section class=\"card\">\n");
+
+    private static final Template UPLOAD_RESULT_NONE = Template.compile(
+            "      <p class=\"note\">Keine Dateien hochgeladen oder Fehler beim Speichern.</p>\n");
+
+    private static final Template UPLOAD_RESULT_FILES = Template.compile(
+            "      <p>Folgende Datei(en) wurden erfolgreich gespeichert in <strong>{{dir}}</strong>:</p>\n"
+            + "      <ul>\n");
+
+    private static final Template UPLOAD_RESULT_FILE = Template.compile(
+            "        <li>{{name}}</li>\n");
+
+    private static final Template UPLOAD_RESULT_FILES_END = Template.compile(
+            "      </ul>\n");
+
+    private static final Template UPLOAD_RESULT_TAIL = Template.compile(
+            "      <div class=\"actions\"><a class=\"btn btn-back\" href=\"/upload\">Zurck</a></div>\n"
+            + "    </section>\n"
+            + "  </div>\n"
+            + "</body>\n"
+            + "</html>\n");
 }
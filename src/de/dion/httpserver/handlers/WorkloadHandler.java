@@ -0,0 +1,62 @@
+package de.dion.httpserver.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.dion.httpserver.WorkloadExecutors;
+
+/**
+ * /.workload, nur von localhost erreichbar (wie /open-config).
+ *
+ * Zeigt je Thread-Pool Threads, das aktuelle Limit, laufende und wartende Requests, Abweisungen (503),
+ * die Wartezeit in der Queue und die gemessene Latenz als JSON.
+ */
+public class WorkloadHandler implements HttpHandler {
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		if (!OpenConfig.isLocalRequest(exchange)) {
+			send(exchange, 403, "text/plain; charset=utf-8", "Forbidden");
+			return;
+		}
+		StringBuilder json = new StringBuilder(512);
+		json.append("{\"pools\":[");
+		boolean first = true;
+		for (WorkloadExecutors.PoolStats p : WorkloadExecutors.stats()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append("\n{\"name\":\"").append(p.workload.label)
+					.append("\",\"threads\":").append(p.threads)
+					.append(",\"limit\":").append(p.limit)
+					.append(",\"active\":").append(p.active)
+					.append(",\"queued\":").append(p.queued)
+					.append(",\"completed\":").append(p.completed)
+					.append(",\"rejected\":").append(p.rejected)
+					.append(",\"rejectedClient\":").append(p.rejectedClient)
+					.append(",\"shed\":").append(p.shed)
+					.append(",\"avgWaitMs\":").append(p.avgWaitMillis)
+					.append(",\"maxWaitMs\":").append(p.maxWaitMillis)
+					.append(",\"baselineMs\":").append(p.baselineMillis)
+					.append(",\"latencyMs\":").append(p.latencyMillis)
+					.append('}');
+		}
+		json.append("]}\n");
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		send(exchange, 200, "application/json; charset=utf-8", json.toString());
+	}
+
+	private static void send(HttpExchange exchange, int code, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+}
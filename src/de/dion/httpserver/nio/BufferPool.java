@@ -0,0 +1,50 @@
+package de.dion.httpserver.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Einfacher Pool fuer ByteBuffer gleicher Groesse.
+ * Verhindert, dass pro Request/Verbindung neue (direkte) Puffer allokiert werden muessen.
+ */
+final class BufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+    private final boolean direct;
+
+    BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer b = pool.poll();
+        if (b == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        pooled.decrementAndGet();
+        b.clear();
+        return b;
+    }
+
+    void release(ByteBuffer b) {
+        if (b == null || b.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            b.clear();
+            pool.offer(b);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,19 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+
+/**
+ * Wird geworfen, wenn der Client die Verbindung waehrend eines Exchanges geschlossen hat.
+ */
+public class ClientAbortException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ClientAbortException(String message) {
+		super(message);
+	}
+
+	public ClientAbortException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
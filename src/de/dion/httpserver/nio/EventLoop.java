@@ -0,0 +1,139 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector-Thread der NIO Engine. Nimmt Verbindungen an (nur der erste Loop), liest
+ * Request-Koepfe nicht-blockierend und schliesst Keep-Alive-Verbindungen, die zu lange
+ * nichts gesendet haben oder ihren Request-Kopf zu langsam senden. Alle Aenderungen an
+ * Selection-Keys laufen ueber diesen Thread.
+ */
+final class EventLoop implements Runnable {
+
+    private final NioHttpServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<HttpConnection> connections = new HashSet<>();
+    private volatile boolean running = true;
+    private long lastTimeoutCheck;
+
+    EventLoop(NioHttpServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /** Fuehrt r im EventLoop-Thread aus. */
+    void execute(Runnable r) {
+        tasks.add(r);
+        selector.wakeup();
+    }
+
+    /** Uebernimmt eine neu angenommene Verbindung. */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                HttpConnection conn = new HttpConnection(server, this, channel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                connections.add(conn);
+            } catch (IOException e) {
+                server.connectionClosed(channel.socket().getInetAddress());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    void removeConnection(HttpConnection conn) {
+        connections.remove(conn);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        server.accept();
+                    } else if (key.isReadable()) {
+                        ((HttpConnection) key.attachment()).onReadable();
+                    }
+                }
+                closeIdleConnections();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("NIO EventLoop Fehler: " + e);
+            }
+        }
+        for (HttpConnection conn : new ArrayList<>(connections)) {
+            conn.close();
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void runTasks() {
+        Runnable r;
+        while ((r = tasks.poll()) != null) {
+            try {
+                r.run();
+            } catch (Exception e) {
+                System.err.println("NIO EventLoop Task Fehler: " + e);
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastTimeoutCheck < 1000) {
+            return;
+        }
+        lastTimeoutCheck = now;
+        long timeout = server.getIdleTimeout();
+        long headerTimeout = server.getHeaderTimeout();
+        for (HttpConnection conn : new ArrayList<>(connections)) {
+            if (conn.state != HttpConnection.State.IDLE) {
+                continue;
+            }
+            if (conn.headStarted != 0 && now - conn.headStarted > headerTimeout) {
+                // Request-Kopf kommt zu langsam (Slowloris)
+                conn.sendErrorAndClose(408);
+            } else if (now - conn.lastActivity > timeout) {
+                conn.close();
+            }
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,129 @@
+package de.dion.httpserver.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Schreibt Response-Header direkt als Bytes in einen Puffer.
+ * Statuszeilen und der Date-Header werden vorab kodiert und wiederverwendet.
+ */
+final class HeaderEncoder {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON = {':', ' '};
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    private static volatile long dateSecond;
+    private static volatile byte[] dateLine;
+
+    static {
+        for (int code = 100; code < STATUS_LINES.length; code++) {
+            String reason = reasonPhrase(code);
+            if (reason != null) {
+                STATUS_LINES[code] = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+    }
+
+    private HeaderEncoder() {}
+
+    /**
+     * Kodiert Statuszeile, Date-Header und alle Response-Header inkl. abschliessender Leerzeile.
+     * @return Puffer im Lese-Modus
+     */
+    static ByteBuffer encode(int code, Headers headers) {
+        byte[] status = statusLine(code);
+        int needed = status.length + currentDateLine().length + 2;
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            for (String v : e.getValue()) {
+                needed += e.getKey().length() + (v == null ? 0 : v.length()) * 3 + 4;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(needed);
+
+        buf.put(status);
+        buf.put(currentDateLine());
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            for (String v : e.getValue()) {
+                buf.put(name).put(COLON);
+                if (v != null) {
+                    // Header-Werte sind ISO-8859-1; UTF-8 Dateinamen (Content-Disposition) roh durchreichen
+                    buf.put(v.getBytes(StandardCharsets.UTF_8));
+                }
+                buf.put(CRLF);
+            }
+        }
+        buf.put(CRLF);
+        buf.flip();
+        return buf;
+    }
+
+    static byte[] statusLine(int code) {
+        if (code >= 100 && code < STATUS_LINES.length && STATUS_LINES[code] != null) {
+            return STATUS_LINES[code];
+        }
+        return ("HTTP/1.1 " + code + " \r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Date-Header nur einmal pro Sekunde neu formatieren
+    private static byte[] currentDateLine() {
+        long second = System.currentTimeMillis() / 1000;
+        byte[] line = dateLine;
+        if (line == null || second != dateSecond) {
+            SimpleDateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            df.setTimeZone(TimeZone.getTimeZone("GMT"));
+            line = ("Date: " + df.format(new Date(second * 1000)) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            dateLine = line;
+            dateSecond = second;
+        }
+        return line;
+    }
+
+    static String reasonPhrase(int code) {
+        switch (code) {
+        case 100: return "Continue";
+        case 101: return "Switching Protocols";
+        case 200: return "OK";
+        case 201: return "Created";
+        case 202: return "Accepted";
+        case 204: return "No Content";
+        case 206: return "Partial Content";
+        case 301: return "Moved Permanently";
+        case 302: return "Found";
+        case 303: return "See Other";
+        case 304: return "Not Modified";
+        case 307: return "Temporary Redirect";
+        case 308: return "Permanent Redirect";
+        case 400: return "Bad Request";
+        case 401: return "Unauthorized";
+        case 403: return "Forbidden";
+        case 404: return "Not Found";
+        case 405: return "Method Not Allowed";
+        case 408: return "Request Timeout";
+        case 411: return "Length Required";
+        case 412: return "Precondition Failed";
+        case 413: return "Payload Too Large";
+        case 414: return "URI Too Long";
+        case 416: return "Range Not Satisfiable";
+        case 417: return "Expectation Failed";
+        case 429: return "Too Many Requests";
+        case 431: return "Request Header Fields Too Large";
+        case 500: return "Internal Server Error";
+        case 501: return "Not Implemented";
+        case 502: return "Bad Gateway";
+        case 503: return "Service Unavailable";
+        case 504: return "Gateway Timeout";
+        case 505: return "HTTP Version Not Supported";
+        default: return null;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Eine Client-Verbindung der NIO Engine.
+ *
+ * Solange die Verbindung auf einen Request wartet, gehoert sie dem EventLoop: der liest den
+ * Request-Kopf nicht-blockierend ein. Ist der Kopf vollstaendig, wird die Verbindung an einen
+ * Worker-Thread uebergeben, der den Handler ausfuehrt. Der Worker liest/schreibt ueber die
+ * blockierenden Hilfsmethoden dieser Klasse (mit Timeout). Danach geht die Verbindung
+ * (Keep-Alive) zurueck an den EventLoop.
+ */
+final class HttpConnection {
+
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    enum State { IDLE, BUSY, CLOSED }
+
+    final NioHttpServer server;
+    final EventLoop loop;
+    final SocketChannel channel;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    SelectionKey key;
+
+    /** Lesepuffer, immer im "Lese-Modus" (Daten zwischen position und limit). */
+    private ByteBuffer readBuffer;
+    private Selector waitSelector;
+    private SelectionKey waitKey;
+
+    volatile State state = State.IDLE;
+    // close() kommt vom EventLoop und vom Worker, nur der erste darf den Zaehler je IP verringern
+    private final AtomicBoolean closed = new AtomicBoolean();
+    volatile long lastActivity = System.currentTimeMillis();
+    /** Seit wann ein unvollstaendiger Request-Kopf im Puffer liegt, 0 = keiner (nur EventLoop) */
+    long headStarted;
+
+    HttpConnection(NioHttpServer server, EventLoop loop, SocketChannel channel) throws IOException {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    // -------------------- EventLoop-Seite --------------------
+
+    /** Wird vom EventLoop aufgerufen, wenn Daten anliegen. */
+    void onReadable() {
+        try {
+            if (readBuffer == null) {
+                readBuffer = server.readPool.acquire();
+                readBuffer.flip();
+            }
+            if (!readBuffer.hasRemaining()) {
+                readBuffer.clear();
+            } else {
+                readBuffer.compact();
+            }
+            int n = channel.read(readBuffer);
+            readBuffer.flip();
+            if (n == -1) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            tryDispatch();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /** Versucht einen vollstaendigen Request-Kopf aus dem Puffer zu lesen und zu dispatchen. */
+    private void tryDispatch() throws IOException {
+        // fuehrende Leerzeilen zwischen Requests ueberspringen
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get(readBuffer.position());
+            if (b != '\r' && b != '\n') break;
+            readBuffer.position(readBuffer.position() + 1);
+        }
+
+        int end = findHeadEnd();
+        if (end == -1) {
+            if (readBuffer.hasRemaining() && headStarted == 0) {
+                // Frist laeuft ab dem ersten Byte, ein Byte alle paar Sekunden verlaengert sie nicht
+                headStarted = System.currentTimeMillis();
+            }
+            if (readBuffer.remaining() == readBuffer.capacity()) {
+                // Kopf passt nicht in den Puffer
+                sendErrorAndClose(431);
+            } else if (!readBuffer.hasRemaining()) {
+                server.readPool.release(readBuffer);
+                readBuffer = null;
+            }
+            return;
+        }
+
+        headStarted = 0;
+        byte[] head = new byte[end - readBuffer.position()];
+        readBuffer.get(head);
+        readBuffer.position(end + 4);
+
+        NioHttpExchange exchange;
+        try {
+            exchange = parseHead(new String(head, StandardCharsets.ISO_8859_1));
+        } catch (IllegalArgumentException | URISyntaxException e) {
+            sendErrorAndClose(400);
+            return;
+        }
+
+        state = State.BUSY;
+        key.interestOps(0);
+        server.dispatch(exchange);
+    }
+
+    private int findHeadEnd() {
+        int lim = readBuffer.limit();
+        for (int i = readBuffer.position(); i + 3 < lim; i++) {
+            if (readBuffer.get(i) == '\r' && readBuffer.get(i + 1) == '\n'
+                    && readBuffer.get(i + 2) == '\r' && readBuffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private NioHttpExchange parseHead(String head) throws URISyntaxException {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new IllegalArgumentException("Bad request line: " + lines[0]);
+        }
+        Headers headers = new Headers();
+        String lastName = null;
+        for (int i = 1; i < lines.length; i++) {
+            String l = lines[i];
+            if (!l.isEmpty() && (l.charAt(0) == ' ' || l.charAt(0) == '\t') && lastName != null) {
+                // obsolete line folding: an den letzten Wert anhaengen
+                java.util.List<String> values = headers.get(lastName);
+                int last = values.size() - 1;
+                values.set(last, values.get(last) + " " + l.trim());
+                continue;
+            }
+            int idx = l.indexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("Bad header line: " + l);
+            }
+            lastName = l.substring(0, idx).trim();
+            headers.add(lastName, l.substring(idx + 1).trim());
+        }
+        return new NioHttpExchange(this, requestLine[0], new URI(requestLine[1]), requestLine[2], headers);
+    }
+
+    /** Antwortet mit einem Fehlercode ohne Body und schliesst die Verbindung (nur EventLoop). */
+    void sendErrorAndClose(int code) {
+        try {
+            String resp = new String(HeaderEncoder.statusLine(code), StandardCharsets.ISO_8859_1)
+                    + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+            channel.write(ByteBuffer.wrap(resp.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (IOException ignored) {
+        }
+        close();
+    }
+
+    /**
+     * Gibt die Verbindung nach einem Exchange an den EventLoop zurueck oder schliesst sie.
+     * Wird vom Worker-Thread aufgerufen.
+     */
+    void exchangeFinished(boolean closeConnection, RequestBodyStream requestBody) {
+        if (!closeConnection && requestBody != null && !requestBody.drain(MAX_DRAIN_BYTES)) {
+            // zu viel ungelesener Request-Body -> Verbindung nicht wiederverwenden
+            closeConnection = true;
+        }
+        if (closeConnection) {
+            close();
+            return;
+        }
+        closeWaitSelector();
+        lastActivity = System.currentTimeMillis();
+        loop.execute(() -> {
+            if (state == State.CLOSED) return;
+            state = State.IDLE;
+            try {
+                if (readBuffer != null && readBuffer.hasRemaining()) {
+                    // Pipelining: naechster Request liegt schon im Puffer
+                    tryDispatch();
+                    if (state == State.BUSY) return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (Exception e) {
+                close();
+            }
+        });
+    }
+
+    // -------------------- Worker-Seite (blockierend mit Timeout) --------------------
+
+    /**
+     * Liest Daten fuer den Request-Body. Zuerst aus dem Lesepuffer (bereits mit dem Kopf
+     * gelesene Bytes), danach direkt vom Socket.
+     * @return Anzahl gelesener Bytes oder -1 bei Verbindungsende
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        if (readBuffer != null && readBuffer.hasRemaining()) {
+            int n = Math.min(len, readBuffer.remaining());
+            readBuffer.get(b, off, n);
+            return n;
+        }
+        ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+        long deadline = System.currentTimeMillis() + server.getReadTimeout();
+        while (true) {
+            int n = channel.read(dst);
+            if (n != 0) {
+                return n;
+            }
+            await(SelectionKey.OP_READ, deadline);
+        }
+    }
+
+    /** Schreibt alle Puffer vollstaendig (gathering write), blockiert mit Timeout. */
+    void write(ByteBuffer... srcs) throws IOException {
+        long deadline = System.currentTimeMillis() + server.getWriteTimeout();
+        while (hasRemaining(srcs)) {
+            long n = channel.write(srcs);
+            if (n > 0) {
+                deadline = System.currentTimeMillis() + server.getWriteTimeout();
+            } else {
+                await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs) {
+        for (ByteBuffer b : srcs) {
+            if (b.hasRemaining()) return true;
+        }
+        return false;
+    }
+
+    /** Wartet, bis der Kanal lesbar/schreibbar ist. Der Kanal bleibt dabei nicht-blockierend. */
+    void await(int op, long deadline) throws IOException {
+        if (waitSelector == null) {
+            waitSelector = Selector.open();
+            waitKey = channel.register(waitSelector, 0);
+        }
+        waitKey.interestOps(op);
+        while (true) {
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout <= 0) {
+                throw new SocketTimeoutException(op == SelectionKey.OP_READ ? "read timed out" : "write timed out");
+            }
+            int n = waitSelector.select(timeout);
+            waitSelector.selectedKeys().clear();
+            if (n > 0) {
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // z.B. als zu langsamer Client getrennt (BandwidthScheduler)
+                throw new ClientAbortException("interrupted");
+            }
+            if (!channel.isOpen()) {
+                throw new ClientAbortException("connection closed");
+            }
+        }
+    }
+
+    private void closeWaitSelector() {
+        if (waitSelector != null) {
+            try {
+                waitSelector.close();
+            } catch (IOException ignored) {
+            }
+            waitSelector = null;
+            waitKey = null;
+        }
+    }
+
+    // -------------------- Allgemein --------------------
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        state = State.CLOSED;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        server.connectionClosed(remoteAddress != null ? remoteAddress.getAddress() : null);
+        closeWaitSelector();
+        loop.execute(() -> {
+            loop.removeConnection(this);
+            if (readBuffer != null) {
+                server.readPool.release(readBuffer);
+                readBuffer = null;
+            }
+        });
+    }
+}
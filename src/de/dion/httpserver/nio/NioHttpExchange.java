@@ -0,0 +1,266 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * HttpExchange der NIO Engine. Verhaelt sich wie der Exchange des JDK-Servers,
+ * damit die vorhandenen Handler unveraendert laufen.
+ */
+final class NioHttpExchange extends HttpExchange implements ZeroCopyExchange {
+
+    private final HttpConnection conn;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final RequestBodyStream requestBody;
+    private final ResponseBodyStream responseBody;
+    private InputStream in;
+    private OutputStream out;
+    private NioHttpContext context;
+    private int responseCode = -1;
+    private boolean headersSent;
+    private boolean closeConnection;
+    private volatile boolean finished;
+
+    NioHttpExchange(HttpConnection conn, String method, URI uri, String protocol, Headers requestHeaders) {
+        this.conn = conn;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+
+        String te = requestHeaders.getFirst("Transfer-encoding");
+        boolean chunked = te != null && te.equalsIgnoreCase("chunked");
+        long length = 0;
+        String cl = requestHeaders.getFirst("Content-length");
+        if (!chunked && cl != null) {
+            try {
+                length = Long.parseLong(cl.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad Content-Length: " + cl);
+            }
+        }
+        this.requestBody = new RequestBodyStream(conn, length, chunked);
+        this.responseBody = new ResponseBodyStream(this, conn);
+        this.in = requestBody;
+        this.out = responseBody;
+
+        String connection = requestHeaders.getFirst("Connection");
+        if (protocol.equalsIgnoreCase("HTTP/1.0")) {
+            closeConnection = connection == null || !connection.equalsIgnoreCase("keep-alive");
+        } else {
+            closeConnection = connection != null && connection.equalsIgnoreCase("close");
+        }
+    }
+
+    void setContext(NioHttpContext context) {
+        this.context = context;
+    }
+
+    /** Beantwortet "Expect: 100-continue" bevor der Handler den Body liest. */
+    void sendContinueIfExpected() throws IOException {
+        String expect = requestHeaders.getFirst("Expect");
+        if (expect != null && expect.equalsIgnoreCase("100-continue")) {
+            conn.write(ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+        }
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+            if (!headersSent) {
+                // Handler hat nie geantwortet -> Verbindung ist nicht mehr nutzbar
+                closeConnection = true;
+                finished(true);
+            } else {
+                out.close();
+            }
+        } catch (IOException e) {
+            finished(true);
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return out;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (headersSent) {
+            throw new IOException("headers already sent");
+        }
+        headersSent = true;
+        responseCode = rCode;
+
+        ResponseBodyStream.Mode mode;
+        long length = 0;
+        if ((rCode >= 100 && rCode < 200) || rCode == 204 || rCode == 304) {
+            // diese Antworten haben nie einen Body
+            mode = ResponseBodyStream.Mode.NONE;
+        } else if (method.equalsIgnoreCase("HEAD")) {
+            // bei HEAD setzt der Handler Content-Length selbst (wie beim JDK-Server)
+            mode = ResponseBodyStream.Mode.NONE;
+        } else if (responseLength == 0) {
+            if (protocol.equalsIgnoreCase("HTTP/1.0")) {
+                mode = ResponseBodyStream.Mode.UNTIL_CLOSE;
+                closeConnection = true;
+            } else {
+                mode = ResponseBodyStream.Mode.CHUNKED;
+                responseHeaders.set("Transfer-encoding", "chunked");
+            }
+        } else {
+            if (responseLength < 0) {
+                mode = ResponseBodyStream.Mode.NONE;
+                responseHeaders.set("Content-length", "0");
+            } else {
+                mode = ResponseBodyStream.Mode.FIXED;
+                length = responseLength;
+                responseHeaders.set("Content-length", Long.toString(responseLength));
+            }
+        }
+
+        String rspConnection = responseHeaders.getFirst("Connection");
+        if (rspConnection != null && rspConnection.equalsIgnoreCase("close")) {
+            closeConnection = true;
+        }
+        if (closeConnection) {
+            responseHeaders.set("Connection", "close");
+        } else if (protocol.equalsIgnoreCase("HTTP/1.0")) {
+            responseHeaders.set("Connection", "keep-alive");
+        }
+
+        responseBody.begin(HeaderEncoder.encode(rCode, responseHeaders), mode, length);
+    }
+
+    /** Wird vom ResponseBodyStream aufgerufen, wenn der Exchange abgeschlossen ist. */
+    void finished(boolean error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        conn.exchangeFinished(error || closeConnection, requestBody);
+    }
+
+    /** Wird aufgerufen, wenn der Handler mit einer Exception abgebrochen ist. */
+    void abort() {
+        if (!finished) {
+            responseBody.fail();
+            finished(true);
+        }
+    }
+
+    @Override
+    public boolean isZeroCopyAvailable() {
+        return out == responseBody;
+    }
+
+    @Override
+    public void transferFile(FileChannel file, long position, long count) throws IOException {
+        if (!isZeroCopyAvailable()) {
+            throw new IOException("response stream was replaced, zero-copy not available");
+        }
+        responseBody.transferFrom(file, position, count);
+    }
+
+    @Override
+    public void transferBuffer(ByteBuffer data) throws IOException {
+        if (!isZeroCopyAvailable()) {
+            throw new IOException("response stream was replaced, zero-copy not available");
+        }
+        responseBody.transferBuffer(data);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return conn.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return conn.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            in = i;
+        }
+        if (o != null) {
+            out = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,307 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Nicht-blockierende HTTP/1.1 Engine auf Basis von java.nio Selectoren.
+ *
+ * Implementiert die com.sun.net.httpserver API, damit alle Handler unveraendert sowohl auf dem
+ * JDK-Server als auch auf dieser Engine laufen. Wenige EventLoop-Threads halten beliebig viele
+ * Keep-Alive-Verbindungen; nur Verbindungen mit einem aktiven Request belegen einen Thread des
+ * Executors.
+ */
+public class NioHttpServer extends HttpServer {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    final BufferPool readPool = new BufferPool(READ_BUFFER_SIZE, 1024, false);
+    final BufferPool writePool = new BufferPool(WRITE_BUFFER_SIZE, 256, true);
+
+    private final List<NioHttpContext> contexts = new CopyOnWriteArrayList<>();
+    private ServerSocketChannel serverChannel;
+    private InetSocketAddress address;
+    private EventLoop[] loops;
+    private int nextLoop;
+    private Executor executor;
+    private boolean started;
+
+    private long idleTimeout = 30_000;
+    private long headerTimeout = 10_000;
+    private long readTimeout = 60_000;
+    private long writeTimeout = 60_000;
+    private int maxConnectionsPerIp;
+    // offene Verbindungen je Client-IP, nur gefuehrt wenn maxConnectionsPerIp > 0
+    private final ConcurrentHashMap<InetAddress, Integer> connectionsPerIp = new ConcurrentHashMap<>();
+
+    public NioHttpServer() {
+    }
+
+    public NioHttpServer(InetSocketAddress addr, int backlog) throws IOException {
+        bind(addr, backlog);
+    }
+
+    public static NioHttpServer create(InetSocketAddress addr, int backlog) throws IOException {
+        return new NioHttpServer(addr, backlog);
+    }
+
+    @Override
+    public void bind(InetSocketAddress addr, int backlog) throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("server already bound");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(addr, backlog);
+        serverChannel.configureBlocking(false);
+        // tatsaechlich gebundene Adresse (Port 0 -> freier Port), wie beim JDK-Server
+        address = (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    @Override
+    public void start() {
+        if (serverChannel == null || started) {
+            throw new IllegalStateException("server not bound or already started");
+        }
+        started = true;
+
+        int count = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        loops = new EventLoop[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                loops[i] = new EventLoop(this);
+            }
+            serverChannel.register(loops[0].getSelector(), SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new IllegalStateException("NIO Engine konnte nicht gestartet werden", e);
+        }
+        for (int i = 0; i < count; i++) {
+            Thread t = new Thread(loops[i], "nio-eventloop-" + i);
+            t.setDaemon(false);
+            t.start();
+        }
+        System.out.println("NIO Engine gestartet mit " + count + " EventLoop Thread(s)");
+    }
+
+    /** Nimmt alle wartenden Verbindungen an und verteilt sie reihum auf die EventLoops. */
+    void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            if (!admit(ch)) {
+                continue;
+            }
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ch.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            EventLoop loop = loops[Math.floorMod(nextLoop++, loops.length)];
+            loop.register(ch);
+        }
+    }
+
+    // eine IP mit zu vielen offenen Verbindungen (z.B. Slowloris) wird sofort wieder getrennt
+    private boolean admit(SocketChannel ch) {
+        int max = maxConnectionsPerIp;
+        if (max <= 0) {
+            return true;
+        }
+        InetAddress ip = ch.socket().getInetAddress();
+        if (ip == null || connectionsPerIp.merge(ip, 1, Integer::sum) <= max) {
+            return true;
+        }
+        connectionClosed(ip);
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
+    /** Offene Verbindungen dieser IP laut Zaehler (nur mit Limit je IP gefuehrt). */
+    int openConnections(InetAddress ip) {
+        Integer n = connectionsPerIp.get(ip);
+        return n == null ? 0 : n;
+    }
+
+    /** Zaehlt eine geschlossene Verbindung fuer das Limit je IP ab. */
+    void connectionClosed(InetAddress ip) {
+        if (maxConnectionsPerIp > 0 && ip != null) {
+            connectionsPerIp.computeIfPresent(ip, (k, n) -> n <= 1 ? null : n - 1);
+        }
+    }
+
+    /** Fuehrt den Handler des passenden Contexts auf dem Executor aus. */
+    void dispatch(NioHttpExchange exchange) {
+        NioHttpContext ctx = findContext(exchange.getRequestURI().getPath());
+        Runnable task = () -> {
+            try {
+                if (ctx == null) {
+                    byte[] msg = "<h1>404 Not Found</h1>No context found for request".getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", "text/html");
+                    exchange.sendResponseHeaders(404, msg.length);
+                    exchange.getResponseBody().write(msg);
+                    exchange.close();
+                    return;
+                }
+                exchange.setContext(ctx);
+                exchange.sendContinueIfExpected();
+                new Filter.Chain(ctx.getFilters(), ctx.getHandler()).doFilter(exchange);
+            } catch (Throwable t) {
+                if (!(t instanceof IOException)) {
+                    System.err.println("Fehler im Handler: " + t);
+                    t.printStackTrace();
+                }
+                exchange.abort();
+            }
+        };
+        Executor ex = executor;
+        if (ex == null) {
+            task.run();
+        } else {
+            try {
+                ex.execute(task);
+            } catch (RuntimeException e) {
+                exchange.abort();
+            }
+        }
+    }
+
+    /** Laengster passender Context-Pfad, wie beim JDK-Server. */
+    private NioHttpContext findContext(String path) {
+        if (path == null) {
+            path = "/";
+        }
+        NioHttpContext best = null;
+        for (NioHttpContext ctx : contexts) {
+            if (path.startsWith(ctx.getPath()) && (best == null || ctx.getPath().length() > best.getPath().length())) {
+                best = ctx;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void setExecutor(Executor executor) {
+        if (started) {
+            throw new IllegalStateException("server already started");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void stop(int delay) {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay * 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (loops != null) {
+            for (EventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public HttpContext createContext(String path, HttpHandler handler) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Illegal value for path");
+        }
+        for (NioHttpContext ctx : contexts) {
+            if (ctx.getPath().equals(path)) {
+                throw new IllegalArgumentException("cannot add context to list");
+            }
+        }
+        NioHttpContext ctx = new NioHttpContext(path, handler, this);
+        contexts.add(ctx);
+        return ctx;
+    }
+
+    @Override
+    public HttpContext createContext(String path) {
+        return createContext(path, null);
+    }
+
+    @Override
+    public void removeContext(String path) {
+        for (NioHttpContext ctx : contexts) {
+            if (ctx.getPath().equals(path)) {
+                contexts.remove(ctx);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("cannot remove element from list");
+    }
+
+    @Override
+    public void removeContext(HttpContext context) {
+        if (!contexts.remove(context)) {
+            throw new IllegalArgumentException("cannot remove element from list");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Timeouts in Millisekunden, vor {@link #start()} setzen.
+     * @param idle   Keep-Alive-Verbindung ohne Request wird geschlossen
+     * @param header so lange darf das Senden eines Request-Kopfs hoechstens dauern (gegen Slowloris)
+     * @param write  so lange darf ein Schreibvorgang ohne jeden Fortschritt haengen
+     */
+    public void setTimeouts(long idle, long header, long write) {
+        this.idleTimeout = idle;
+        this.headerTimeout = header;
+        this.writeTimeout = write;
+    }
+
+    /** Hoechstens so viele gleichzeitige Verbindungen je Client-IP, 0 = unbegrenzt. Vor {@link #start()} setzen. */
+    public void setMaxConnectionsPerIp(int max) {
+        this.maxConnectionsPerIp = max;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    long getHeaderTimeout() {
+        return headerTimeout;
+    }
+
+    long getReadTimeout() {
+        return readTimeout;
+    }
+
+    long getWriteTimeout() {
+        return writeTimeout;
+    }
+}
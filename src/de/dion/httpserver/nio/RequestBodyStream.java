@@ -0,0 +1,146 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request-Body einer Verbindung, entweder mit fester Laenge (Content-Length) oder chunked.
+ * Liest nie ueber das Ende des Bodys hinaus, damit gepipelinete Requests erhalten bleiben.
+ */
+final class RequestBodyStream extends InputStream {
+
+    private final HttpConnection conn;
+    private final boolean chunked;
+    /** verbleibende Bytes (fixed) bzw. im aktuellen Chunk (chunked) */
+    private long remaining;
+    private boolean eof;
+    private boolean closed;
+    private final byte[] single = new byte[1];
+
+    RequestBodyStream(HttpConnection conn, long contentLength, boolean chunked) {
+        this.conn = conn;
+        this.chunked = chunked;
+        this.remaining = chunked ? 0 : contentLength;
+        this.eof = !chunked && contentLength <= 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (eof) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0 && chunked) {
+            readChunkHeader();
+            if (eof) {
+                return -1;
+            }
+        }
+        int n = conn.read(b, off, (int) Math.min(len, remaining));
+        if (n == -1) {
+            throw new ClientAbortException("connection closed before request body was complete");
+        }
+        remaining -= n;
+        if (remaining == 0) {
+            if (chunked) {
+                readLine(); // CRLF nach den Chunk-Daten
+            } else {
+                eof = true;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    private void readChunkHeader() throws IOException {
+        String line = readLine();
+        int ext = line.indexOf(';');
+        if (ext != -1) {
+            line = line.substring(0, ext);
+        }
+        try {
+            remaining = Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk size: " + line);
+        }
+        if (remaining == 0) {
+            // Trailer ueberspringen
+            while (!readLine().isEmpty()) {
+            }
+            eof = true;
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int n = conn.read(single, 0, 1);
+            if (n == -1) {
+                throw new ClientAbortException("connection closed in chunked request body");
+            }
+            char c = (char) (single[0] & 0xff);
+            if (c == '\n') {
+                int l = sb.length();
+                if (l > 0 && sb.charAt(l - 1) == '\r') {
+                    sb.setLength(l - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() > 4096) {
+                throw new IOException("chunk header too long");
+            }
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Liest den Rest des Bodys, damit die Verbindung wiederverwendet werden kann.
+     * @return false wenn mehr als maxBytes uebrig waren oder ein Fehler auftrat
+     */
+    boolean drain(long maxBytes) {
+        if (eof) {
+            return true;
+        }
+        if (!chunked && remaining > maxBytes) {
+            return false;
+        }
+        byte[] tmp = new byte[8192];
+        long total = 0;
+        boolean wasClosed = closed;
+        closed = false;
+        try {
+            int n;
+            while ((n = read(tmp, 0, tmp.length)) != -1) {
+                total += n;
+                if (total > maxBytes) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closed = wasClosed;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,247 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Response-Body einer Verbindung. Schreibt ueber einen gepoolten direkten Puffer;
+ * der bereits kodierte Response-Kopf wird mit dem ersten Datenblock in einem Rutsch gesendet.
+ */
+final class ResponseBodyStream extends OutputStream {
+
+    enum Mode { NONE, FIXED, CHUNKED, UNTIL_CLOSE }
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final NioHttpExchange exchange;
+    private final HttpConnection conn;
+    private ByteBuffer buffer;
+    private ByteBuffer head;
+    private Mode mode;
+    private long remaining;
+    private boolean headersSent;
+    private boolean closed;
+    private boolean failed;
+
+    ResponseBodyStream(NioHttpExchange exchange, HttpConnection conn) {
+        this.exchange = exchange;
+        this.conn = conn;
+    }
+
+    /** Wird von sendResponseHeaders aufgerufen, head ist im Lese-Modus. */
+    void begin(ByteBuffer head, Mode mode, long length) throws IOException {
+        this.head = head;
+        this.mode = mode;
+        this.remaining = length;
+        this.headersSent = true;
+        if (mode == Mode.NONE) {
+            close();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkWritable(len);
+        if (len == 0) {
+            return;
+        }
+        if (mode == Mode.FIXED) {
+            remaining -= len;
+        }
+        if (buffer == null) {
+            buffer = conn.server.writePool.acquire();
+        }
+        if (len >= buffer.capacity()) {
+            // grosse Bloecke direkt schreiben, ohne Umweg ueber den Puffer
+            flushBuffer();
+            writeData(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        if (buffer.remaining() < len) {
+            flushBuffer();
+        }
+        buffer.put(b, off, len);
+    }
+
+    /** Prueft, ob len Bytes geschrieben werden duerfen und zieht sie vom Rest ab. */
+    void reserve(long len) throws IOException {
+        checkWritable(len);
+        if (mode == Mode.FIXED) {
+            remaining -= len;
+        }
+    }
+
+    private void checkWritable(long len) throws IOException {
+        if (!headersSent) {
+            throw new IOException("response headers not sent yet");
+        }
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (failed) {
+            throw new ClientAbortException("connection closed");
+        }
+        if (mode == Mode.NONE && len > 0) {
+            throw new IOException("response has no body");
+        }
+        if (mode == Mode.FIXED && len > remaining) {
+            throw new IOException("too many bytes to write to stream");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!headersSent || closed || failed) {
+            return;
+        }
+        flushPending();
+    }
+
+    /**
+     * Sendet ausstehende Daten inkl. Kopf, damit danach direkt auf den Socket
+     * geschrieben werden kann (z.B. FileChannel.transferTo).
+     */
+    void flushPending() throws IOException {
+        flushBuffer();
+        if (head != null) {
+            writeRaw(EMPTY);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeData(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /** Schreibt Body-Daten, im chunked Modus mit Chunk-Rahmen. */
+    private void writeData(ByteBuffer data) throws IOException {
+        if (mode == Mode.CHUNKED) {
+            ByteBuffer size = ByteBuffer.wrap((Long.toHexString(data.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            writeRaw(size, data, ByteBuffer.wrap(CRLF));
+        } else {
+            writeRaw(data);
+        }
+    }
+
+    /** Schreibt die Bytes unveraendert auf den Socket, ein noch ausstehender Kopf geht vorneweg. */
+    void writeRaw(ByteBuffer... data) throws IOException {
+        try {
+            if (head != null) {
+                ByteBuffer[] all = new ByteBuffer[data.length + 1];
+                all[0] = head;
+                System.arraycopy(data, 0, all, 1, data.length);
+                conn.write(all);
+                head = null;
+            } else {
+                conn.write(data);
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw e instanceof ClientAbortException ? e : new ClientAbortException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Schreibt einen Dateibereich per FileChannel.transferTo direkt in den Socket (sendfile).
+     * Im chunked Modus wird der Bereich als ein Chunk gesendet.
+     */
+    void transferFrom(FileChannel file, long position, long count) throws IOException {
+        reserve(count);
+        if (count == 0) {
+            return;
+        }
+        flushBuffer();
+        if (mode == Mode.CHUNKED) {
+            writeRaw(ByteBuffer.wrap((Long.toHexString(count) + "\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        } else if (head != null) {
+            writeRaw(EMPTY);
+        }
+
+        try {
+            long done = 0;
+            long deadline = System.currentTimeMillis() + conn.server.getWriteTimeout();
+            while (done < count) {
+                long n = file.transferTo(position + done, count - done, conn.channel);
+                if (n > 0) {
+                    done += n;
+                    deadline = System.currentTimeMillis() + conn.server.getWriteTimeout();
+                } else if (position + done >= file.size()) {
+                    throw new IOException("file is shorter than expected");
+                } else {
+                    conn.await(SelectionKey.OP_WRITE, deadline);
+                }
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw e instanceof ClientAbortException ? e : new ClientAbortException(e.getMessage(), e);
+        }
+
+        if (mode == Mode.CHUNKED) {
+            writeRaw(ByteBuffer.wrap(CRLF));
+        }
+    }
+
+    /**
+     * Schreibt den Inhalt des Puffers direkt auf den Socket, bei fester Laenge zusammen mit dem Kopf
+     * in einem Aufruf. Im chunked Modus wird der Puffer als ein Chunk gesendet.
+     */
+    void transferBuffer(ByteBuffer data) throws IOException {
+        reserve(data.remaining());
+        if (!data.hasRemaining()) {
+            return;
+        }
+        flushBuffer();
+        writeData(data);
+    }
+
+    /** Markiert den Stream als kaputt, z.B. nach einem Fehler beim direkten Schreiben. */
+    void fail() {
+        failed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        boolean ok = false;
+        try {
+            if (headersSent && !failed) {
+                flushBuffer();
+                if (mode == Mode.CHUNKED) {
+                    writeRaw(ByteBuffer.wrap(LAST_CHUNK));
+                } else if (head != null) {
+                    writeRaw(EMPTY);
+                }
+                if (mode == Mode.FIXED && remaining > 0) {
+                    throw new IOException("insufficient bytes written to stream");
+                }
+                ok = true;
+            }
+        } finally {
+            closed = true;
+            conn.server.writePool.release(buffer);
+            buffer = null;
+            head = null;
+            exchange.finished(!ok || mode == Mode.UNTIL_CLOSE);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Exchange, der Dateiinhalte ohne Kopie im User-Space direkt in den Socket schreiben kann
+ * (FileChannel.transferTo auf den SocketChannel, unter Linux sendfile(2)).
+ */
+public interface ZeroCopyExchange {
+
+	/**
+	 * @return true wenn transferFile fuer diesen Exchange direkt in den Socket schreibt.
+	 * False z.B. wenn ein Filter den Response-Stream ersetzt hat.
+	 */
+	boolean isZeroCopyAvailable();
+
+	/**
+	 * Schreibt count Bytes ab position aus file als Teil des Response-Bodys.
+	 * Muss nach sendResponseHeaders aufgerufen werden; bereits gepufferte Daten werden vorher gesendet.
+	 */
+	void transferFile(FileChannel file, long position, long count) throws IOException;
+
+	/**
+	 * Schreibt die restlichen Bytes des Puffers (z.B. ein direkter ByteBuffer) ohne Umweg ueber
+	 * einen byte[] als Teil des Response-Bodys, zusammen mit dem noch ausstehenden Kopf.
+	 */
+	void transferBuffer(ByteBuffer data) throws IOException;
+}
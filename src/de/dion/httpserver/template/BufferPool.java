@@ -0,0 +1,28 @@
+package de.dion.httpserver.template;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Wiederverwendbare Puffer fuer das Rendern der Seiten, damit nicht jede Anfrage neue Arrays anlegt.
+ * Es werden nur so viele Puffer behalten, wie gleichzeitig gebraucht wurden (hoechstens MAX_POOLED).
+ */
+final class BufferPool {
+
+	static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_POOLED = 64;
+
+	private static final ArrayBlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+	private BufferPool() {}
+
+	static byte[] take() {
+		byte[] b = pool.poll();
+		return b != null ? b : new byte[BUFFER_SIZE];
+	}
+
+	static void give(byte[] b) {
+		if (b != null && b.length == BUFFER_SIZE) {
+			pool.offer(b);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package de.dion.httpserver.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import de.dion.httpserver.HttpValidators;
+
+/**
+ * Rendert eine HTML-Seite aus {@link Template}s direkt in einen Puffer aus dem {@link BufferPool}.
+ *
+ * Passt die ganze Seite in den Puffer, geht sie wie bisher mit Content-Length und ETag raus
+ * (304 wenn der Browser sie schon hat). Wird der Puffer voll, werden die Header sofort gesendet
+ * und die Seite stueckweise per Chunked Encoding gestreamt, der Browser bekommt die ersten Bytes
+ * also, waehrend der Rest noch gerendert wird.
+ *
+ * Benutzung pro Template: {@code start(t)}, dann fuer jeden Platzhalter text/raw/number, dann {@code end()}.
+ * Werte werden beim Schreiben direkt nach UTF-8 kodiert, ohne Zwischen-Strings oder byte[].
+ */
+public final class HtmlWriter implements AutoCloseable {
+
+	private final HttpExchange exchange;
+	private final boolean head;
+	private byte[] buf;
+	private int pos;
+	// gesetzt, sobald die Header raus sind (Seite groesser als der Puffer)
+	private boolean committed;
+	private OutputStream body;
+	private ByteArrayOutputStream capture;
+	private boolean finished;
+
+	private Template current;
+	private int slot;
+
+	private HtmlWriter(HttpExchange exchange) {
+		this.exchange = exchange;
+		this.head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+		this.buf = BufferPool.take();
+	}
+
+	public static HtmlWriter open(HttpExchange exchange) {
+		return new HtmlWriter(exchange);
+	}
+
+	/** Behaelt zusaetzlich eine Kopie der kompletten Seite (z.B. fuer den ListingCache). */
+	public HtmlWriter capture() {
+		capture = new ByteArrayOutputStream(BufferPool.BUFFER_SIZE);
+		return this;
+	}
+
+	/** Die komplette Seite, nur nach {@link #capture()} und {@link #finish()}. */
+	public byte[] captured() {
+		return capture.toByteArray();
+	}
+
+	// -------------------- Templates --------------------
+
+	/** Schreibt den festen Teil bis zum ersten Platzhalter. */
+	public HtmlWriter start(Template t) throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("template not finished, missing {{" + current.name(slot) + "}}");
+		}
+		current = t;
+		slot = 0;
+		put(t.part(0));
+		return this;
+	}
+
+	/** Schreibt ein Template ohne Platzhalter. */
+	public HtmlWriter write(Template t) throws IOException {
+		return start(t).end();
+	}
+
+	/** Wert fuer den naechsten Platzhalter, HTML-escaped. */
+	public HtmlWriter text(String value) throws IOException {
+		encode(value, true);
+		return next();
+	}
+
+	/** Wert fuer den naechsten Platzhalter, unveraendert (muss schon gueltiges HTML sein). */
+	public HtmlWriter raw(String value) throws IOException {
+		encode(value, false);
+		return next();
+	}
+
+	public HtmlWriter number(long value) throws IOException {
+		putNumber(value);
+		return next();
+	}
+
+	public HtmlWriter end() {
+		if (current == null) {
+			throw new IllegalStateException("no template started");
+		}
+		if (slot != current.slots()) {
+			throw new IllegalStateException("template not finished, missing {{" + current.name(slot) + "}}");
+		}
+		current = null;
+		return this;
+	}
+
+	private HtmlWriter next() throws IOException {
+		if (current == null || slot >= current.slots()) {
+			throw new IllegalStateException("no placeholder left");
+		}
+		slot++;
+		put(current.part(slot));
+		return this;
+	}
+
+	// -------------------- Ausgabe --------------------
+
+	/**
+	 * Schliesst die Seite ab: kleine Seiten gehen komplett mit Content-Length und ETag raus,
+	 * bei gestreamten Seiten wird nur der Rest gesendet.
+	 */
+	public void finish() throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("template not finished, missing {{" + current.name(slot) + "}}");
+		}
+		finished = true;
+		if (capture != null) {
+			capture.write(buf, 0, pos);
+		}
+		if (committed) {
+			if (body != null) {
+				body.write(buf, 0, pos);
+				body.close();
+			} else {
+				exchange.close();
+			}
+			pos = 0;
+			return;
+		}
+		send(exchange, buf, pos, HttpValidators.contentETag(buf, 0, pos));
+		pos = 0;
+	}
+
+	/**
+	 * Sendet eine fertige Seite mit ETag ueber den Inhalt.
+	 * Hat der Browser die Seite schon (If-None-Match), geht nur ein 304 ohne Body raus.
+	 */
+	public static void send(HttpExchange exchange, byte[] bytes, String etag) throws IOException {
+		send(exchange, bytes, bytes.length, etag);
+	}
+
+	private static void send(HttpExchange exchange, byte[] bytes, int length, String etag) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		HttpValidators.setValidators(exchange, etag, -1);
+
+		if (HttpValidators.isNotModified(exchange, etag, -1)) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		if (exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(length));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+			return;
+		}
+		exchange.sendResponseHeaders(200, length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes, 0, length);
+		}
+	}
+
+	/** Gibt den Puffer zurueck an den Pool, immer aufrufen (try-with-resources). */
+	@Override
+	public void close() {
+		if (!finished && committed) {
+			// Fehler mitten in einer gestreamten Seite, Antwort beenden
+			exchange.close();
+		}
+		BufferPool.give(buf);
+		buf = null;
+	}
+
+	// Puffer voll: Header senden (falls noch nicht passiert) und Pufferinhalt als Chunk raus
+	private void flushBuffer() throws IOException {
+		if (capture != null) {
+			capture.write(buf, 0, pos);
+		}
+		if (!committed) {
+			committed = true;
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			if (head) {
+				// HEAD: nur Header, der Rest wird verworfen
+				exchange.sendResponseHeaders(200, -1);
+			} else {
+				exchange.sendResponseHeaders(200, 0);
+				body = exchange.getResponseBody();
+			}
+		}
+		if (body != null) {
+			body.write(buf, 0, pos);
+		}
+		pos = 0;
+	}
+
+	private void put(byte[] b) throws IOException {
+		int off = 0;
+		while (off < b.length) {
+			if (pos == buf.length) {
+				flushBuffer();
+			}
+			int n = Math.min(b.length - off, buf.length - pos);
+			System.arraycopy(b, off, buf, pos, n);
+			pos += n;
+			off += n;
+		}
+	}
+
+	private void putByte(int b) throws IOException {
+		if (pos == buf.length) {
+			flushBuffer();
+		}
+		buf[pos++] = (byte) b;
+	}
+
+	private void putNumber(long value) throws IOException {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				encode(Long.toString(value), false);
+				return;
+			}
+			putByte('-');
+			value = -value;
+		}
+		long div = 1;
+		while (value / div >= 10) {
+			div *= 10;
+		}
+		for (; div > 0; div /= 10) {
+			putByte('0' + (int) (value / div % 10));
+		}
+	}
+
+	// String direkt als UTF-8 in den Puffer, optional mit &, <, > escaped
+	private void encode(String s, boolean escape) throws IOException {
+		if (s == null) {
+			return;
+		}
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				if (escape && c == '&') {
+					putAscii("&amp;");
+				} else if (escape && c == '<') {
+					putAscii("&lt;");
+				} else if (escape && c == '>') {
+					putAscii("&gt;");
+				} else {
+					putByte(c);
+				}
+			} else if (c < 0x800) {
+				putByte(0xC0 | (c >> 6));
+				putByte(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				putByte(0xF0 | (cp >> 18));
+				putByte(0x80 | ((cp >> 12) & 0x3F));
+				putByte(0x80 | ((cp >> 6) & 0x3F));
+				putByte(0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// einzelnes Surrogat, wie String.getBytes
+				putByte('?');
+			} else {
+				putByte(0xE0 | (c >> 12));
+				putByte(0x80 | ((c >> 6) & 0x3F));
+				putByte(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void putAscii(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			putByte(s.charAt(i));
+		}
+	}
+}
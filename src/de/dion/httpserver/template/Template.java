@@ -0,0 +1,58 @@
+package de.dion.httpserver.template;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ein vorkompiliertes Stueck HTML mit Platzhaltern der Form {{name}}.
+ *
+ * Die festen Teile werden einmal beim Laden der Klasse nach UTF-8 umgewandelt, beim Rendern werden
+ * nur noch diese Bytes kopiert und die Werte dazwischen geschrieben (siehe {@link HtmlWriter#start(Template)}).
+ * Die Werte werden in der Reihenfolge der Platzhalter uebergeben, die Namen dienen nur der Lesbarkeit.
+ */
+public final class Template {
+
+	private final byte[][] parts;
+	private final String[] names;
+
+	private Template(byte[][] parts, String[] names) {
+		this.parts = parts;
+		this.names = names;
+	}
+
+	public static Template compile(String source) {
+		List<byte[]> parts = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		int pos = 0;
+		while (true) {
+			int open = source.indexOf("{{", pos);
+			if (open < 0) {
+				break;
+			}
+			int close = source.indexOf("}}", open + 2);
+			if (close < 0) {
+				throw new IllegalArgumentException("unclosed placeholder at " + open);
+			}
+			parts.add(source.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+			names.add(source.substring(open + 2, close).trim());
+			pos = close + 2;
+		}
+		parts.add(source.substring(pos).getBytes(StandardCharsets.UTF_8));
+		return new Template(parts.toArray(new byte[0][]), names.toArray(new String[0]));
+	}
+
+	/** Anzahl der Platzhalter. */
+	public int slots() {
+		return names.length;
+	}
+
+	/** Fester Teil vor dem Platzhalter index (bzw. nach dem letzten bei index == slots()). */
+	byte[] part(int index) {
+		return parts[index];
+	}
+
+	String name(int index) {
+		return names[index];
+	}
+}
@@ -0,0 +1,101 @@
+package de.dion.httpserver.zip;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Entscheidet pro Datei, ob und wie stark komprimiert wird.
+ *
+ * Bekannte, bereits komprimierte Formate (Videos, Bilder, Archive) werden nicht komprimiert
+ * (der ParallelZipWriter schreibt sie mit Level 0, also als Stored-Bloecke im Deflate-Stream).
+ * Fuer alles andere wird der Anfang der Datei probeweise mit Level 1 komprimiert: bringt das
+ * fast nichts, wird die Datei ebenfalls nicht komprimiert, bringt es wenig, reicht das schnelle Level.
+ * Nur gut komprimierbare Dateien bekommen das Level aus dem CPU-Budget.
+ */
+final class CompressionPolicy {
+
+	/** Level fuer "nicht komprimieren". */
+	static final int STORE = -1;
+
+	static final int PROBE_SIZE = 64 * 1024;
+
+	// Anteil komprimiert/original der Probe, ab dem sich Kompression nicht lohnt
+	private static final double STORE_RATIO = 0.95;
+	// darueber lohnt sich ein hoeheres Level kaum
+	private static final double FAST_RATIO = 0.80;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "jxl",
+			"mp4", "m4v", "mkv", "webm", "avi", "mov", "wmv", "flv", "ts", "m2ts",
+			"mp3", "m4a", "aac", "ogg", "oga", "opus", "flac", "wma",
+			"zip", "7z", "rar", "gz", "tgz", "bz2", "xz", "zst", "lz4", "lzma", "cab", "jar", "apk",
+			"docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"));
+
+	private final int maxLevel;
+
+	private CompressionPolicy(int maxLevel) {
+		this.maxLevel = maxLevel;
+	}
+
+	/**
+	 * @param budget "off" = nie komprimieren, "low" = hoechstens Level 1,
+	 *               "medium" = Level 6 fuer gut komprimierbare Dateien, "high" = Level 9
+	 */
+	static CompressionPolicy forBudget(String budget) {
+		switch (budget == null ? "" : budget.trim().toLowerCase(Locale.ROOT)) {
+		case "off":
+			return new CompressionPolicy(STORE);
+		case "low":
+			return new CompressionPolicy(Deflater.BEST_SPEED);
+		case "high":
+			return new CompressionPolicy(Deflater.BEST_COMPRESSION);
+		case "medium":
+		default:
+			return new CompressionPolicy(6);
+		}
+	}
+
+	/** Entscheidung ohne Dateiinhalt, null wenn eine Probe noetig ist. */
+	Integer levelByName(String name) {
+		if (maxLevel == STORE) {
+			return STORE;
+		}
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+			return STORE;
+		}
+		return null;
+	}
+
+	/** Komprimiert die Probe mit Level 1 und waehlt anhand des Verhaeltnisses das Level. */
+	int levelByProbe(byte[] data, int len) {
+		if (len == 0) {
+			// leere Datei
+			return STORE;
+		}
+		int probeLen = Math.min(len, PROBE_SIZE);
+		Deflater def = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			def.setInput(data, 0, probeLen);
+			def.finish();
+			byte[] out = new byte[8 * 1024];
+			long compressed = 0;
+			while (!def.finished()) {
+				compressed += def.deflate(out);
+			}
+			double ratio = (double) compressed / probeLen;
+			if (ratio > STORE_RATIO) {
+				return STORE;
+			}
+			if (ratio > FAST_RATIO) {
+				return Deflater.BEST_SPEED;
+			}
+			return maxLevel;
+		} finally {
+			def.end();
+		}
+	}
+}
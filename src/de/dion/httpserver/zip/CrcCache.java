@@ -0,0 +1,154 @@
+package de.dion.httpserver.zip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Merkt sich die CRC32 von Dateien, gueltig solange Groesse und Aenderungszeit gleich bleiben.
+ * Die Werte werden zusaetzlich in "zip-crc.cache" angehaengt, damit ein fortgesetzter
+ * Download auch nach einem Neustart nicht alle Dateien erneut lesen muss.
+ */
+public final class CrcCache {
+
+	private static final int MAX_ENTRIES = 200_000;
+	private static final int READ_BUFFER = 1024 * 1024;
+	private static File cacheFile = new File("zip-crc.cache");
+
+	private static final Map<String, long[]> cache = new LinkedHashMap<String, long[]>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private static boolean loaded;
+	private static Writer writer;
+
+	private CrcCache() {}
+
+	/** Anderer Ort fuer die Cache-Datei (Tests), die bisher gemerkten Werte werden verworfen. */
+	static void setCacheFile(File file) {
+		synchronized (cache) {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ignored) {}
+				writer = null;
+			}
+			cache.clear();
+			loaded = false;
+			cacheFile = file;
+		}
+	}
+
+	/** @return CRC32 der Datei, aus dem Cache oder neu berechnet */
+	public static long crc(File file, long size, long lastModified) throws IOException {
+		String key = file.getPath();
+		synchronized (cache) {
+			load();
+			long[] v = cache.get(key);
+			if (v != null && v[0] == size && v[1] == lastModified) {
+				return v[2];
+			}
+		}
+
+		long crc = compute(file, size);
+
+		synchronized (cache) {
+			cache.put(key, new long[] {size, lastModified, crc});
+			append(key, size, lastModified, crc);
+		}
+		return crc;
+	}
+
+	private static long compute(File file, long size) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(READ_BUFFER, Math.max(size, 1)));
+		long total = 0;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (true) {
+				buffer.clear();
+				int n = ch.read(buffer);
+				if (n < 0) break;
+				buffer.flip();
+				crc.update(buffer);
+				total += n;
+			}
+		}
+		if (total != size) {
+			throw new IOException("file changed while reading: " + file);
+		}
+		return crc.getValue();
+	}
+
+	// Format je Zeile: crc \t size \t lastModified \t path
+	private static void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		if (!cacheFile.isFile()) {
+			return;
+		}
+		int lines = 0;
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] parts = line.split("\t", 4);
+				if (parts.length != 4) continue;
+				try {
+					cache.put(parts[3], new long[] {Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[0], 16)});
+					lines++;
+				} catch (NumberFormatException ignored) {}
+			}
+		} catch (IOException e) {
+			System.out.println("CRC Cache konnte nicht gelesen werden: " + e.getMessage());
+			return;
+		}
+		if (lines > cache.size() * 2) {
+			// viele veraltete Zeilen -> Datei neu schreiben
+			rewrite();
+		}
+	}
+
+	private static void rewrite() {
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile), StandardCharsets.UTF_8))) {
+			for (Map.Entry<String, long[]> e : cache.entrySet()) {
+				long[] v = e.getValue();
+				w.write(Long.toHexString(v[2]) + "\t" + v[0] + "\t" + v[1] + "\t" + e.getKey() + "\n");
+			}
+		} catch (IOException e) {
+			System.out.println("CRC Cache konnte nicht geschrieben werden: " + e.getMessage());
+		}
+	}
+
+	private static void append(String path, long size, long lastModified, long crc) {
+		if (path.indexOf('\n') >= 0) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile, true), StandardCharsets.UTF_8));
+			}
+			writer.write(Long.toHexString(crc) + "\t" + size + "\t" + lastModified + "\t" + path + "\n");
+			writer.flush();
+		} catch (IOException e) {
+			System.out.println("CRC Cache konnte nicht geschrieben werden: " + e.getMessage());
+		}
+	}
+}
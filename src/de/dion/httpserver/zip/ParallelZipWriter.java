@@ -0,0 +1,388 @@
+package de.dion.httpserver.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Schreibt ein ZIP-Archiv als Stream und komprimiert dabei auf allen Kernen (wie pigz).
+ *
+ * Jede Datei wird in Bloecke zu 128 KiB zerlegt, die Bloecke werden parallel auf einem
+ * ForkJoinPool deflated. Jeder Block bekommt die letzten 32 KiB des Vorgaengers als Dictionary
+ * und endet mit einem SYNC_FLUSH, aneinandergehaengt ergeben sie einen gueltigen Deflate-Stream.
+ * Der aufrufende Thread liest die Dateien, rechnet die CRC und schreibt die fertigen Bloecke
+ * in der richtigen Reihenfolge raus. Waehrend die Bloecke im Pool komprimiert werden, wird schon
+ * weitergelesen (auch die naechste Datei).
+ *
+ * Ob und wie stark eine Datei komprimiert wird, entscheidet die CompressionPolicy pro Eintrag
+ * (Dateiendung + Probe der ersten Bytes), bereits komprimierte Dateien werden nicht komprimiert.
+ *
+ * Groessen und CRC stehen immer in einem Data Descriptor hinter den Daten, so wird jede Datei nur
+ * einmal gelesen. Nicht komprimierte Dateien werden deshalb nicht STORED, sondern DEFLATED mit Level 0
+ * geschrieben (Stored-Bloecke, 5 Bytes je 64 KiB): ein Data Descriptor bei STORED ist nicht streambar
+ * (ZipInputStream lehnt ihn ab), und die CRC vorher zu berechnen hiesse, die Datei zweimal zu lesen.
+ * Zip64 wird bei Bedarf benutzt.
+ */
+public final class ParallelZipWriter implements Closeable {
+
+	/** Anzahl Threads fuer die Kompression, 0 = Anzahl CPU Kerne. Wird vom WebServer gesetzt. */
+	public static int THREADS = 0;
+	/** CPU-Budget fuer die Kompression: off, low, medium oder high. Wird vom WebServer gesetzt. */
+	public static String CPU_BUDGET = "medium";
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICT_SIZE = 32 * 1024;
+	// ab dieser Dateigroesse Zip64 im Local Header ankuendigen (Deflate kann minimal groesser werden)
+	private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+	// leerer, finaler Deflate-Block
+	private static final byte[] EMPTY_DEFLATE = {0x03, 0x00};
+
+	private static volatile ForkJoinPool pool;
+	// ein Deflater je Level und Pool-Thread
+	private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+	// Statistik seit Programmstart
+	private static final AtomicLong totalSaved = new AtomicLong();
+	private static final AtomicLong totalCpuNanos = new AtomicLong();
+
+	private final CountingOutputStream out;
+	private final List<ZipRecord> entries = new ArrayList<>();
+	private final ArrayDeque<Item> pending = new ArrayDeque<>();
+	private final int maxInFlight;
+	private int inFlight;
+	private boolean finished;
+	private boolean failed;
+
+	private final CompressionPolicy policy = CompressionPolicy.forBudget(CPU_BUDGET);
+	private final LongAdder cpuNanos = new LongAdder();
+	private int storedFiles, fastFiles, normalFiles;
+	private long bytesIn, bytesOut;
+
+	public ParallelZipWriter(OutputStream out) {
+		this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.maxInFlight = getPool().getParallelism() * 4;
+	}
+
+	private static ForkJoinPool getPool() {
+		if (pool == null) {
+			synchronized (ParallelZipWriter.class) {
+				if (pool == null) {
+					int threads = THREADS > 0 ? THREADS : Runtime.getRuntime().availableProcessors();
+					pool = new ForkJoinPool(threads);
+					System.out.println("ZIP Kompression mit " + threads + " Threads");
+				}
+			}
+		}
+		return pool;
+	}
+
+	/** Fuegt einen Ordner-Eintrag hinzu, name ohne abschliessenden "/". */
+	public void putDirectory(String name, long time) throws IOException {
+		ZipRecord e = new ZipRecord(name + "/", time, true);
+		enqueue(Item.header(e));
+	}
+
+	/** Liest die Datei und fuegt sie hinzu, komprimiert oder mit Level 0 (Stored-Bloecke) je nach CompressionPolicy. */
+	public void putFile(String name, File file, long time) throws IOException {
+		putFile(name, file, time, file.length());
+	}
+
+	/**
+	 * Wie {@link #putFile(String, File, long)}, mit der schon bekannten Groesse (z.B. vom DirectoryScanner).
+	 */
+	public void putFile(String name, File file, long time, long size) throws IOException {
+		ZipRecord e = new ZipRecord(name, time, false);
+		e.zip64 = size >= ZIP64_ENTRY_THRESHOLD;
+
+		CRC32 crc = new CRC32();
+		ForkJoinPool p = getPool();
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] prev = null;
+			int prevLen = 0;
+			byte[] block = new byte[BLOCK_SIZE];
+			int len = readBlock(in, block);
+
+			// Methode muss feststehen, bevor der Header in die Warteschlange geht
+			Integer chosen = policy.levelByName(name);
+			if (chosen == null) {
+				long t = System.nanoTime();
+				chosen = policy.levelByProbe(block, len);
+				cpuNanos.add(System.nanoTime() - t);
+			}
+			// nicht komprimieren = Stored-Bloecke im Deflate-Stream, dafuer braucht es kein Dictionary
+			final int level = chosen == CompressionPolicy.STORE ? Deflater.NO_COMPRESSION : chosen;
+			e.method = ZipRecord.DEFLATED;
+			e.descriptor = true;
+			if (level == Deflater.NO_COMPRESSION) storedFiles++; else if (level == Deflater.BEST_SPEED) fastFiles++; else normalFiles++;
+			enqueue(Item.header(e));
+
+			long read = 0;
+			while (len > 0) {
+				// einen Block vorauslesen, um zu wissen, ob der aktuelle der letzte ist
+				byte[] next = new byte[BLOCK_SIZE];
+				int nextLen = readBlock(in, next);
+				crc.update(block, 0, len);
+				read += len;
+
+				final byte[] data = block, dict = level == Deflater.NO_COMPRESSION ? null : prev;
+				final int dataLen = len, dictLen = prevLen;
+				final boolean last = nextLen <= 0;
+				enqueue(Item.data(e, p.submit(() -> {
+					long t = System.nanoTime();
+					byte[] compressed = deflateBlock(data, dataLen, dict, dictLen, level, last);
+					cpuNanos.add(System.nanoTime() - t);
+					return compressed;
+				})));
+
+				prev = block;
+				prevLen = len;
+				block = next;
+				len = nextLen;
+			}
+			if (read == 0) {
+				enqueue(Item.data(e, EMPTY_DEFLATE));
+			}
+			e.size = read;
+			e.crc = crc.getValue();
+		} catch (IOException ex) {
+			// Eintrag ist unvollstaendig, das Archiv kann nicht mehr sauber beendet werden
+			failed = true;
+			throw ex;
+		}
+		enqueue(Item.end(e));
+	}
+
+	private static int readBlock(InputStream in, byte[] b) throws IOException {
+		int n = 0;
+		while (n < b.length) {
+			int r = in.read(b, n, b.length - n);
+			if (r < 0) break;
+			n += r;
+		}
+		return n;
+	}
+
+	/** Laeuft im Pool: komprimiert einen Block mit dem Ende des Vorgaengers als Dictionary. */
+	private static byte[] deflateBlock(byte[] data, int len, byte[] dict, int dictLen, int level, boolean last) {
+		Deflater[] deflaters = DEFLATERS.get();
+		if (deflaters[level] == null) {
+			deflaters[level] = new Deflater(level, true);
+		}
+		Deflater def = deflaters[level];
+		def.reset();
+		if (dict != null) {
+			int d = Math.min(DICT_SIZE, dictLen);
+			def.setDictionary(dict, dictLen - d, d);
+		}
+		def.setInput(data, 0, len);
+		if (last) {
+			def.finish();
+		}
+		byte[] buf = new byte[len + (len >> 3) + 64];
+		int n = 0;
+		while (true) {
+			n += def.deflate(buf, n, buf.length - n, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			if (last ? def.finished() : n < buf.length) {
+				break;
+			}
+			if (n == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+		}
+		return n == buf.length ? buf : Arrays.copyOf(buf, n);
+	}
+
+	private void enqueue(Item item) throws IOException {
+		if (finished || failed) {
+			throw new IOException("zip already finished");
+		}
+		pending.add(item);
+		if (item.type == Item.DATA) {
+			// auch fertige Bloecke (leere Datei) zaehlen, damit der Speicher begrenzt bleibt
+			inFlight++;
+		}
+		while (inFlight >= maxInFlight) {
+			writeNext();
+		}
+	}
+
+	/** Schreibt das aelteste ausstehende Element, wartet ggf. auf die Kompression. */
+	private void writeNext() throws IOException {
+		try {
+			writeItem(pending.poll());
+		} catch (IOException ex) {
+			// Archiv ist kaputt (meist Client weg), ausstehende Bloecke verwerfen
+			failed = true;
+			pending.clear();
+			inFlight = 0;
+			throw ex;
+		}
+	}
+
+	private void writeItem(Item item) throws IOException {
+		ZipRecord e = item.entry;
+		switch (item.type) {
+		case Item.HEADER:
+			e.offset = out.count;
+			ZipFormat.writeLocalHeader(out, e);
+			entries.add(e);
+			break;
+		case Item.DATA:
+			byte[] data = item.data;
+			inFlight--;
+			if (item.future != null) {
+				try {
+					data = item.future.get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while compressing", ex);
+				} catch (ExecutionException ex) {
+					throw new IOException("compression failed", ex.getCause());
+				}
+			}
+			out.write(data);
+			// DATA und END gibt es nur fuer Dateien, die haben immer einen Data Descriptor
+			e.csize += data.length;
+			break;
+		case Item.END:
+			if (!e.zip64 && (e.size >= ZipFormat.ZIP64_LIMIT || e.csize >= ZipFormat.ZIP64_LIMIT)) {
+				throw new IOException("file grew while zipping: " + e.name);
+			}
+			ZipFormat.writeDataDescriptor(out, e);
+			bytesIn += e.size;
+			bytesOut += e.csize;
+			break;
+		}
+	}
+
+	private void drain() throws IOException {
+		while (!pending.isEmpty()) {
+			writeNext();
+		}
+	}
+
+	/** Schreibt alle ausstehenden Daten und das Central Directory. Der darunterliegende Stream bleibt offen. */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		drain();
+		finished = true;
+
+		long cdStart = out.count;
+		for (ZipRecord e : entries) {
+			ZipFormat.writeCentralHeader(out, e);
+		}
+		ZipFormat.writeEnd(out, entries.size(), cdStart, out.count - cdStart);
+		out.flush();
+		printStats();
+	}
+
+	private void printStats() {
+		long cpu = cpuNanos.sum();
+		long saved = bytesIn - bytesOut;
+		totalSaved.addAndGet(saved);
+		totalCpuNanos.addAndGet(cpu);
+		System.out.println(String.format(Locale.GERMAN,
+				"ZIP fertig: %d Dateien (%d gespeichert, %d schnell, %d normal), %.1f MiB -> %.1f MiB, %.1f MiB gespart mit %.2f s CPU"
+				+ " (seit Start: %.1f MiB gespart, %.1f s CPU)",
+				storedFiles + fastFiles + normalFiles, storedFiles, fastFiles, normalFiles,
+				bytesIn / 1048576.0, bytesOut / 1048576.0, saved / 1048576.0, cpu / 1e9,
+				totalSaved.get() / 1048576.0, totalCpuNanos.get() / 1e9));
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!failed) {
+				finish();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// -------------------- Hilfsklassen --------------------
+
+	/** Ein Element der Ausgabe-Warteschlange, wird in Reihenfolge geschrieben. */
+	private static final class Item {
+		static final int HEADER = 0, DATA = 1, END = 2;
+
+		final int type;
+		final ZipRecord entry;
+		byte[] data;
+		Future<byte[]> future;
+
+		private Item(int type, ZipRecord entry) {
+			this.type = type;
+			this.entry = entry;
+		}
+
+		static Item header(ZipRecord e) {
+			return new Item(HEADER, e);
+		}
+
+		static Item data(ZipRecord e, byte[] data) {
+			Item i = new Item(DATA, e);
+			i.data = data;
+			return i;
+		}
+
+		static Item data(ZipRecord e, Future<byte[]> future) {
+			Item i = new Item(DATA, e);
+			i.future = future;
+			return i;
+		}
+
+		static Item end(ZipRecord e) {
+			return new Item(END, e);
+		}
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
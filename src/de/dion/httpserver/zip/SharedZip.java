@@ -0,0 +1,453 @@
+package de.dion.httpserver.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dion.httpserver.DirectoryScanner;
+
+/**
+ * Ein ZIP, das von einem einzigen Producer erzeugt und von beliebig vielen Clients gelesen wird.
+ *
+ * Fordern mehrere Clients gleichzeitig denselben Ordner (gleicher Inhalt) als ZIP an, wird nur
+ * einmal gelesen und komprimiert. Jeder Client liest ueber einen eigenen {@link Reader}.
+ *
+ * Die Daten landen nur dann in einer Spill-Datei, wenn der ZipCache das fertige Archiv aufnehmen
+ * kann und auf der Platte genug Platz ist. Dann liest jeder Client in seinem eigenen Tempo, wer
+ * spaeter kommt, holt aus der Datei auf, und am Ende wandert die Datei in den Cache.
+ * Sonst laeuft alles durch einen Ringpuffer im Speicher ({@link #RING_SIZE}): der Producer wartet
+ * auf den langsamsten Client, und ein weiterer Client kann sich nur anhaengen, solange der Anfang
+ * des Archivs noch im Puffer liegt. Wer spaeter kommt, bekommt einen eigenen Producer.
+ */
+public final class SharedZip {
+
+	/** Erzeugt den Inhalt des ZIPs in den uebergebenen Stream. */
+	public interface Producer {
+		void produce(OutputStream out) throws IOException;
+	}
+
+	static final File SPILL_DIR = new File(".zipcache");
+	/** Groesse des Ringpuffers, wenn nicht auf die Platte geschrieben wird */
+	static final int RING_SIZE = 4 * 1024 * 1024;
+	// Platz, der auf der Platte neben der Spill-Datei frei bleiben soll
+	private static final long FREE_SPACE_RESERVE = 256L * 1024 * 1024;
+
+	private static final Map<String, SharedZip> active = new ConcurrentHashMap<>();
+	private static final AtomicLong counter = new AtomicLong();
+
+	private final String key;
+	// null: Ringpuffer im Speicher
+	private final File spillFile;
+	private final byte[] ring;
+	private final List<Reader> readers = new ArrayList<>();
+	private long written;
+	private boolean complete;
+	private IOException failure;
+	private boolean cancelled;
+
+	private SharedZip(String key, File spillFile) {
+		this.key = key;
+		this.spillFile = spillFile;
+		this.ring = spillFile == null ? new byte[RING_SIZE] : null;
+	}
+
+	/** true solange irgendein ZIP erzeugt oder gelesen wird. */
+	public static boolean isBusy() {
+		return !active.isEmpty();
+	}
+
+	/**
+	 * Ob gerade ein ZIP dieses Ordners laeuft, an das sich ein weiterer Client anhaengen kann.
+	 * @param dir kanonischer Pfad des Ordners (Teil des Schluessels vor dem '#')
+	 */
+	public static boolean isJoinable(String dir) {
+		String prefix = dir + "#";
+		for (Map.Entry<String, SharedZip> e : active.entrySet()) {
+			if (e.getKey().startsWith(prefix) && e.getValue().canJoin()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Loescht liegengebliebene Spill-Dateien (z.B. nach einem Absturz). */
+	public static void cleanup() {
+		File[] files = SPILL_DIR.listFiles((d, n) -> n.endsWith(".spill"));
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Haengt sich an ein laufendes ZIP mit gleichem Schluessel an oder startet einen neuen Producer.
+	 * Jeder Reader muss mit {@link Reader#release()} beendet werden.
+	 *
+	 * @param maxSize Obergrenze fuer die Groesse des Archivs (Summe der Dateigroessen), entscheidet,
+	 *                ob eine Spill-Datei angelegt wird
+	 */
+	public static Reader attach(String key, long maxSize, Producer producer) throws IOException {
+		while (true) {
+			SharedZip existing = active.get(key);
+			if (existing != null) {
+				Reader reader = existing.join();
+				if (reader != null) {
+					System.out.println("ZIP wird geteilt (" + existing.readerCount() + " Clients): " + key);
+					return reader;
+				}
+				if (existing.isFinished()) {
+					// gerade beendet -> entfernen und neu starten
+					active.remove(key, existing);
+					continue;
+				}
+				// Anfang nicht mehr im Ringpuffer -> eigener Producer, nicht geteilt
+				return new SharedZip(key, null).startWithReader(null, producer);
+			}
+
+			File spill = null;
+			if (shouldSpill(maxSize)) {
+				SPILL_DIR.mkdirs();
+				spill = new File(SPILL_DIR, counter.incrementAndGet() + "-" + System.nanoTime() + ".spill");
+			}
+			// Datei anlegen, bevor das ZIP in active sichtbar wird: wer sich anhaengt, oeffnet sie sofort
+			FileOutputStream spillOut = spill != null ? new FileOutputStream(spill) : null;
+			SharedZip created = new SharedZip(key, spill);
+			Reader reader = created.newReader();
+			if (active.putIfAbsent(key, created) != null) {
+				// ein anderer Client war schneller, dessen ZIP benutzen
+				if (spillOut != null) {
+					spillOut.close();
+					spill.delete();
+				}
+				continue;
+			}
+			created.start(spillOut, producer);
+			return reader;
+		}
+	}
+
+	// nur auf die Platte, wenn das Archiv danach in den Cache darf und genug Platz frei ist
+	private static boolean shouldSpill(long maxSize) {
+		if (!ZipCache.accepts(maxSize)) {
+			return false;
+		}
+		File dir = SPILL_DIR.isDirectory() ? SPILL_DIR : SPILL_DIR.getAbsoluteFile().getParentFile();
+		// ZIP-Header kommen zu den Daten dazu, grob 1%
+		long needed = maxSize + maxSize / 100 + FREE_SPACE_RESERVE;
+		if (dir == null || dir.getUsableSpace() < needed) {
+			System.out.println("Zu wenig Platz fuer die ZIP Spill-Datei, ZIP wird direkt gestreamt");
+			return false;
+		}
+		return true;
+	}
+
+	/** Schluessel aus Ordner und Inhalt (Namen, Groessen, Aenderungszeiten aller Eintraege). */
+	public static String fingerprint(File dir) throws IOException {
+		return fingerprint(dir, new long[1]);
+	}
+
+	/**
+	 * Wie {@link #fingerprint(File)}.
+	 * @param totalSize bekommt in [0] die Summe aller Dateigroessen
+	 */
+	public static String fingerprint(File dir, long[] totalSize) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		totalSize[0] = addToFingerprint(md, dir, "");
+		StringBuilder sb = new StringBuilder(dir.getCanonicalPath()).append('#');
+		for (byte b : md.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static long addToFingerprint(MessageDigest md, File dir, String prefix) {
+		long size = 0;
+		for (DirectoryScanner.Entry child : DirectoryScanner.scan(dir)) {
+			String name = prefix + child.name;
+			md.update(name.getBytes(StandardCharsets.UTF_8));
+			if (child.directory) {
+				md.update((byte) '/');
+				size += addToFingerprint(md, child.file, name + "/");
+			} else {
+				md.update((":" + child.size + ":" + child.lastModified + "\n").getBytes(StandardCharsets.US_ASCII));
+				size += child.size;
+			}
+		}
+		return size;
+	}
+
+	private Reader startWithReader(FileOutputStream spillOut, Producer producer) {
+		Reader reader = newReader();
+		start(spillOut, producer);
+		return reader;
+	}
+
+	private void start(FileOutputStream spillOut, Producer producer) {
+		Thread t = new Thread(() -> {
+			try (OutputStream out = spillOut != null ? new SpillOutputStream(spillOut) : new RingOutputStream()) {
+				producer.produce(out);
+				synchronized (this) {
+					complete = true;
+					notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					failure = e;
+					notifyAll();
+				}
+				if (!cancelled) {
+					System.err.println("Fehler beim Erstellen des ZIP: " + e);
+				}
+			} finally {
+				synchronized (this) {
+					if (!complete && failure == null) {
+						failure = new IOException("zip producer stopped");
+					}
+					notifyAll();
+				}
+			}
+		}, "zip-producer-" + counter.incrementAndGet());
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// null, wenn der letzte Client schon weg ist, der Producer abgebrochen ist oder der Anfang nicht mehr im Ringpuffer liegt
+	private synchronized Reader join() {
+		return canJoin() ? newReader() : null;
+	}
+
+	private synchronized boolean canJoin() {
+		return !readers.isEmpty() && failure == null && !cancelled && (ring == null || written <= ring.length);
+	}
+
+	private synchronized Reader newReader() {
+		Reader reader = new Reader();
+		readers.add(reader);
+		notifyAll();
+		return reader;
+	}
+
+	private synchronized boolean isFinished() {
+		return readers.isEmpty() || failure != null || cancelled;
+	}
+
+	private synchronized int readerCount() {
+		return readers.size();
+	}
+
+	// kleinste Position aller Reader, davor darf der Ringpuffer ueberschrieben werden
+	private long lowWater() {
+		long min = written;
+		for (Reader r : readers) {
+			min = Math.min(min, r.position);
+		}
+		return min;
+	}
+
+	private void released(Reader reader) {
+		boolean last;
+		synchronized (this) {
+			readers.remove(reader);
+			last = readers.isEmpty();
+			if (last && !complete) {
+				cancelled = true;
+			}
+			notifyAll();
+		}
+		if (last) {
+			active.remove(key, this);
+			if (spillFile == null) {
+				return;
+			}
+			waitForProducer();
+			boolean cached;
+			synchronized (this) {
+				cached = complete && ZipCache.store(key, spillFile);
+			}
+			if (!cached) {
+				spillFile.delete();
+			}
+		}
+	}
+
+	// nach cancel bricht der Producer beim naechsten Schreiben ab, die Datei erst danach loeschen
+	private synchronized void waitForProducer() {
+		while (!complete && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/** Die Sicht eines Clients auf das ZIP. */
+	public final class Reader {
+		// bis hierher gelesen, im Ringpuffer darf davor ueberschrieben werden
+		private long position;
+		private boolean released;
+
+		private Reader() {}
+
+		/** @return die Spill-Datei oder null, wenn die Daten ueber {@link #read} aus dem Speicher kommen */
+		public File getFile() {
+			return spillFile;
+		}
+
+		/** @return Gesamtlaenge, wenn das ZIP schon fertig ist, sonst -1 */
+		public long completeLength() {
+			synchronized (SharedZip.this) {
+				return complete ? written : -1;
+			}
+		}
+
+		/**
+		 * Wartet, bis hinter position Daten liegen. Alles vor position gilt als gelesen.
+		 * @return Anzahl geschriebener Bytes, gleich position heisst: ZIP ist komplett
+		 */
+		public long awaitData(long position) throws IOException {
+			synchronized (SharedZip.this) {
+				advance(position);
+				while (written <= position && !complete) {
+					if (failure != null) {
+						throw new IOException("zip failed", failure);
+					}
+					try {
+						SharedZip.this.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+				return written;
+			}
+		}
+
+		/**
+		 * Kopiert Daten ab position aus dem Ringpuffer, nur ohne Spill-Datei.
+		 * @return Anzahl kopierter Bytes, hoechstens bis zum Wert von {@link #awaitData(long)}
+		 */
+		public int read(long position, byte[] b, int off, int len) {
+			synchronized (SharedZip.this) {
+				if (position < this.position) {
+					throw new IllegalStateException("position already released");
+				}
+				int n = (int) Math.max(0, Math.min(len, written - position));
+				int start = (int) (position % ring.length);
+				int first = Math.min(n, ring.length - start);
+				System.arraycopy(ring, start, b, off, first);
+				System.arraycopy(ring, 0, b, off + first, n - first);
+				advance(position + n);
+				return n;
+			}
+		}
+
+		private void advance(long position) {
+			if (position > this.position) {
+				this.position = position;
+				SharedZip.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Gibt den Client frei. Der letzte Client bricht einen laufenden Producer ab und loescht die Datei,
+		 * ein fertiges Archiv geht an den ZipCache.
+		 */
+		public void release() {
+			synchronized (SharedZip.this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			released(this);
+		}
+	}
+
+	private synchronized void written(long n) throws IOException {
+		if (cancelled) {
+			throw new IOException("all clients left, zip cancelled");
+		}
+		written += n;
+		notifyAll();
+	}
+
+	private final class SpillOutputStream extends OutputStream {
+		private final FileOutputStream out;
+
+		SpillOutputStream(FileOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			written(1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			written(len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/** Schreibt in den Ringpuffer und wartet, solange der langsamste Reader den Platz noch braucht. */
+	private final class RingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (SharedZip.this) {
+				while (len > 0) {
+					long free;
+					while ((free = ring.length - (written - lowWater())) <= 0 && !cancelled) {
+						try {
+							SharedZip.this.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+					}
+					if (cancelled) {
+						throw new IOException("all clients left, zip cancelled");
+					}
+					int n = (int) Math.min(len, free);
+					int start = (int) (written % ring.length);
+					int first = Math.min(n, ring.length - start);
+					System.arraycopy(b, off, ring, start, first);
+					System.arraycopy(b, off + first, ring, 0, n - first);
+					off += n;
+					len -= n;
+					written(n);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package de.dion.httpserver.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.dion.httpserver.DirectoryScanner;
+
+/**
+ * Ein unkomprimiertes (STORED) ZIP-Archiv eines Ordners, das nur virtuell existiert.
+ *
+ * Das Layout (Offsets aller Header und Dateiinhalte) wird vorab nur aus Namen und Dateigroessen
+ * berechnet, damit steht die Laenge des Archivs fest, bevor ein Byte gesendet wird. Beliebige
+ * Bereiche des Archivs koennen gesendet werden (Range / Download fortsetzen), die Dateiinhalte
+ * gehen dabei als Dateibereiche raus (Zero-Copy bei der NIO Engine).
+ *
+ * Die CRC steht im Local Header und wird erst gebraucht, wenn dieser Header gesendet wird.
+ * Sie kommt aus dem CrcCache oder wird direkt davor berechnet.
+ */
+public final class StoredZipArchive {
+
+	/** Empfaenger der Archiv-Daten. */
+	public interface Sink {
+		void write(byte[] b, int off, int len) throws IOException;
+
+		void writeFile(File file, long position, long length) throws IOException;
+	}
+
+	private static final class Item {
+		final ZipRecord record;
+		final File file;
+		final long lastModified;
+
+		Item(ZipRecord record, File file, long lastModified) {
+			this.record = record;
+			this.file = file;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final List<Item> items = new ArrayList<>();
+	private long centralStart;
+	private long centralSize;
+	private long length;
+	private long lastModified;
+	private String etag;
+	private byte[] centralDirectory;
+
+	private StoredZipArchive() {}
+
+	/** Berechnet das Layout fuer alle (nicht versteckten) Dateien unter dir. */
+	public static StoredZipArchive of(File dir) throws IOException {
+		StoredZipArchive archive = new StoredZipArchive();
+		archive.addDirectory(dir, "");
+		archive.layout();
+		return archive;
+	}
+
+	private void addDirectory(File dir, String parentPrefix) {
+		for (DirectoryScanner.Entry child : DirectoryScanner.scan(dir)) {
+			String entryName = parentPrefix.isEmpty() ? child.name : parentPrefix + "/" + child.name;
+			long time = child.lastModified;
+			if (child.directory) {
+				items.add(new Item(new ZipRecord(entryName + "/", time, true), null, time));
+				addDirectory(child.file, entryName);
+			} else {
+				ZipRecord r = new ZipRecord(entryName, time, false);
+				r.size = child.size;
+				r.csize = r.size;
+				r.zip64 = r.size >= ZipFormat.ZIP64_LIMIT;
+				items.add(new Item(r, child.file, time));
+			}
+		}
+	}
+
+	private void layout() throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		long offset = 0;
+		for (Item item : items) {
+			ZipRecord r = item.record;
+			r.offset = offset;
+			offset += ZipFormat.localHeaderSize(r) + r.size;
+			lastModified = Math.max(lastModified, item.lastModified);
+			md.update(r.nameBytes);
+			md.update((byte) 0);
+			md.update((r.size + ":" + item.lastModified + "\n").getBytes(StandardCharsets.US_ASCII));
+		}
+		centralStart = offset;
+		for (Item item : items) {
+			centralSize += ZipFormat.centralHeaderSize(item.record);
+		}
+		length = centralStart + centralSize + ZipFormat.endSize(items.size(), centralStart, centralSize);
+
+		byte[] digest = md.digest();
+		StringBuilder sb = new StringBuilder("\"z");
+		for (int i = 0; i < 10; i++) {
+			sb.append(String.format("%02x", digest[i]));
+		}
+		etag = sb.append('-').append(Long.toHexString(length)).append('"').toString();
+	}
+
+	/** Laenge des kompletten Archivs in Bytes. */
+	public long length() {
+		return length;
+	}
+
+	/** Starkes ETag aus Namen, Groessen und Aenderungszeiten aller Eintraege. */
+	public String etag() {
+		return etag;
+	}
+
+	/** Neueste Aenderungszeit aller Eintraege. */
+	public long lastModified() {
+		return lastModified;
+	}
+
+	/** Sendet den Bereich [start, end] (inklusiv) des Archivs. */
+	public void send(long start, long end, Sink sink) throws IOException {
+		long pos = start;
+		for (Item item : items) {
+			if (pos > end) {
+				return;
+			}
+			ZipRecord r = item.record;
+			long headerEnd = r.offset + ZipFormat.localHeaderSize(r);
+			long dataEnd = headerEnd + r.size;
+			if (pos >= dataEnd) {
+				continue;
+			}
+			if (pos < headerEnd) {
+				ensureCrc(item);
+				pos = sendBytes(localHeader(r), r.offset, pos, end, sink);
+			}
+			if (pos <= end && pos < dataEnd) {
+				if (item.file.length() != r.size) {
+					throw new IOException("file changed while zipping: " + item.file);
+				}
+				long n = Math.min(dataEnd, end + 1) - pos;
+				sink.writeFile(item.file, pos - headerEnd, n);
+				pos += n;
+			}
+		}
+		if (pos <= end) {
+			pos = sendBytes(centralDirectory(), centralStart, pos, end, sink);
+		}
+	}
+
+	/** Schreibt den Teil von bytes (liegt im Archiv bei base), der in [pos, end] faellt. */
+	private static long sendBytes(byte[] bytes, long base, long pos, long end, Sink sink) throws IOException {
+		int off = (int) (pos - base);
+		int len = (int) Math.min(bytes.length - off, end + 1 - pos);
+		if (len > 0) {
+			sink.write(bytes, off, len);
+			pos += len;
+		}
+		return pos;
+	}
+
+	private void ensureCrc(Item item) throws IOException {
+		if (item.file != null && !item.record.directory) {
+			item.record.crc = CrcCache.crc(item.file, item.record.size, item.lastModified);
+		}
+	}
+
+	private static byte[] localHeader(ZipRecord r) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(ZipFormat.localHeaderSize(r));
+		ZipFormat.writeLocalHeader(bos, r);
+		return bos.toByteArray();
+	}
+
+	/** Central Directory + End Record, braucht die CRC aller Dateien. */
+	private byte[] centralDirectory() throws IOException {
+		if (centralDirectory == null) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, length - centralStart));
+			for (Item item : items) {
+				ensureCrc(item);
+				ZipFormat.writeCentralHeader(bos, item.record);
+			}
+			ZipFormat.writeEnd(bos, items.size(), centralStart, centralSize);
+			centralDirectory = bos.toByteArray();
+		}
+		return centralDirectory;
+	}
+}
@@ -0,0 +1,417 @@
+package de.dion.httpserver.zip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache fuer fertige ZIP-Archive auf der Platte, begrenzt in der Groesse und nach LRU geraeumt.
+ *
+ * Schluessel ist der Fingerprint des Ordners (Pfade, Groessen, Aenderungszeiten, siehe
+ * {@link SharedZip#fingerprint(File)}). Aendert sich irgendetwas im Ordner, aendert sich der
+ * Schluessel, das alte Archiv passt nicht mehr und wird entfernt.
+ * Fertige Archive kommen aus dem SharedZip: statt die Spill-Datei zu loeschen, wird sie hierher verschoben.
+ *
+ * Archive, die gerade gesendet werden ({@link #lookup(String)} bis {@link #release(File)}), werden erst
+ * danach geloescht. Laesst sich eine Datei nicht loeschen (Windows, noch offen), zaehlt sie weiter zur
+ * Groesse des Caches und wird vom Hintergrund-Thread erneut versucht, Reste ohne Index-Eintrag
+ * verschwinden beim naechsten Start.
+ *
+ * Ein Treffer aendert nur die Zugriffszeit im Speicher, der Index wird danach vom Hintergrund-Thread
+ * geschrieben (hoechstens einmal je {@link #PREBUILD_INTERVAL}), neue und entfernte Archive sofort.
+ *
+ * Optional werden die meistgefragten Ordner im Leerlauf vorab gebaut.
+ */
+public final class ZipCache {
+
+	private static final File INDEX_FILE = new File(SharedZip.SPILL_DIR, "index.txt");
+	// so lange ohne ZIP-Anfrage gilt der Server als im Leerlauf
+	private static final long IDLE_MILLIS = 2 * 60 * 1000;
+	private static final long PREBUILD_INTERVAL = 60 * 1000;
+
+	private static final class Entry {
+		final String key;
+		final File file;
+		final long size;
+		long lastAccess;
+		// Clients, die die Datei gerade senden
+		int readers;
+
+		Entry(String key, File file, long size, long lastAccess) {
+			this.key = key;
+			this.file = file;
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private static final Map<String, Entry> entries = new HashMap<>();
+	// nicht mehr im Index, aber noch auf der Platte (wird gesendet oder liess sich nicht loeschen)
+	private static final List<Entry> removed = new ArrayList<>();
+	// so viele Ordner werden fuer das Vorab-Bauen gezaehlt, die am laengsten nicht angefragten fliegen raus
+	private static final int MAX_REQUEST_COUNTS = 1000;
+
+	// Anfragen je Ordner, nur wenn vorab gebaut wird
+	private static final Map<String, Integer> requestCounts = new LinkedHashMap<String, Integer>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_REQUEST_COUNTS;
+		}
+	};
+	private static boolean countRequests;
+	private static long maxBytes;
+	private static long totalBytes;
+	private static volatile long lastRequest;
+	private static volatile Function<File, SharedZip.Producer> producer;
+	private static boolean loaded;
+	// Zugriffszeiten geaendert, aber index.txt noch nicht geschrieben
+	private static boolean indexDirty;
+
+	private ZipCache() {}
+
+	/** @param maxMiB maximale Groesse des Caches in MiB, 0 = aus */
+	public static synchronized void setMaxSize(long maxMiB) {
+		maxBytes = Math.max(0, maxMiB) * 1024 * 1024;
+		load();
+		evict();
+	}
+
+	public static synchronized boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/** true wenn ein Archiv dieser Groesse in den Cache passen wuerde. */
+	static synchronized boolean accepts(long size) {
+		return maxBytes > 0 && size <= maxBytes;
+	}
+
+	/**
+	 * Merkt sich die Anfrage (fuer das Vorab-Bauen) und sucht das passende Archiv.
+	 * Ein Treffer bleibt auf der Platte, bis er mit {@link #release(File)} wieder freigegeben wird.
+	 * @return die Archiv-Datei oder null
+	 */
+	public static synchronized File lookup(String key) {
+		lastRequest = System.currentTimeMillis();
+		if (countRequests) {
+			requestCounts.merge(dirOf(key), 1, Integer::sum);
+		}
+		if (maxBytes <= 0) {
+			return null;
+		}
+		Entry e = entries.get(key);
+		if (e != null && e.file.isFile() && e.file.length() == e.size) {
+			e.lastAccess = System.currentTimeMillis();
+			e.readers++;
+			indexDirty = true;
+			return e.file;
+		}
+		if (e != null) {
+			remove(e);
+		}
+		// veraltete Archive desselben Ordners wegwerfen
+		invalidate(dirOf(key));
+		return null;
+	}
+
+	/** Gibt ein Archiv aus {@link #lookup(String)} wieder frei, wurde es inzwischen entfernt, wird es jetzt geloescht. */
+	public static synchronized void release(File file) {
+		for (Entry e : entries.values()) {
+			if (e.file.equals(file)) {
+				e.readers--;
+				return;
+			}
+		}
+		for (Entry e : removed) {
+			if (e.file.equals(file)) {
+				e.readers--;
+				break;
+			}
+		}
+		deleteRemoved();
+	}
+
+	/**
+	 * Ob fuer den Ordner ein Archiv im Cache liegt, ohne den Fingerprint zu berechnen. Kann veraltet sein,
+	 * wenn sich der Ordner seitdem geaendert hat, das merkt erst {@link #lookup(String)}.
+	 * @param dir kanonischer Pfad des Ordners
+	 */
+	public static synchronized boolean contains(String dir) {
+		if (maxBytes <= 0) {
+			return false;
+		}
+		for (String key : entries.keySet()) {
+			if (dirOf(key).equals(dir)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Uebernimmt ein fertiges Archiv (die Datei wird verschoben).
+	 * @return true wenn es im Cache gelandet ist, sonst muss der Aufrufer die Datei loeschen
+	 */
+	static synchronized boolean store(String key, File archive) {
+		long size = archive.length();
+		if (maxBytes <= 0 || size > maxBytes) {
+			return false;
+		}
+		invalidate(dirOf(key));
+		// eigener Name je Archiv: eine entfernte, aber noch gesendete Datei mit gleichem Schluessel bleibt unberuehrt
+		File target = new File(SharedZip.SPILL_DIR, hash(key) + "-" + Long.toString(System.currentTimeMillis(), 36) + ".zip");
+		try {
+			Files.move(archive.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.out.println("ZIP konnte nicht in den Cache verschoben werden: " + e.getMessage());
+			return false;
+		}
+		Entry e = new Entry(key, target, size, System.currentTimeMillis());
+		entries.put(key, e);
+		totalBytes += size;
+		evict();
+		saveIndex();
+		System.out.println("ZIP im Cache gespeichert (" + (size / 1024 / 1024) + " MiB, Cache: " + (totalBytes / 1024 / 1024) + "/" + (maxBytes / 1024 / 1024) + " MiB)");
+		return true;
+	}
+
+	private static void invalidate(String dir) {
+		Iterator<Entry> it = entries.values().iterator();
+		boolean changed = false;
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (dirOf(e.key).equals(dir)) {
+				it.remove();
+				removed.add(e);
+				changed = true;
+			}
+		}
+		if (changed) {
+			deleteRemoved();
+			saveIndex();
+		}
+	}
+
+	private static void remove(Entry e) {
+		entries.remove(e.key);
+		removed.add(e);
+		deleteRemoved();
+		saveIndex();
+	}
+
+	/** Loescht entfernte Archive, die niemand mehr sendet, erst dann zaehlen sie nicht mehr zur Groesse. */
+	private static void deleteRemoved() {
+		Iterator<Entry> it = removed.iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e.readers <= 0 && (!e.file.exists() || e.file.delete())) {
+				it.remove();
+				totalBytes -= e.size;
+			}
+		}
+	}
+
+	/**
+	 * Wirft die am laengsten nicht benutzten Archive raus, bis der Cache wieder passt.
+	 * Noch gesendete Archive zaehlen weiter mit, dafuer muessen notfalls andere weichen.
+	 */
+	private static void evict() {
+		while (totalBytes > maxBytes && !entries.isEmpty()) {
+			Entry oldest = null;
+			for (Entry e : entries.values()) {
+				if (oldest == null || e.lastAccess < oldest.lastAccess) {
+					oldest = e;
+				}
+			}
+			remove(oldest);
+		}
+	}
+
+	// Key = "<kanonischer Pfad>#<sha1>"
+	private static String dirOf(String key) {
+		int idx = key.lastIndexOf('#');
+		return idx < 0 ? key : key.substring(0, idx);
+	}
+
+	private static String hash(String key) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(key.hashCode());
+		}
+	}
+
+	// Format je Zeile: lastAccess \t size \t datei \t key
+	private static void load() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		if (!INDEX_FILE.isFile()) {
+			return;
+		}
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(INDEX_FILE), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] parts = line.split("\t", 4);
+				if (parts.length != 4) continue;
+				try {
+					File f = new File(SharedZip.SPILL_DIR, parts[2]);
+					long size = Long.parseLong(parts[1]);
+					if (f.isFile() && f.length() == size) {
+						entries.put(parts[3], new Entry(parts[3], f, size, Long.parseLong(parts[0])));
+						totalBytes += size;
+					}
+				} catch (NumberFormatException ignored) {}
+			}
+		} catch (IOException e) {
+			System.out.println("ZIP Cache Index konnte nicht gelesen werden: " + e.getMessage());
+		}
+
+		// Dateien ohne Eintrag im Index loeschen
+		File[] files = SharedZip.SPILL_DIR.listFiles((d, n) -> n.endsWith(".zip"));
+		if (files != null) {
+			for (File f : files) {
+				boolean known = false;
+				for (Entry e : entries.values()) {
+					if (e.file.getName().equals(f.getName())) {
+						known = true;
+						break;
+					}
+				}
+				if (!known) {
+					f.delete();
+				}
+			}
+		}
+		if (!entries.isEmpty()) {
+			System.out.println("ZIP Cache: " + entries.size() + " Archive (" + (totalBytes / 1024 / 1024) + " MiB)");
+		}
+	}
+
+	// vom Hintergrund-Thread: geaenderte Zugriffszeiten nachtragen, nicht loeschbare Archive erneut versuchen
+	private static synchronized void flushIndex() {
+		deleteRemoved();
+		if (indexDirty) {
+			saveIndex();
+		}
+	}
+
+	private static void saveIndex() {
+		indexDirty = false;
+		if (!SharedZip.SPILL_DIR.isDirectory()) {
+			return;
+		}
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(INDEX_FILE), StandardCharsets.UTF_8))) {
+			for (Entry e : entries.values()) {
+				w.write(e.lastAccess + "\t" + e.size + "\t" + e.file.getName() + "\t" + e.key + "\n");
+			}
+		} catch (IOException e) {
+			System.out.println("ZIP Cache Index konnte nicht geschrieben werden: " + e.getMessage());
+		}
+	}
+
+	// -------------------- Vorab bauen im Leerlauf --------------------
+
+	/** Wird vom DataServer gesetzt: erzeugt den ZIP-Inhalt fuer einen Ordner. */
+	public static void setProducer(Function<File, SharedZip.Producer> zipProducer) {
+		producer = zipProducer;
+	}
+
+	/**
+	 * Startet den Hintergrund-Thread des Caches: schreibt den Index nach Treffern und baut optional
+	 * im Leerlauf die meistgefragten Ordner als ZIP.
+	 * @param count wie viele Ordner vorab bauen, 0 = aus
+	 */
+	public static void startPrebuild(int count) {
+		if (!isEnabled()) {
+			return;
+		}
+		synchronized (ZipCache.class) {
+			countRequests = count > 0;
+		}
+		Thread t = new Thread(() -> {
+			while (true) {
+				try {
+					Thread.sleep(PREBUILD_INTERVAL);
+					flushIndex();
+					if (count > 0 && producer != null && System.currentTimeMillis() - lastRequest >= IDLE_MILLIS && !SharedZip.isBusy()) {
+						prebuild(count);
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					System.out.println("ZIP vorab bauen fehlgeschlagen: " + e);
+				}
+			}
+		}, "zip-cache");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	private static void prebuild(int count) throws IOException {
+		List<String> top = new ArrayList<>();
+		synchronized (ZipCache.class) {
+			requestCounts.entrySet().stream()
+					.sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
+					.limit(count)
+					.forEach(e -> top.add(e.getKey()));
+		}
+		for (String path : top) {
+			File dir = new File(path);
+			if (!dir.isDirectory()) {
+				continue;
+			}
+			long[] size = new long[1];
+			String key = SharedZip.fingerprint(dir, size);
+			synchronized (ZipCache.class) {
+				if (entries.containsKey(key)) {
+					continue;
+				}
+			}
+			// nur bauen, solange niemand etwas will
+			if (System.currentTimeMillis() - lastRequest < IDLE_MILLIS) {
+				return;
+			}
+			System.out.println("ZIP wird im Leerlauf vorab gebaut: " + path);
+			SharedZip.Reader shared = SharedZip.attach(key, size[0], producer.apply(dir));
+			try {
+				if (shared.getFile() == null) {
+					// passt nicht in den Cache oder zu wenig Platz, bauen waere umsonst
+					continue;
+				}
+				long position = 0;
+				long available;
+				while ((available = shared.awaitData(position)) != position) {
+					position = available;
+				}
+			} finally {
+				shared.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package de.dion.httpserver.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+
+/**
+ * Die Header-Strukturen des ZIP-Formats (APPNOTE.TXT) inkl. Zip64.
+ * Wird vom ParallelZipWriter und vom StoredZipArchive benutzt.
+ */
+final class ZipFormat {
+
+	static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private ZipFormat() {}
+
+	static int localHeaderSize(ZipRecord e) {
+		return 30 + e.nameBytes.length + (e.zip64 ? 20 : 0);
+	}
+
+	static void writeLocalHeader(OutputStream out, ZipRecord e) throws IOException {
+		writeInt(out, 0x04034b50);
+		writeShort(out, e.zip64 ? 45 : 20);
+		writeShort(out, (e.descriptor ? FLAG_DESCRIPTOR : 0) | FLAG_UTF8);
+		writeShort(out, e.method);
+		writeInt(out, e.dosTime);
+		writeInt(out, e.descriptor ? 0 : e.crc);
+		if (e.zip64) {
+			writeInt(out, ZIP64_LIMIT);
+			writeInt(out, ZIP64_LIMIT);
+		} else {
+			writeInt(out, e.descriptor ? 0 : e.csize);
+			writeInt(out, e.descriptor ? 0 : e.size);
+		}
+		writeShort(out, e.nameBytes.length);
+		writeShort(out, e.zip64 ? 20 : 0);
+		out.write(e.nameBytes);
+		if (e.zip64) {
+			writeShort(out, 0x0001);
+			writeShort(out, 16);
+			writeLong(out, e.descriptor ? 0 : e.size);
+			writeLong(out, e.descriptor ? 0 : e.csize);
+		}
+	}
+
+	static void writeDataDescriptor(OutputStream out, ZipRecord e) throws IOException {
+		writeInt(out, 0x08074b50);
+		writeInt(out, e.crc);
+		if (e.zip64) {
+			writeLong(out, e.csize);
+			writeLong(out, e.size);
+		} else {
+			writeInt(out, e.csize);
+			writeInt(out, e.size);
+		}
+	}
+
+	private static boolean centralZip64(ZipRecord e) {
+		return e.zip64 || e.offset >= ZIP64_LIMIT;
+	}
+
+	static int centralHeaderSize(ZipRecord e) {
+		return 46 + e.nameBytes.length + (centralZip64(e) ? 28 : 0);
+	}
+
+	static void writeCentralHeader(OutputStream out, ZipRecord e) throws IOException {
+		boolean zip64 = centralZip64(e);
+		int version = zip64 ? 45 : 20;
+		writeInt(out, 0x02014b50);
+		writeShort(out, version);
+		writeShort(out, version);
+		writeShort(out, (e.descriptor ? FLAG_DESCRIPTOR : 0) | FLAG_UTF8);
+		writeShort(out, e.method);
+		writeInt(out, e.dosTime);
+		writeInt(out, e.crc);
+		writeInt(out, zip64 ? ZIP64_LIMIT : e.csize);
+		writeInt(out, zip64 ? ZIP64_LIMIT : e.size);
+		writeShort(out, e.nameBytes.length);
+		writeShort(out, zip64 ? 28 : 0);
+		writeShort(out, 0); // Kommentar
+		writeShort(out, 0); // Disk
+		writeShort(out, 0); // interne Attribute
+		writeInt(out, e.directory ? 0x10 : 0); // externe Attribute (DOS Ordner-Flag)
+		writeInt(out, zip64 ? ZIP64_LIMIT : e.offset);
+		out.write(e.nameBytes);
+		if (zip64) {
+			writeShort(out, 0x0001);
+			writeShort(out, 24);
+			writeLong(out, e.size);
+			writeLong(out, e.csize);
+			writeLong(out, e.offset);
+		}
+	}
+
+	private static boolean endZip64(int count, long cdStart, long cdSize) {
+		return count >= 0xFFFF || cdStart >= ZIP64_LIMIT || cdSize >= ZIP64_LIMIT;
+	}
+
+	static int endSize(int count, long cdStart, long cdSize) {
+		return 22 + (endZip64(count, cdStart, cdSize) ? 56 + 20 : 0);
+	}
+
+	/** End of Central Directory, bei Bedarf mit Zip64 Record und Locator davor. */
+	static void writeEnd(OutputStream out, int count, long cdStart, long cdSize) throws IOException {
+		if (endZip64(count, cdStart, cdSize)) {
+			long zip64EndOffset = cdStart + cdSize;
+			writeInt(out, 0x06064b50);
+			writeLong(out, 44);
+			writeShort(out, 45);
+			writeShort(out, 45);
+			writeInt(out, 0);
+			writeInt(out, 0);
+			writeLong(out, count);
+			writeLong(out, count);
+			writeLong(out, cdSize);
+			writeLong(out, cdStart);
+
+			writeInt(out, 0x07064b50);
+			writeInt(out, 0);
+			writeLong(out, zip64EndOffset);
+			writeInt(out, 1);
+		}
+
+		writeInt(out, 0x06054b50);
+		writeShort(out, 0);
+		writeShort(out, 0);
+		writeShort(out, Math.min(count, 0xFFFF));
+		writeShort(out, Math.min(count, 0xFFFF));
+		writeInt(out, Math.min(cdSize, ZIP64_LIMIT));
+		writeInt(out, Math.min(cdStart, ZIP64_LIMIT));
+		writeShort(out, 0);
+	}
+
+	static long toDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) | (c.get(Calendar.DAY_OF_MONTH) << 16)
+				| (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	private static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, long v) throws IOException {
+		writeShort(out, (int) (v & 0xFFFF));
+		writeShort(out, (int) ((v >>> 16) & 0xFFFF));
+	}
+
+	private static void writeLong(OutputStream out, long v) throws IOException {
+		writeInt(out, v & 0xFFFFFFFFL);
+		writeInt(out, v >>> 32);
+	}
+}
@@ -0,0 +1,30 @@
+package de.dion.httpserver.zip;
+
+import java.nio.charset.StandardCharsets;
+
+/** Ein Eintrag im ZIP-Archiv mit allem, was fuer Local und Central Header gebraucht wird. */
+final class ZipRecord {
+
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+
+	final String name;
+	final byte[] nameBytes;
+	final long dosTime;
+	final boolean directory;
+	int method = STORED;
+	/** CRC und Groessen stehen in einem Data Descriptor hinter den Daten statt im Local Header. */
+	boolean descriptor;
+	boolean zip64;
+	long crc;
+	long size;
+	long csize;
+	long offset;
+
+	ZipRecord(String name, long time, boolean directory) {
+		this.name = name;
+		this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		this.dosTime = ZipFormat.toDosTime(time);
+		this.directory = directory;
+	}
+}
@@ -0,0 +1,44 @@
+package de.dion.httpserver;
+
+import java.util.List;
+
+/**
+ * Prueft DataServer.parseRanges: Zusammenfassen ueberlappender Bereiche und die Obergrenze fuer die Anzahl.
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.DataServerRangeTest
+ */
+public class DataServerRangeTest {
+
+	public static void main(String[] args) {
+		List<long[]> r = DataServer.parseRanges("bytes=0-99,50-149,150-199,-100", 1000);
+		check(r.size() == 2, "ueberlappende und angrenzende Bereiche zusammenfassen");
+		check(r.get(0)[0] == 0 && r.get(0)[1] == 199, "erster Bereich 0-199");
+		check(r.get(1)[0] == 900 && r.get(1)[1] == 999, "Suffix 900-999");
+
+		check(DataServer.parseRanges("bytes=2000-", 1000).isEmpty(), "nicht erfuellbar -> 416");
+
+		check(DataServer.parseRanges(ranges(DataServer.MAX_RANGES), 100000).size() == DataServer.MAX_RANGES, "genau an der Grenze");
+		check(DataServer.parseRanges(ranges(DataServer.MAX_RANGES + 1), 100000) == null, "zu viele Bereiche -> ignorieren, 200");
+		// auch wenn sie sich zu einem einzigen zusammenfassen liessen: schon das Parsen wird begrenzt
+		StringBuilder same = new StringBuilder("bytes=0-0");
+		for (int i = 0; i < 10000; i++) {
+			same.append(",0-0");
+		}
+		check(DataServer.parseRanges(same.toString(), 100000) == null, "viele gleiche Bereiche");
+		System.out.println("OK");
+	}
+
+	private static String ranges(int count) {
+		StringBuilder sb = new StringBuilder("bytes=");
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "" : ",").append(i * 10).append('-').append(i * 10 + 4);
+		}
+		return sb.toString();
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+}
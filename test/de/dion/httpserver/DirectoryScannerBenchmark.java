@@ -0,0 +1,114 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Zeitmessung DirectoryScanner.scan gegen das fruehere Einlesen mit listFiles() und
+ * isHidden/isDirectory/isFile/length/lastModified je Eintrag. Prueft nebenbei, dass beide dasselbe liefern.
+ *
+ * Ohne Argument wird ein Testordner mit 5000 Dateien, 100 Ordnern und 500 versteckten Dateien angelegt.
+ * Aussagekraeftig ist vor allem ein Ordner auf einer SMB- oder NFS-Freigabe, dort kostet jeder Einzelaufruf einen Roundtrip:
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.DirectoryScannerBenchmark [Ordner] [Durchlaeufe]
+ */
+public class DirectoryScannerBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		if (args.length > 0) {
+			run(new File(args[0]), rounds);
+			return;
+		}
+		File dir = createTestDir();
+		try {
+			run(dir, rounds);
+		} finally {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	private static void run(File dir, int rounds) {
+
+		List<String> before = describe(listOld(dir));
+		List<String> after = describe(DirectoryScanner.scan(dir));
+		if (!before.equals(after)) {
+			throw new AssertionError("Ergebnisse unterscheiden sich: " + before.size() + " gegen " + after.size() + " Eintraege");
+		}
+		System.out.println(dir + ": " + after.size() + " Eintraege, " + rounds + " Durchlaeufe");
+
+		// abwechselnd messen, damit Cache-Effekte beide gleich treffen; die ersten Runden waermen den JIT auf
+		long[] old = new long[rounds];
+		long[] scan = new long[rounds];
+		for (int i = -3; i < rounds; i++) {
+			long t0 = System.nanoTime();
+			listOld(dir);
+			long t1 = System.nanoTime();
+			DirectoryScanner.scan(dir);
+			long t2 = System.nanoTime();
+			if (i >= 0) {
+				old[i] = t1 - t0;
+				scan[i] = t2 - t1;
+			}
+		}
+		System.out.printf("listFiles + Einzelaufrufe: Median %.2f ms%n", median(old) / 1e6);
+		System.out.printf("DirectoryScanner.scan:     Median %.2f ms%n", median(scan) / 1e6);
+	}
+
+	/** So wurde ein Ordner vor dem DirectoryScanner gelesen (Listing und ZIP). */
+	private static DirectoryScanner.Entry[] listOld(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return new DirectoryScanner.Entry[0];
+		}
+		Arrays.sort(files);
+		List<DirectoryScanner.Entry> entries = new ArrayList<>();
+		for (File f : files) {
+			if (f.isHidden()) {
+				continue;
+			}
+			if (f.isDirectory()) {
+				entries.add(new DirectoryScanner.Entry(f, f.getName(), true, 0, f.lastModified()));
+			} else if (f.isFile()) {
+				entries.add(new DirectoryScanner.Entry(f, f.getName(), false, f.length(), f.lastModified()));
+			}
+		}
+		return entries.toArray(new DirectoryScanner.Entry[0]);
+	}
+
+	private static List<String> describe(DirectoryScanner.Entry[] entries) {
+		List<String> out = new ArrayList<>();
+		for (DirectoryScanner.Entry e : entries) {
+			out.add(e.name + "|" + e.directory + "|" + e.size + "|" + e.lastModified);
+		}
+		return out;
+	}
+
+	private static File createTestDir() throws IOException {
+		File dir = Files.createTempDirectory("scanbench").toFile();
+		byte[] data = new byte[100];
+		for (int i = 0; i < 5000; i++) {
+			Files.write(new File(dir, String.format("file-%05d.jpg", i)).toPath(), Arrays.copyOf(data, i % 100));
+		}
+		for (int i = 0; i < 100; i++) {
+			new File(dir, String.format("folder-%03d", i)).mkdir();
+		}
+		for (int i = 0; i < 500; i++) {
+			Files.write(new File(dir, String.format(".hidden-%03d", i)).toPath(), data);
+		}
+		return dir;
+	}
+
+	private static double median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,117 @@
+package de.dion.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Langsame Clients gegen die JDK-Engine mit dem Executor aus {@link WebServer#createHeaderPool(int)}:
+ * der JDK-Server liest den Request-Kopf in einem Thread des Executors, jeder Trickler belegt also einen.
+ * 500 Trickler duerfen normale Requests nicht spuerbar bremsen (der Pool waechst mit), und ist der Pool voll,
+ * wird eine neue Verbindung sofort abgewiesen (503 oder getrennt), statt ewig zu haengen.
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.SlowClientJdkTest, dauert ca. 15 s.
+ */
+public class SlowClientJdkTest {
+
+	private static final int TRICKLERS = 500;
+	private static final int REQUESTS = 20;
+
+	public static void main(String[] args) throws Exception {
+		trickleWhileServing();
+		rejectWhenFull();
+		System.out.println("OK");
+	}
+
+	/** 500 Trickler halten je einen Thread, normale Requests bekommen trotzdem sofort einen. */
+	private static void trickleWhileServing() throws Exception {
+		ThreadPoolExecutor pool = WebServer.createHeaderPool(512);
+		HttpServer server = start(pool);
+		int port = server.getAddress().getPort();
+		try {
+			long[] before = Tricklers.latencies(port, REQUESTS, 5000);
+			try (Tricklers tricklers = Tricklers.start(port, TRICKLERS)) {
+				Thread.sleep(1000);
+				long[] during = Tricklers.latencies(port, REQUESTS, 5000);
+				Thread.sleep(1000);
+				System.out.println(TRICKLERS + " Trickler, Pool " + pool.getPoolSize() + " Threads, Latenz ohne: Median " + median(before)
+						+ " ms, mit: Median " + median(during) + " ms, max " + during[during.length - 1] + " ms");
+				check(pool.getPoolSize() >= TRICKLERS, "Trickler sollten je einen Thread belegen, Pool hat " + pool.getPoolSize());
+				check(tricklers.dropped() == 0, tricklers.dropped() + " Trickler wurden getrennt");
+				check(median(during) <= median(before) + 200, "Median mit Tricklern zu hoch: " + median(during) + " ms");
+				check(during[during.length - 1] < 2000, "langsamster Request mit Tricklern: " + during[during.length - 1] + " ms");
+			}
+		} finally {
+			server.stop(0);
+			pool.shutdownNow();
+		}
+	}
+
+	/** Pool voll mit Tricklern: die naechste Verbindung wird abgewiesen, danach geht es wieder. */
+	private static void rejectWhenFull() throws Exception {
+		int max = 8;
+		ThreadPoolExecutor pool = WebServer.createHeaderPool(max);
+		HttpServer server = start(pool);
+		int port = server.getAddress().getPort();
+		try {
+			try (Tricklers tricklers = Tricklers.start(port, max)) {
+				Thread.sleep(500);
+				check(pool.getActiveCount() == max, "alle " + max + " Threads sollten belegt sein, sind " + pool.getActiveCount());
+				try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					s.setSoTimeout(3000);
+					s.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					String status;
+					try {
+						status = Tricklers.statusLine(s.getInputStream());
+					} catch (SocketTimeoutException e) {
+						throw new AssertionError("Verbindung bei vollem Pool haengt statt abgewiesen zu werden");
+					} catch (IOException e) {
+						// Reset
+						status = "";
+					}
+					check(status.isEmpty() || status.startsWith("HTTP/1.1 503"), "bei vollem Pool: " + status);
+					System.out.println("Pool voll (" + max + "): " + (status.isEmpty() ? "Verbindung getrennt" : status));
+				}
+				// abgewiesen wird nur die neue Verbindung, die Trickler im Pool bleiben
+				check(tricklers.dropped() == 0, tricklers.dropped() + " Trickler wurden getrennt");
+			}
+			// Trickler weg, die Threads werden wieder frei
+			Thread.sleep(500);
+			Tricklers.latencies(port, 1, 5000);
+		} finally {
+			server.stop(0);
+			pool.shutdownNow();
+		}
+	}
+
+	private static HttpServer start(ThreadPoolExecutor pool) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(pool);
+		server.createContext("/", exchange -> {
+			byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	private static long median(long[] sorted) {
+		return sorted[sorted.length / 2];
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+}
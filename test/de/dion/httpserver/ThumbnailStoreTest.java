@@ -0,0 +1,95 @@
+package de.dion.httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Prueft den ThumbnailStore ueber einen Neustart hinweg:
+ * ein kaputter Eintrag mitten im Pack wird beim Abruf erkannt (die anderen bleiben lesbar),
+ * und ein in removed.txt vermerktes Pack, das sich nicht loeschen laesst, wird nicht wieder eingelesen
+ * und seine Nummer nicht neu vergeben.
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.ThumbnailStoreTest
+ */
+public class ThumbnailStoreTest {
+
+	public static void main(String[] args) throws IOException {
+		corruptEntry();
+		removedPack();
+		System.out.println("OK");
+	}
+
+	private static void corruptEntry() throws IOException {
+		File dir = Files.createTempDirectory("thumbstore").toFile();
+		byte[][] data = new byte[3][];
+		Random random = new Random(1);
+		ThumbnailStore store = new ThumbnailStore(dir, 64L * 1024 * 1024);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = new byte[10000];
+			random.nextBytes(data[i]);
+			store.put("t" + i + ".jpg", "key" + i, data[i]);
+		}
+		check(Arrays.equals(bytes(store.get("t1.jpg")), data[1]), "frisch geschrieben");
+
+		// ein Byte im mittleren Eintrag kippen, so wie eine nach einem Absturz fehlende Seite
+		File pack = new File(dir, "pack-1.dat");
+		long middle = pack.length() / 2;
+		try (RandomAccessFile raf = new RandomAccessFile(pack, "rw")) {
+			raf.seek(middle);
+			int b = raf.read();
+			raf.seek(middle);
+			raf.write(b ^ 0xff);
+		}
+
+		store = new ThumbnailStore(dir, 64L * 1024 * 1024);
+		check(store.contains("t1.jpg"), "vor dem Abruf noch im Index");
+		check(store.get("t1.jpg") == null, "kaputter Eintrag sollte null liefern");
+		check(!store.contains("t1.jpg"), "kaputter Eintrag sollte aus dem Index fliegen");
+		check(Arrays.equals(bytes(store.get("t0.jpg")), data[0]), "Eintrag davor");
+		check(Arrays.equals(bytes(store.get("t2.jpg")), data[2]), "Eintrag danach");
+	}
+
+	private static void removedPack() throws IOException {
+		File dir = Files.createTempDirectory("thumbstore").toFile();
+		ThumbnailStore store = new ThumbnailStore(dir, 64L * 1024 * 1024);
+		store.put("a.jpg", "key", new byte[] {1, 2, 3});
+
+		// pack-1 wurde beim Aufraeumen entfernt, liess sich aber nicht loeschen (hier: ein Ordner statt Datei)
+		File pack = new File(dir, "pack-1.dat");
+		check(pack.delete(), "Pack fuer den Test ersetzen");
+		check(new File(pack, "lock").mkdirs(), "Ordner anlegen");
+		Files.write(new File(dir, "removed.txt").toPath(), Collections.singletonList("pack-1.dat"), StandardCharsets.UTF_8);
+
+		store = new ThumbnailStore(dir, 64L * 1024 * 1024);
+		check(!store.contains("a.jpg"), "Eintrag aus entferntem Pack darf nicht zurueckkommen");
+		store.put("b.jpg", "key", new byte[] {4, 5, 6});
+		check(new File(dir, "pack-2.dat").isFile(), "neues Pack muss eine neue Nummer bekommen");
+		check(new File(dir, "removed.txt").isFile(), "nicht geloeschtes Pack bleibt vermerkt");
+
+		// laesst es sich wieder loeschen, verschwindet es beim naechsten Start samt Vermerk
+		new File(pack, "lock").delete();
+		store = new ThumbnailStore(dir, 64L * 1024 * 1024);
+		check(!pack.exists() && !new File(dir, "removed.txt").exists(), "Pack und Vermerk sollten weg sein");
+		check(Arrays.equals(bytes(store.get("b.jpg")), new byte[] {4, 5, 6}), "Eintrag im neuen Pack");
+	}
+
+	private static byte[] bytes(ByteBuffer b) {
+		check(b != null, "Eintrag fehlt");
+		byte[] out = new byte[b.remaining()];
+		b.duplicate().get(out);
+		return out;
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package de.dion.httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Langsame Clients fuer die Tests der Server-Engines: jeder Socket beginnt einen Request und schickt danach
+ * nur noch alle {@link #INTERVAL} ms ein Byte eines Headers, der nie endet. Dazu die Latenz normaler Requests,
+ * die waehrenddessen auf eigenen Verbindungen laufen.
+ */
+public final class Tricklers implements Closeable {
+
+	private static final long INTERVAL = 200;
+	private static final byte[] START = "GET / HTTP/1.1\r\nHost: x\r\nX-Pad: ".getBytes(StandardCharsets.US_ASCII);
+
+	private final List<Socket> sockets = new ArrayList<>();
+	private final Thread thread;
+	private volatile boolean running = true;
+	private volatile int dropped;
+
+	private Tricklers(int port, int count) throws IOException {
+		try {
+			for (int i = 0; i < count; i++) {
+				Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+				s.getOutputStream().write(START);
+				sockets.add(s);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		thread = new Thread(this::trickle, "tricklers");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Oeffnet count langsame Verbindungen, sie troepfeln bis {@link #close()}. */
+	public static Tricklers start(int port, int count) throws IOException {
+		return new Tricklers(port, count);
+	}
+
+	private void trickle() {
+		List<Socket> open = new ArrayList<>(sockets);
+		while (running) {
+			for (int i = open.size() - 1; i >= 0; i--) {
+				try {
+					open.get(i).getOutputStream().write('a');
+				} catch (IOException e) {
+					// vom Server getrennt
+					open.remove(i);
+					dropped++;
+				}
+			}
+			try {
+				Thread.sleep(INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/** Verbindungen, die der Server bisher getrennt hat (ein Schreibfehler faellt erst beim naechsten Byte auf). */
+	public int dropped() {
+		return dropped;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		for (Socket s : sockets) {
+			try {
+				s.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	/**
+	 * Schickt count normale Requests nacheinander, jeden auf einer neuen Verbindung.
+	 * @return die Antwortzeiten in ms, aufsteigend sortiert
+	 * @throws AssertionError wenn eine Antwort nicht 200 ist
+	 */
+	public static long[] latencies(int port, int count, int timeoutMillis) throws IOException {
+		long[] millis = new long[count];
+		for (int i = 0; i < count; i++) {
+			long start = System.nanoTime();
+			try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				s.setSoTimeout(timeoutMillis);
+				s.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				String status = statusLine(s.getInputStream());
+				if (!status.startsWith("HTTP/1.1 200")) {
+					throw new AssertionError("normaler Request bekam: " + status);
+				}
+			}
+			millis[i] = (System.nanoTime() - start) / 1_000_000;
+		}
+		Arrays.sort(millis);
+		return millis;
+	}
+
+	/** Liest die Statuszeile, leer wenn der Server die Verbindung ohne Antwort schliesst. */
+	public static String statusLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1 && c != '\r') {
+			sb.append((char) c);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,213 @@
+package de.dion.httpserver.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.dion.httpserver.Tricklers;
+
+/**
+ * Regressionstest der NIO Engine gegen langsame und untaetige Clients:
+ * Slowloris (Kopf kommt nicht vollstaendig) bekommt 408, Keep-Alive ohne Request wird geschlossen,
+ * das Limit je IP greift und der Zaehler je IP geht am Ende auf 0 zurueck (kein doppeltes Abzaehlen).
+ * Zum Schluss troepfeln 500 Clients ihre Request-Koepfe, waehrenddessen wird die Latenz normaler Requests gemessen.
+ * Den gleichen Test fuer die JDK-Engine macht {@link de.dion.httpserver.SlowClientJdkTest}.
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.nio.SlowClientTest, dauert ca. 15 s.
+ */
+public class SlowClientTest {
+
+	private static final long IDLE = 1500;
+	private static final long HEADER = 1000;
+	private static final int MAX_PER_IP = 4;
+	private static final int TRICKLERS = 500;
+	private static final int REQUESTS = 20;
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			NioHttpServer server = start(executor, HEADER, MAX_PER_IP);
+			int port = server.getAddress().getPort();
+			InetAddress ip = InetAddress.getLoopbackAddress();
+			try {
+				slowHeader(port);
+				idleKeepAlive(port);
+				perIpLimit(port);
+				// alle Sockets zu, EventLoop raeumt beim naechsten Durchlauf auf
+				Thread.sleep(1500);
+				check(server.openConnections(ip) == 0, "Zaehler je IP sollte 0 sein, ist " + server.openConnections(ip));
+			} finally {
+				server.stop(0);
+			}
+			trickleWhileServing(executor);
+			System.out.println("OK");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static NioHttpServer start(ExecutorService executor, long headerTimeout, int maxPerIp) throws IOException {
+		NioHttpServer server = NioHttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setTimeouts(IDLE, headerTimeout, 2000);
+		server.setMaxConnectionsPerIp(maxPerIp);
+		server.setExecutor(executor);
+		server.createContext("/", exchange -> {
+			byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	/**
+	 * 500 Trickler (ohne Header-Timeout und Limit je IP, damit sie die ganze Zeit offen bleiben) belegen
+	 * keinen der 4 Worker, normale Requests werden so schnell beantwortet wie ohne sie.
+	 */
+	private static void trickleWhileServing(ExecutorService executor) throws Exception {
+		NioHttpServer server = start(executor, 60_000, 0);
+		int port = server.getAddress().getPort();
+		try {
+			long[] before = Tricklers.latencies(port, REQUESTS, 5000);
+			try (Tricklers tricklers = Tricklers.start(port, TRICKLERS)) {
+				Thread.sleep(1000);
+				long[] during = Tricklers.latencies(port, REQUESTS, 5000);
+				Thread.sleep(1000);
+				long medianBefore = before[REQUESTS / 2];
+				long medianDuring = during[REQUESTS / 2];
+				System.out.println(TRICKLERS + " Trickler, Latenz ohne: Median " + medianBefore + " ms, mit: Median " + medianDuring
+						+ " ms, max " + during[REQUESTS - 1] + " ms");
+				check(tricklers.dropped() == 0, tricklers.dropped() + " Trickler wurden getrennt");
+				check(medianDuring <= medianBefore + 200, "Median mit Tricklern zu hoch: " + medianDuring + " ms");
+				check(during[REQUESTS - 1] < 2000, "langsamster Request mit Tricklern: " + during[REQUESTS - 1] + " ms");
+			}
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	/** Kopf wird angefangen, aber nie beendet. */
+	private static void slowHeader(int port) throws IOException {
+		try (Socket s = connect(port)) {
+			s.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\n".getBytes(StandardCharsets.US_ASCII));
+			long start = System.currentTimeMillis();
+			String response = read(s, HEADER + 3000);
+			long took = System.currentTimeMillis() - start;
+			check(response.startsWith("HTTP/1.1 408"), "Slowloris sollte 408 bekommen, war: " + firstLine(response));
+			check(took >= HEADER - 100, "408 kam zu frueh nach " + took + " ms");
+			System.out.println("408 nach " + took + " ms");
+		}
+	}
+
+	/** Ein Request, danach nichts mehr: die Verbindung wird nach dem Idle-Timeout geschlossen. */
+	private static void idleKeepAlive(int port) throws IOException {
+		try (Socket s = connect(port)) {
+			s.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			String response = readResponse(s.getInputStream());
+			check(response.startsWith("HTTP/1.1 200"), "Antwort: " + firstLine(response));
+			long start = System.currentTimeMillis();
+			s.setSoTimeout((int) IDLE + 3000);
+			check(s.getInputStream().read() == -1, "Keep-Alive sollte ohne Daten geschlossen werden");
+			long took = System.currentTimeMillis() - start;
+			check(took >= IDLE - 100, "Keep-Alive zu frueh geschlossen nach " + took + " ms");
+			System.out.println("Keep-Alive geschlossen nach " + took + " ms");
+		}
+	}
+
+	/** MAX_PER_IP Verbindungen bleiben offen, die naechste wird sofort getrennt, nach einem close geht es wieder. */
+	private static void perIpLimit(int port) throws Exception {
+		List<Socket> open = new ArrayList<>();
+		try {
+			for (int i = 0; i < MAX_PER_IP; i++) {
+				open.add(connect(port));
+			}
+			Thread.sleep(200);
+			try (Socket extra = connect(port)) {
+				extra.setSoTimeout(1000);
+				check(readOrClosed(extra), "Verbindung ueber dem Limit sollte getrennt werden");
+			}
+			for (Socket s : open) {
+				s.setSoTimeout(300);
+				check(!readOrClosed(s), "Verbindung innerhalb des Limits wurde getrennt");
+			}
+			open.remove(0).close();
+			Thread.sleep(300);
+			try (Socket again = connect(port)) {
+				again.getOutputStream().write("GET / HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				String response = readResponse(again.getInputStream());
+				check(response.startsWith("HTTP/1.1 200"), "nach close sollte wieder Platz sein: " + firstLine(response));
+			}
+			System.out.println("Limit je IP: " + MAX_PER_IP + " offen, weitere getrennt");
+		} finally {
+			for (Socket s : open) {
+				s.close();
+			}
+		}
+	}
+
+	private static Socket connect(int port) throws IOException {
+		return new Socket(InetAddress.getLoopbackAddress(), port);
+	}
+
+	// true wenn der Server die Verbindung geschlossen hat, false wenn sie innerhalb des Timeouts offen blieb
+	private static boolean readOrClosed(Socket s) throws IOException {
+		try {
+			return s.getInputStream().read() == -1;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			// Reset
+			return true;
+		}
+	}
+
+	private static String read(Socket s, long timeout) throws IOException {
+		s.setSoTimeout((int) timeout);
+		try {
+			return readResponse(s.getInputStream());
+		} catch (SocketTimeoutException e) {
+			return "";
+		}
+	}
+
+	// liest bis zum Ende des Kopfs plus Content-Length
+	private static String readResponse(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			sb.append((char) c);
+			int end = sb.indexOf("\r\n\r\n");
+			if (end >= 0) {
+				String head = sb.toString().toLowerCase();
+				int idx = head.indexOf("content-length:");
+				int length = idx < 0 ? 0 : Integer.parseInt(head.substring(idx + 15, head.indexOf('\r', idx)).trim());
+				if (sb.length() >= end + 4 + length) {
+					break;
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String firstLine(String response) {
+		int idx = response.indexOf('\r');
+		return idx < 0 ? response : response.substring(0, idx);
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+}
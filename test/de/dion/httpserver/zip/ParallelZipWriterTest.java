@@ -0,0 +1,143 @@
+package de.dion.httpserver.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Liest ein Archiv des ParallelZipWriter mit ZipInputStream (Stream, nur Local Header) und
+ * mit ZipFile (Central Directory) zurueck, danach dasselbe fuer das StoredZipArchive (CRCs aus dem CrcCache,
+ * der dafuer in den Temp-Ordner zeigt). Gemischt: komprimierbar, zufaellig (unkomprimiert per Probe),
+ * .jpg (unkomprimiert per Endung), leer, mehrere Bloecke, Ordner.
+ *
+ * Aufruf: java -cp bin:bin-test de.dion.httpserver.zip.ParallelZipWriterTest
+ */
+public class ParallelZipWriterTest {
+
+	public static void main(String[] args) throws IOException {
+		File dir = Files.createTempDirectory("zipwriter").toFile();
+		File crcFile = new File(Files.createTempDirectory("zipwriter-crc").toFile(), "zip-crc.cache");
+		CrcCache.setCacheFile(crcFile);
+		Random random = new Random(42);
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 300 * 1024) {
+			text.append("Zeile ").append(text.length()).append(" mit gut komprimierbarem Text\n");
+		}
+		files.put("text.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+		files.put("random.bin", randomBytes(random, 400 * 1024 + 17));
+		files.put("bild.jpg", randomBytes(random, 1000));
+		files.put("leer.txt", new byte[0]);
+		files.put("sub/klein.bin", randomBytes(random, 10));
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (ParallelZipWriter zip = new ParallelZipWriter(buffer)) {
+			zip.putDirectory("sub", System.currentTimeMillis());
+			for (Map.Entry<String, byte[]> e : files.entrySet()) {
+				File f = new File(dir, e.getKey());
+				f.getParentFile().mkdirs();
+				try (FileOutputStream out = new FileOutputStream(f)) {
+					out.write(e.getValue());
+				}
+				zip.putFile(e.getKey(), f, f.lastModified());
+			}
+		}
+		byte[] archive = buffer.toByteArray();
+		byte[] storedArchive = storedArchive(dir);
+		check(crcFile.isFile(), "CRC Cache im Temp-Ordner");
+
+		int count = readStream(archive, files);
+		check(count == files.size() + 1, "Anzahl Eintraege " + count);
+		check(readStream(storedArchive, files) == count, "Anzahl Eintraege StoredZipArchive");
+
+		File zipFile = new File(dir, "test.zip");
+		Files.write(zipFile.toPath(), archive);
+		int stored = 0;
+		try (ZipFile zf = new ZipFile(zipFile)) {
+			for (Map.Entry<String, byte[]> e : files.entrySet()) {
+				ZipEntry entry = zf.getEntry(e.getKey());
+				check(entry != null, "Central Directory " + e.getKey());
+				// Level 0: Stored-Bloecke, nur ein paar Bytes Verwaltung je Block
+				if (entry.getSize() > 0 && entry.getCompressedSize() >= entry.getSize()) {
+					check(entry.getCompressedSize() - entry.getSize() <= entry.getSize() / 1000 + 16, "Overhead " + e.getKey());
+					stored++;
+				}
+				try (InputStream in = zf.getInputStream(entry)) {
+					check(Arrays.equals(readAll(in), e.getValue()), "Inhalt per Central Directory " + e.getKey());
+				}
+			}
+		}
+		check(stored >= 3, "random.bin, bild.jpg und klein.bin sollten unkomprimiert sein, sind " + stored);
+		System.out.println("OK: " + count + " Eintraege, " + stored + " unkomprimiert, " + archive.length + " Bytes");
+	}
+
+	/** Liest das Archiv mit ZipInputStream und vergleicht die Inhalte, gibt die Anzahl Eintraege zurueck. */
+	private static int readStream(byte[] archive, Map<String, byte[]> files) throws IOException {
+		int count = 0;
+		try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				count++;
+				if (entry.isDirectory()) {
+					check(entry.getName().equals("sub/"), "Ordner " + entry.getName());
+					continue;
+				}
+				check(Arrays.equals(readAll(in), files.get(entry.getName())), "Inhalt per Stream " + entry.getName());
+			}
+		}
+		return count;
+	}
+
+	private static byte[] storedArchive(File dir) throws IOException {
+		StoredZipArchive stored = StoredZipArchive.of(dir);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		stored.send(0, stored.length() - 1, new StoredZipArchive.Sink() {
+			@Override
+			public void write(byte[] b, int off, int len) {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void writeFile(File file, long position, long len) throws IOException {
+				byte[] all = Files.readAllBytes(file.toPath());
+				out.write(all, (int) position, (int) len);
+			}
+		});
+		check(out.size() == stored.length(), "Laenge StoredZipArchive");
+		return out.toByteArray();
+	}
+
+	private static byte[] randomBytes(Random random, int size) {
+		byte[] b = new byte[size];
+		random.nextBytes(b);
+		return b;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] b = new byte[8192];
+		int n;
+		while ((n = in.read(b)) > 0) {
+			out.write(b, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+}